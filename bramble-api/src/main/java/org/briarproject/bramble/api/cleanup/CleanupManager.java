@@ -1,6 +1,7 @@
 package org.briarproject.bramble.api.cleanup;
 
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Transaction;
@@ -8,6 +9,9 @@ import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
+
+import java.util.Collection;
 
 /**
  * The CleanupManager is responsible for tracking the cleanup deadlines of
@@ -21,6 +25,13 @@ import org.briarproject.bramble.api.sync.MessageId;
  * See {@link DatabaseComponent#setCleanupTimerDuration(Transaction, MessageId, long)},
  * {@link DatabaseComponent#startCleanupTimer(Transaction, MessageId)},
  * {@link DatabaseComponent#stopCleanupTimer(Transaction, MessageId)}.
+ * <p>
+ * The CleanupManager also compacts the status rows of acked messages. It
+ * collects the messages from
+ * {@link MessagesAckedEvent MessagesAckedEvents} and compacts them in
+ * batches, so the work is kept out of the transactions that process acks.
+ * <p>
+ * See {@link DatabaseComponent#compactStatuses(Transaction, ContactId, Collection)}.
  */
 @NotNullByDefault
 public interface CleanupManager {
@@ -32,6 +43,13 @@ public interface CleanupManager {
 	 */
 	long BATCH_DELAY_MS = 1000;
 
+	/**
+	 * How many milliseconds to wait after a contact acks messages before
+	 * compacting their status rows, so the acks received in the meantime
+	 * are compacted in the same batch.
+	 */
+	long COMPACTION_DELAY_MS = 60 * 1000;
+
 	/**
 	 * Registers a hook to be called when messages are due for cleanup.
 	 * This method should be called before
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
@@ -18,6 +19,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 
 import java.security.GeneralSecurityException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 @NotNullByDefault
@@ -55,6 +57,9 @@ public interface ClientHelper {
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
+	int countMessages(Transaction txn, GroupId g, BdfDictionary query)
+			throws DbException, FormatException;
+
 	BdfDictionary getMessageMetadataAsDictionary(MessageId m)
 			throws DbException, FormatException;
 
@@ -74,6 +79,10 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -112,6 +121,15 @@ public interface ClientHelper {
 			PublicKey publicKey)
 			throws FormatException, GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, using more than one thread if the
+	 * batch is large enough.
+	 *
+	 * @throws GeneralSecurityException if any of the signatures is invalid
+	 */
+	void verifySignatures(List<SignedData> batch)
+			throws GeneralSecurityException;
+
 	Author parseAndValidateAuthor(BdfList author) throws FormatException;
 
 	PublicKey parseAndValidateAgreementPublicKey(byte[] publicKeyBytes)
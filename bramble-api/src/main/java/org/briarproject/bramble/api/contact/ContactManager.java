@@ -29,6 +29,13 @@ public interface ContactManager {
 	 */
 	void registerContactHook(ContactHook hook);
 
+	/**
+	 * Registers a hook to be called whenever a contact's alias is changed.
+	 * This method should be called before
+	 * {@link LifecycleManager#startServices(SecretKey)}.
+	 */
+	void registerContactAliasHook(ContactAliasHook hook);
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * derives and stores rotation mode transport keys for each transport, and
@@ -237,4 +244,16 @@ public interface ContactManager {
 		 */
 		void removingContact(Transaction txn, Contact c) throws DbException;
 	}
+
+	interface ContactAliasHook {
+
+		/**
+		 * Called when a contact's alias is being changed.
+		 *
+		 * @param txn A read-write transaction
+		 * @param c The contact whose alias is being changed
+		 */
+		void changingContactAlias(Transaction txn, ContactId c)
+				throws DbException;
+	}
 }
@@ -4,6 +4,8 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
@@ -94,6 +96,19 @@ public interface CryptoComponent {
 	boolean verifySignature(byte[] signature, String label, byte[] signed,
 			PublicKey publicKey) throws GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, sharing the work between the calling
+	 * thread and the given executor. The calling thread only waits for
+	 * signatures that other threads have started verifying, so it's safe
+	 * to use an executor that's busy or that's running the caller.
+	 *
+	 * @return An array containing one result for each item in the batch,
+	 * in the same order. A signature that can't be verified is treated as
+	 * invalid.
+	 */
+	boolean[] verifySignatures(List<SignedData> batch, Executor executor)
+			throws InterruptedException;
+
 	/**
 	 * Returns the hash of the given inputs. The inputs are unambiguously
 	 * combined by prefixing each input with its length.
@@ -104,6 +119,19 @@ public interface CryptoComponent {
 	 */
 	byte[] hash(String label, byte[]... inputs);
 
+	/**
+	 * Calculates the hash of the given inputs in the same way as
+	 * {@link #hash(String, byte[]...)}, and writes it to the given buffer
+	 * at the given offset. The buffer must have room for
+	 * {@link CryptoConstants#HASH_BYTES} bytes after the offset.
+	 *
+	 * @param label A namespaced label indicating the purpose of this hash, to
+	 * prevent it from being repurposed or colliding with a hash created for
+	 * another purpose
+	 */
+	void hash(String label, byte[] output, int outputOffset,
+			byte[]... inputs);
+
 	/**
 	 * Returns a message authentication code with the given key over the
 	 * given inputs. The inputs are unambiguously combined by prefixing each
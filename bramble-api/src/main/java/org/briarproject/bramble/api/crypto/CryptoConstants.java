@@ -27,6 +27,11 @@ public interface CryptoConstants {
 	 */
 	int MAX_SIGNATURE_BYTES = 64;
 
+	/**
+	 * The length of a hash in bytes.
+	 */
+	int HASH_BYTES = 32;
+
 	/**
 	 * The length of a MAC in bytes.
 	 */
@@ -10,6 +10,9 @@ public interface StreamDecrypter {
 	/**
 	 * Reads a frame, decrypts its payload into the given buffer and returns
 	 * the payload length, or -1 if no more frames can be read from the stream.
+	 * The buffer must be at least
+	 * {@link org.briarproject.bramble.api.transport.TransportConstants#MAX_LARGE_PAYLOAD_LENGTH}
+	 * bytes long to read streams with large frames.
 	 *
 	 * @throws IOException if an error occurs while reading the frame,
 	 * or if authenticated decryption fails.
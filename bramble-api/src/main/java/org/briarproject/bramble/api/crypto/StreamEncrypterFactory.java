@@ -13,6 +13,14 @@ public interface StreamEncrypterFactory {
 	 */
 	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamEncrypter} for encrypting a transport stream
+	 * with large frames. The stream can only be read by peers that support
+	 * large frames.
+	 */
+	StreamEncrypter createLargeFrameStreamEncrypter(OutputStream out,
+			StreamContext ctx);
+
 	/**
 	 * Creates a {@link StreamEncrypter} for encrypting a contact exchange
 	 * stream.
@@ -11,4 +11,10 @@ public interface BdfReaderFactory {
 
 	BdfReader createReader(InputStream in, int nestedLimit,
 			int maxBufferSize);
+
+	/**
+	 * Returns a reader for the given range of the given array. This is
+	 * cheaper than wrapping the array in an input stream.
+	 */
+	BdfReader createReader(byte[] b, int off, int len);
 }
@@ -0,0 +1,28 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Provides executors for read-only database tasks that relate to a single
+ * contact, such as loading the IDs of messages to send.
+ * <p>
+ * Tasks submitted to the executor for a given contact are run in the order
+ * they're submitted and are not run concurrently with each other. Tasks for
+ * different contacts may run concurrently with each other and with tasks on
+ * the {@link DatabaseExecutor}. Tasks must therefore only use read-only
+ * transactions, and must not assume they're ordered with respect to tasks on
+ * the {@link DatabaseExecutor}. Submitting a task will never block. Tasks
+ * must not run indefinitely. Tasks submitted during shutdown are discarded.
+ */
+@NotNullByDefault
+public interface ContactDatabaseExecutor {
+
+	/**
+	 * Returns the executor for read-only database tasks relating to the given
+	 * contact.
+	 */
+	Executor getExecutor(ContactId c);
+}
@@ -22,6 +22,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
@@ -86,6 +87,21 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	void addIdentity(Transaction txn, Identity i) throws DbException;
 
+	/**
+	 * Registers a message metadata key that should be indexed for the given
+	 * client and major version. Queries that include the key, such as
+	 * {@link #getMessageIds(Transaction, GroupId, Metadata)} and
+	 * {@link #countMessages(Transaction, GroupId, String, long, long)}, can
+	 * then find matching messages without reading the values of other keys.
+	 * This is worth doing for keys that are frequently queried and have small
+	 * values.
+	 * <p/>
+	 * Registering a key that's already indexed has no effect, so clients
+	 * can register their keys each time the database is opened.
+	 */
+	void addIndexedMetadataKey(Transaction txn, ClientId c, int majorVersion,
+			String key) throws DbException;
+
 	/**
 	 * Stores a local message.
 	 */
@@ -118,6 +134,14 @@ public interface DatabaseComponent extends TransactionManager {
 	KeySetId addTransportKeys(Transaction txn, PendingContactId p,
 			TransportKeys k) throws DbException;
 
+	/**
+	 * Compacts the status rows of messages that have been acked by the given
+	 * contact, in the groups of the given messages, which the contact has
+	 * acked since the groups were last compacted.
+	 */
+	void compactStatuses(Transaction txn, ContactId c,
+			Collection<MessageId> acked) throws DbException;
+
 	/**
 	 * Returns true if there are any acks or messages to send to the given
 	 * contact over a transport with the given maximum latency.
@@ -172,6 +196,27 @@ public interface DatabaseComponent extends TransactionManager {
 	boolean containsTransportKeys(Transaction txn, ContactId c, TransportId t)
 			throws DbException;
 
+	/**
+	 * Returns the number of delivered messages in the given group with
+	 * metadata that matches all entries in the given query. If the query is
+	 * empty, the number of delivered messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessages(Transaction txn, GroupId g, Metadata query)
+			throws DbException;
+
+	/**
+	 * Returns the number of delivered messages in the given group with
+	 * metadata that has an integer or boolean value for the given key in the
+	 * given range, inclusive. Boolean values are counted as 0 (false) and
+	 * 1 (true).
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessages(Transaction txn, GroupId g, String key, long min,
+			long max) throws DbException;
+
 	/**
 	 * Deletes the message with the given ID. Unlike
 	 * {@link #removeMessage(Transaction, MessageId)}, the message ID,
@@ -217,11 +262,22 @@ public interface DatabaseComponent extends TransactionManager {
 	/**
 	 * Returns an offer for the given contact for transmission over a
 	 * transport with the given maximum latency, or null if there are no
-	 * messages to offer.
+	 * messages to offer. Messages in the given groups, which are being
+	 * synced by set reconciliation, are not offered.
 	 */
 	@Nullable
 	Offer generateOffer(Transaction txn, ContactId c, int maxMessages,
-			long maxLatency) throws DbException;
+			long maxLatency, Collection<GroupId> excluded) throws DbException;
+
+	/**
+	 * Returns a {@link Ranges} record for each group shared with the given
+	 * contact, containing a fingerprint of all the group's messages, for
+	 * starting set reconciliation with the contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<Ranges> generateRanges(Transaction txn, ContactId c)
+			throws DbException;
 
 	/**
 	 * Returns a request for the given contact, or null if there are no
@@ -344,6 +400,33 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the IDs of any delivered messages in the given group with
+	 * metadata that has an integer or boolean value for the given key in the
+	 * given range, inclusive. Boolean values are treated as 0 (false) and
+	 * 1 (true).
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
+			String key, long min, long max) throws DbException;
+
+	/**
+	 * Returns the IDs and timestamps of up to the given number of delivered,
+	 * undeleted messages in the given group that come before the given
+	 * cursor, newest first. Messages are ordered by timestamp and then by
+	 * message ID, so the caller can retrieve the next page by passing the
+	 * timestamp and ID of the last message returned. If the cursor's message
+	 * ID is null, all messages with the cursor's timestamp are excluded.
+	 * <p/>
+	 * The returned map iterates in order, newest first.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageIdsBefore(Transaction txn, GroupId g,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of any messages that need to be validated.
 	 * <p/>
@@ -405,6 +488,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Metadata getMessageMetadata(Transaction txn, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -460,6 +552,15 @@ public interface DatabaseComponent extends TransactionManager {
 	MessageStatus getMessageStatus(Transaction txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of the given delivered messages with respect to the
+	 * given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(Transaction txn,
+			ContactId c, Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact, together with their raw lengths. This may include
@@ -523,6 +624,14 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Settings getSettings(Transaction txn, String namespace) throws DbException;
 
+	/**
+	 * Returns the capabilities supported by the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Byte> getSyncCapabilities(Transaction txn, ContactId c)
+			throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
@@ -591,6 +700,20 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	void receiveOffer(Transaction txn, ContactId c, Offer o) throws DbException;
 
+	/**
+	 * Processes a ranges record from the given contact and returns the
+	 * ranges that should be sent to the contact in reply, or null if no reply
+	 * is needed.
+	 * <p/>
+	 * Messages that both peers have are treated as seen by the contact,
+	 * messages that only the contact has are treated as offered by the
+	 * contact, and messages that only this peer has are treated as requested
+	 * by the contact.
+	 */
+	@Nullable
+	Ranges receiveRanges(Transaction txn, ContactId c, Ranges r)
+			throws DbException;
+
 	/**
 	 * Processes a request from the given contact.
 	 */
@@ -706,10 +829,11 @@ public interface DatabaseComponent extends TransactionManager {
 			long timePeriod, long base, byte[] bitmap) throws DbException;
 
 	/**
-	 * Sets the versions of the sync protocol supported by the given contact.
+	 * Sets the versions of the sync protocol and the capabilities supported
+	 * by the given contact.
 	 */
-	void setSyncVersions(Transaction txn, ContactId c, List<Byte> supported)
-			throws DbException;
+	void setSyncVersions(Transaction txn, ContactId c, List<Byte> supported,
+			List<Byte> capabilities) throws DbException;
 
 	/**
 	 * Marks the given transport keys as usable for outgoing streams.
@@ -0,0 +1,22 @@
+package org.briarproject.bramble.api.event;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+/**
+ * An interface for receiving notifications of events in batches.
+ *
+ * @see EventBus#addBatchListener(BatchEventListener,
+ * org.briarproject.bramble.api.Predicate, java.util.concurrent.Executor)
+ */
+@NotNullByDefault
+public interface BatchEventListener {
+
+	/**
+	 * Called with one or more events, in the order they were broadcast.
+	 * Calls for the same listener do not overlap. Implementations of this
+	 * method must not block.
+	 */
+	void eventsOccurred(List<Event> events);
+}
@@ -1,7 +1,10 @@
 package org.briarproject.bramble.api.event;
 
+import org.briarproject.bramble.api.Predicate;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.concurrent.Executor;
+
 @NotNullByDefault
 public interface EventBus {
 
@@ -10,16 +13,58 @@ public interface EventBus {
 	 */
 	void addListener(EventListener l);
 
+	/**
+	 * Adds a listener to be notified when events matching the given filter
+	 * occur. The filter is called on the thread that broadcasts the event
+	 * and must not block. Events that don't match any listener's filter are
+	 * not queued for the {@link EventExecutor}.
+	 */
+	void addListener(EventListener l, Predicate<Event> filter);
+
 	/**
 	 * Removes a listener.
 	 */
 	void removeListener(EventListener l);
 
+	/**
+	 * Adds a listener to be notified in batches when events matching the
+	 * given filter occur. The listener is notified on the given executor
+	 * rather than the {@link EventExecutor}, so a slow listener doesn't delay
+	 * other listeners. Any events broadcast while the listener is waiting to
+	 * be notified or is being notified are delivered in the next batch.
+	 * <p>
+	 * The filter is called on the thread that broadcasts the event and must
+	 * not block.
+	 */
+	void addBatchListener(BatchEventListener l, Predicate<Event> filter,
+			Executor executor);
+
+	/**
+	 * Removes a batch listener. The listener may still be notified of events
+	 * that were broadcast before it was removed.
+	 */
+	void removeBatchListener(BatchEventListener l);
+
 	/**
 	 * Asynchronously notifies all listeners of an event. Listeners are
-	 * notified on the {@link EventExecutor}.
+	 * notified on the {@link EventExecutor}, except for batch listeners,
+	 * which are notified on their own executors.
 	 * <p>
 	 * This method can safely be called while holding a lock.
 	 */
 	void broadcast(Event e);
+
+	/**
+	 * Returns the number of events that have been broadcast but not yet
+	 * delivered, counting each event once per listener queue it's waiting
+	 * in: once for the {@link EventExecutor} and once for each batch
+	 * listener.
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the highest value {@link #getQueueDepth()} has reached since
+	 * the event bus was created.
+	 */
+	int getMaxQueueDepth();
 }
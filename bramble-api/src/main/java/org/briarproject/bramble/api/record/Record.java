@@ -12,14 +12,38 @@ public class Record {
 	public static final int MAX_RECORD_PAYLOAD_BYTES = 48 * 1024; // 48 KiB
 
 	private final byte protocolVersion, recordType;
-	private final byte[] payload;
+	private final byte[] buffer;
+	private final int payloadOffset, payloadLength;
+	// True if the payload is a region of a buffer that may be reused
+	private final boolean region;
 
 	public Record(byte protocolVersion, byte recordType, byte[] payload) {
-		if (payload.length > MAX_RECORD_PAYLOAD_BYTES)
+		this(protocolVersion, recordType, payload, 0, payload.length, false);
+	}
+
+	/**
+	 * Creates a record whose payload is a region of the given buffer. The
+	 * buffer is not copied.
+	 */
+	public Record(byte protocolVersion, byte recordType, byte[] buffer,
+			int payloadOffset, int payloadLength) {
+		this(protocolVersion, recordType, buffer, payloadOffset, payloadLength,
+				true);
+	}
+
+	private Record(byte protocolVersion, byte recordType, byte[] buffer,
+			int payloadOffset, int payloadLength, boolean region) {
+		if (payloadLength > MAX_RECORD_PAYLOAD_BYTES)
+			throw new IllegalArgumentException();
+		if (payloadOffset < 0 || payloadLength < 0 ||
+				payloadOffset + payloadLength > buffer.length)
 			throw new IllegalArgumentException();
 		this.protocolVersion = protocolVersion;
 		this.recordType = recordType;
-		this.payload = payload;
+		this.buffer = buffer;
+		this.payloadOffset = payloadOffset;
+		this.payloadLength = payloadLength;
+		this.region = region;
 	}
 
 	public byte getProtocolVersion() {
@@ -30,7 +54,33 @@ public class Record {
 		return recordType;
 	}
 
+	/**
+	 * Returns the payload. If the record was created over a region of a
+	 * buffer, the region is copied, even if it covers the whole buffer.
+	 */
 	public byte[] getPayload() {
+		if (!region) return buffer;
+		byte[] payload = new byte[payloadLength];
+		System.arraycopy(buffer, payloadOffset, payload, 0, payloadLength);
 		return payload;
 	}
+
+	/**
+	 * Returns the buffer containing the payload, which may be larger than
+	 * the payload.
+	 *
+	 * @see #getPayloadOffset()
+	 * @see #getPayloadLength()
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
 }
@@ -35,5 +35,16 @@ public interface RecordReader {
 	Record readRecord(Predicate<Record> accept, Predicate<Record> ignore)
 			throws IOException;
 
+	/**
+	 * Like {@link #readRecord(Predicate, Predicate)}, except that the payload
+	 * of the returned record is a region of a buffer that's reused for every
+	 * record read by this method. The payload is only valid until the next
+	 * call to this method, so the caller must copy any parts of the payload
+	 * it wants to keep.
+	 */
+	@Nullable
+	Record readBufferedRecord(Predicate<Record> accept,
+			Predicate<Record> ignore) throws IOException;
+
 	void close() throws IOException;
 }
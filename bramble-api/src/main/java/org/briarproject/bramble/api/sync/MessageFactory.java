@@ -9,5 +9,12 @@ public interface MessageFactory {
 
 	Message createMessage(byte[] raw);
 
+	/**
+	 * Creates a message from a raw message that's a region of the given
+	 * buffer. The message body is copied from the buffer, so the buffer can
+	 * be reused after this method returns.
+	 */
+	Message createMessage(byte[] buf, int off, int len);
+
 	byte[] getRawMessage(Message m);
 }
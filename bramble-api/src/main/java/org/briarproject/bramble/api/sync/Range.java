@@ -0,0 +1,133 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * A range of timestamps within a group, used for set reconciliation. The
+ * range includes messages with timestamps greater than or equal to the lower
+ * bound and less than the upper bound.
+ * <p>
+ * A range carries either a fingerprint of the sender's messages in the
+ * range, a list of the sender's messages in the range, or neither, meaning
+ * the sender has found that both peers have the same messages in the range.
+ */
+@Immutable
+@NotNullByDefault
+public class Range {
+
+	/**
+	 * The range carries a fingerprint of the sender's messages in the range.
+	 */
+	public static final byte FINGERPRINT = 0;
+
+	/**
+	 * The sender has found that both peers have the same messages in the
+	 * range.
+	 */
+	public static final byte MATCHED = 1;
+
+	/**
+	 * The range carries the IDs of the sender's messages in the range.
+	 */
+	public static final byte ID_LIST = 2;
+
+	/**
+	 * The length of a fingerprint in bytes.
+	 */
+	public static final int FINGERPRINT_LENGTH = MessageId.LENGTH;
+
+	private final byte type;
+	private final long lower, upper;
+	private final int count;
+	@Nullable
+	private final byte[] fingerprint;
+	private final List<MessageId> ids;
+
+	/**
+	 * Creates a {@link #FINGERPRINT} range. The fingerprint is the XOR of
+	 * the IDs of the messages in the range.
+	 */
+	public Range(long lower, long upper, int count, byte[] fingerprint) {
+		this(FINGERPRINT, lower, upper, count, fingerprint, emptyList());
+	}
+
+	/**
+	 * Creates a {@link #MATCHED} range.
+	 */
+	public Range(long lower, long upper) {
+		this(MATCHED, lower, upper, 0, null, emptyList());
+	}
+
+	/**
+	 * Creates an {@link #ID_LIST} range.
+	 */
+	public Range(long lower, long upper, List<MessageId> ids) {
+		this(ID_LIST, lower, upper, ids.size(), null, ids);
+	}
+
+	private Range(byte type, long lower, long upper, int count,
+			@Nullable byte[] fingerprint, List<MessageId> ids) {
+		if (lower < 0 || upper <= lower) throw new IllegalArgumentException();
+		if (fingerprint != null && fingerprint.length != FINGERPRINT_LENGTH)
+			throw new IllegalArgumentException();
+		this.type = type;
+		this.lower = lower;
+		this.upper = upper;
+		this.count = count;
+		this.fingerprint = fingerprint;
+		this.ids = ids;
+	}
+
+	/**
+	 * Returns {@link #FINGERPRINT}, {@link #MATCHED} or {@link #ID_LIST}.
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the lower bound of the range, inclusive.
+	 */
+	public long getLower() {
+		return lower;
+	}
+
+	/**
+	 * Returns the upper bound of the range, exclusive.
+	 */
+	public long getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Returns the number of messages the sender has in the range, or zero
+	 * if this is a {@link #MATCHED} range.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the fingerprint of the range, or null if this is not a
+	 * {@link #FINGERPRINT} range.
+	 */
+	@Nullable
+	public byte[] getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the IDs of the sender's messages in the range, which are empty
+	 * unless this is an {@link #ID_LIST} range.
+	 */
+	public List<MessageId> getMessageIds() {
+		return ids;
+	}
+}
@@ -0,0 +1,33 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A record containing one or more {@link Range Ranges} of a group's
+ * messages, used for reconciling the sets of messages the peers have in the
+ * group.
+ */
+@Immutable
+@NotNullByDefault
+public class Ranges {
+
+	private final GroupId groupId;
+	private final List<Range> ranges;
+
+	public Ranges(GroupId groupId, List<Range> ranges) {
+		this.groupId = groupId;
+		this.ranges = ranges;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+
+	public List<Range> getRanges() {
+		return ranges;
+	}
+}
@@ -11,4 +11,5 @@ public interface RecordTypes {
 	byte REQUEST = 3;
 	byte VERSIONS = 4;
 	byte PRIORITY = 5;
+	byte RANGES = 6;
 }
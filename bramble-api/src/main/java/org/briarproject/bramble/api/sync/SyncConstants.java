@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.UniqueId;
 
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
@@ -20,6 +21,33 @@ public interface SyncConstants {
 	 */
 	List<Byte> SUPPORTED_VERSIONS = singletonList(PROTOCOL_VERSION);
 
+	/**
+	 * The lowest value of a capability flag. Capability flags are sent in
+	 * the same record as the supported versions of the sync protocol, so
+	 * that peers which don't recognise them ignore them like any other
+	 * unsupported version. Values from this one upwards, treated as
+	 * unsigned, are never used as protocol versions.
+	 */
+	int MIN_CAPABILITY = 126;
+
+	/**
+	 * A capability flag showing that the peer can read transport streams
+	 * with large frames.
+	 */
+	byte CAPABILITY_LARGE_FRAMES = 127;
+
+	/**
+	 * A capability flag showing that the peer can reconcile its set of
+	 * messages with ours using {@link Ranges} records.
+	 */
+	byte CAPABILITY_RECONCILIATION = 126;
+
+	/**
+	 * The capabilities this peer supports.
+	 */
+	List<Byte> SUPPORTED_CAPABILITIES =
+			asList(CAPABILITY_LARGE_FRAMES, CAPABILITY_RECONCILIATION);
+
 	/**
 	 * The maximum length of a group descriptor in bytes.
 	 */
@@ -45,9 +73,42 @@ public interface SyncConstants {
 	 */
 	int MAX_MESSAGE_IDS = MAX_RECORD_PAYLOAD_BYTES / UniqueId.LENGTH;
 
+	/**
+	 * The maximum number of ranges into which a range of messages is split
+	 * when the peers' fingerprints for the range don't match.
+	 */
+	int MAX_RANGES = 16;
+
+	/**
+	 * The maximum number of messages in a range for which message IDs are
+	 * sent instead of splitting the range.
+	 */
+	int MAX_RANGE_IDS = 64;
+
+	/**
+	 * The maximum number of message IDs that fit in a {@link Ranges} record
+	 * as a single {@link Range#ID_LIST} range. Ranges that can't be split
+	 * because their messages all have the same timestamp are sent as lists
+	 * of IDs if they have no more than this many messages.
+	 */
+	int MAX_UNSPLITTABLE_RANGE_IDS = (MAX_RECORD_PAYLOAD_BYTES
+			- UniqueId.LENGTH - 1 - 2 * 8 - 2) / UniqueId.LENGTH;
+
+	/**
+	 * The maximum number of batches of messages a duplex session may
+	 * generate before they're written.
+	 */
+	int MAX_QUEUED_BATCHES = 8;
+
+	/**
+	 * The maximum total length in bytes of the batches of messages a duplex
+	 * session may generate before they're written.
+	 */
+	long MAX_QUEUED_BATCH_BYTES = 256 * 1024; // 256 KiB
+
 	/**
 	 * The maximum number of versions of the sync protocol a peer may support
-	 * simultaneously.
+	 * simultaneously, including any capability flags.
 	 */
 	int MAX_SUPPORTED_VERSIONS = 10;
 
@@ -32,4 +32,8 @@ public interface SyncRecordReader {
 	boolean hasPriority() throws IOException;
 
 	Priority readPriority() throws IOException;
+
+	boolean hasRanges() throws IOException;
+
+	Ranges readRanges() throws IOException;
 }
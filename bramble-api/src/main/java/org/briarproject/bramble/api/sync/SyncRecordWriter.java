@@ -19,5 +19,11 @@ public interface SyncRecordWriter {
 
 	void writePriority(Priority p) throws IOException;
 
+	/**
+	 * Writes the given ranges, using more than one record if they don't fit
+	 * in a single record.
+	 */
+	void writeRanges(Ranges r) throws IOException;
+
 	void flush() throws IOException;
 }
@@ -12,13 +12,29 @@ import javax.annotation.Nullable;
 @NotNullByDefault
 public interface SyncSessionFactory {
 
+	/**
+	 * Creates an incoming session.
+	 *
+	 * @param connection An object identifying the duplex connection that the
+	 * session belongs to, which is also passed to
+	 * {@link #createDuplexOutgoingSession}, so any {@link Ranges} records
+	 * sent in reply to records received by this session are sent on the same
+	 * connection. Null if the session doesn't belong to a duplex connection.
+	 */
 	SyncSession createIncomingSession(ContactId c, InputStream in,
-			PriorityHandler handler);
+			PriorityHandler handler, @Nullable Object connection);
 
 	SyncSession createSimplexOutgoingSession(ContactId c, TransportId t,
 			long maxLatency, boolean eager, StreamWriter streamWriter);
 
+	/**
+	 * Creates a duplex outgoing session.
+	 *
+	 * @param connection An object identifying the duplex connection that the
+	 * session belongs to, which is also passed to
+	 * {@link #createIncomingSession}.
+	 */
 	SyncSession createDuplexOutgoingSession(ContactId c, TransportId t,
 			long maxLatency, int maxIdleTime, StreamWriter streamWriter,
-			@Nullable Priority priority);
+			@Nullable Priority priority, Object connection);
 }
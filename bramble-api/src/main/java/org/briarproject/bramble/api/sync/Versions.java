@@ -8,19 +8,27 @@ import javax.annotation.concurrent.Immutable;
 
 /**
  * A record telling the recipient which versions of the sync protocol the
- * sender supports.
+ * sender supports, and which optional capabilities. Capability flags are
+ * encoded in the same record as the versions, using values from
+ * {@link SyncConstants#MIN_CAPABILITY} upwards, but they're not versions and
+ * are never returned by {@link #getSupportedVersions()}.
  */
 @Immutable
 @NotNullByDefault
 public class Versions {
 
-	private final List<Byte> supported;
+	private final List<Byte> supported, capabilities;
 
-	public Versions(List<Byte> supported) {
+	public Versions(List<Byte> supported, List<Byte> capabilities) {
 		this.supported = supported;
+		this.capabilities = capabilities;
 	}
 
 	public List<Byte> getSupportedVersions() {
 		return supported;
 	}
+
+	public List<Byte> getCapabilities() {
+		return capabilities;
+	}
 }
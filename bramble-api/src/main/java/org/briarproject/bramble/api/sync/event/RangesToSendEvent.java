@@ -0,0 +1,45 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.Ranges;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a {@link Ranges} record should be sent to
+ * a contact over the duplex connection on which the contact's previous
+ * {@link Ranges} record was received.
+ */
+@Immutable
+@NotNullByDefault
+public class RangesToSendEvent extends Event {
+
+	private final ContactId contactId;
+	private final Object connection;
+	private final Ranges ranges;
+
+	public RangesToSendEvent(ContactId contactId, Object connection,
+			Ranges ranges) {
+		this.contactId = contactId;
+		this.connection = connection;
+		this.ranges = ranges;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns the object identifying the connection on which the record
+	 * should be sent.
+	 */
+	public Object getConnection() {
+		return connection;
+	}
+
+	public Ranges getRanges() {
+		return ranges;
+	}
+}
@@ -0,0 +1,46 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Ranges;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a {@link Ranges} record received from a
+ * contact over a duplex connection doesn't need a reply, so there's nothing
+ * more to send for the group's set reconciliation on that connection.
+ */
+@Immutable
+@NotNullByDefault
+public class ReconciliationFinishedEvent extends Event {
+
+	private final ContactId contactId;
+	private final Object connection;
+	private final GroupId groupId;
+
+	public ReconciliationFinishedEvent(ContactId contactId, Object connection,
+			GroupId groupId) {
+		this.contactId = contactId;
+		this.connection = connection;
+		this.groupId = groupId;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns the object identifying the connection on which the record
+	 * was received.
+	 */
+	public Object getConnection() {
+		return connection;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+}
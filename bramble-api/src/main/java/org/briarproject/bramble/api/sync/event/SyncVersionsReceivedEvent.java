@@ -0,0 +1,53 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when the versions of the sync protocol and the
+ * capabilities supported by a contact are received over a duplex connection.
+ * Contacts that send their versions send them before any other record, so if
+ * the first record received over the connection isn't a versions record, the
+ * event is broadcast with empty lists.
+ */
+@Immutable
+@NotNullByDefault
+public class SyncVersionsReceivedEvent extends Event {
+
+	private final ContactId contactId;
+	private final Object connection;
+	private final List<Byte> supported, capabilities;
+
+	public SyncVersionsReceivedEvent(ContactId contactId, Object connection,
+			List<Byte> supported, List<Byte> capabilities) {
+		this.contactId = contactId;
+		this.connection = connection;
+		this.supported = supported;
+		this.capabilities = capabilities;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns the object identifying the connection over which the versions
+	 * were received.
+	 */
+	public Object getConnection() {
+		return connection;
+	}
+
+	public List<Byte> getSupportedVersions() {
+		return supported;
+	}
+
+	public List<Byte> getCapabilities() {
+		return capabilities;
+	}
+}
@@ -9,19 +9,21 @@ import java.util.List;
 import javax.annotation.concurrent.Immutable;
 
 /**
- * An event that is broadcast when the versions of the sync protocol supported
- * by a contact are updated.
+ * An event that is broadcast when the versions of the sync protocol and the
+ * capabilities supported by a contact are updated.
  */
 @Immutable
 @NotNullByDefault
 public class SyncVersionsUpdatedEvent extends Event {
 
 	private final ContactId contactId;
-	private final List<Byte> supported;
+	private final List<Byte> supported, capabilities;
 
-	public SyncVersionsUpdatedEvent(ContactId contactId, List<Byte> supported) {
+	public SyncVersionsUpdatedEvent(ContactId contactId, List<Byte> supported,
+			List<Byte> capabilities) {
 		this.contactId = contactId;
 		this.supported = supported;
+		this.capabilities = capabilities;
 	}
 
 	public ContactId getContactId() {
@@ -31,4 +33,8 @@ public class SyncVersionsUpdatedEvent extends Event {
 	public List<Byte> getSupportedVersions() {
 		return supported;
 	}
+
+	public List<Byte> getCapabilities() {
+		return capabilities;
+	}
 }
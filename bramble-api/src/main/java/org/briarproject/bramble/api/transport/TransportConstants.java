@@ -63,6 +63,28 @@ public interface TransportConstants {
 	int MAX_PAYLOAD_LENGTH = MAX_FRAME_LENGTH - FRAME_HEADER_LENGTH
 			- MAC_LENGTH;
 
+	/**
+	 * The version of the transport protocol that's written in the stream
+	 * header of a stream with large frames. The stream's tag is encoded with
+	 * {@link #PROTOCOL_VERSION}, so the stream is recognised as usual, but
+	 * peers that don't support large frames will reject the stream header.
+	 */
+	int LARGE_FRAME_PROTOCOL_VERSION = 5;
+
+	/**
+	 * The maximum length of an encrypted and authenticated large frame in
+	 * bytes, including the header. The payload length must fit in the 15 bits
+	 * available in the frame header.
+	 */
+	int MAX_LARGE_FRAME_LENGTH = 16 * 1024; // 16 KiB
+
+	/**
+	 * The maximum total length of the payload and padding of a large frame in
+	 * bytes.
+	 */
+	int MAX_LARGE_PAYLOAD_LENGTH = MAX_LARGE_FRAME_LENGTH - FRAME_HEADER_LENGTH
+			- MAC_LENGTH;
+
 	/**
 	 * The maximum difference in milliseconds between two peers' clocks.
 	 */
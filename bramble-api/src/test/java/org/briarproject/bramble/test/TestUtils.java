@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.lang.management.ManagementFactory.getThreadMXBean;
 import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.crypto.CryptoConstants.MAX_AGREEMENT_PUBLIC_KEY_BYTES;
 import static org.briarproject.bramble.api.crypto.CryptoConstants.MAX_SIGNATURE_PUBLIC_KEY_BYTES;
@@ -243,6 +244,19 @@ public class TestUtils {
 		return Math.sqrt(getVariance(samples));
 	}
 
+	/**
+	 * Returns the total number of bytes the calling thread has allocated.
+	 * Performance tests can compare the value before and after running
+	 * some code. Requires a JVM that supports
+	 * com.sun.management.ThreadMXBean.
+	 */
+	public static long getThreadAllocatedBytes() {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) getThreadMXBean();
+		return threads.getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+	}
+
 	public static boolean isOptionalTestEnabled(Class testClass) {
 		String optionalTests = System.getenv("OPTIONAL_TESTS");
 		return optionalTests != null &&
@@ -0,0 +1,76 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A histogram of durations in milliseconds. Each bucket counts the durations
+ * between two consecutive powers of two, so the histogram can be updated
+ * cheaply from hot paths and compared across runs.
+ */
+@ThreadSafe
+@NotNullByDefault
+public class DurationHistogram {
+
+	/**
+	 * The number of buckets. The first bucket counts durations of zero
+	 * milliseconds and the last bucket counts durations of 2^(BUCKETS - 2)
+	 * milliseconds or more.
+	 */
+	static final int BUCKETS = 18;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	public DurationHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a duration in milliseconds.
+	 */
+	public void record(long duration) {
+		counts.incrementAndGet(getBucket(duration));
+	}
+
+	/**
+	 * Returns the number of durations recorded in the given bucket.
+	 */
+	public long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * Returns the total number of durations recorded.
+	 */
+	public long getTotalCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+		return total;
+	}
+
+	static int getBucket(long duration) {
+		if (duration <= 0) return 0;
+		int bucket = 64 - Long.numberOfLeadingZeros(duration);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder(name);
+		s.append(':');
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = counts.get(i);
+			if (count == 0) continue;
+			s.append(' ');
+			if (i == 0) s.append("0");
+			else if (i == BUCKETS - 1) s.append(">=").append(1L << (i - 1));
+			else s.append(1L << (i - 1)).append('-').append((1L << i) - 1);
+			s.append(" ms: ").append(count);
+		}
+		return s.toString();
+	}
+}
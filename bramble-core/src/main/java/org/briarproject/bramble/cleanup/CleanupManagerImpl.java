@@ -3,9 +3,12 @@ package org.briarproject.bramble.cleanup;
 import org.briarproject.bramble.api.cleanup.CleanupHook;
 import org.briarproject.bramble.api.cleanup.CleanupManager;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventListener;
@@ -15,11 +18,13 @@ import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.TaskScheduler;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -58,6 +63,15 @@ class CleanupManagerImpl implements CleanupManager, Service, EventListener {
 	@GuardedBy("lock")
 	private final Set<CleanupTask> pending = new HashSet<>();
 
+	/**
+	 * Messages acked by each contact whose status rows haven't yet been
+	 * compacted. A compaction task is scheduled whenever this goes from
+	 * empty to non-empty.
+	 */
+	@GuardedBy("lock")
+	private final Map<ContactId, Collection<MessageId>> acked =
+			new HashMap<>();
+
 	@Inject
 	CleanupManagerImpl(@DatabaseExecutor Executor dbExecutor,
 			DatabaseComponent db, TaskScheduler taskScheduler, Clock clock) {
@@ -87,6 +101,51 @@ class CleanupManagerImpl implements CleanupManager, Service, EventListener {
 		if (e instanceof CleanupTimerStartedEvent) {
 			CleanupTimerStartedEvent a = (CleanupTimerStartedEvent) e;
 			maybeScheduleTask(a.getCleanupDeadline());
+		} else if (e instanceof MessagesAckedEvent) {
+			MessagesAckedEvent m = (MessagesAckedEvent) e;
+			addAckedMessages(m.getContactId(), m.getMessageIds());
+		} else if (e instanceof ContactRemovedEvent) {
+			ContactRemovedEvent c = (ContactRemovedEvent) e;
+			synchronized (lock) {
+				acked.remove(c.getContactId());
+			}
+		}
+	}
+
+	private void addAckedMessages(ContactId c, Collection<MessageId> ids) {
+		synchronized (lock) {
+			boolean schedule = acked.isEmpty();
+			Collection<MessageId> forContact = acked.get(c);
+			if (forContact == null) {
+				forContact = new HashSet<>();
+				acked.put(c, forContact);
+			}
+			forContact.addAll(ids);
+			if (schedule) {
+				taskScheduler.schedule(this::compactStatuses, dbExecutor,
+						COMPACTION_DELAY_MS, MILLISECONDS);
+			}
+		}
+	}
+
+	private void compactStatuses() {
+		Map<ContactId, Collection<MessageId>> batch;
+		synchronized (lock) {
+			batch = new HashMap<>(acked);
+			acked.clear();
+		}
+		// Use a separate transaction for each contact to avoid holding the
+		// write lock for long
+		for (Entry<ContactId, Collection<MessageId>> entry : batch.entrySet()) {
+			ContactId c = entry.getKey();
+			Collection<MessageId> ids = entry.getValue();
+			try {
+				db.transaction(false, txn -> db.compactStatuses(txn, c, ids));
+			} catch (NoSuchContactException e) {
+				// The contact was removed after acking the messages
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+			}
 		}
 	}
 
@@ -1,12 +1,15 @@
 package org.briarproject.bramble.client;
 
+import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.KeyParser;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -30,16 +33,19 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.client.ContactGroupConstants.GROUP_KEY_CONTACT_ID;
@@ -51,7 +57,7 @@ import static org.briarproject.bramble.api.properties.TransportPropertyConstants
 import static org.briarproject.bramble.util.ValidationUtils.checkLength;
 import static org.briarproject.bramble.util.ValidationUtils.checkSize;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class ClientHelperImpl implements ClientHelper {
 
@@ -61,6 +67,11 @@ class ClientHelperImpl implements ClientHelper {
 	 */
 	private static final int SALT_LENGTH = 32;
 
+	/**
+	 * The maximum number of parsed authors to cache.
+	 */
+	private static final int MAX_CACHED_AUTHORS = 1000;
+
 	private final DatabaseComponent db;
 	private final MessageFactory messageFactory;
 	private final BdfReaderFactory bdfReaderFactory;
@@ -69,13 +80,32 @@ class ClientHelperImpl implements ClientHelper {
 	private final MetadataEncoder metadataEncoder;
 	private final CryptoComponent crypto;
 	private final AuthorFactory authorFactory;
+	private final Executor cryptoExecutor;
+
+	private final Object lock = new Object();
+
+	/**
+	 * Recently parsed authors, keyed by public key. Parsing an author parses
+	 * the public key and hashes the author ID, and the same authors appear in
+	 * the metadata of many messages.
+	 */
+	@GuardedBy("lock")
+	private final Map<Bytes, Author> authors =
+			new LinkedHashMap<Bytes, Author>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Entry<Bytes, Author> eldest) {
+					return size() > MAX_CACHED_AUTHORS;
+				}
+			};
 
 	@Inject
 	ClientHelperImpl(DatabaseComponent db, MessageFactory messageFactory,
 			BdfReaderFactory bdfReaderFactory,
 			BdfWriterFactory bdfWriterFactory, MetadataParser metadataParser,
 			MetadataEncoder metadataEncoder, CryptoComponent crypto,
-			AuthorFactory authorFactory) {
+			AuthorFactory authorFactory,
+			@CryptoExecutor Executor cryptoExecutor) {
 		this.db = db;
 		this.messageFactory = messageFactory;
 		this.bdfReaderFactory = bdfReaderFactory;
@@ -84,6 +114,7 @@ class ClientHelperImpl implements ClientHelper {
 		this.metadataEncoder = metadataEncoder;
 		this.crypto = crypto;
 		this.authorFactory = authorFactory;
+		this.cryptoExecutor = cryptoExecutor;
 	}
 
 	@Override
@@ -161,6 +192,12 @@ class ClientHelperImpl implements ClientHelper {
 		return db.getMessageIds(txn, g, metadataEncoder.encode(query));
 	}
 
+	@Override
+	public int countMessages(Transaction txn, GroupId g, BdfDictionary query)
+			throws DbException, FormatException {
+		return db.countMessages(txn, g, metadataEncoder.encode(query));
+	}
+
 	@Override
 	public BdfDictionary getMessageMetadataAsDictionary(MessageId m)
 			throws DbException, FormatException {
@@ -212,6 +249,17 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, ids);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -267,8 +315,7 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfDictionary toDictionary(byte[] b, int off, int len)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfDictionary dictionary = reader.readDictionary();
 			if (!reader.eof()) throw new FormatException();
@@ -296,8 +343,7 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(byte[] b, int off, int len) throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfList list = reader.readList();
 			if (!reader.eof()) throw new FormatException();
@@ -340,6 +386,21 @@ class ClientHelperImpl implements ClientHelper {
 		}
 	}
 
+	@Override
+	public void verifySignatures(List<SignedData> batch)
+			throws GeneralSecurityException {
+		boolean[] valid;
+		try {
+			valid = crypto.verifySignatures(batch, cryptoExecutor);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GeneralSecurityException(e);
+		}
+		for (boolean v : valid) {
+			if (!v) throw new GeneralSecurityException("Invalid signature");
+		}
+	}
+
 	@Override
 	public Author parseAndValidateAuthor(BdfList author)
 			throws FormatException {
@@ -350,6 +411,12 @@ class ClientHelperImpl implements ClientHelper {
 		checkLength(name, 1, MAX_AUTHOR_NAME_LENGTH);
 		byte[] publicKeyBytes = author.getRaw(2);
 		checkLength(publicKeyBytes, 1, MAX_PUBLIC_KEY_LENGTH);
+		Bytes key = new Bytes(publicKeyBytes);
+		synchronized (lock) {
+			Author cached = authors.get(key);
+			// The same public key may be used with more than one name
+			if (cached != null && cached.getName().equals(name)) return cached;
+		}
 		KeyParser parser = crypto.getSignatureKeyParser();
 		PublicKey publicKey;
 		try {
@@ -357,7 +424,12 @@ class ClientHelperImpl implements ClientHelper {
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
 		}
-		return authorFactory.createAuthor(formatVersion, name, publicKey);
+		Author parsed =
+				authorFactory.createAuthor(formatVersion, name, publicKey);
+		synchronized (lock) {
+			authors.put(key, parsed);
+		}
+		return parsed;
 	}
 
 	@Override
@@ -3,6 +3,8 @@ package org.briarproject.bramble.client;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
 
+import javax.inject.Singleton;
+
 import dagger.Module;
 import dagger.Provides;
 
@@ -10,6 +12,7 @@ import dagger.Provides;
 public class ClientModule {
 
 	@Provides
+	@Singleton
 	ClientHelper provideClientHelper(ClientHelperImpl clientHelper) {
 		return clientHelper;
 	}
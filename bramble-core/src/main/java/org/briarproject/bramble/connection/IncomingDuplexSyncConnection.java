@@ -71,7 +71,7 @@ class IncomingDuplexSyncConnection extends DuplexSyncConnection
 			PriorityHandler handler = p -> connectionRegistry.setPriority(
 					contactId, transportId, this, p);
 			// Create and run the incoming session
-			createIncomingSession(ctx, reader, handler).run();
+			createIncomingSession(ctx, reader, handler, this).run();
 			reader.dispose(false, true);
 			interruptOutgoingSession();
 			connectionRegistry.unregisterConnection(contactId, transportId,
@@ -64,7 +64,7 @@ class IncomingSimplexSyncConnection extends SyncConnection implements Runnable {
 			PriorityHandler handler = p ->
 					LOG.info("Ignoring priority for simplex connection");
 			// Create and run the incoming session
-			createIncomingSession(ctx, reader, handler).run();
+			createIncomingSession(ctx, reader, handler, null).run();
 			reader.dispose(false, true);
 		} catch (IOException e) {
 			logException(LOG, WARNING, e);
@@ -114,7 +114,7 @@ class OutgoingDuplexSyncConnection extends DuplexSyncConnection
 			PriorityHandler handler = p ->
 					LOG.info("Ignoring priority for outgoing connection");
 			// Create and run the incoming session
-			createIncomingSession(ctx, reader, handler).run();
+			createIncomingSession(ctx, reader, handler, this).run();
 			reader.dispose(false, true);
 			interruptOutgoingSession();
 			connectionRegistry.unregisterConnection(contactId, transportId,
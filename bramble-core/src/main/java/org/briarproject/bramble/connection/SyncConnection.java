@@ -53,12 +53,12 @@ class SyncConnection extends Connection {
 	}
 
 	SyncSession createIncomingSession(StreamContext ctx,
-			TransportConnectionReader r, PriorityHandler handler)
-			throws IOException {
+			TransportConnectionReader r, PriorityHandler handler,
+			@Nullable Object connection) throws IOException {
 		InputStream streamReader = streamReaderFactory.createStreamReader(
 				r.getInputStream(), ctx);
 		ContactId c = requireNonNull(ctx.getContactId());
-		return syncSessionFactory
-				.createIncomingSession(c, streamReader, handler);
+		return syncSessionFactory.createIncomingSession(c, streamReader,
+				handler, connection);
 	}
 }
@@ -50,6 +50,8 @@ class ContactManagerImpl implements ContactManager, EventListener {
 	private final PendingContactFactory pendingContactFactory;
 
 	private final List<ContactHook> hooks = new CopyOnWriteArrayList<>();
+	private final List<ContactAliasHook> aliasHooks =
+			new CopyOnWriteArrayList<>();
 	private final Map<PendingContactId, PendingContactState> states =
 			new ConcurrentHashMap<>();
 
@@ -69,6 +71,11 @@ class ContactManagerImpl implements ContactManager, EventListener {
 		hooks.add(hook);
 	}
 
+	@Override
+	public void registerContactAliasHook(ContactAliasHook hook) {
+		aliasHooks.add(hook);
+	}
+
 	@Override
 	public ContactId addContact(Transaction txn, Author remote, AuthorId local,
 			SecretKey rootKey, long timestamp, boolean alice, boolean verified,
@@ -226,6 +233,8 @@ class ContactManagerImpl implements ContactManager, EventListener {
 				throw new IllegalArgumentException();
 		}
 		db.setContactAlias(txn, c, alias);
+		for (ContactAliasHook hook : aliasHooks)
+			hook.changingContactAlias(txn, c);
 	}
 
 	@Override
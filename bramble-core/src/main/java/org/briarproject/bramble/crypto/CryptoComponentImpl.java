@@ -7,6 +7,7 @@ import net.i2p.crypto.eddsa.KeyPairGenerator;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.crypto.AgreementPrivateKey;
 import org.briarproject.bramble.api.crypto.AgreementPublicKey;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
@@ -19,6 +20,7 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.SignaturePrivateKey;
 import org.briarproject.bramble.api.crypto.SignaturePublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.system.SecureRandomProvider;
 import org.briarproject.bramble.util.ByteUtils;
@@ -31,15 +33,28 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 
+import static java.lang.Runtime.getRuntime;
 import static java.lang.System.arraycopy;
 import static java.util.logging.Level.INFO;
 import static org.briarproject.bramble.api.crypto.CryptoConstants.KEY_TYPE_AGREEMENT;
+import static org.briarproject.bramble.api.crypto.CryptoConstants.HASH_BYTES;
 import static org.briarproject.bramble.api.crypto.CryptoConstants.KEY_TYPE_SIGNATURE;
+import static org.briarproject.bramble.api.crypto.CryptoConstants.MAC_BYTES;
 import static org.briarproject.bramble.api.crypto.DecryptionResult.INVALID_CIPHERTEXT;
 import static org.briarproject.bramble.api.crypto.DecryptionResult.INVALID_PASSWORD;
 import static org.briarproject.bramble.api.crypto.DecryptionResult.KEY_STRENGTHENER_ERROR;
@@ -58,6 +73,8 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final int PBKDF_SALT_BYTES = 32; // 256 bits
 	private static final byte PBKDF_FORMAT_SCRYPT = 0;
 	private static final byte PBKDF_FORMAT_SCRYPT_STRENGTHENED = 1;
+	private static final int MAX_DECODED_PUBLIC_KEYS = 1000;
+	private static final int MAX_CACHED_LABELS = 1000;
 
 	private final SecureRandom secureRandom;
 	private final PasswordBasedKdf passwordBasedKdf;
@@ -66,6 +83,54 @@ class CryptoComponentImpl implements CryptoComponent {
 	private final KeyParser agreementKeyParser, signatureKeyParser;
 	private final MessageEncrypter messageEncrypter;
 
+	/**
+	 * Reusable signatures for verification. Creating a signature is
+	 * expensive, and each signature can only be used by one thread at a time.
+	 */
+	private final ThreadLocal<EdSignature> verifiers =
+			new ThreadLocal<EdSignature>() {
+				@Override
+				protected EdSignature initialValue() {
+					return new EdSignature();
+				}
+			};
+
+	/**
+	 * Reusable state for hashing. Each call to {@link #hash} otherwise
+	 * allocates a digest, which has several internal buffers, and a length
+	 * buffer.
+	 */
+	private final ThreadLocal<HashContext> hashContexts =
+			new ThreadLocal<HashContext>() {
+				@Override
+				protected HashContext initialValue() {
+					return new HashContext();
+				}
+			};
+
+	/**
+	 * UTF-8 encodings of labels, which are used for every hash and MAC.
+	 */
+	private final ConcurrentMap<String, byte[]> labels =
+			new ConcurrentHashMap<>();
+
+	private final Object lock = new Object();
+
+	/**
+	 * Recently used public keys, decoded for verification. Decoding a key
+	 * costs a significant fraction of verifying a signature, and the same
+	 * authors' keys are used to verify many messages.
+	 */
+	@GuardedBy("lock")
+	private final Map<Bytes, EdDSAPublicKey> decodedPublicKeys =
+			new LinkedHashMap<Bytes, EdDSAPublicKey>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Bytes, EdDSAPublicKey> eldest) {
+					return size() > MAX_DECODED_PUBLIC_KEYS;
+				}
+			};
+
 	@Inject
 	CryptoComponentImpl(SecureRandomProvider secureRandomProvider,
 			PasswordBasedKdf passwordBasedKdf) {
@@ -251,12 +316,67 @@ class CryptoComponentImpl implements CryptoComponent {
 			throws GeneralSecurityException {
 		if (!publicKey.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		Signature sig = new EdSignature();
-		sig.initVerify(publicKey);
+		EdDSAPublicKey decoded = getDecodedPublicKey(publicKey);
+		EdSignature sig = verifiers.get();
+		sig.initVerify(decoded);
 		updateSignature(sig, label, signed);
 		return sig.verify(signature);
 	}
 
+	@Override
+	public boolean[] verifySignatures(List<SignedData> batch,
+			Executor executor) throws InterruptedException {
+		int size = batch.size();
+		// Check the key types before handing out any work
+		for (SignedData d : batch) {
+			if (!d.getPublicKey().getKeyType().equals(KEY_TYPE_SIGNATURE))
+				throw new IllegalArgumentException();
+		}
+		boolean[] results = new boolean[size];
+		AtomicInteger next = new AtomicInteger(0);
+		CountDownLatch finished = new CountDownLatch(size);
+		// Each worker verifies signatures until there are none left, so
+		// workers that start late have nothing to do
+		Runnable worker = () -> {
+			for (int i = next.getAndIncrement(); i < size;
+					i = next.getAndIncrement()) {
+				SignedData d = batch.get(i);
+				try {
+					results[i] = verifySignature(d.getSignature(),
+							d.getLabel(), d.getSigned(), d.getPublicKey());
+				} catch (GeneralSecurityException e) {
+					results[i] = false;
+				} finally {
+					finished.countDown();
+				}
+			}
+		};
+		int helpers = Math.min(size, getRuntime().availableProcessors()) - 1;
+		try {
+			for (int i = 0; i < helpers; i++) executor.execute(worker);
+		} catch (RejectedExecutionException e) {
+			LOG.info("Verifying remaining signatures on calling thread");
+		}
+		worker.run();
+		// Wait for any signatures that other workers are verifying
+		finished.await();
+		return results;
+	}
+
+	private EdDSAPublicKey getDecodedPublicKey(PublicKey publicKey) {
+		Bytes encoded = new Bytes(publicKey.getEncoded());
+		synchronized (lock) {
+			EdDSAPublicKey decoded = decodedPublicKeys.get(encoded);
+			if (decoded != null) return decoded;
+		}
+		// Decode the key without holding the lock
+		EdDSAPublicKey decoded = EdSignature.decodePublicKey(publicKey);
+		synchronized (lock) {
+			decodedPublicKeys.put(encoded, decoded);
+		}
+		return decoded;
+	}
+
 	private void updateSignature(Signature signature, String label,
 			byte[] toSign) throws GeneralSecurityException {
 		byte[] labelBytes = StringUtils.toUtf8(label);
@@ -271,9 +391,37 @@ class CryptoComponentImpl implements CryptoComponent {
 
 	@Override
 	public byte[] hash(String label, byte[]... inputs) {
-		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest digest = new Blake2bDigest(256);
-		byte[] length = new byte[INT_32_BYTES];
+		byte[] output = new byte[HASH_BYTES];
+		hash(label, output, 0, inputs);
+		return output;
+	}
+
+	@Override
+	public void hash(String label, byte[] output, int outputOffset,
+			byte[]... inputs) {
+		if (outputOffset < 0 || outputOffset + HASH_BYTES > output.length)
+			throw new IllegalArgumentException();
+		HashContext ctx = hashContexts.get();
+		update(ctx.digest, ctx.length, label, inputs);
+		// The digest is reset and ready for reuse after this call
+		ctx.digest.doFinal(output, outputOffset);
+	}
+
+	@Override
+	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
+		// A keyed digest can't be re-keyed, so only the length buffer is
+		// reused. Keeping keyed digests would also keep keys in memory
+		Digest mac = new Blake2bDigest(macKey.getBytes(), MAC_BYTES, null,
+				null);
+		update(mac, hashContexts.get().length, label, inputs);
+		byte[] output = new byte[MAC_BYTES];
+		mac.doFinal(output, 0);
+		return output;
+	}
+
+	private void update(Digest digest, byte[] length, String label,
+			byte[]... inputs) {
+		byte[] labelBytes = getLabelBytes(label);
 		ByteUtils.writeUint32(labelBytes.length, length, 0);
 		digest.update(length, 0, length.length);
 		digest.update(labelBytes, 0, labelBytes.length);
@@ -282,27 +430,18 @@ class CryptoComponentImpl implements CryptoComponent {
 			digest.update(length, 0, length.length);
 			digest.update(input, 0, input.length);
 		}
-		byte[] output = new byte[digest.getDigestSize()];
-		digest.doFinal(output, 0);
-		return output;
 	}
 
-	@Override
-	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
-		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest mac = new Blake2bDigest(macKey.getBytes(), 32, null, null);
-		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		mac.update(length, 0, length.length);
-		mac.update(labelBytes, 0, labelBytes.length);
-		for (byte[] input : inputs) {
-			ByteUtils.writeUint32(input.length, length, 0);
-			mac.update(length, 0, length.length);
-			mac.update(input, 0, input.length);
+	private byte[] getLabelBytes(String label) {
+		byte[] labelBytes = labels.get(label);
+		if (labelBytes == null) {
+			labelBytes = StringUtils.toUtf8(label);
+			// Labels are usually constants, but don't let the cache grow
+			// without limit if they're not
+			if (labels.size() < MAX_CACHED_LABELS)
+				labels.putIfAbsent(label, labelBytes);
 		}
-		byte[] output = new byte[mac.getDigestSize()];
-		mac.doFinal(output, 0);
-		return output;
+		return labelBytes;
 	}
 
 	@Override
@@ -442,4 +581,10 @@ class CryptoComponentImpl implements CryptoComponent {
 	public String asciiArmour(byte[] b, int lineLength) {
 		return AsciiArmour.wrap(b, lineLength);
 	}
+
+	private static class HashContext {
+
+		private final Digest digest = new Blake2bDigest(HASH_BYTES * 8);
+		private final byte[] length = new byte[INT_32_BYTES];
+	}
 }
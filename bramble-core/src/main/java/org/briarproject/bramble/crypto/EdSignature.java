@@ -49,11 +49,26 @@ class EdSignature implements Signature {
 
 	@Override
 	public void initVerify(PublicKey k) throws GeneralSecurityException {
+		initVerify(decodePublicKey(k));
+	}
+
+	/**
+	 * Initialises the signature for verification with a public key that
+	 * has already been decoded, avoiding the cost of decoding it again.
+	 */
+	void initVerify(EdDSAPublicKey k) throws GeneralSecurityException {
+		signature.initVerify(k);
+	}
+
+	/**
+	 * Decodes the given public key. The result is immutable and can be
+	 * reused by any number of signatures.
+	 */
+	static EdDSAPublicKey decodePublicKey(PublicKey k) {
 		if (!k.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		EdDSAPublicKey publicKey = new EdDSAPublicKey(
+		return new EdDSAPublicKey(
 				new EdDSAPublicKeySpec(k.getEncoded(), CURVE_SPEC));
-		signature.initVerify(publicKey);
 	}
 
 	@Override
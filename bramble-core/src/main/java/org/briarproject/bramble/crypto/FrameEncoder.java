@@ -5,6 +5,7 @@ import org.briarproject.bramble.util.ByteUtils;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
@@ -23,11 +24,25 @@ class FrameEncoder {
 
 	static void encodeHeader(byte[] dest, boolean finalFrame,
 			int payloadLength, int paddingLength) {
+		encodeHeader(dest, finalFrame, payloadLength, paddingLength,
+				MAX_PAYLOAD_LENGTH);
+	}
+
+	/**
+	 * Encodes a frame header for a stream whose frames may carry up to the
+	 * given number of bytes of payload and padding. The large frame limit
+	 * may only be used for streams that use large frames.
+	 */
+	static void encodeHeader(byte[] dest, boolean finalFrame,
+			int payloadLength, int paddingLength, int maxPayloadLength) {
 		if (dest.length < FRAME_HEADER_PLAINTEXT_LENGTH)
 			throw new IllegalArgumentException();
+		if (maxPayloadLength != MAX_PAYLOAD_LENGTH &&
+				maxPayloadLength != MAX_LARGE_PAYLOAD_LENGTH)
+			throw new IllegalArgumentException();
 		if (payloadLength < 0) throw new IllegalArgumentException();
 		if (paddingLength < 0) throw new IllegalArgumentException();
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new IllegalArgumentException();
 		ByteUtils.writeUint16(payloadLength, dest, 0);
 		ByteUtils.writeUint16(paddingLength, dest, INT_16_BYTES);
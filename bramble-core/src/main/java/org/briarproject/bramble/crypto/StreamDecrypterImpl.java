@@ -17,8 +17,11 @@ import javax.annotation.concurrent.NotThreadSafe;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAME_PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
@@ -35,10 +38,12 @@ class StreamDecrypterImpl implements StreamDecrypter {
 	private final AuthenticatedCipher cipher;
 	private final long streamNumber;
 	private final SecretKey streamHeaderKey;
-	private final byte[] frameNonce, frameHeader, frameCiphertext;
+	private final byte[] frameNonce, frameHeader;
 
 	@Nullable
 	private SecretKey frameKey;
+	private int maxPayloadLength;
+	private byte[] frameCiphertext;
 	private long frameNumber;
 	private boolean finalFrame;
 
@@ -50,8 +55,9 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		this.streamHeaderKey = streamHeaderKey;
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
 		frameKey = null;
+		maxPayloadLength = MAX_PAYLOAD_LENGTH;
+		frameCiphertext = new byte[MAX_FRAME_LENGTH];
 		frameNumber = 0;
 		finalFrame = false;
 	}
@@ -66,6 +72,9 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		if (frameNumber < 0) throw new IOException();
 		// Read the stream header if required
 		if (frameKey == null) readStreamHeader();
+		// The buffer must be big enough for a full-size frame of this stream
+		if (payload.length < maxPayloadLength)
+			throw new IllegalArgumentException();
 		// Read the frame header
 		int offset = 0;
 		while (offset < FRAME_HEADER_LENGTH) {
@@ -89,7 +98,7 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		finalFrame = FrameEncoder.isFinalFrame(frameHeader);
 		int payloadLength = FrameEncoder.getPayloadLength(frameHeader);
 		int paddingLength = FrameEncoder.getPaddingLength(frameHeader);
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new FormatException();
 		// Read the payload and padding
 		int frameLength = FRAME_HEADER_LENGTH + payloadLength + paddingLength
@@ -147,8 +156,12 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		// Check the protocol version
 		int receivedProtocolVersion =
 				ByteUtils.readUint16(streamHeaderPlaintext, 0);
-		if (receivedProtocolVersion != PROTOCOL_VERSION)
+		if (receivedProtocolVersion == LARGE_FRAME_PROTOCOL_VERSION) {
+			maxPayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+			frameCiphertext = new byte[MAX_LARGE_FRAME_LENGTH];
+		} else if (receivedProtocolVersion != PROTOCOL_VERSION) {
 			throw new FormatException();
+		}
 		// Check the stream number
 		long receivedStreamNumber = ByteUtils.readUint64(streamHeaderPlaintext,
 				INT_16_BYTES);
@@ -38,6 +38,17 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 	@Override
 	public StreamEncrypter createStreamEncrypter(OutputStream out,
 			StreamContext ctx) {
+		return createStreamEncrypter(out, ctx, false);
+	}
+
+	@Override
+	public StreamEncrypter createLargeFrameStreamEncrypter(OutputStream out,
+			StreamContext ctx) {
+		return createStreamEncrypter(out, ctx, true);
+	}
+
+	private StreamEncrypter createStreamEncrypter(OutputStream out,
+			StreamContext ctx, boolean largeFrames) {
 		AuthenticatedCipher cipher = cipherProvider.get();
 		long streamNumber = ctx.getStreamNumber();
 		byte[] tag = new byte[TAG_LENGTH];
@@ -46,8 +57,10 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 		byte[] streamHeaderNonce = new byte[STREAM_HEADER_NONCE_LENGTH];
 		crypto.getSecureRandom().nextBytes(streamHeaderNonce);
 		SecretKey frameKey = crypto.generateSecretKey();
+		// The tag is always encoded with the current protocol version, so
+		// the stream is recognised whether or not it uses large frames
 		return new StreamEncrypterImpl(out, cipher, streamNumber, tag,
-				streamHeaderNonce, ctx.getHeaderKey(), frameKey);
+				streamHeaderNonce, ctx.getHeaderKey(), frameKey, largeFrames);
 	}
 
 	@Override
@@ -15,8 +15,9 @@ import javax.annotation.concurrent.NotThreadSafe;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAME_PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
@@ -33,6 +34,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	private final AuthenticatedCipher cipher;
 	private final SecretKey streamHeaderKey, frameKey;
 	private final long streamNumber;
+	private final int protocolVersion, maxPayloadLength;
 	@Nullable
 	private final byte[] tag;
 	private final byte[] streamHeaderNonce;
@@ -45,6 +47,14 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	StreamEncrypterImpl(OutputStream out, AuthenticatedCipher cipher,
 			long streamNumber, @Nullable byte[] tag, byte[] streamHeaderNonce,
 			SecretKey streamHeaderKey, SecretKey frameKey) {
+		this(out, cipher, streamNumber, tag, streamHeaderNonce,
+				streamHeaderKey, frameKey, false);
+	}
+
+	StreamEncrypterImpl(OutputStream out, AuthenticatedCipher cipher,
+			long streamNumber, @Nullable byte[] tag, byte[] streamHeaderNonce,
+			SecretKey streamHeaderKey, SecretKey frameKey,
+			boolean largeFrames) {
 		this.out = out;
 		this.cipher = cipher;
 		this.streamNumber = streamNumber;
@@ -52,10 +62,18 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		this.streamHeaderNonce = streamHeaderNonce;
 		this.streamHeaderKey = streamHeaderKey;
 		this.frameKey = frameKey;
+		if (largeFrames) {
+			protocolVersion = LARGE_FRAME_PROTOCOL_VERSION;
+			maxPayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+		} else {
+			protocolVersion = PROTOCOL_VERSION;
+			maxPayloadLength = MAX_PAYLOAD_LENGTH;
+		}
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
-		framePlaintext = new byte[MAX_PAYLOAD_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
+		framePlaintext = new byte[maxPayloadLength];
+		frameCiphertext = new byte[FRAME_HEADER_LENGTH + maxPayloadLength
+				+ MAC_LENGTH];
 		frameNumber = 0;
 		writeTag = (tag != null);
 		writeStreamHeader = true;
@@ -66,7 +84,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 			int paddingLength, boolean finalFrame) throws IOException {
 		if (payloadLength < 0 || paddingLength < 0)
 			throw new IllegalArgumentException();
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new IllegalArgumentException();
 		// Don't allow the frame counter to wrap
 		if (frameNumber < 0) throw new IOException();
@@ -76,7 +94,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		if (writeStreamHeader) writeStreamHeader();
 		// Encode the frame header
 		FrameEncoder.encodeHeader(frameHeader, finalFrame, payloadLength,
-				paddingLength);
+				paddingLength, maxPayloadLength);
 		// Encrypt and authenticate the frame header
 		FrameEncoder.encodeNonce(frameNonce, frameNumber, true);
 		try {
@@ -87,15 +105,20 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		} catch (GeneralSecurityException badCipher) {
 			throw new RuntimeException(badCipher);
 		}
-		// Combine the payload and padding
-		System.arraycopy(payload, 0, framePlaintext, 0, payloadLength);
-		for (int i = 0; i < paddingLength; i++)
-			framePlaintext[payloadLength + i] = 0;
+		// Combine the payload and padding, unless there's no padding, in which
+		// case the payload can be encrypted where it is
+		byte[] plaintext = payload;
+		if (paddingLength > 0) {
+			System.arraycopy(payload, 0, framePlaintext, 0, payloadLength);
+			for (int i = 0; i < paddingLength; i++)
+				framePlaintext[payloadLength + i] = 0;
+			plaintext = framePlaintext;
+		}
 		// Encrypt and authenticate the payload and padding
 		FrameEncoder.encodeNonce(frameNonce, frameNumber, false);
 		try {
 			cipher.init(true, frameKey, frameNonce);
-			int encrypted = cipher.process(framePlaintext, 0,
+			int encrypted = cipher.process(plaintext, 0,
 					payloadLength + paddingLength, frameCiphertext,
 					FRAME_HEADER_LENGTH);
 			if (encrypted != payloadLength + paddingLength + MAC_LENGTH)
@@ -118,7 +141,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	private void writeStreamHeader() throws IOException {
 		// The header contains the protocol version, stream number and frame key
 		byte[] streamHeaderPlaintext = new byte[STREAM_HEADER_PLAINTEXT_LENGTH];
-		ByteUtils.writeUint16(PROTOCOL_VERSION, streamHeaderPlaintext, 0);
+		ByteUtils.writeUint16(protocolVersion, streamHeaderPlaintext, 0);
 		ByteUtils.writeUint64(streamNumber, streamHeaderPlaintext,
 				INT_16_BYTES);
 		System.arraycopy(frameKey.getBytes(), 0, streamHeaderPlaintext,
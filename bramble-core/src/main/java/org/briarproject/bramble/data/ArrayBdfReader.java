@@ -0,0 +1,399 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.data.Types.DICTIONARY;
+import static org.briarproject.bramble.data.Types.END;
+import static org.briarproject.bramble.data.Types.FALSE;
+import static org.briarproject.bramble.data.Types.FLOAT_64;
+import static org.briarproject.bramble.data.Types.INT_16;
+import static org.briarproject.bramble.data.Types.INT_32;
+import static org.briarproject.bramble.data.Types.INT_64;
+import static org.briarproject.bramble.data.Types.INT_8;
+import static org.briarproject.bramble.data.Types.LIST;
+import static org.briarproject.bramble.data.Types.NULL;
+import static org.briarproject.bramble.data.Types.RAW_16;
+import static org.briarproject.bramble.data.Types.RAW_32;
+import static org.briarproject.bramble.data.Types.RAW_8;
+import static org.briarproject.bramble.data.Types.STRING_16;
+import static org.briarproject.bramble.data.Types.STRING_32;
+import static org.briarproject.bramble.data.Types.STRING_8;
+import static org.briarproject.bramble.data.Types.TRUE;
+import static org.briarproject.bramble.util.StringUtils.fromUtf8;
+
+/**
+ * A {@link BdfReader} that reads directly from a byte array. Unlike
+ * {@link BdfReaderImpl} it doesn't need an input stream or a lookahead
+ * buffer, strings are decoded in place, and the reader can be reset to read
+ * another array.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class ArrayBdfReader implements BdfReader {
+
+	private static final byte[] EMPTY_BUFFER = new byte[0];
+
+	private final int nestedLimit, maxBufferSize;
+
+	private byte[] buf;
+	private int pos, end;
+
+	ArrayBdfReader(byte[] buf, int off, int len, int nestedLimit,
+			int maxBufferSize) {
+		this.nestedLimit = nestedLimit;
+		this.maxBufferSize = maxBufferSize;
+		reset(buf, off, len);
+	}
+
+	/**
+	 * Resets the reader to read the given range of the given array.
+	 */
+	void reset(byte[] buf, int off, int len) {
+		if (off < 0 || len < 0 || off + len > buf.length)
+			throw new IllegalArgumentException();
+		this.buf = buf;
+		pos = off;
+		end = off + len;
+	}
+
+	private boolean hasType(byte type) {
+		return pos < end && buf[pos] == type;
+	}
+
+	private void checkRemaining(int length) throws FormatException {
+		if (length < 0 || end - pos < length) throw new FormatException();
+	}
+
+	private void skip(int length) throws FormatException {
+		checkRemaining(length);
+		pos += length;
+	}
+
+	private Object readObject(int level) throws FormatException {
+		if (pos == end) throw new FormatException();
+		byte type = buf[pos];
+		if (type == NULL) {
+			pos++;
+			return NULL_VALUE;
+		}
+		if (type == FALSE || type == TRUE) return readBoolean();
+		if (type == INT_8 || type == INT_16 || type == INT_32 ||
+				type == INT_64) {
+			return readLong();
+		}
+		if (type == FLOAT_64) return readDouble();
+		if (type == STRING_8 || type == STRING_16 || type == STRING_32)
+			return readString();
+		if (type == RAW_8 || type == RAW_16 || type == RAW_32)
+			return readRaw();
+		if (type == LIST) return readList(level);
+		if (type == DICTIONARY) return readDictionary(level);
+		throw new FormatException();
+	}
+
+	private void skipObject() throws FormatException {
+		if (hasNull()) skipNull();
+		else if (hasBoolean()) skipBoolean();
+		else if (hasLong()) skipLong();
+		else if (hasDouble()) skipDouble();
+		else if (hasString()) skipString();
+		else if (hasRaw()) skipRaw();
+		else if (hasList()) skipList();
+		else if (hasDictionary()) skipDictionary();
+		else throw new FormatException();
+	}
+
+	@Override
+	public boolean eof() {
+		return pos == end;
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	@Override
+	public boolean hasNull() {
+		return hasType(NULL);
+	}
+
+	@Override
+	public void readNull() throws FormatException {
+		if (!hasNull()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public void skipNull() throws FormatException {
+		readNull();
+	}
+
+	@Override
+	public boolean hasBoolean() {
+		return hasType(FALSE) || hasType(TRUE);
+	}
+
+	@Override
+	public boolean readBoolean() throws FormatException {
+		if (!hasBoolean()) throw new FormatException();
+		return buf[pos++] == TRUE;
+	}
+
+	@Override
+	public void skipBoolean() throws FormatException {
+		readBoolean();
+	}
+
+	@Override
+	public boolean hasLong() {
+		if (pos == end) return false;
+		byte type = buf[pos];
+		return type == INT_8 || type == INT_16 || type == INT_32 ||
+				type == INT_64;
+	}
+
+	@Override
+	public long readLong() throws FormatException {
+		if (!hasLong()) throw new FormatException();
+		byte type = buf[pos++];
+		if (type == INT_8) return readInt8();
+		if (type == INT_16) return readInt16();
+		if (type == INT_32) return readInt32();
+		return readInt64();
+	}
+
+	private int readInt8() throws FormatException {
+		checkRemaining(1);
+		return buf[pos++];
+	}
+
+	private short readInt16() throws FormatException {
+		checkRemaining(2);
+		short value = (short) (((buf[pos] & 0xFF) << 8) +
+				(buf[pos + 1] & 0xFF));
+		pos += 2;
+		return value;
+	}
+
+	private int readInt32() throws FormatException {
+		checkRemaining(4);
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value |= (buf[pos + i] & 0xFF) << (24 - i * 8);
+		pos += 4;
+		return value;
+	}
+
+	private long readInt64() throws FormatException {
+		checkRemaining(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value |= (buf[pos + i] & 0xFFL) << (56 - i * 8);
+		pos += 8;
+		return value;
+	}
+
+	@Override
+	public void skipLong() throws FormatException {
+		if (!hasLong()) throw new FormatException();
+		byte type = buf[pos++];
+		if (type == INT_8) skip(1);
+		else if (type == INT_16) skip(2);
+		else if (type == INT_32) skip(4);
+		else skip(8);
+	}
+
+	@Override
+	public boolean hasDouble() {
+		return hasType(FLOAT_64);
+	}
+
+	@Override
+	public double readDouble() throws FormatException {
+		if (!hasDouble()) throw new FormatException();
+		pos++;
+		return Double.longBitsToDouble(readInt64());
+	}
+
+	@Override
+	public void skipDouble() throws FormatException {
+		if (!hasDouble()) throw new FormatException();
+		pos++;
+		skip(8);
+	}
+
+	@Override
+	public boolean hasString() {
+		if (pos == end) return false;
+		byte type = buf[pos];
+		return type == STRING_8 || type == STRING_16 || type == STRING_32;
+	}
+
+	@Override
+	public String readString() throws FormatException {
+		if (!hasString()) throw new FormatException();
+		int length = readStringLength(buf[pos++]);
+		if (length < 0 || length > maxBufferSize) throw new FormatException();
+		if (length == 0) return "";
+		checkRemaining(length);
+		String s = fromUtf8(buf, pos, length);
+		pos += length;
+		return s;
+	}
+
+	private int readStringLength(byte type) throws FormatException {
+		if (type == STRING_8) return readInt8();
+		if (type == STRING_16) return readInt16();
+		if (type == STRING_32) return readInt32();
+		throw new FormatException();
+	}
+
+	@Override
+	public void skipString() throws FormatException {
+		if (!hasString()) throw new FormatException();
+		skip(readStringLength(buf[pos++]));
+	}
+
+	@Override
+	public boolean hasRaw() {
+		if (pos == end) return false;
+		byte type = buf[pos];
+		return type == RAW_8 || type == RAW_16 || type == RAW_32;
+	}
+
+	@Override
+	public byte[] readRaw() throws FormatException {
+		if (!hasRaw()) throw new FormatException();
+		int length = readRawLength(buf[pos++]);
+		if (length < 0 || length > maxBufferSize) throw new FormatException();
+		if (length == 0) return EMPTY_BUFFER;
+		checkRemaining(length);
+		byte[] b = Arrays.copyOfRange(buf, pos, pos + length);
+		pos += length;
+		return b;
+	}
+
+	private int readRawLength(byte type) throws FormatException {
+		if (type == RAW_8) return readInt8();
+		if (type == RAW_16) return readInt16();
+		if (type == RAW_32) return readInt32();
+		throw new FormatException();
+	}
+
+	@Override
+	public void skipRaw() throws FormatException {
+		if (!hasRaw()) throw new FormatException();
+		skip(readRawLength(buf[pos++]));
+	}
+
+	@Override
+	public boolean hasList() {
+		return hasType(LIST);
+	}
+
+	@Override
+	public BdfList readList() throws FormatException {
+		return readList(1);
+	}
+
+	private BdfList readList(int level) throws FormatException {
+		if (!hasList()) throw new FormatException();
+		if (level > nestedLimit) throw new FormatException();
+		BdfList list = new BdfList();
+		pos++;
+		while (!hasEnd()) list.add(readObject(level + 1));
+		pos++;
+		return list;
+	}
+
+	@Override
+	public void readListStart() throws FormatException {
+		if (!hasList()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public boolean hasListEnd() {
+		return hasEnd();
+	}
+
+	private boolean hasEnd() {
+		return hasType(END);
+	}
+
+	@Override
+	public void readListEnd() throws FormatException {
+		readEnd();
+	}
+
+	private void readEnd() throws FormatException {
+		if (!hasEnd()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public void skipList() throws FormatException {
+		if (!hasList()) throw new FormatException();
+		pos++;
+		while (!hasEnd()) skipObject();
+		pos++;
+	}
+
+	@Override
+	public boolean hasDictionary() {
+		return hasType(DICTIONARY);
+	}
+
+	@Override
+	public BdfDictionary readDictionary() throws FormatException {
+		return readDictionary(1);
+	}
+
+	private BdfDictionary readDictionary(int level) throws FormatException {
+		if (!hasDictionary()) throw new FormatException();
+		if (level > nestedLimit) throw new FormatException();
+		BdfDictionary dictionary = new BdfDictionary();
+		pos++;
+		while (!hasEnd())
+			dictionary.put(readString(), readObject(level + 1));
+		pos++;
+		return dictionary;
+	}
+
+	@Override
+	public void readDictionaryStart() throws FormatException {
+		if (!hasDictionary()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public boolean hasDictionaryEnd() {
+		return hasEnd();
+	}
+
+	@Override
+	public void readDictionaryEnd() throws FormatException {
+		readEnd();
+	}
+
+	@Override
+	public void skipDictionary() throws FormatException {
+		if (!hasDictionary()) throw new FormatException();
+		pos++;
+		while (!hasEnd()) {
+			skipString();
+			skipObject();
+		}
+		pos++;
+	}
+}
@@ -26,4 +26,10 @@ class BdfReaderFactoryImpl implements BdfReaderFactory {
 			int maxBufferSize) {
 		return new BdfReaderImpl(in, nestedLimit, maxBufferSize);
 	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len) {
+		return new ArrayBdfReader(b, off, len, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+	}
 }
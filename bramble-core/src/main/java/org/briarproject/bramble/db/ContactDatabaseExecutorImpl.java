@@ -0,0 +1,53 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.PoliteExecutor;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.db.ContactDatabaseExecutor;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link ContactDatabaseExecutor} that gives each contact its own serial
+ * executor backed by a shared pool, so a contact with a lot of sync work
+ * doesn't delay other contacts' read-only tasks.
+ */
+@ThreadSafe
+@NotNullByDefault
+class ContactDatabaseExecutorImpl implements ContactDatabaseExecutor,
+		EventListener {
+
+	private final Executor pool;
+	private final ConcurrentMap<ContactId, Executor> executors =
+			new ConcurrentHashMap<>();
+
+	ContactDatabaseExecutorImpl(Executor pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public Executor getExecutor(ContactId c) {
+		Executor executor = executors.get(c);
+		if (executor == null) {
+			executor = new PoliteExecutor("ContactDatabaseExecutor", pool, 1);
+			Executor old = executors.putIfAbsent(c, executor);
+			if (old != null) executor = old;
+		}
+		return executor;
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactRemovedEvent) {
+			// Any tasks that are still queued will run on the pool as usual
+			executors.remove(((ContactRemovedEvent) e).getContactId());
+		}
+	}
+}
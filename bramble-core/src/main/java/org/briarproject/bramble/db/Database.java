@@ -27,6 +27,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.Range;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
@@ -116,6 +117,15 @@ interface Database<T> {
 	 */
 	void addIdentity(T txn, Identity i) throws DbException;
 
+	/**
+	 * Registers a message metadata key that should be indexed for the given
+	 * client and major version, and indexes any existing metadata for the
+	 * key. The key is indexed for other transactions once this transaction
+	 * commits. Registering a key that's already indexed has no effect.
+	 */
+	void addIndexedMetadataKey(T txn, ClientId c, int majorVersion,
+			String key) throws DbException;
+
 	/**
 	 * Stores a message.
 	 *
@@ -237,6 +247,21 @@ interface Database<T> {
 	boolean containsTransportKeys(T txn, ContactId c, TransportId t)
 			throws DbException;
 
+	/**
+	 * Removes the status rows of delivered, shared messages that have been
+	 * seen by the given contact and have no ack or request outstanding, if
+	 * they are older than the oldest message in the same group that's still
+	 * being synced with the contact. Only the groups of the given messages,
+	 * which the contact has acked since the groups were last compacted, are
+	 * compacted. Each group's removed rows are covered by a watermark, so
+	 * the statuses of their messages can still be read and any flags raised
+	 * later restore the rows.
+	 *
+	 * @return The number of status rows removed.
+	 */
+	int compactStatuses(T txn, ContactId c, Collection<MessageId> acked)
+			throws DbException;
+
 	/**
 	 * Returns true if the database contains the given message, the message is
 	 * shared, and the visibility of the message's group to the given contact
@@ -247,6 +272,26 @@ interface Database<T> {
 	boolean containsVisibleMessage(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the number of delivered messages in the given group with
+	 * metadata that matches all entries in the given query. If the query is
+	 * empty, the number of delivered messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessages(T txn, GroupId g, Metadata query) throws DbException;
+
+	/**
+	 * Returns the number of delivered messages in the given group with
+	 * metadata that has an integer or boolean value for the given key in the
+	 * given range, inclusive. Boolean values are counted as 0 (false) and
+	 * 1 (true).
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessages(T txn, GroupId g, String key, long min, long max)
+			throws DbException;
+
 	/**
 	 * Returns the number of messages offered by the given contact.
 	 * <p/>
@@ -406,6 +451,33 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any delivered messages in the given group with
+	 * metadata that has an integer or boolean value for the given key in the
+	 * given range, inclusive. Boolean values are treated as 0 (false) and
+	 * 1 (true).
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getMessageIds(T txn, GroupId g, String key,
+			long min, long max) throws DbException;
+
+	/**
+	 * Returns the IDs and timestamps of up to the given number of delivered,
+	 * undeleted messages in the given group that come before the given
+	 * cursor, newest first. Messages are ordered by timestamp and then by
+	 * message ID, so the caller can retrieve the next page by passing the
+	 * timestamp and ID of the last message returned. If the cursor's message
+	 * ID is null, all messages with the cursor's timestamp are excluded.
+	 * <p/>
+	 * The returned map iterates in order, newest first.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageIdsBefore(T txn, GroupId g,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -440,6 +512,15 @@ interface Database<T> {
 	 */
 	Metadata getMessageMetadata(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the validation and delivery state of the given message.
 	 * <p/>
@@ -467,6 +548,16 @@ interface Database<T> {
 	MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given delivered messages with respect
+	 * to the given contact. Messages in groups that are invisible to the
+	 * contact are not included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(T txn, ContactId c,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages received from the given contact that
 	 * need to be acknowledged, up to the given number of messages.
@@ -478,12 +569,14 @@ interface Database<T> {
 
 	/**
 	 * Returns the IDs of some messages that are eligible to be offered to the
-	 * given contact, up to the given number of messages.
+	 * given contact, up to the given number of messages, excluding messages
+	 * in the given groups.
 	 * <p/>
 	 * Read-only.
 	 */
 	Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
-			int maxMessages, long maxLatency) throws DbException;
+			int maxMessages, long maxLatency, Collection<GroupId> excluded)
+			throws DbException;
 
 	/**
 	 * Returns the IDs of some messages that are eligible to be requested from
@@ -507,6 +600,16 @@ interface Database<T> {
 	Collection<MessageId> getMessagesToSend(T txn, ContactId c, int maxLength,
 			long maxLatency) throws DbException;
 
+	/**
+	 * Returns the IDs of the delivered, shared messages in the given group
+	 * with timestamps greater than or equal to the lower bound and less than
+	 * the upper bound that have not been seen by the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getUnseenMessageIds(T txn, ContactId c, GroupId g,
+			long lower, long upper) throws DbException;
+
 	/**
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact, together with their raw lengths.
@@ -596,6 +699,26 @@ interface Database<T> {
 	 */
 	Collection<PendingContact> getPendingContacts(T txn) throws DbException;
 
+	/**
+	 * Returns a {@link Range#FINGERPRINT} range covering the delivered,
+	 * shared messages in the given group with timestamps greater than or
+	 * equal to the lower bound and less than the upper bound.
+	 * <p/>
+	 * Read-only.
+	 */
+	Range getRangeFingerprint(T txn, GroupId g, long lower, long upper)
+			throws DbException;
+
+	/**
+	 * Returns the IDs of the delivered, shared messages in the given group
+	 * with timestamps greater than or equal to the lower bound and less than
+	 * the upper bound.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageId> getRangeMessageIds(T txn, GroupId g, long lower,
+			long upper) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages that are eligible to be sent to the
 	 * given contact and have been requested by the contact, up to the given
@@ -613,6 +736,21 @@ interface Database<T> {
 	 */
 	Settings getSettings(T txn, String namespace) throws DbException;
 
+	/**
+	 * Returns the IDs of all groups that are shared with the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<GroupId> getSharedGroups(T txn, ContactId c)
+			throws DbException;
+
+	/**
+	 * Returns the capabilities supported by the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Byte> getSyncCapabilities(T txn, ContactId c) throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
@@ -813,10 +951,11 @@ interface Database<T> {
 			long timePeriod, long base, byte[] bitmap) throws DbException;
 
 	/**
-	 * Sets the versions of the sync protocol supported by the given contact.
+	 * Sets the versions of the sync protocol and the capabilities supported
+	 * by the given contact.
 	 */
-	void setSyncVersions(T txn, ContactId c, List<Byte> supported)
-			throws DbException;
+	void setSyncVersions(T txn, ContactId c, List<Byte> supported,
+			List<Byte> capabilities) throws DbException;
 
 	/**
 	 * Marks the given transport keys as usable for outgoing streams.
@@ -824,6 +963,20 @@ interface Database<T> {
 	void setTransportKeysActive(T txn, TransportId t, KeySetId k)
 			throws DbException;
 
+	/**
+	 * Splits the delivered, shared messages in the given group with
+	 * timestamps greater than or equal to the lower bound and less than the
+	 * upper bound into at most the given number of
+	 * {@link Range#FINGERPRINT} ranges with similar numbers of messages.
+	 * Messages with the same timestamp are always in the same range, so
+	 * fewer ranges may be returned, and a single range is returned if the
+	 * messages can't be split.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<Range> splitRange(T txn, GroupId g, long lower, long upper,
+			int maxRanges) throws DbException;
+
 	/**
 	 * Starts the cleanup timer for the given message, if a timer duration
 	 * has been set and the timer has not already been started.
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.DurationHistogram;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
@@ -55,6 +56,8 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
@@ -74,10 +77,13 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -87,10 +93,17 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.Range.ID_LIST;
+import static org.briarproject.bramble.api.sync.Range.MATCHED;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_RANGES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_RANGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_UNSPLITTABLE_RANGE_IDS;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
 import static org.briarproject.bramble.db.DatabaseConstants.MAX_OFFERED_MESSAGES;
@@ -113,6 +126,10 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
+	private final DurationHistogram readLockWaits =
+			new DurationHistogram("Waiting for read lock");
+	private final DurationHistogram writeLockWaits =
+			new DurationHistogram("Waiting for write lock");
 	private final Visitor visitor = new CommitActionVisitor();
 
 	@Inject
@@ -143,6 +160,10 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	@Override
 	public void close() throws DbException {
 		if (closed.getAndSet(true)) return;
+		if (LOG.isLoggable(INFO)) {
+			LOG.info(readLockWaits.toString());
+			LOG.info(writeLockWaits.toString());
+		}
 		db.close();
 	}
 
@@ -155,9 +176,11 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (readOnly) {
 			lock.readLock().lock();
 			logDuration(LOG, "Waiting for read lock", start);
+			readLockWaits.record(now() - start);
 		} else {
 			lock.writeLock().lock();
 			logDuration(LOG, "Waiting for write lock", start);
+			writeLockWaits.record(now() - start);
 		}
 		try {
 			return new Transaction(db.startTransaction(), readOnly);
@@ -274,6 +297,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void addIndexedMetadataKey(Transaction transaction, ClientId c,
+			int majorVersion, String key) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		db.addIndexedMetadataKey(txn, c, majorVersion, key);
+	}
+
 	@Override
 	public void addLocalMessage(Transaction transaction, Message m,
 			Metadata meta, boolean shared, boolean temporary)
@@ -341,6 +372,18 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.addTransportKeys(txn, p, k);
 	}
 
+	@Override
+	public void compactStatuses(Transaction transaction, ContactId c,
+			Collection<MessageId> acked) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		int removed = db.compactStatuses(txn, c, acked);
+		if (LOG.isLoggable(INFO) && removed > 0)
+			LOG.info("Compacted " + removed + " status rows");
+	}
+
 	@Override
 	public boolean containsAnythingToSend(Transaction transaction, ContactId c,
 			long maxLatency, boolean eager) throws DbException {
@@ -387,6 +430,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.containsTransportKeys(txn, c, t);
 	}
 
+	@Override
+	public int countMessages(Transaction transaction, GroupId g,
+			Metadata query) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.countMessages(txn, g, query);
+	}
+
+	@Override
+	public int countMessages(Transaction transaction, GroupId g, String key,
+			long min, long max) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.countMessages(txn, g, key, min, max);
+	}
+
 	@Override
 	public void deleteMessage(Transaction transaction, MessageId m)
 			throws DbException {
@@ -474,19 +535,34 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	@Nullable
 	@Override
 	public Offer generateOffer(Transaction transaction, ContactId c,
-			int maxMessages, long maxLatency) throws DbException {
+			int maxMessages, long maxLatency, Collection<GroupId> excluded)
+			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
+		Collection<MessageId> ids = db.getMessagesToOffer(txn, c, maxMessages,
+				maxLatency, excluded);
 		if (ids.isEmpty()) return null;
 		for (MessageId m : ids)
 			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
 		return new Offer(ids);
 	}
 
+	@Override
+	public Collection<Ranges> generateRanges(Transaction transaction,
+			ContactId c) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		List<Ranges> ranges = new ArrayList<>();
+		for (GroupId g : db.getSharedGroups(txn, c)) {
+			Range all = db.getRangeFingerprint(txn, g, 0, Long.MAX_VALUE);
+			ranges.add(new Ranges(g, Collections.singletonList(all)));
+		}
+		return ranges;
+	}
+
 	@Nullable
 	@Override
 	public Request generateRequest(Transaction transaction, ContactId c,
@@ -635,6 +711,26 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageIds(txn, g, query);
 	}
 
+	@Override
+	public Collection<MessageId> getMessageIds(Transaction transaction,
+			GroupId g, String key, long min, long max) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageIds(txn, g, key, min, max);
+	}
+
+	@Override
+	public Map<MessageId, Long> getMessageIdsBefore(Transaction transaction,
+			GroupId g, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageIdsBefore(txn, g, timestamp, m, limit);
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToValidate(Transaction transaction)
 			throws DbException {
@@ -690,6 +786,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, m);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		if (ids.isEmpty()) return Collections.emptyMap();
+		return db.getMessageMetadata(txn, ids);
+	}
+
 	@Override
 	public Metadata getMessageMetadataForValidator(Transaction transaction,
 			MessageId m)
@@ -740,6 +844,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return status;
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(
+			Transaction transaction, ContactId c, Collection<MessageId> ids)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		if (ids.isEmpty()) return Collections.emptyMap();
+		Map<MessageId, MessageStatus> statuses =
+				db.getMessageStatus(txn, c, ids);
+		// Return default statuses for messages in invisible groups
+		for (MessageId m : ids) {
+			if (!statuses.containsKey(m))
+				statuses.put(m, new MessageStatus(m, c, false, false));
+		}
+		return statuses;
+	}
+
 	@Override
 	public Map<MessageId, Integer> getUnackedMessagesToSend(
 			Transaction transaction,
@@ -814,6 +936,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getSettings(txn, namespace);
 	}
 
+	@Override
+	public List<Byte> getSyncCapabilities(Transaction transaction,
+			ContactId c) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		return db.getSyncCapabilities(txn, c);
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Transaction transaction, ContactId c)
 			throws DbException {
@@ -894,17 +1025,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		Collection<MessageId> acked = new ArrayList<>();
 		for (MessageId m : a.getMessageIds()) {
 			if (db.containsVisibleMessage(txn, c, m)) {
-				if (db.raiseSeenFlag(txn, c, m)) {
-					// This is the first time the message has been acked by
-					// this contact. Start the cleanup timer (a no-op unless
-					// a cleanup deadline has been set for this message)
-					long deadline = db.startCleanupTimer(txn, m);
-					if (deadline != TIMER_NOT_STARTED) {
-						transaction.attach(new CleanupTimerStartedEvent(m,
-								deadline));
-					}
-					acked.add(m);
-				}
+				if (raiseSeenFlag(transaction, c, m)) acked.add(m);
 			}
 		}
 		if (acked.size() > 0) {
@@ -912,6 +1033,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	/**
+	 * Raises the seen flag for the given message and returns true if the
+	 * flag was raised, meaning this is the first time the message has been
+	 * acked by the given contact.
+	 */
+	private boolean raiseSeenFlag(Transaction transaction, ContactId c,
+			MessageId m) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.raiseSeenFlag(txn, c, m)) return false;
+		// Start the cleanup timer (a no-op unless a cleanup deadline has
+		// been set for this message)
+		long deadline = db.startCleanupTimer(txn, m);
+		if (deadline != TIMER_NOT_STARTED) {
+			transaction.attach(new CleanupTimerStartedEvent(m, deadline));
+		}
+		return true;
+	}
+
 	@Override
 	public void receiveMessage(Transaction transaction, ContactId c, Message m)
 			throws DbException {
@@ -955,6 +1094,92 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (request) transaction.attach(new MessageToRequestEvent(c));
 	}
 
+	@Nullable
+	@Override
+	public Ranges receiveRanges(Transaction transaction, ContactId c,
+			Ranges r) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		GroupId g = r.getGroupId();
+		if (db.getGroupVisibility(txn, c, g) != SHARED) return null;
+		List<Range> reply = new ArrayList<>();
+		Collection<MessageId> acked = new ArrayList<>();
+		boolean ack = false, request = false, requested = false;
+		int offered = db.countOfferedMessages(txn, c);
+		for (Range range : r.getRanges()) {
+			long lower = range.getLower(), upper = range.getUpper();
+			if (range.getType() == MATCHED) {
+				// The contact has all our messages in the range
+				for (MessageId m : db.getUnseenMessageIds(txn, c, g, lower,
+						upper)) {
+					if (raiseSeenFlag(transaction, c, m)) acked.add(m);
+				}
+			} else if (range.getType() == FINGERPRINT) {
+				Range local = db.getRangeFingerprint(txn, g, lower, upper);
+				if (local.getCount() == range.getCount() &&
+						Arrays.equals(local.getFingerprint(),
+								range.getFingerprint())) {
+					for (MessageId m : db.getUnseenMessageIds(txn, c, g,
+							lower, upper)) {
+						if (raiseSeenFlag(transaction, c, m)) acked.add(m);
+					}
+					reply.add(new Range(lower, upper));
+				} else if (local.getCount() <= MAX_RANGE_IDS) {
+					reply.add(new Range(lower, upper,
+							db.getRangeMessageIds(txn, g, lower, upper)));
+				} else {
+					List<Range> split =
+							db.splitRange(txn, g, lower, upper, MAX_RANGES);
+					if (split.size() > 1) {
+						reply.addAll(split);
+					} else if (local.getCount() <= MAX_UNSPLITTABLE_RANGE_IDS) {
+						// The messages all have the same timestamp, so the
+						// range can't be split. Send the IDs instead
+						reply.add(new Range(lower, upper,
+								db.getRangeMessageIds(txn, g, lower, upper)));
+					}
+					// Otherwise the messages are left to be synced by offers
+				}
+			} else if (range.getType() == ID_LIST) {
+				Set<MessageId> local = new HashSet<>(
+						db.getRangeMessageIds(txn, g, lower, upper));
+				for (MessageId m : range.getMessageIds()) {
+					if (local.remove(m)) {
+						// We both have the message
+						db.raiseSeenFlag(txn, c, m);
+						db.raiseAckFlag(txn, c, m);
+						ack = true;
+					} else if (!db.containsMessage(txn, m) &&
+							offered < MAX_OFFERED_MESSAGES) {
+						// Only the contact has the message
+						db.addOfferedMessage(txn, c, m);
+						request = true;
+						offered++;
+					}
+				}
+				// Only we have the remaining messages, unless the contact
+				// has acked them
+				for (MessageId m : local) {
+					MessageStatus status = db.getMessageStatus(txn, c, m);
+					if (status != null && !status.isSeen()) {
+						db.raiseRequestedFlag(txn, c, m);
+						db.resetExpiryTime(txn, c, m);
+						requested = true;
+					}
+				}
+			}
+		}
+		if (acked.size() > 0) {
+			transaction.attach(new MessagesAckedEvent(c, acked));
+		}
+		if (ack) transaction.attach(new MessageToAckEvent(c));
+		if (request) transaction.attach(new MessageToRequestEvent(c));
+		if (requested) transaction.attach(new MessageRequestedEvent(c));
+		return reply.isEmpty() ? null : new Ranges(g, reply);
+	}
+
 	@Override
 	public void receiveRequest(Transaction transaction, ContactId c, Request r)
 			throws DbException {
@@ -1192,13 +1417,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 
 	@Override
 	public void setSyncVersions(Transaction transaction, ContactId c,
-			List<Byte> supported) throws DbException {
+			List<Byte> supported, List<Byte> capabilities) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		db.setSyncVersions(txn, c, supported);
-		transaction.attach(new SyncVersionsUpdatedEvent(c, supported));
+		db.setSyncVersions(txn, c, supported, capabilities);
+		transaction.attach(new SyncVersionsUpdatedEvent(c, supported,
+				capabilities));
 	}
 
 	@Override
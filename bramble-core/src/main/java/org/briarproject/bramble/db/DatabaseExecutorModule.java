@@ -1,7 +1,9 @@
 package org.briarproject.bramble.db;
 
 import org.briarproject.bramble.TimeLoggingExecutor;
+import org.briarproject.bramble.api.db.ContactDatabaseExecutor;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 
 import java.util.concurrent.BlockingQueue;
@@ -28,6 +30,12 @@ public class DatabaseExecutorModule {
 		ExecutorService executorService;
 	}
 
+	/**
+	 * The maximum number of threads used for running contacts' read-only
+	 * database tasks.
+	 */
+	private static final int MAX_CONTACT_DATABASE_THREADS = 4;
+
 	private final ExecutorService databaseExecutor;
 
 	public DatabaseExecutorModule() {
@@ -57,4 +65,25 @@ public class DatabaseExecutorModule {
 			@DatabaseExecutor ExecutorService dbExecutor) {
 		return dbExecutor;
 	}
+
+	@Provides
+	@Singleton
+	ContactDatabaseExecutor provideContactDatabaseExecutor(
+			LifecycleManager lifecycleManager, EventBus eventBus) {
+		// Read-only transactions share the database lock, so contacts'
+		// tasks can run concurrently with each other and with read-only
+		// tasks on the DatabaseExecutor
+		ThreadPoolExecutor pool = new TimeLoggingExecutor(
+				"ContactDatabaseExecutor", MAX_CONTACT_DATABASE_THREADS,
+				MAX_CONTACT_DATABASE_THREADS, 60, SECONDS,
+				new LinkedBlockingQueue<>(),
+				new ThreadPoolExecutor.DiscardPolicy());
+		// Allow idle threads to exit
+		pool.allowCoreThreadTimeOut(true);
+		lifecycleManager.registerForShutdown(pool);
+		ContactDatabaseExecutorImpl contactDatabaseExecutor =
+				new ContactDatabaseExecutorImpl(pool);
+		eventBus.addListener(contactDatabaseExecutor);
+		return contactDatabaseExecutor;
+	}
 }
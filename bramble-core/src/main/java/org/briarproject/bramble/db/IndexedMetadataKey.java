@@ -0,0 +1,47 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A message metadata key that's indexed for a given client and major version.
+ */
+@Immutable
+@NotNullByDefault
+class IndexedMetadataKey {
+
+	private final ClientId clientId;
+	private final int majorVersion;
+	private final String key;
+
+	IndexedMetadataKey(ClientId clientId, int majorVersion, String key) {
+		this.clientId = clientId;
+		this.majorVersion = majorVersion;
+		this.key = key;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	boolean isIndexedFor(ClientId c, int majorVersion) {
+		return clientId.equals(c) && this.majorVersion == majorVersion;
+	}
+
+	@Override
+	public int hashCode() {
+		return clientId.hashCode() ^ majorVersion ^ key.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof IndexedMetadataKey) {
+			IndexedMetadataKey k = (IndexedMetadataKey) o;
+			return clientId.equals(k.clientId)
+					&& majorVersion == k.majorVersion && key.equals(k.key);
+		}
+		return false;
+	}
+}
@@ -33,6 +33,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.Range;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -47,6 +48,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -57,6 +59,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -65,11 +70,15 @@ import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
+import static java.sql.Types.BIGINT;
 import static java.sql.Types.BINARY;
 import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static java.util.Arrays.asList;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.reverseOrder;
+import static java.util.Collections.sort;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
@@ -79,7 +88,9 @@ import static org.briarproject.bramble.api.db.Metadata.REMOVE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MIN_CAPABILITY;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
@@ -90,9 +101,15 @@ import static org.briarproject.bramble.db.DatabaseConstants.MAX_COMPACTION_INTER
 import static org.briarproject.bramble.db.DatabaseConstants.SCHEMA_VERSION_KEY;
 import static org.briarproject.bramble.db.ExponentialBackoff.calculateExpiry;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.db.MetadataEncoding.containsAll;
+import static org.briarproject.bramble.db.MetadataEncoding.decodeLong;
+import static org.briarproject.bramble.db.MetadataEncoding.decodeMetadata;
+import static org.briarproject.bramble.db.MetadataEncoding.encodeMetadata;
+import static org.briarproject.bramble.db.MetadataEncoding.getValue;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.LogUtils.now;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
 
 /**
  * A generic database implementation that can be used with any JDBC-compatible
@@ -102,7 +119,7 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 49;
+	static final int CODE_SCHEMA_VERSION = 55;
 
 	// Time period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
@@ -168,6 +185,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " (contactId INT NOT NULL,"
 					+ " groupId _HASH NOT NULL,"
 					+ " shared BOOLEAN NOT NULL,"
+					// The status rows of delivered, shared messages with
+					// timestamps before this have been compacted
+					+ " ackedBefore BIGINT NOT NULL,"
 					+ " PRIMARY KEY (contactId, groupId),"
 					+ " FOREIGN KEY (contactId)"
 					+ " REFERENCES contacts (contactId)"
@@ -190,19 +210,52 @@ abstract class JdbcDatabase implements Database<Connection> {
 					// hasn't started
 					+ " cleanupDeadline BIGINT,"
 					+ " length INT NOT NULL,"
-					+ " raw BLOB," // Null if message has been deleted
+					+ " deleted BOOLEAN NOT NULL,"
 					+ " PRIMARY KEY (messageId),"
 					+ " FOREIGN KEY (groupId)"
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	// Raw messages are kept out of the messages table so that scans of the
+	// messages table don't have to read them. The row is deleted when the
+	// message is deleted
+	private static final String CREATE_MESSAGE_BODIES =
+			"CREATE TABLE messageBodies"
+					+ " (messageId _HASH NOT NULL,"
+					+ " raw BLOB NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE)";
+
+	// All the metadata of a message is stored in one row, encoded by
+	// MetadataEncoding. The row is deleted when the metadata becomes empty
 	private static final String CREATE_MESSAGE_METADATA =
 			"CREATE TABLE messageMetadata"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL," // Denormalised
+					+ " state INT NOT NULL," // Denormalised
+					+ " metadata _BINARY NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
+	// A copy of the message metadata entries for any keys that have been
+	// registered as indexed, one row per entry, so that queries for those
+	// keys can use an index over the values without decoding the metadata.
+	// Integer and boolean values are also stored as longs for range queries
+	private static final String CREATE_INDEXED_MESSAGE_METADATA =
+			"CREATE TABLE indexedMessageMetadata"
 					+ " (messageId _HASH NOT NULL,"
 					+ " groupId _HASH NOT NULL," // Denormalised
 					+ " state INT NOT NULL," // Denormalised
 					+ " metaKey _STRING NOT NULL,"
 					+ " value _BINARY NOT NULL,"
+					+ " longValue BIGINT," // Null if not an integer or boolean
 					+ " PRIMARY KEY (messageId, metaKey),"
 					+ " FOREIGN KEY (messageId)"
 					+ " REFERENCES messages (messageId)"
@@ -211,6 +264,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	// The keys for which indexedMessageMetadata is populated, for each client
+	private static final String CREATE_INDEXED_METADATA_KEYS =
+			"CREATE TABLE indexedMetadataKeys"
+					+ " (clientId _STRING NOT NULL,"
+					+ " majorVersion INT NOT NULL,"
+					+ " metaKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (clientId, majorVersion, metaKey))";
+
 	private static final String CREATE_MESSAGE_DEPENDENCIES =
 			"CREATE TABLE messageDependencies"
 					+ " (groupId _HASH NOT NULL,"
@@ -333,6 +394,20 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
 					+ " ON messageMetadata (groupId, state)";
 
+	private static final String
+			INDEX_INDEXED_MESSAGE_METADATA_BY_GROUP_ID_STATE_KEY_VALUE =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " indexedMessageMetadataByGroupIdStateKeyValue"
+					+ " ON indexedMessageMetadata"
+					+ " (groupId, state, metaKey, value)";
+
+	private static final String
+			INDEX_INDEXED_MESSAGE_METADATA_BY_LONG_VALUE =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " indexedMessageMetadataByGroupIdStateKeyLongValue"
+					+ " ON indexedMessageMetadata"
+					+ " (groupId, state, metaKey, longValue)";
+
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
 					+ " ON messageDependencies (dependencyId)";
@@ -354,6 +429,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messagesByCleanupDeadline"
 					+ " ON messages (cleanupDeadline)";
 
+	private static final String INDEX_MESSAGES_BY_GROUP_ID_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByGroupIdTimestamp"
+					+ " ON messages (groupId, timestamp)";
+
 	private static final Logger LOG =
 			getLogger(JdbcDatabase.class.getName());
 
@@ -372,6 +451,77 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@GuardedBy("connectionsLock")
 	private boolean closed = false;
 
+	/**
+	 * The metadata keys that have been registered as indexed by committed
+	 * transactions.
+	 */
+	private final Set<IndexedMetadataKey> indexedKeys =
+			new CopyOnWriteArraySet<>();
+
+	/**
+	 * The metadata keys that have been registered as indexed by each
+	 * connection's current transaction, which are added to
+	 * {@link #indexedKeys} when the transaction commits.
+	 */
+	private final Map<Connection, Set<IndexedMetadataKey>> pendingKeys =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * A fingerprint of the delivered, shared messages in each group, as of
+	 * the last commit that changed them. Set reconciliation starts with a
+	 * fingerprint of each shared group, so caching them saves scanning every
+	 * group's messages whenever a connection is opened.
+	 * <p/>
+	 * The cache is only changed when a transaction commits or aborts. Every
+	 * method that changes the groupId, state, shared or timestamp column of
+	 * the messages table, or adds or removes rows, must call
+	 * {@link #fingerprintChanged(Connection, GroupId)} or one of its
+	 * variants, so the affected fingerprints are removed when the
+	 * transaction ends.
+	 */
+	private final Map<GroupId, Range> fingerprints = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented whenever a commit may have changed any fingerprints, so a
+	 * fingerprint calculated from the data before the commit isn't cached
+	 * after it.
+	 */
+	private final AtomicLong fingerprintGeneration = new AtomicLong(0);
+
+	/**
+	 * The groups whose fingerprints may have been changed by each
+	 * connection's current transaction, which are removed from
+	 * {@link #fingerprints} when the transaction commits or aborts.
+	 */
+	private final Map<Connection, Set<GroupId>> pendingFingerprints =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The connections whose current transactions may have changed the
+	 * fingerprints of groups that weren't looked up because no fingerprints
+	 * were cached at the time. All fingerprints are removed from
+	 * {@link #fingerprints} when such a transaction commits or aborts.
+	 */
+	private final Set<Connection> unknownFingerprints =
+			newSetFromMap(new ConcurrentHashMap<>());
+
+	/**
+	 * The fingerprints calculated by each connection's current transaction,
+	 * which are added to {@link #fingerprints} when the transaction commits,
+	 * so a transaction that's rolled back can't leave anything in the cache.
+	 */
+	private final Map<Connection, Map<GroupId, Range>> calculatedFingerprints =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The value of {@link #fingerprintGeneration} when each connection's
+	 * current transaction calculated its first fingerprint. If another
+	 * commit may have changed any fingerprints since then, the calculated
+	 * fingerprints aren't cached.
+	 */
+	private final Map<Connection, Long> calculatedGenerations =
+			new ConcurrentHashMap<>();
+
 	private volatile boolean wasDirtyOnInitialisation = false;
 
 	protected abstract Connection createConnection()
@@ -416,6 +566,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 				LOG.info("db dirty? " + wasDirtyOnInitialisation);
 			}
 			createIndexes(txn);
+			indexedKeys.clear();
+			indexedKeys.addAll(loadIndexedMetadataKeys(txn));
 			setDirty(txn, true);
 			commitTransaction(txn);
 		} catch (DbException e) {
@@ -443,6 +595,31 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	private Set<IndexedMetadataKey> loadIndexedMetadataKeys(Connection txn)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT clientId, majorVersion, metaKey"
+					+ " FROM indexedMetadataKeys";
+			ps = txn.prepareStatement(sql);
+			rs = ps.executeQuery();
+			Set<IndexedMetadataKey> keys = new HashSet<>();
+			while (rs.next()) {
+				ClientId c = new ClientId(rs.getString(1));
+				keys.add(new IndexedMetadataKey(c, rs.getInt(2),
+						rs.getString(3)));
+			}
+			rs.close();
+			ps.close();
+			return keys;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean wasDirtyOnInitialisation() {
 		return wasDirtyOnInitialisation;
@@ -499,7 +676,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration45_46(),
 				new Migration46_47(dbTypes),
 				new Migration47_48(),
-				new Migration48_49()
+				new Migration48_49(),
+				new Migration49_50(dbTypes),
+				new Migration50_51(),
+				new Migration51_52(dbTypes),
+				new Migration52_53(),
+				new Migration53_54(dbTypes),
+				new Migration54_55(dbTypes)
 		);
 	}
 
@@ -552,7 +735,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_GROUP_METADATA));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_GROUP_VISIBILITIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGES));
+			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_BODIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_METADATA));
+			s.executeUpdate(dbTypes.replaceTypes(
+					CREATE_INDEXED_MESSAGE_METADATA));
+			s.executeUpdate(dbTypes.replaceTypes(
+					CREATE_INDEXED_METADATA_KEYS));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_DEPENDENCIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_OFFERS));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_STATUSES));
@@ -574,11 +762,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(
+					INDEX_INDEXED_MESSAGE_METADATA_BY_GROUP_ID_STATE_KEY_VALUE);
+			s.executeUpdate(INDEX_INDEXED_MESSAGE_METADATA_BY_LONG_VALUE);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TX_COUNT_TIMESTAMP);
 			s.executeUpdate(INDEX_MESSAGES_BY_CLEANUP_DEADLINE);
+			s.executeUpdate(INDEX_MESSAGES_BY_GROUP_ID_TIMESTAMP);
 			s.close();
 		} catch (SQLException e) {
 			tryToClose(s, LOG, WARNING);
@@ -616,6 +808,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void abortTransaction(Connection txn) {
+		// If the transaction registered any keys and the commit failed, the
+		// keys may already have been added
+		Set<IndexedMetadataKey> pending = pendingKeys.remove(txn);
+		if (pending != null) indexedKeys.removeAll(pending);
+		// The commit may have failed after changing the data, so remove any
+		// fingerprints the transaction may have changed
+		updateFingerprints(txn, false);
 		try {
 			txn.rollback();
 			connectionsLock.lock();
@@ -642,11 +841,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void commitTransaction(Connection txn) throws DbException {
+		// Add any keys registered by the transaction before committing, so
+		// no transaction that starts after the commit can miss them
+		Set<IndexedMetadataKey> pending = pendingKeys.get(txn);
+		if (pending != null) indexedKeys.addAll(pending);
 		try {
 			txn.commit();
 		} catch (SQLException e) {
 			throw new DbException(e);
 		}
+		pendingKeys.remove(txn);
+		updateFingerprints(txn, true);
 		connectionsLock.lock();
 		try {
 			connections.add(txn);
@@ -656,6 +861,33 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Removes any fingerprints that may have been changed by the given
+	 * connection's transaction, which has just been committed or aborted,
+	 * and if it was committed, caches the fingerprints it calculated.
+	 */
+	private void updateFingerprints(Connection txn, boolean committed) {
+		Set<GroupId> changed = pendingFingerprints.remove(txn);
+		boolean unknown = unknownFingerprints.remove(txn);
+		Map<GroupId, Range> calculated = calculatedFingerprints.remove(txn);
+		Long generation = calculatedGenerations.remove(txn);
+		if (changed != null || unknown) {
+			// Increment the generation before removing the fingerprints, so
+			// any fingerprint calculated before the commit and cached after
+			// the removal will be removed by the thread that cached it
+			fingerprintGeneration.incrementAndGet();
+			if (unknown) fingerprints.clear();
+			else fingerprints.keySet().removeAll(changed);
+		}
+		if (!committed || calculated == null || generation == null) return;
+		// If a commit may have changed any fingerprints since they were
+		// calculated, including this one, don't cache them
+		if (fingerprintGeneration.get() != generation) return;
+		fingerprints.putAll(calculated);
+		if (fingerprintGeneration.get() != generation)
+			fingerprints.keySet().removeAll(calculated.keySet());
+	}
+
 	void closeAllConnections() throws SQLException {
 		boolean interrupted = false;
 		connectionsLock.lock();
@@ -751,8 +983,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "INSERT INTO groupVisibilities"
-					+ " (contactId, groupId, shared)"
-					+ " VALUES (?, ?, ?)";
+					+ " (contactId, groupId, shared, ackedBefore)"
+					+ " VALUES (?, ?, ?, 0)";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
@@ -774,7 +1006,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT messageId, timestamp, state, shared,"
-					+ " length, raw IS NULL"
+					+ " length, deleted"
 					+ " FROM messages"
 					+ " WHERE groupId = ?";
 			ps = txn.prepareStatement(sql);
@@ -829,6 +1061,139 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void addIndexedMetadataKey(Connection txn, ClientId c,
+			int majorVersion, String key) throws DbException {
+		PreparedStatement ps = null;
+		PreparedStatement insert = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT NULL FROM indexedMetadataKeys"
+					+ " WHERE clientId = ? AND majorVersion = ?"
+					+ " AND metaKey = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setString(1, c.getString());
+			ps.setInt(2, majorVersion);
+			ps.setString(3, key);
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			rs.close();
+			ps.close();
+			if (found) return;
+			long start = now();
+			sql = "INSERT INTO indexedMetadataKeys"
+					+ " (clientId, majorVersion, metaKey)"
+					+ " VALUES (?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setString(1, c.getString());
+			ps.setInt(2, majorVersion);
+			ps.setString(3, key);
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+			// Copy the existing entries for the key
+			sql = "INSERT INTO indexedMessageMetadata"
+					+ " (messageId, groupId, state, metaKey, value, longValue)"
+					+ " VALUES (?, ?, ?, ?, ?, ?)";
+			insert = txn.prepareStatement(sql);
+			insert.setString(4, key);
+			sql = "SELECT mm.messageId, mm.groupId, mm.state, mm.metadata"
+					+ " FROM messageMetadata AS mm"
+					+ " JOIN groups AS g"
+					+ " ON mm.groupId = g.groupId"
+					+ " WHERE g.clientId = ? AND g.majorVersion = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setString(1, c.getString());
+			ps.setInt(2, majorVersion);
+			rs = ps.executeQuery();
+			byte[] encodedKey = toUtf8(key);
+			int entries = 0;
+			while (rs.next()) {
+				byte[] value = getValue(rs.getBytes(4), encodedKey);
+				if (value == null) continue;
+				insert.setBytes(1, rs.getBytes(1));
+				insert.setBytes(2, rs.getBytes(2));
+				insert.setInt(3, rs.getInt(3));
+				setIndexedValue(insert, 5, value);
+				insert.addBatch();
+				entries++;
+			}
+			rs.close();
+			ps.close();
+			int[] batchAffected = insert.executeBatch();
+			if (batchAffected.length != entries) throw new DbStateException();
+			for (int rows : batchAffected)
+				if (rows != 1) throw new DbStateException();
+			insert.close();
+			// The key is indexed for other transactions when this one commits
+			Set<IndexedMetadataKey> pending = pendingKeys.get(txn);
+			if (pending == null) {
+				pending = new HashSet<>();
+				pendingKeys.put(txn, pending);
+			}
+			pending.add(new IndexedMetadataKey(c, majorVersion, key));
+			logDuration(LOG, "Indexing metadata key " + key, start);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			tryToClose(insert, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	// Sets the value and long value parameters of a statement that inserts
+	// an indexed metadata entry
+	private void setIndexedValue(PreparedStatement ps, int index,
+			byte[] value) throws SQLException {
+		ps.setBytes(index, value);
+		Long longValue = decodeLong(value);
+		if (longValue == null) ps.setNull(index + 1, BIGINT);
+		else ps.setLong(index + 1, longValue);
+	}
+
+	// Returns true if any metadata keys are indexed for any client, as seen
+	// by the given transaction
+	private boolean hasIndexedKeys(Connection txn) {
+		return !indexedKeys.isEmpty() || pendingKeys.containsKey(txn);
+	}
+
+	// Returns the metadata keys that are indexed for the client that owns
+	// the given group, as seen by the given transaction
+	private Set<String> getIndexedKeys(Connection txn, GroupId g)
+			throws DbException {
+		if (!hasIndexedKeys(txn)) return Collections.emptySet();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT clientId, majorVersion FROM groups"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			ClientId c = new ClientId(rs.getString(1));
+			int majorVersion = rs.getInt(2);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			Set<String> keys = new HashSet<>();
+			for (IndexedMetadataKey k : indexedKeys) {
+				if (k.isIndexedFor(c, majorVersion)) keys.add(k.getKey());
+			}
+			Set<IndexedMetadataKey> pending = pendingKeys.get(txn);
+			if (pending != null) {
+				for (IndexedMetadataKey k : pending) {
+					if (k.isIndexedFor(c, majorVersion)) keys.add(k.getKey());
+				}
+			}
+			return keys;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void addMessage(Connection txn, Message m, MessageState state,
 			boolean shared, boolean temporary, @Nullable ContactId sender)
@@ -836,8 +1201,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "INSERT INTO messages (messageId, groupId, timestamp,"
-					+ " state, shared, temporary, length, raw)"
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+					+ " state, shared, temporary, length, deleted)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, FALSE)";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getId().getBytes());
 			ps.setBytes(2, m.getGroupId().getBytes());
@@ -847,10 +1212,18 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(6, temporary);
 			byte[] raw = messageFactory.getRawMessage(m);
 			ps.setInt(7, raw.length);
-			ps.setBytes(8, raw);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			sql = "INSERT INTO messageBodies (messageId, raw) VALUES (?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getId().getBytes());
+			ps.setBytes(2, raw);
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+			if (state == DELIVERED && shared)
+				fingerprintChanged(txn, m.getGroupId());
 			// Create a status row for each contact that can see the group
 			Map<ContactId, Boolean> visibility =
 					getGroupVisibility(txn, m.getGroupId());
@@ -941,6 +1314,77 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns true if the status row of the given message with respect to
+	 * the given contact has been compacted. The caller must already have
+	 * checked that the row doesn't exist.
+	 */
+	private boolean isStatusCompacted(Connection txn, ContactId c,
+			MessageId m) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT NULL FROM messages AS m"
+					+ " JOIN groupVisibilities AS gv"
+					+ " ON m.groupId = gv.groupId"
+					+ " WHERE m.messageId = ? AND gv.contactId = ?"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.timestamp < gv.ackedBefore";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			ps.setInt(2, c.getInt());
+			ps.setInt(3, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return found;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Restores the compacted status row of the given message with respect
+	 * to the given contact, with the given ack and requested flags, and
+	 * returns true if the row was restored. The caller must already have
+	 * checked that the row doesn't exist.
+	 */
+	private boolean restoreStatus(Connection txn, ContactId c, MessageId m,
+			boolean ack, boolean requested) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount, eta)"
+					+ " SELECT m.messageId, gv.contactId, m.groupId,"
+					+ " m.timestamp, m.length, m.state, gv.shared, m.shared,"
+					+ " m.deleted, ?, TRUE, ?, 0, 0, 0"
+					+ " FROM messages AS m"
+					+ " JOIN groupVisibilities AS gv"
+					+ " ON m.groupId = gv.groupId"
+					+ " WHERE m.messageId = ? AND gv.contactId = ?"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.timestamp < gv.ackedBefore";
+			ps = txn.prepareStatement(sql);
+			ps.setBoolean(1, ack);
+			ps.setBoolean(2, requested);
+			ps.setBytes(3, m.getBytes());
+			ps.setInt(4, c.getInt());
+			ps.setInt(5, DELIVERED.getValue());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			return affected == 1;
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void addMessageDependency(Connection txn, Message dependent,
 			MessageId dependency, MessageState dependentState)
@@ -1357,6 +1801,119 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public int compactStatuses(Connection txn, ContactId c,
+			Collection<MessageId> acked) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Find the groups of the acked messages. Rows in other groups
+			// can't have become compactable since they were last compacted
+			String sql = "SELECT groupId FROM messages WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			Set<GroupId> groups = new HashSet<>();
+			for (MessageId m : acked) {
+				ps.setBytes(1, m.getBytes());
+				rs = ps.executeQuery();
+				if (rs.next()) groups.add(new GroupId(rs.getBytes(1)));
+				if (rs.next()) throw new DbStateException();
+				rs.close();
+			}
+			ps.close();
+			if (groups.isEmpty()) return 0;
+			// For each group, find the watermark, the newest timestamp, the
+			// oldest timestamp of a message that's still being synced and
+			// the oldest timestamp of a row that could be compacted
+			sql = "SELECT gv.ackedBefore,"
+					+ " MAX(s.timestamp),"
+					+ " MIN(CASE WHEN s.ack = TRUE OR s.requested = TRUE"
+					+ " OR (s.seen = FALSE AND s.state = ?"
+					+ " AND s.groupShared = TRUE AND s.messageShared = TRUE"
+					+ " AND s.deleted = FALSE)"
+					+ " THEN s.timestamp END),"
+					+ " MIN(CASE WHEN s.seen = TRUE AND s.ack = FALSE"
+					+ " AND s.requested = FALSE AND s.state = ?"
+					+ " AND s.messageShared = TRUE"
+					+ " THEN s.timestamp END)"
+					+ " FROM groupVisibilities AS gv"
+					+ " JOIN statuses AS s"
+					+ " ON gv.contactId = s.contactId"
+					+ " AND gv.groupId = s.groupId"
+					+ " WHERE gv.contactId = ? AND gv.groupId = ?"
+					+ " GROUP BY gv.ackedBefore";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setInt(3, c.getInt());
+			Map<GroupId, Long> watermarks = new HashMap<>();
+			Map<GroupId, Long> advanced = new HashMap<>();
+			for (GroupId g : groups) {
+				ps.setBytes(4, g.getBytes());
+				rs = ps.executeQuery();
+				if (!rs.next()) {
+					// The group isn't visible to the contact
+					rs.close();
+					continue;
+				}
+				long ackedBefore = rs.getLong(1);
+				long newest = rs.getLong(2);
+				long oldestInFlight = rs.getLong(3);
+				if (rs.wasNull()) oldestInFlight = newest + 1;
+				long oldestCompactable = rs.getLong(4);
+				boolean anyCompactable = !rs.wasNull();
+				if (rs.next()) throw new DbStateException();
+				rs.close();
+				// The watermark never moves backwards, as rows below it
+				// may already have been compacted
+				long watermark = Math.max(ackedBefore, oldestInFlight);
+				if (anyCompactable && oldestCompactable < watermark) {
+					watermarks.put(g, watermark);
+					if (watermark > ackedBefore) advanced.put(g, watermark);
+				}
+			}
+			ps.close();
+			if (watermarks.isEmpty()) return 0;
+			if (!advanced.isEmpty()) {
+				sql = "UPDATE groupVisibilities SET ackedBefore = ?"
+						+ " WHERE contactId = ? AND groupId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setInt(2, c.getInt());
+				for (Entry<GroupId, Long> e : advanced.entrySet()) {
+					ps.setLong(1, e.getValue());
+					ps.setBytes(3, e.getKey().getBytes());
+					ps.addBatch();
+				}
+				int[] batchAffected = ps.executeBatch();
+				if (batchAffected.length != advanced.size())
+					throw new DbStateException();
+				for (int rows : batchAffected)
+					if (rows != 1) throw new DbStateException();
+				ps.close();
+			}
+			sql = "DELETE FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND timestamp < ?"
+					+ " AND seen = TRUE AND ack = FALSE AND requested = FALSE"
+					+ " AND state = ? AND messageShared = TRUE";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(4, DELIVERED.getValue());
+			int removed = 0;
+			for (Entry<GroupId, Long> e : watermarks.entrySet()) {
+				ps.setBytes(2, e.getKey().getBytes());
+				ps.setLong(3, e.getValue());
+				int affected = ps.executeUpdate();
+				if (affected < 0) throw new DbStateException();
+				removed += affected;
+			}
+			ps.close();
+			return removed;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean containsVisibleMessage(Connection txn, ContactId c,
 			MessageId m) throws DbException {
@@ -1374,7 +1931,82 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
-			return found;
+			return found || isStatusCompacted(txn, c, m);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public int countMessages(Connection txn, GroupId g, Metadata query)
+			throws DbException {
+		// Unless all the query terms are indexed, count the matching IDs
+		Set<String> indexed = getIndexedKeys(txn, g);
+		if (query.isEmpty() || !indexed.containsAll(query.keySet()))
+			return getMessageIds(txn, g, query).size();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Match the first query term and check the others for each match
+			StringBuilder sql = new StringBuilder("SELECT COUNT (m.messageId)"
+					+ " FROM indexedMessageMetadata AS m"
+					+ " WHERE m.groupId = ? AND m.state = ?"
+					+ " AND m.metaKey = ? AND m.value = ?");
+			for (int i = 1; i < query.size(); i++) {
+				sql.append(" AND EXISTS (SELECT NULL"
+						+ " FROM indexedMessageMetadata AS t"
+						+ " WHERE t.messageId = m.messageId"
+						+ " AND t.metaKey = ? AND t.value = ?)");
+			}
+			ps = txn.prepareStatement(sql.toString());
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			int index = 3;
+			for (Entry<String, byte[]> e : query.entrySet()) {
+				ps.setString(index++, e.getKey());
+				ps.setBytes(index++, e.getValue());
+			}
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			int count = rs.getInt(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return count;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public int countMessages(Connection txn, GroupId g, String key, long min,
+			long max) throws DbException {
+		if (!getIndexedKeys(txn, g).contains(key))
+			return getMessageIdsInRange(txn, g, key, min, max).size();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT COUNT (messageId)"
+					+ " FROM indexedMessageMetadata"
+					+ " WHERE groupId = ? AND state = ? AND metaKey = ?"
+					+ " AND longValue >= ? AND longValue <= ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setString(3, key);
+			ps.setLong(4, min);
+			ps.setLong(5, max);
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			int count = rs.getInt(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return count;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1411,7 +2043,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages"
-					+ " SET raw = NULL, cleanupDeadline = NULL"
+					+ " SET deleted = TRUE, cleanupDeadline = NULL"
 					+ " WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
@@ -1419,6 +2051,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (affected < 0) throw new DbStateException();
 			if (affected > 1) throw new DbStateException();
 			ps.close();
+			// Delete the raw message
+			sql = "DELETE FROM messageBodies WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			if (affected > 1) throw new DbStateException();
+			ps.close();
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET deleted = TRUE WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
@@ -1443,6 +2083,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			if (!hasIndexedKeys(txn)) return;
+			sql = "DELETE FROM indexedMessageMetadata WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1814,8 +2461,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT groupId, timestamp, raw FROM messages"
-					+ " WHERE messageId = ?";
+			String sql = "SELECT groupId, timestamp, raw"
+					+ " FROM messages AS m"
+					+ " LEFT OUTER JOIN messageBodies AS b"
+					+ " ON m.messageId = b.messageId"
+					+ " WHERE m.messageId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
@@ -1862,20 +2512,122 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Long> getMessageIdsBefore(Connection txn,
+			GroupId g, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		// Messages with the same timestamp are ordered by ID here rather
+		// than in SQL, as databases may not compare binary values the same
+		// way as MessageId#compareTo()
+		Map<MessageId, Long> ids = new LinkedHashMap<>();
+		if (m != null) {
+			// Messages with the cursor's timestamp and smaller IDs come first
+			for (MessageId id : getMessageIdsWithTimestamp(txn, g, timestamp)) {
+				if (id.compareTo(m) < 0) ids.put(id, timestamp);
+				if (ids.size() == limit) return ids;
+			}
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, timestamp FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND deleted = FALSE"
+					+ " AND timestamp < ?"
+					+ " ORDER BY timestamp DESC LIMIT ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, timestamp);
+			int remaining = limit - ids.size();
+			ps.setInt(4, remaining);
+			rs = ps.executeQuery();
+			List<MessageId> sameTimestamp = new ArrayList<>();
+			long last = 0;
+			int rows = 0;
+			while (rs.next()) {
+				MessageId id = new MessageId(rs.getBytes(1));
+				long t = rs.getLong(2);
+				if (rows > 0 && t != last) {
+					sort(sameTimestamp, reverseOrder());
+					for (MessageId id1 : sameTimestamp) ids.put(id1, last);
+					sameTimestamp.clear();
+				}
+				sameTimestamp.add(id);
+				last = t;
+				rows++;
+			}
+			rs.close();
+			ps.close();
+			if (rows == remaining) {
+				// The page may end partway through the messages with the
+				// last timestamp, so find out which of them come first
+				sameTimestamp = getMessageIdsWithTimestamp(txn, g, last);
+			} else {
+				sort(sameTimestamp, reverseOrder());
+			}
+			for (MessageId id : sameTimestamp) {
+				if (ids.size() == limit) break;
+				ids.put(id, last);
+			}
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the IDs of the delivered, undeleted messages in the given group
+	 * with the given timestamp, in descending order of ID.
+	 */
+	private List<MessageId> getMessageIdsWithTimestamp(Connection txn,
+			GroupId g, long timestamp) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND deleted = FALSE"
+					+ " AND timestamp = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, timestamp);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			sort(ids, reverseOrder());
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
 			Metadata query) throws DbException {
 		// If there are no query terms, return all delivered messages
 		if (query.isEmpty()) return getMessageIds(txn, g);
+		Set<String> indexed = getIndexedKeys(txn, g);
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
+			// Retrieve the message IDs for each query term that can use the
+			// index and intersect
+			Metadata notIndexed = new Metadata();
 			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
 			for (Entry<String, byte[]> e : query.entrySet()) {
+				if (!indexed.contains(e.getKey())) {
+					notIndexed.put(e.getKey(), e.getValue());
+					continue;
+				}
+				String sql = "SELECT messageId FROM indexedMessageMetadata"
+						+ " WHERE groupId = ? AND state = ?"
+						+ " AND metaKey = ? AND value = ?";
 				ps = txn.prepareStatement(sql);
 				ps.setBytes(1, g.getBytes());
 				ps.setInt(2, DELIVERED.getValue());
@@ -1891,7 +2643,109 @@ abstract class JdbcDatabase implements Database<Connection> {
 				// Return early if there are no matches
 				if (intersection.isEmpty()) return Collections.emptySet();
 			}
-			return intersection;
+			if (notIndexed.isEmpty()) return intersection;
+			// Check the encoded metadata of the remaining candidates, or of
+			// every delivered message if no terms are indexed, against the
+			// other terms
+			byte[][] keys = new byte[notIndexed.size()][];
+			byte[][] values = new byte[notIndexed.size()][];
+			int i = 0;
+			for (Entry<String, byte[]> e : notIndexed.entrySet()) {
+				keys[i] = toUtf8(e.getKey());
+				values[i++] = e.getValue();
+			}
+			Set<MessageId> ids = new HashSet<>();
+			if (intersection != null) {
+				// Only read the metadata of the candidates
+				String sql = "SELECT metadata FROM messageMetadata"
+						+ " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				for (MessageId m : intersection) {
+					ps.setBytes(1, m.getBytes());
+					rs = ps.executeQuery();
+					if (rs.next() && containsAll(rs.getBytes(1), keys, values))
+						ids.add(m);
+					rs.close();
+				}
+				ps.close();
+				return ids;
+			}
+			String sql = "SELECT messageId, metadata FROM messageMetadata"
+					+ " WHERE groupId = ? AND state = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				// Only create IDs for the messages that match
+				if (containsAll(rs.getBytes(2), keys, values))
+					ids.add(new MessageId(rs.getBytes(1)));
+			}
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
+			String key, long min, long max) throws DbException {
+		if (!getIndexedKeys(txn, g).contains(key))
+			return getMessageIdsInRange(txn, g, key, min, max);
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM indexedMessageMetadata"
+					+ " WHERE groupId = ? AND state = ? AND metaKey = ?"
+					+ " AND longValue >= ? AND longValue <= ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setString(3, key);
+			ps.setLong(4, min);
+			ps.setLong(5, max);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	// Checks the encoded metadata of every delivered message in the group,
+	// for keys that aren't indexed
+	private List<MessageId> getMessageIdsInRange(Connection txn, GroupId g,
+			String key, long min, long max) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, metadata FROM messageMetadata"
+					+ " WHERE groupId = ? AND state = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			byte[] encodedKey = toUtf8(key);
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) {
+				byte[] value = getValue(rs.getBytes(2), encodedKey);
+				if (value == null) continue;
+				Long l = decodeLong(value);
+				if (l != null && l >= min && l <= max)
+					ids.add(new MessageId(rs.getBytes(1)));
+			}
+			rs.close();
+			ps.close();
+			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1905,8 +2759,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId, metaKey, value"
-					+ " FROM messageMetadata"
+			String sql = "SELECT messageId, metadata FROM messageMetadata"
 					+ " WHERE groupId = ? AND state = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
@@ -1914,13 +2767,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs = ps.executeQuery();
 			Map<MessageId, Metadata> all = new HashMap<>();
 			while (rs.next()) {
-				MessageId messageId = new MessageId(rs.getBytes(1));
-				Metadata metadata = all.get(messageId);
-				if (metadata == null) {
-					metadata = new Metadata();
-					all.put(messageId, metadata);
-				}
-				metadata.put(rs.getString(2), rs.getBytes(3));
+				all.put(new MessageId(rs.getBytes(1)),
+						decodeMetadata(rs.getBytes(2)));
 			}
 			rs.close();
 			ps.close();
@@ -1973,14 +2821,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT metaKey, value FROM messageMetadata"
+			String sql = "SELECT metadata FROM messageMetadata"
 					+ " WHERE state = ? AND messageId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setBytes(2, m.getBytes());
 			rs = ps.executeQuery();
-			Metadata metadata = new Metadata();
-			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
+			Metadata metadata = rs.next() ? decodeMetadata(rs.getBytes(1))
+					: new Metadata();
+			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
 			return metadata;
@@ -1991,13 +2840,44 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT messageId, metadata"
+					+ " FROM messageMetadata"
+					+ " WHERE state = ? AND messageId IN (?");
+			for (int i = 1; i < ids.size(); i++) sql.append(", ?");
+			sql.append(")");
+			ps = txn.prepareStatement(sql.toString());
+			ps.setInt(1, DELIVERED.getValue());
+			int index = 2;
+			for (MessageId m : ids) ps.setBytes(index++, m.getBytes());
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new HashMap<>();
+			while (rs.next()) {
+				all.put(new MessageId(rs.getBytes(1)),
+						decodeMetadata(rs.getBytes(2)));
+			}
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Metadata getMessageMetadataForValidator(Connection txn, MessageId m)
 			throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT metaKey, value FROM messageMetadata"
+			String sql = "SELECT metadata FROM messageMetadata"
 					+ " WHERE (state = ? OR state = ?)"
 					+ " AND messageId = ?";
 			ps = txn.prepareStatement(sql);
@@ -2005,8 +2885,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(2, PENDING.getValue());
 			ps.setBytes(3, m.getBytes());
 			rs = ps.executeQuery();
-			Metadata metadata = new Metadata();
-			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
+			Metadata metadata = rs.next() ? decodeMetadata(rs.getBytes(1))
+					: new Metadata();
+			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
 			return metadata;
@@ -2039,6 +2920,28 @@ abstract class JdbcDatabase implements Database<Connection> {
 			}
 			rs.close();
 			ps.close();
+			// Messages with compacted status rows have been seen
+			sql = "SELECT m.messageId FROM messages AS m"
+					+ " JOIN groupVisibilities AS gv"
+					+ " ON m.groupId = gv.groupId"
+					+ " LEFT OUTER JOIN statuses AS s"
+					+ " ON m.messageId = s.messageId"
+					+ " AND gv.contactId = s.contactId"
+					+ " WHERE m.groupId = ? AND gv.contactId = ?"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.timestamp < gv.ackedBefore"
+					+ " AND s.messageId IS NULL";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, c.getInt());
+			ps.setInt(3, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				statuses.add(new MessageStatus(messageId, c, true, true));
+			}
+			rs.close();
+			ps.close();
 			return statuses;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2070,6 +2973,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
+			if (status == null && isStatusCompacted(txn, c, m))
+				status = new MessageStatus(m, c, true, true);
 			return status;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2078,6 +2983,70 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(Connection txn,
+			ContactId c, Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT messageId,"
+					+ " txCount > 0, seen FROM statuses"
+					+ " WHERE contactId = ? AND state = ?"
+					+ " AND messageId IN (?");
+			for (int i = 1; i < ids.size(); i++) sql.append(", ?");
+			sql.append(")");
+			ps = txn.prepareStatement(sql.toString());
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			int index = 3;
+			for (MessageId m : ids) ps.setBytes(index++, m.getBytes());
+			rs = ps.executeQuery();
+			Map<MessageId, MessageStatus> statuses = new HashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				boolean sent = rs.getBoolean(2);
+				boolean seen = rs.getBoolean(3);
+				statuses.put(messageId,
+						new MessageStatus(messageId, c, sent, seen));
+			}
+			rs.close();
+			ps.close();
+			// Messages with compacted status rows have been seen
+			List<MessageId> missing = new ArrayList<>();
+			for (MessageId m : ids) {
+				if (!statuses.containsKey(m)) missing.add(m);
+			}
+			if (missing.isEmpty()) return statuses;
+			sql = new StringBuilder("SELECT m.messageId FROM messages AS m"
+					+ " JOIN groupVisibilities AS gv"
+					+ " ON m.groupId = gv.groupId"
+					+ " WHERE gv.contactId = ?"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.timestamp < gv.ackedBefore"
+					+ " AND m.messageId IN (?");
+			for (int i = 1; i < missing.size(); i++) sql.append(", ?");
+			sql.append(")");
+			ps = txn.prepareStatement(sql.toString());
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			index = 3;
+			for (MessageId m : missing) ps.setBytes(index++, m.getBytes());
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				statuses.put(messageId,
+						new MessageStatus(messageId, c, true, true));
+			}
+			rs.close();
+			ps.close();
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, MessageState> getMessageDependencies(Connection txn,
 			MessageId m) throws DbException {
@@ -2189,25 +3158,34 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public Collection<MessageId> getMessagesToOffer(Connection txn,
-			ContactId c, int maxMessages, long maxLatency) throws DbException {
+			ContactId c, int maxMessages, long maxLatency,
+			Collection<GroupId> excluded) throws DbException {
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId FROM statuses"
+			StringBuilder sql = new StringBuilder("SELECT messageId"
+					+ " FROM statuses"
 					+ " WHERE contactId = ? AND state = ?"
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
 					+ " AND deleted = FALSE"
 					+ " AND seen = FALSE AND requested = FALSE"
-					+ " AND (expiry <= ? OR eta > ?)"
-					+ " ORDER BY timestamp LIMIT ?";
-			ps = txn.prepareStatement(sql);
+					+ " AND (expiry <= ? OR eta > ?)");
+			if (!excluded.isEmpty()) {
+				sql.append(" AND groupId NOT IN (?");
+				for (int i = 1; i < excluded.size(); i++) sql.append(", ?");
+				sql.append(")");
+			}
+			sql.append(" ORDER BY timestamp LIMIT ?");
+			ps = txn.prepareStatement(sql.toString());
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, eta);
-			ps.setInt(5, maxMessages);
+			int index = 5;
+			for (GroupId g : excluded) ps.setBytes(index++, g.getBytes());
+			ps.setInt(index, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
@@ -2285,6 +3263,36 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<MessageId> getUnseenMessageIds(Connection txn,
+			ContactId c, GroupId g, long lower, long upper)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND state = ?"
+					+ " AND messageShared = TRUE AND seen = FALSE"
+					+ " AND timestamp >= ? AND timestamp < ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			ps.setInt(3, DELIVERED.getValue());
+			ps.setLong(4, lower);
+			ps.setLong(5, upper);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, Integer> getUnackedMessagesToSend(Connection txn,
 			ContactId c) throws DbException {
@@ -2360,7 +3368,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT messageId FROM messages"
-					+ " WHERE state = ? AND raw IS NOT NULL";
+					+ " WHERE state = ? AND deleted = FALSE";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, state.getValue());
 			rs = ps.executeQuery();
@@ -2545,6 +3553,151 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Range getRangeFingerprint(Connection txn, GroupId g, long lower,
+			long upper) throws DbException {
+		if (lower != 0 || upper != Long.MAX_VALUE)
+			return calculateRangeFingerprint(txn, g, lower, upper);
+		// The cache can't be used by transactions that may have changed the
+		// group's fingerprint
+		if (unknownFingerprints.contains(txn))
+			return calculateRangeFingerprint(txn, g, lower, upper);
+		Set<GroupId> changed = pendingFingerprints.get(txn);
+		if (changed != null && changed.contains(g))
+			return calculateRangeFingerprint(txn, g, lower, upper);
+		Range cached = fingerprints.get(g);
+		if (cached != null) return cached;
+		Map<GroupId, Range> calculated = calculatedFingerprints.get(txn);
+		if (calculated == null) {
+			calculatedGenerations.put(txn, fingerprintGeneration.get());
+			calculated = new HashMap<>();
+			calculatedFingerprints.put(txn, calculated);
+		} else {
+			cached = calculated.get(g);
+			if (cached != null) return cached;
+		}
+		// The fingerprint will be cached if the transaction commits
+		Range range = calculateRangeFingerprint(txn, g, lower, upper);
+		calculated.put(g, range);
+		return range;
+	}
+
+	private Range calculateRangeFingerprint(Connection txn, GroupId g,
+			long lower, long upper) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND shared = TRUE"
+					+ " AND timestamp >= ? AND timestamp < ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, lower);
+			ps.setLong(4, upper);
+			rs = ps.executeQuery();
+			byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+			int count = 0;
+			while (rs.next()) {
+				xor(fingerprint, rs.getBytes(1));
+				count++;
+			}
+			rs.close();
+			ps.close();
+			return new Range(lower, upper, count, fingerprint);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Records that the given group's fingerprint may have been changed by
+	 * the given connection's current transaction.
+	 */
+	private void fingerprintChanged(Connection txn, GroupId g) {
+		Set<GroupId> changed = pendingFingerprints.get(txn);
+		if (changed == null) {
+			changed = new HashSet<>();
+			pendingFingerprints.put(txn, changed);
+		}
+		changed.add(g);
+		Map<GroupId, Range> calculated = calculatedFingerprints.get(txn);
+		if (calculated != null) calculated.remove(g);
+	}
+
+	/**
+	 * Records that the fingerprints of any groups may have been changed by
+	 * the given connection's current transaction.
+	 */
+	private void allFingerprintsChanged(Connection txn) {
+		unknownFingerprints.add(txn);
+		calculatedFingerprints.remove(txn);
+		calculatedGenerations.remove(txn);
+	}
+
+	/**
+	 * Records that the fingerprint of the given message's group may have
+	 * been changed by the given connection's current transaction.
+	 */
+	private void fingerprintChanged(Connection txn, MessageId m)
+			throws DbException {
+		// If no fingerprints are cached, don't look up the group. All
+		// fingerprints will be removed when the transaction ends
+		if (fingerprints.isEmpty()) {
+			allFingerprintsChanged(txn);
+			return;
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId FROM messages WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			if (rs.next()) fingerprintChanged(txn, new GroupId(rs.getBytes(1)));
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private void xor(byte[] fingerprint, byte[] id) {
+		for (int i = 0; i < FINGERPRINT_LENGTH; i++) fingerprint[i] ^= id[i];
+	}
+
+	@Override
+	public List<MessageId> getRangeMessageIds(Connection txn, GroupId g,
+			long lower, long upper) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND shared = TRUE"
+					+ " AND timestamp >= ? AND timestamp < ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, lower);
+			ps.setLong(4, upper);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
 			ContactId c, int maxLength, long maxLatency) throws DbException {
@@ -2607,9 +3760,47 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<GroupId> getSharedGroups(Connection txn, ContactId c)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId FROM groupVisibilities"
+					+ " WHERE contactId = ? AND shared = TRUE";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			rs = ps.executeQuery();
+			List<GroupId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new GroupId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<Byte> getSyncCapabilities(Connection txn, ContactId c)
+			throws DbException {
+		return getSyncVersions(txn, c, true);
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Connection txn, ContactId c)
 			throws DbException {
+		return getSyncVersions(txn, c, false);
+	}
+
+	/**
+	 * Returns either the versions or the capability flags from the stored
+	 * versions record, which holds both.
+	 */
+	private List<Byte> getSyncVersions(Connection txn, ContactId c,
+			boolean capabilities) throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
@@ -2620,12 +3811,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			byte[] bytes = rs.getBytes(1);
-			List<Byte> supported = new ArrayList<>(bytes.length);
-			for (byte b : bytes) supported.add(b);
+			List<Byte> values = new ArrayList<>(bytes.length);
+			for (byte b : bytes) {
+				if (((b & 0xFF) >= MIN_CAPABILITY) == capabilities)
+					values.add(b);
+			}
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
-			return supported;
+			return values;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -2852,41 +4046,135 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			Map<String, byte[]> added = removeOrUpdateMetadata(txn,
-					m.getBytes(), meta, "messageMetadata", "messageId");
-			if (added.isEmpty()) return;
-			// Get the group ID and message state for the denormalised columns
-			String sql = "SELECT groupId, state FROM messages"
+			// Get the existing metadata, if any, and the denormalised columns
+			String sql = "SELECT groupId, state, metadata FROM messageMetadata"
 					+ " WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
-			if (!rs.next()) throw new DbStateException();
-			GroupId g = new GroupId(rs.getBytes(1));
-			MessageState state = MessageState.fromValue(rs.getInt(2));
+			boolean exists = rs.next();
+			GroupId g = null;
+			MessageState state = null;
+			Metadata merged;
+			if (exists) {
+				g = new GroupId(rs.getBytes(1));
+				state = MessageState.fromValue(rs.getInt(2));
+				merged = decodeMetadata(rs.getBytes(3));
+				if (rs.next()) throw new DbStateException();
+			} else {
+				merged = new Metadata();
+			}
 			rs.close();
 			ps.close();
-			// Insert any keys that don't already exist
-			sql = "INSERT INTO messageMetadata"
-					+ " (messageId, groupId, state, metaKey, value)"
-					+ " VALUES (?, ?, ?, ?, ?)";
+			// Merge the changes into the existing metadata
+			boolean changed = false;
+			for (Entry<String, byte[]> e : meta.entrySet()) {
+				String key = e.getKey();
+				byte[] value = e.getValue();
+				if (value == REMOVE) {
+					if (merged.remove(key) != null) changed = true;
+				} else {
+					byte[] old = merged.put(key, value);
+					if (old == null || !Arrays.equals(old, value))
+						changed = true;
+				}
+			}
+			if (!changed) return;
+			if (!exists) {
+				// Get the group ID and message state for the denormalised
+				// columns
+				sql = "SELECT groupId, state FROM messages"
+						+ " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+				rs = ps.executeQuery();
+				if (!rs.next()) throw new DbStateException();
+				g = new GroupId(rs.getBytes(1));
+				state = MessageState.fromValue(rs.getInt(2));
+				rs.close();
+				ps.close();
+			}
+			if (merged.isEmpty()) {
+				sql = "DELETE FROM messageMetadata WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+			} else if (exists) {
+				sql = "UPDATE messageMetadata SET metadata = ?"
+						+ " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, encodeMetadata(merged));
+				ps.setBytes(2, m.getBytes());
+			} else {
+				sql = "INSERT INTO messageMetadata"
+						+ " (messageId, groupId, state, metadata)"
+						+ " VALUES (?, ?, ?, ?)";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+				ps.setBytes(2, g.getBytes());
+				ps.setInt(3, state.getValue());
+				ps.setBytes(4, encodeMetadata(merged));
+			}
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+			// Copy any changes to indexed keys
+			Metadata indexed = new Metadata();
+			Set<String> keys = getIndexedKeys(txn, g);
+			for (Entry<String, byte[]> e : meta.entrySet()) {
+				if (keys.contains(e.getKey()))
+					indexed.put(e.getKey(), e.getValue());
+			}
+			if (!indexed.isEmpty())
+				updateIndexedMetadata(txn, m, g, state, indexed);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	// Replaces any existing indexed entries for the given keys with the
+	// given values, or removes them if the values are REMOVE
+	private void updateIndexedMetadata(Connection txn, MessageId m,
+			GroupId g, MessageState state, Metadata indexed)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "DELETE FROM indexedMessageMetadata"
+					+ " WHERE messageId = ? AND metaKey = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			for (String key : indexed.keySet()) {
+				ps.setString(2, key);
+				ps.addBatch();
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != indexed.size())
+				throw new DbStateException();
+			for (int rows : batchAffected)
+				if (rows < 0 || rows > 1) throw new DbStateException();
+			ps.close();
+			sql = "INSERT INTO indexedMessageMetadata"
+					+ " (messageId, groupId, state, metaKey, value, longValue)"
+					+ " VALUES (?, ?, ?, ?, ?, ?)";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setBytes(2, g.getBytes());
 			ps.setInt(3, state.getValue());
-			for (Entry<String, byte[]> e : added.entrySet()) {
+			int inserted = 0;
+			for (Entry<String, byte[]> e : indexed.entrySet()) {
+				if (e.getValue() == REMOVE) continue;
 				ps.setString(4, e.getKey());
-				ps.setBytes(5, e.getValue());
+				setIndexedValue(ps, 5, e.getValue());
 				ps.addBatch();
+				inserted++;
 			}
-			int[] batchAffected = ps.executeBatch();
-			if (batchAffected.length != added.size())
-				throw new DbStateException();
+			batchAffected = ps.executeBatch();
+			if (batchAffected.length != inserted) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
 			ps.close();
 		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -3018,6 +4306,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			if (affected == 0) restoreStatus(txn, c, m, true, false);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3037,6 +4326,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			if (affected == 0) restoreStatus(txn, c, m, false, true);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3090,6 +4380,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			fingerprintChanged(txn, g);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3142,6 +4433,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void removeMessage(Connection txn, MessageId m) throws DbException {
+		fingerprintChanged(txn, m);
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM messages WHERE messageId = ?";
@@ -3220,6 +4512,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void removeTemporaryMessages(Connection txn) throws DbException {
+		allFingerprintsChanged(txn);
 		Statement s = null;
 		try {
 			String sql = "DELETE FROM messages WHERE temporary = TRUE";
@@ -3418,6 +4711,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void setMessageShared(Connection txn, MessageId m, boolean shared)
 			throws DbException {
+		fingerprintChanged(txn, m);
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET shared = ?"
@@ -3446,6 +4740,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void setMessageState(Connection txn, MessageId m, MessageState state)
 			throws DbException {
+		fingerprintChanged(txn, m);
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET state = ? WHERE messageId = ?";
@@ -3463,6 +4758,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			// Update denormalised column in indexedMessageMetadata
+			if (hasIndexedKeys(txn)) {
+				sql = "UPDATE indexedMessageMetadata SET state = ?"
+						+ " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setInt(1, state.getValue());
+				ps.setBytes(2, m.getBytes());
+				affected = ps.executeUpdate();
+				if (affected < 0) throw new DbStateException();
+				ps.close();
+			}
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET state = ? WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
@@ -3522,16 +4828,18 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void setSyncVersions(Connection txn, ContactId c,
-			List<Byte> supported) throws DbException {
+			List<Byte> supported, List<Byte> capabilities) throws DbException {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE contacts SET syncVersions = ?"
 					+ " WHERE contactId = ?";
 			ps = txn.prepareStatement(sql);
-			byte[] bytes = new byte[supported.size()];
-			for (int i = 0; i < bytes.length; i++) {
-				bytes[i] = supported.get(i);
-			}
+			// Store the versions and capabilities as they're encoded in the
+			// versions record
+			byte[] bytes = new byte[supported.size() + capabilities.size()];
+			int i = 0;
+			for (byte b : supported) bytes[i++] = b;
+			for (byte b : capabilities) bytes[i++] = b;
 			ps.setBytes(1, bytes);
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
@@ -3562,6 +4870,68 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public List<Range> splitRange(Connection txn, GroupId g, long lower,
+			long upper, int maxRanges) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT COUNT (messageId) FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND shared = TRUE"
+					+ " AND timestamp >= ? AND timestamp < ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, lower);
+			ps.setLong(4, upper);
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			int total = rs.getInt(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			// Each range except the last gets at least this many messages
+			int perRange = Math.max(1, (total + maxRanges - 1) / maxRanges);
+			sql = "SELECT messageId, timestamp FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND shared = TRUE"
+					+ " AND timestamp >= ? AND timestamp < ?"
+					+ " ORDER BY timestamp";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, lower);
+			ps.setLong(4, upper);
+			rs = ps.executeQuery();
+			List<Range> ranges = new ArrayList<>();
+			long rangeLower = lower, lastTimestamp = lower;
+			byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+			int count = 0;
+			while (rs.next()) {
+				byte[] id = rs.getBytes(1);
+				long timestamp = rs.getLong(2);
+				// Only split between messages with different timestamps
+				if (count >= perRange && timestamp > lastTimestamp) {
+					ranges.add(new Range(rangeLower, timestamp, count,
+							fingerprint));
+					rangeLower = timestamp;
+					fingerprint = new byte[FINGERPRINT_LENGTH];
+					count = 0;
+				}
+				xor(fingerprint, id);
+				count++;
+				lastTimestamp = timestamp;
+			}
+			rs.close();
+			ps.close();
+			ranges.add(new Range(rangeLower, upper, count, fingerprint));
+			return ranges;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public long startCleanupTimer(Connection txn, MessageId m)
 			throws DbException {
@@ -3628,11 +4998,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
-			if (!rs.next()) throw new DbStateException();
-			int txCount = rs.getInt(1);
+			boolean found = rs.next();
+			int txCount = found ? rs.getInt(1) : 0;
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
+			// If the status row has been compacted, restore it
+			if (!found && !restoreStatus(txn, c, m, false, false))
+				throw new DbStateException();
 			sql = "UPDATE statuses"
 					+ " SET expiry = ?, txCount = txCount + 1, eta = ?"
 					+ " WHERE messageId = ? AND contactId = ?";
@@ -0,0 +1,163 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint32;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
+import static org.briarproject.bramble.util.StringUtils.fromUtf8;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+
+/**
+ * Encodes all the metadata of a message as a single value, so that it can be
+ * stored in one row and merged in place. The entries are encoded in key
+ * order, each as the length of the UTF-8 encoded key, the key, the length of
+ * the value and the value, with lengths encoded as 32-bit unsigned integers.
+ */
+@NotNullByDefault
+class MetadataEncoding {
+
+	// BDF type codes for the values that can be decoded as longs
+	private static final byte FALSE = 0x10, TRUE = 0x11;
+	private static final byte INT_8 = 0x21, INT_16 = 0x22, INT_32 = 0x24,
+			INT_64 = 0x28;
+
+	static byte[] encodeMetadata(Metadata meta) {
+		List<byte[]> keys = new ArrayList<>(meta.size());
+		int length = 0;
+		for (Entry<String, byte[]> e : meta.entrySet()) {
+			byte[] key = toUtf8(e.getKey());
+			keys.add(key);
+			length += INT_32_BYTES + key.length;
+			length += INT_32_BYTES + e.getValue().length;
+		}
+		byte[] encoded = new byte[length];
+		int offset = 0, i = 0;
+		for (byte[] value : meta.values()) {
+			offset = writeField(keys.get(i++), encoded, offset);
+			offset = writeField(value, encoded, offset);
+		}
+		return encoded;
+	}
+
+	private static int writeField(byte[] field, byte[] dest, int offset) {
+		writeUint32(field.length, dest, offset);
+		offset += INT_32_BYTES;
+		System.arraycopy(field, 0, dest, offset, field.length);
+		return offset + field.length;
+	}
+
+	static Metadata decodeMetadata(byte[] encoded) throws DbStateException {
+		Metadata meta = new Metadata();
+		int offset = 0;
+		while (offset < encoded.length) {
+			int keyLength = readFieldLength(encoded, offset);
+			offset += INT_32_BYTES;
+			String key = fromUtf8(encoded, offset, keyLength);
+			offset += keyLength;
+			int valueLength = readFieldLength(encoded, offset);
+			offset += INT_32_BYTES;
+			byte[] value =
+					Arrays.copyOfRange(encoded, offset, offset + valueLength);
+			offset += valueLength;
+			meta.put(key, value);
+		}
+		return meta;
+	}
+
+	/**
+	 * Returns true if the encoded metadata contains all the given entries,
+	 * without decoding the metadata. The keys must be UTF-8 encoded.
+	 */
+	static boolean containsAll(byte[] encoded, byte[][] keys, byte[][] values)
+			throws DbStateException {
+		int matched = 0, offset = 0;
+		while (offset < encoded.length && matched < keys.length) {
+			int keyLength = readFieldLength(encoded, offset);
+			int keyOffset = offset + INT_32_BYTES;
+			offset = keyOffset + keyLength;
+			int valueLength = readFieldLength(encoded, offset);
+			int valueOffset = offset + INT_32_BYTES;
+			offset = valueOffset + valueLength;
+			for (int i = 0; i < keys.length; i++) {
+				if (!equals(keys[i], encoded, keyOffset, keyLength)) continue;
+				// Keys are unique, so a different value can't match later
+				if (!equals(values[i], encoded, valueOffset, valueLength))
+					return false;
+				matched++;
+				break;
+			}
+		}
+		return matched == keys.length;
+	}
+
+	/**
+	 * Returns the value of the entry with the given key, or null if there's
+	 * no such entry, without decoding the rest of the metadata. The key must
+	 * be UTF-8 encoded.
+	 */
+	@Nullable
+	static byte[] getValue(byte[] encoded, byte[] key)
+			throws DbStateException {
+		int offset = 0;
+		while (offset < encoded.length) {
+			int keyLength = readFieldLength(encoded, offset);
+			int keyOffset = offset + INT_32_BYTES;
+			offset = keyOffset + keyLength;
+			int valueLength = readFieldLength(encoded, offset);
+			int valueOffset = offset + INT_32_BYTES;
+			offset = valueOffset + valueLength;
+			if (equals(key, encoded, keyOffset, keyLength)) {
+				return Arrays.copyOfRange(encoded, valueOffset, offset);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the given metadata value as a long if it's a BDF-encoded
+	 * integer or boolean, or null otherwise. Booleans are returned as
+	 * 0 (false) and 1 (true).
+	 */
+	@Nullable
+	static Long decodeLong(byte[] value) {
+		if (value.length == 0) return null;
+		byte type = value[0];
+		if (type == FALSE && value.length == 1) return 0L;
+		if (type == TRUE && value.length == 1) return 1L;
+		int length;
+		if (type == INT_8) length = 1;
+		else if (type == INT_16) length = 2;
+		else if (type == INT_32) length = 4;
+		else if (type == INT_64) length = 8;
+		else return null;
+		if (value.length != 1 + length) return null;
+		// Big-endian two's complement, sign-extended from the first byte
+		long l = value[1];
+		for (int i = 2; i <= length; i++) l = (l << 8) | (value[i] & 0xFF);
+		return l;
+	}
+
+	private static int readFieldLength(byte[] encoded, int offset)
+			throws DbStateException {
+		int remaining = encoded.length - offset - INT_32_BYTES;
+		if (remaining < 0) throw new DbStateException();
+		long length = readUint32(encoded, offset);
+		if (length > remaining) throw new DbStateException();
+		return (int) length;
+	}
+
+	private static boolean equals(byte[] a, byte[] b, int off, int len) {
+		if (a.length != len) return false;
+		for (int i = 0; i < len; i++) if (a[i] != b[off + i]) return false;
+		return true;
+	}
+}
@@ -0,0 +1,58 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration49_50 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration49_50.class.getName());
+
+	private final DatabaseTypes dbTypes;
+
+	Migration49_50(DatabaseTypes dbTypes) {
+		this.dbTypes = dbTypes;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 49;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 50;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			s.execute(dbTypes.replaceTypes("CREATE TABLE messageBodies"
+					+ " (messageId _HASH NOT NULL,"
+					+ " raw BLOB NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE)"));
+			s.execute("INSERT INTO messageBodies (messageId, raw)"
+					+ " SELECT messageId, raw FROM messages"
+					+ " WHERE raw IS NOT NULL");
+			s.execute("ALTER TABLE messages"
+					+ " ADD COLUMN deleted BOOLEAN DEFAULT FALSE NOT NULL");
+			s.execute("UPDATE messages SET deleted = TRUE WHERE raw IS NULL");
+			s.execute("ALTER TABLE messages DROP COLUMN raw");
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration51_52 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration51_52.class.getName());
+
+	private final DatabaseTypes dbTypes;
+
+	Migration51_52(DatabaseTypes dbTypes) {
+		this.dbTypes = dbTypes;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 51;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 52;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// The table is populated when the database is opened, for
+			// whichever keys have been registered as indexed
+			s.execute(dbTypes.replaceTypes("CREATE TABLE indexedMessageMetadata"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL,"
+					+ " state INT NOT NULL,"
+					+ " metaKey _STRING NOT NULL,"
+					+ " value _BINARY NOT NULL,"
+					+ " PRIMARY KEY (messageId, metaKey),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)"));
+			s.execute(dbTypes.replaceTypes("CREATE TABLE indexedMetadataKeys"
+					+ " (metaKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (metaKey))"));
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration52_53 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration52_53.class.getName());
+
+	@Override
+	public int getStartVersion() {
+		return 52;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 53;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// No status rows have been compacted yet
+			s.execute("ALTER TABLE groupVisibilities"
+					+ " ADD COLUMN ackedBefore BIGINT DEFAULT 0 NOT NULL");
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.db.MetadataEncoding.encodeMetadata;
+
+class Migration53_54 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration53_54.class.getName());
+
+	private final DatabaseTypes dbTypes;
+
+	Migration53_54(DatabaseTypes dbTypes) {
+		this.dbTypes = dbTypes;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 53;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 54;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		PreparedStatement ps = null;
+		PreparedStatement insert = null;
+		ResultSet rs = null;
+		try {
+			s = txn.createStatement();
+			s.execute("ALTER TABLE messageMetadata"
+					+ " RENAME TO oldMessageMetadata");
+			s.execute(dbTypes.replaceTypes("CREATE TABLE messageMetadata"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL,"
+					+ " state INT NOT NULL,"
+					+ " metadata _BINARY NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)"));
+			// Encode the rows for each message as a single row
+			String sql = "INSERT INTO messageMetadata"
+					+ " (messageId, groupId, state, metadata)"
+					+ " VALUES (?, ?, ?, ?)";
+			insert = txn.prepareStatement(sql);
+			sql = "SELECT messageId, groupId, state, metaKey, value"
+					+ " FROM oldMessageMetadata"
+					+ " ORDER BY messageId";
+			ps = txn.prepareStatement(sql);
+			rs = ps.executeQuery();
+			byte[] messageId = null;
+			Metadata meta = new Metadata();
+			while (rs.next()) {
+				byte[] id = rs.getBytes(1);
+				if (!Arrays.equals(id, messageId)) {
+					insertMetadata(insert, messageId, meta);
+					messageId = id;
+					meta = new Metadata();
+					insert.setBytes(1, id);
+					insert.setBytes(2, rs.getBytes(2));
+					insert.setInt(3, rs.getInt(3));
+				}
+				meta.put(rs.getString(4), rs.getBytes(5));
+			}
+			insertMetadata(insert, messageId, meta);
+			rs.close();
+			ps.close();
+			insert.close();
+			s.execute("DROP TABLE oldMessageMetadata");
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			tryToClose(insert, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private void insertMetadata(PreparedStatement insert,
+			@Nullable byte[] messageId, Metadata meta) throws SQLException {
+		if (messageId == null) return;
+		insert.setBytes(4, encodeMetadata(meta));
+		if (insert.executeUpdate() != 1) throw new DbStateException();
+	}
+}
@@ -0,0 +1,68 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration54_55 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration54_55.class.getName());
+
+	private final DatabaseTypes dbTypes;
+
+	Migration54_55(DatabaseTypes dbTypes) {
+		this.dbTypes = dbTypes;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 54;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 55;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// The indexed metadata is a copy of the message metadata, so it
+			// can be dropped. It's rebuilt when clients register their keys
+			s.execute("DROP TABLE indexedMessageMetadata");
+			s.execute("DROP TABLE indexedMetadataKeys");
+			s.execute(dbTypes.replaceTypes("CREATE TABLE indexedMessageMetadata"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL,"
+					+ " state INT NOT NULL,"
+					+ " metaKey _STRING NOT NULL,"
+					+ " value _BINARY NOT NULL,"
+					+ " longValue BIGINT,"
+					+ " PRIMARY KEY (messageId, metaKey),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)"));
+			s.execute(dbTypes.replaceTypes("CREATE TABLE indexedMetadataKeys"
+					+ " (clientId _STRING NOT NULL,"
+					+ " majorVersion INT NOT NULL,"
+					+ " metaKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (clientId, majorVersion, metaKey))"));
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
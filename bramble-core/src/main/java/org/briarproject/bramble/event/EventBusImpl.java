@@ -1,24 +1,51 @@
 package org.briarproject.bramble.event;
 
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.event.BatchEventListener;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventExecutor;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.unmodifiableList;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+
 @ThreadSafe
 @NotNullByDefault
 class EventBusImpl implements EventBus {
 
-	private final Collection<EventListener> listeners =
+	private static final Logger LOG = getLogger(EventBusImpl.class.getName());
+
+	/**
+	 * A warning is logged whenever the number of events waiting to be
+	 * delivered on the {@link EventExecutor}, or to a batch listener, reaches
+	 * a multiple of this value.
+	 */
+	static final int QUEUE_DEPTH_WARNING_INTERVAL = 1000;
+
+	private final Collection<FilteredListener> listeners =
 			new CopyOnWriteArrayList<>();
+	private final Collection<BatchListener> batchListeners =
+			new CopyOnWriteArrayList<>();
+	// The number of events waiting to be delivered to the event executor or
+	// to batch listeners
+	private final AtomicInteger queueDepth = new AtomicInteger(0);
+	private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
 	private final Executor eventExecutor;
 
 	@Inject
@@ -28,18 +55,157 @@ class EventBusImpl implements EventBus {
 
 	@Override
 	public void addListener(EventListener l) {
-		listeners.add(l);
+		listeners.add(new FilteredListener(l, null));
+	}
+
+	@Override
+	public void addListener(EventListener l, Predicate<Event> filter) {
+		listeners.add(new FilteredListener(l, filter));
 	}
 
 	@Override
 	public void removeListener(EventListener l) {
-		listeners.remove(l);
+		for (FilteredListener f : listeners) {
+			if (f.listener == l) {
+				f.removed = true;
+				listeners.remove(f);
+			}
+		}
+	}
+
+	@Override
+	public void addBatchListener(BatchEventListener l,
+			Predicate<Event> filter, Executor executor) {
+		batchListeners.add(new BatchListener(l, filter, executor));
+	}
+
+	@Override
+	public void removeBatchListener(BatchEventListener l) {
+		for (BatchListener b : batchListeners) {
+			if (b.listener == l) batchListeners.remove(b);
+		}
 	}
 
 	@Override
 	public void broadcast(Event e) {
+		for (BatchListener b : batchListeners) {
+			if (b.filter.test(e)) b.add(e);
+		}
+		List<FilteredListener> matching = new ArrayList<>();
+		for (FilteredListener f : listeners) {
+			if (f.filter == null || f.filter.test(e)) matching.add(f);
+		}
+		// Don't queue events that no listener wants
+		if (matching.isEmpty()) return;
+		int depth = incrementQueueDepth(1);
+		if (depth % QUEUE_DEPTH_WARNING_INTERVAL == 0 &&
+				LOG.isLoggable(WARNING)) {
+			LOG.warning(depth + " events waiting to be delivered");
+		}
 		eventExecutor.execute(() -> {
-			for (EventListener l : listeners) l.eventOccurred(e);
+			queueDepth.decrementAndGet();
+			for (FilteredListener f : matching) {
+				if (!f.removed) f.listener.eventOccurred(e);
+			}
 		});
 	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	@Override
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	private int incrementQueueDepth(int delta) {
+		int depth = queueDepth.addAndGet(delta);
+		while (true) {
+			int max = maxQueueDepth.get();
+			if (depth <= max || maxQueueDepth.compareAndSet(max, depth))
+				return depth;
+		}
+	}
+
+	private static class FilteredListener {
+
+		private final EventListener listener;
+		@Nullable
+		private final Predicate<Event> filter;
+
+		// Set when the listener is removed, so it isn't notified of events
+		// that were queued before it was removed
+		private volatile boolean removed = false;
+
+		private FilteredListener(EventListener listener,
+				@Nullable Predicate<Event> filter) {
+			this.listener = listener;
+			this.filter = filter;
+		}
+	}
+
+	@ThreadSafe
+	@NotNullByDefault
+	private class BatchListener {
+
+		private final BatchEventListener listener;
+		private final Predicate<Event> filter;
+		private final Executor executor;
+		private final Object lock = new Object();
+
+		@GuardedBy("lock")
+		private List<Event> batch = new ArrayList<>();
+		// True if a delivery task has been submitted and hasn't finished
+		@GuardedBy("lock")
+		private boolean scheduled = false;
+
+		private BatchListener(BatchEventListener listener,
+				Predicate<Event> filter, Executor executor) {
+			this.listener = listener;
+			this.filter = filter;
+			this.executor = executor;
+		}
+
+		private void add(Event e) {
+			boolean schedule;
+			int size;
+			synchronized (lock) {
+				batch.add(e);
+				size = batch.size();
+				schedule = !scheduled;
+				scheduled = true;
+			}
+			incrementQueueDepth(1);
+			if (schedule) {
+				executor.execute(this::deliver);
+			} else if (size % QUEUE_DEPTH_WARNING_INTERVAL == 0 &&
+					LOG.isLoggable(WARNING)) {
+				LOG.warning(size + " events waiting for batch listener "
+						+ listener.getClass().getName());
+			}
+		}
+
+		private void deliver() {
+			List<Event> events;
+			synchronized (lock) {
+				events = batch;
+				batch = new ArrayList<>();
+			}
+			queueDepth.addAndGet(-events.size());
+			boolean reschedule = false;
+			try {
+				listener.eventsOccurred(unmodifiableList(events));
+			} finally {
+				// Events that arrived during delivery go in the next batch,
+				// which is delivered by a new task so calls don't overlap
+				synchronized (lock) {
+					if (batch.isEmpty()) scheduled = false;
+					else reschedule = true;
+				}
+			}
+			if (reschedule) executor.execute(this::deliver);
+		}
+	}
 }
@@ -191,6 +191,10 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		}
 		try {
 			LOG.info("Stopping services");
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Maximum event queue depth "
+						+ eventBus.getMaxQueueDepth());
+			}
 			state = STOPPING;
 			eventBus.broadcast(new LifecycleEvent(STOPPING));
 			for (Service s : services) {
@@ -7,8 +7,10 @@ import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.inject.Inject;
@@ -31,6 +33,16 @@ public class LifecycleModule {
 	private final ExecutorService ioExecutor;
 
 	public LifecycleModule() {
+		this(Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * Creates a module whose {@link IoExecutor} uses the given thread
+	 * factory. This allows platforms to run IO tasks on cheaper threads,
+	 * such as virtual threads, without changing the blocking APIs used by
+	 * plugins and connections.
+	 */
+	public LifecycleModule(ThreadFactory ioThreadFactory) {
 		// The thread pool is unbounded, so use direct handoff
 		BlockingQueue<Runnable> queue = new SynchronousQueue<>();
 		// Discard tasks that are submitted during shutdown
@@ -38,7 +50,7 @@ public class LifecycleModule {
 				new ThreadPoolExecutor.DiscardPolicy();
 		// Create threads as required and keep them in the pool for 60 seconds
 		ioExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-				60, SECONDS, queue, policy);
+				60, SECONDS, queue, ioThreadFactory, policy);
 	}
 
 	@Provides
@@ -12,6 +12,7 @@ import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -36,7 +37,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.GROUP_KEY_DISCOVERED;
@@ -47,7 +49,7 @@ import static org.briarproject.bramble.api.properties.TransportPropertyConstants
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
 import static org.briarproject.bramble.util.StringUtils.isNullOrEmpty;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class TransportPropertyManagerImpl implements TransportPropertyManager,
 		OpenDatabaseHook, ContactHook, ClientVersioningHook,
@@ -61,6 +63,40 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	private final Clock clock;
 	private final Group localGroup;
 
+	private final Object lock = new Object();
+
+	/**
+	 * The contact group of each contact, or null if the contacts haven't
+	 * been loaded. Together with the cached properties below, this allows
+	 * transports to be polled without querying the database.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private Map<ContactId, GroupId> contactGroups = null;
+
+	/**
+	 * The latest remote properties for each contact group and transport,
+	 * merged with any discovered properties. Entries are loaded when needed
+	 * and removed when the properties change.
+	 */
+	@GuardedBy("lock")
+	private final Map<GroupId, Map<TransportId, TransportProperties>>
+			remoteProperties = new HashMap<>();
+
+	/**
+	 * The latest local properties for each transport.
+	 */
+	@GuardedBy("lock")
+	private final Map<TransportId, TransportProperties> localProperties =
+			new HashMap<>();
+
+	/**
+	 * Incremented whenever the cache changes, so properties loaded by a
+	 * transaction that overlapped a change aren't cached.
+	 */
+	@GuardedBy("lock")
+	private long generation = 0;
+
 	@Inject
 	TransportPropertyManagerImpl(DatabaseComponent db,
 			ClientHelper clientHelper,
@@ -94,6 +130,17 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		Visibility client = clientVersioningManager.getClientVisibility(txn,
 				c.getId(), CLIENT_ID, MAJOR_VERSION);
 		db.setGroupVisibility(txn, c.getId(), g.getId(), client);
+		// Include the contact in polling once the transaction commits
+		synchronized (lock) {
+			generation++;
+		}
+		txn.attach(() -> {
+			synchronized (lock) {
+				if (contactGroups != null)
+					contactGroups.put(c.getId(), g.getId());
+				generation++;
+			}
+		});
 		// Copy the latest local properties into the group
 		Map<TransportId, TransportProperties> local = getLocalProperties(txn);
 		for (Entry<TransportId, TransportProperties> e : local.entrySet()) {
@@ -104,7 +151,10 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
-		db.removeGroup(txn, getContactGroup(c));
+		Group g = getContactGroup(c);
+		db.removeGroup(txn, g);
+		removeContactFromCache(c.getId(), g.getId());
+		txn.attach(() -> removeContactFromCache(c.getId(), g.getId()));
 	}
 
 	@Override
@@ -135,6 +185,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					return ACCEPT_DO_NOT_SHARE;
 				}
 			}
+			invalidateRemoteProperties(txn, m.getGroupId());
 			txn.attach(new RemoteTransportPropertiesUpdatedEvent(t));
 		} catch (FormatException e) {
 			throw new InvalidMessageException(e);
@@ -150,6 +201,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 			storeMessage(txn, g.getId(), e.getKey(), e.getValue(), 0,
 					false, false);
 		}
+		invalidateRemoteProperties(txn, g.getId());
 	}
 
 	@Override
@@ -178,6 +230,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					meta.put(GROUP_KEY_DISCOVERED, merged);
 					clientHelper.mergeGroupMetadata(txn, g.getId(), meta);
 					updateLocalProperties(txn, contact, t);
+					invalidateRemoteProperties(txn, g.getId());
 				}
 			});
 		} catch (FormatException e) {
@@ -213,6 +266,22 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public TransportProperties getLocalProperties(TransportId t)
 			throws DbException {
+		long loadedGeneration;
+		synchronized (lock) {
+			TransportProperties cached = localProperties.get(t);
+			if (cached != null) return new TransportProperties(cached);
+			loadedGeneration = generation;
+		}
+		TransportProperties local = loadLocalProperties(t);
+		synchronized (lock) {
+			if (generation == loadedGeneration)
+				localProperties.put(t, new TransportProperties(local));
+		}
+		return local;
+	}
+
+	private TransportProperties loadLocalProperties(TransportId t)
+			throws DbException {
 		try {
 			return db.transactionWithResult(true, txn -> {
 				TransportProperties p = null;
@@ -235,12 +304,56 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public Map<ContactId, TransportProperties> getRemoteProperties(
 			TransportId t) throws DbException {
-		return db.transactionWithResult(true, txn -> {
-			Map<ContactId, TransportProperties> remote = new HashMap<>();
-			for (Contact c : db.getContacts(txn))
-				remote.put(c.getId(), getRemoteProperties(txn, c, t));
-			return remote;
-		});
+		Map<ContactId, TransportProperties> remote = new HashMap<>();
+		Map<ContactId, GroupId> uncached = new HashMap<>();
+		boolean contactsLoaded;
+		long loadedGeneration;
+		synchronized (lock) {
+			loadedGeneration = generation;
+			contactsLoaded = contactGroups != null;
+			if (contactGroups != null) {
+				for (Entry<ContactId, GroupId> e : contactGroups.entrySet()) {
+					TransportProperties cached =
+							getCachedRemoteProperties(e.getValue(), t);
+					if (cached == null) uncached.put(e.getKey(), e.getValue());
+					else remote.put(e.getKey(), cached);
+				}
+				if (uncached.isEmpty()) return remote;
+			}
+		}
+		// Load the contacts if necessary, and any uncached properties
+		Map<ContactId, TransportProperties> loaded =
+				db.transactionWithResult(true, txn -> {
+					if (!contactsLoaded) {
+						for (Contact c : db.getContacts(txn)) {
+							uncached.put(c.getId(),
+									getContactGroup(c).getId());
+						}
+					}
+					Map<ContactId, TransportProperties> props =
+							new HashMap<>();
+					for (Entry<ContactId, GroupId> e : uncached.entrySet()) {
+						try {
+							props.put(e.getKey(), getRemoteProperties(txn,
+									e.getValue(), t));
+						} catch (NoSuchGroupException ex) {
+							// The contact has been removed
+						}
+					}
+					return props;
+				});
+		synchronized (lock) {
+			if (generation == loadedGeneration) {
+				if (!contactsLoaded) contactGroups = new HashMap<>(uncached);
+				for (Entry<ContactId, TransportProperties> e :
+						loaded.entrySet()) {
+					cacheRemoteProperties(uncached.get(e.getKey()), t,
+							e.getValue());
+				}
+			}
+		}
+		remote.putAll(loaded);
+		return remote;
 	}
 
 	private void updateLocalProperties(Transaction txn, Contact c,
@@ -261,13 +374,12 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		}
 	}
 
-	private TransportProperties getRemoteProperties(Transaction txn, Contact c,
+	private TransportProperties getRemoteProperties(Transaction txn, GroupId g,
 			TransportId t) throws DbException {
-		Group g = getContactGroup(c);
 		try {
 			// Find the latest remote update
 			TransportProperties remote;
-			LatestUpdate latest = findLatest(txn, g.getId(), t, false);
+			LatestUpdate latest = findLatest(txn, g, t, false);
 			if (latest == null) {
 				remote = new TransportProperties();
 			} else {
@@ -278,7 +390,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 			}
 			// Merge in any discovered properties
 			BdfDictionary meta =
-					clientHelper.getGroupMetadataAsDictionary(txn, g.getId());
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
 			BdfDictionary d = meta.getOptionalDictionary(GROUP_KEY_DISCOVERED);
 			if (d == null) return remote;
 			TransportProperties merged =
@@ -294,8 +406,87 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public TransportProperties getRemoteProperties(ContactId c, TransportId t)
 			throws DbException {
-		return db.transactionWithResult(true, txn ->
-				getRemoteProperties(txn, db.getContact(txn, c), t));
+		GroupId g;
+		long loadedGeneration;
+		synchronized (lock) {
+			loadedGeneration = generation;
+			g = contactGroups == null ? null : contactGroups.get(c);
+			if (g != null) {
+				TransportProperties cached = getCachedRemoteProperties(g, t);
+				if (cached != null) return cached;
+			}
+		}
+		TransportProperties remote = db.transactionWithResult(true, txn ->
+				getRemoteProperties(txn,
+						getContactGroup(db.getContact(txn, c)).getId(), t));
+		if (g != null) {
+			synchronized (lock) {
+				if (generation == loadedGeneration)
+					cacheRemoteProperties(g, t, remote);
+			}
+		}
+		return remote;
+	}
+
+	@GuardedBy("lock")
+	@Nullable
+	private TransportProperties getCachedRemoteProperties(GroupId g,
+			TransportId t) {
+		Map<TransportId, TransportProperties> cached = remoteProperties.get(g);
+		if (cached == null) return null;
+		TransportProperties p = cached.get(t);
+		return p == null ? null : new TransportProperties(p);
+	}
+
+	@GuardedBy("lock")
+	private void cacheRemoteProperties(GroupId g, TransportId t,
+			TransportProperties p) {
+		Map<TransportId, TransportProperties> cached = remoteProperties.get(g);
+		if (cached == null) {
+			cached = new HashMap<>();
+			remoteProperties.put(g, cached);
+		}
+		cached.put(t, new TransportProperties(p));
+	}
+
+	/**
+	 * Removes any cached remote properties for the given contact group,
+	 * both now and when the transaction commits.
+	 */
+	private void invalidateRemoteProperties(Transaction txn, GroupId g) {
+		removeRemotePropertiesFromCache(g);
+		txn.attach(() -> removeRemotePropertiesFromCache(g));
+	}
+
+	private void removeRemotePropertiesFromCache(GroupId g) {
+		synchronized (lock) {
+			remoteProperties.remove(g);
+			generation++;
+		}
+	}
+
+	/**
+	 * Removes any cached local properties for the given transport, both now
+	 * and when the transaction commits.
+	 */
+	private void invalidateLocalProperties(Transaction txn, TransportId t) {
+		removeLocalPropertiesFromCache(t);
+		txn.attach(() -> removeLocalPropertiesFromCache(t));
+	}
+
+	private void removeLocalPropertiesFromCache(TransportId t) {
+		synchronized (lock) {
+			localProperties.remove(t);
+			generation++;
+		}
+	}
+
+	private void removeContactFromCache(ContactId c, GroupId g) {
+		synchronized (lock) {
+			if (contactGroups != null) contactGroups.remove(c);
+			remoteProperties.remove(g);
+			generation++;
+		}
 	}
 
 	@Override
@@ -334,6 +525,7 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 							true, false);
 					// Delete the previous update, if any
 					if (latest != null) db.removeMessage(txn, latest.messageId);
+					invalidateLocalProperties(txn, t);
 					// Store the merged properties in each contact's group
 					for (Contact c : db.getContacts(txn)) {
 						storeLocalProperties(txn, c, t, merged);
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -14,9 +15,12 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
@@ -27,28 +31,40 @@ import org.briarproject.bramble.api.sync.event.MessageRequestedEvent;
 import org.briarproject.bramble.api.sync.event.MessageSharedEvent;
 import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
+import org.briarproject.bramble.api.sync.event.RangesToSendEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsReceivedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.newSetFromMap;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_RECONCILIATION;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -57,6 +73,24 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p>
+ * Requested messages are fetched from the database ahead of the writer: up
+ * to a given number of batches, with a given total length, may be waiting to
+ * be written at any time. All the batches that fit within those limits are
+ * generated in a single transaction, so the writer doesn't have to wait for
+ * a transaction per batch.
+ * <p>
+ * If the contact supports set reconciliation, this session generates a
+ * fingerprint of each shared group's messages when the incoming session of
+ * the same connection receives the contact's capabilities. The
+ * fingerprints are generated in a read-only transaction on the contact's
+ * database executor. The incoming session generates a reply to each
+ * {@link Ranges} record it receives, which this session sends. Messages in
+ * groups that are being reconciled aren't offered. No messages are offered
+ * until the incoming session of the same connection has received the
+ * contact's versions, or a first record that shows the contact doesn't send
+ * them, and any fingerprints have been generated, so the session knows
+ * which groups are being reconciled.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -72,16 +106,19 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	};
 
 	private final DatabaseComponent db;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, contactDbExecutor;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final ContactId contactId;
 	private final TransportId transportId;
 	private final long maxLatency, maxIdleTime;
+	private final int maxQueuedBatches;
+	private final long maxQueuedBatchBytes;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
 	@Nullable
 	private final Priority priority;
+	private final Object connection;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
 
 	private final AtomicBoolean generateAckQueued = new AtomicBoolean(false);
@@ -90,41 +127,58 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final AtomicBoolean generateRequestQueued =
 			new AtomicBoolean(false);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
+	// The number and total length of batches waiting to be written
+	private final AtomicInteger batchesQueued = new AtomicInteger(0);
+	private final AtomicLong batchBytesQueued = new AtomicLong(0);
+	// The groups for which we're waiting for a reply to a fingerprint
+	private final Set<GroupId> reconciling =
+			newSetFromMap(new ConcurrentHashMap<>());
 
 	private volatile boolean interrupted = false;
+	private volatile boolean versionsReceived = false;
 
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, Clock clock, ContactId contactId,
+			Executor contactDbExecutor, EventBus eventBus, Clock clock,
+			ContactId contactId,
 			TransportId transportId, long maxLatency, int maxIdleTime,
+			int maxQueuedBatches, long maxQueuedBatchBytes,
 			StreamWriter streamWriter, SyncRecordWriter recordWriter,
-			@Nullable Priority priority) {
+			@Nullable Priority priority, Object connection) {
+		if (maxQueuedBatches < 1) throw new IllegalArgumentException();
+		if (maxQueuedBatchBytes < MAX_RECORD_PAYLOAD_BYTES)
+			throw new IllegalArgumentException();
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.contactDbExecutor = contactDbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.contactId = contactId;
 		this.transportId = transportId;
 		this.maxLatency = maxLatency;
 		this.maxIdleTime = maxIdleTime;
+		this.maxQueuedBatches = maxQueuedBatches;
+		this.maxQueuedBatchBytes = maxQueuedBatchBytes;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
 		this.priority = priority;
+		this.connection = connection;
 		writerTasks = new LinkedBlockingQueue<>();
 	}
 
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, this::isRelevant);
 		try {
 			// Send our supported protocol versions
-			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
+			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS,
+					SUPPORTED_CAPABILITIES));
 			// Send our connection priority, if this is an outgoing connection
 			if (priority != null) recordWriter.writePriority(priority);
-			// Start a query for each type of record
+			// Start a query for each type of record except offers, which
+			// wait for the contact's versions
 			generateAck();
 			generateBatch();
-			generateOffer();
 			generateRequest();
 			long now = clock.currentTimeMillis();
 			long nextKeepalive = now + maxIdleTime;
@@ -156,6 +210,13 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 							generateOffer();
 						}
 						if (now >= nextKeepalive) {
+							// Start offering messages if nothing has been
+							// received from the contact by now
+							if (!versionsReceived) {
+								LOG.info("No versions received");
+								versionsReceived = true;
+								generateOffer();
+							}
 							// Flush the stream to keep it alive
 							LOG.info("Sending keepalive");
 							recordWriter.flush();
@@ -188,12 +249,55 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	private void generateBatch() {
-		if (generateBatchQueued.compareAndSet(false, true))
+		// If there's no space in the queue, the writer will call this method
+		// again when it writes a batch
+		if (getBatchSpace() > 0 &&
+				generateBatchQueued.compareAndSet(false, true)) {
 			dbExecutor.execute(new GenerateBatch());
+		}
+	}
+
+	/**
+	 * Returns the total length of the messages that can be generated without
+	 * exceeding the limits on queued batches, or zero if there's not enough
+	 * space for another batch.
+	 */
+	private int getBatchSpace() {
+		int batches = maxQueuedBatches - batchesQueued.get();
+		long bytes = maxQueuedBatchBytes - batchBytesQueued.get();
+		if (batches <= 0 || bytes < MAX_RECORD_PAYLOAD_BYTES) return 0;
+		return (int) Math.min((long) batches * MAX_RECORD_PAYLOAD_BYTES, bytes);
+	}
+
+	/**
+	 * Splits the given messages into batches that fit in a record and queues
+	 * the batches for the writer.
+	 */
+	private void queueBatches(Collection<Message> messages) {
+		List<Message> batch = new ArrayList<>();
+		int length = 0;
+		for (Message m : messages) {
+			int rawLength = m.getRawLength();
+			if (!batch.isEmpty() &&
+					length + rawLength > MAX_RECORD_PAYLOAD_BYTES) {
+				queueBatch(batch, length);
+				batch = new ArrayList<>();
+				length = 0;
+			}
+			batch.add(m);
+			length += rawLength;
+		}
+		if (!batch.isEmpty()) queueBatch(batch, length);
+	}
+
+	private void queueBatch(List<Message> batch, int length) {
+		batchesQueued.incrementAndGet();
+		batchBytesQueued.addAndGet(length);
+		writerTasks.add(new WriteBatch(batch, length));
 	}
 
 	private void generateOffer() {
-		if (generateOfferQueued.compareAndSet(false, true))
+		if (versionsReceived && generateOfferQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateOffer());
 	}
 
@@ -202,17 +306,67 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			dbExecutor.execute(new GenerateRequest());
 	}
 
+	/**
+	 * Sets the time when we should next check for retransmittable messages,
+	 * unless offers are being held back. Messages that can't be offered yet
+	 * would be due immediately, so the checks are paused until the contact's
+	 * versions have been received and no groups are being reconciled.
+	 */
+	@DatabaseExecutor
+	private void updateNextSendTime(Transaction txn) throws DbException {
+		if (versionsReceived && reconciling.isEmpty())
+			setNextSendTime(db.getNextSendTime(txn, contactId));
+	}
+
 	private void setNextSendTime(long time) {
 		long old = nextSendTime.getAndSet(time);
 		if (time < old) writerTasks.add(NEXT_SEND_TIME_DECREASED);
 	}
 
+	/**
+	 * Queues the given ranges for the writer. The group is being reconciled
+	 * until we've sent, or received a reply to, a record that doesn't
+	 * contain any fingerprints.
+	 */
+	private void sendRanges(Ranges r) {
+		GroupId g = r.getGroupId();
+		if (containsFingerprint(r)) reconciling.add(g);
+		else if (reconciling.remove(g)) generateOffer();
+		writerTasks.add(new WriteRanges(r));
+	}
+
+	private boolean containsFingerprint(Ranges r) {
+		for (Range range : r.getRanges()) {
+			if (range.getType() == FINGERPRINT) return true;
+		}
+		return false;
+	}
+
 	@Override
 	public void interrupt() {
 		interrupted = true;
 		writerTasks.add(CLOSE);
 	}
 
+	/**
+	 * Returns true if the session handles the given type of event. Called on
+	 * the thread that broadcasts the event.
+	 */
+	private boolean isRelevant(Event e) {
+		return e instanceof ContactRemovedEvent ||
+				e instanceof MessageSharedEvent ||
+				e instanceof GroupVisibilityUpdatedEvent ||
+				e instanceof MessageRequestedEvent ||
+				e instanceof MessageToAckEvent ||
+				e instanceof MessageToRequestEvent ||
+				e instanceof SyncVersionsReceivedEvent ||
+				e instanceof RangesToSendEvent ||
+				e instanceof ReconciliationFinishedEvent ||
+				e instanceof LifecycleEvent ||
+				e instanceof CloseSyncConnectionsEvent ||
+				e instanceof TransportInactiveEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ContactRemovedEvent) {
@@ -233,6 +387,25 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		} else if (e instanceof MessageToRequestEvent) {
 			if (((MessageToRequestEvent) e).getContactId().equals(contactId))
 				generateRequest();
+		} else if (e instanceof SyncVersionsReceivedEvent) {
+			SyncVersionsReceivedEvent s = (SyncVersionsReceivedEvent) e;
+			if (s.getConnection() == connection && !versionsReceived) {
+				if (s.getCapabilities().contains(CAPABILITY_RECONCILIATION)) {
+					contactDbExecutor.execute(new GenerateRanges());
+				} else {
+					versionsReceived = true;
+					generateOffer();
+				}
+			}
+		} else if (e instanceof RangesToSendEvent) {
+			RangesToSendEvent r = (RangesToSendEvent) e;
+			if (r.getConnection() == connection) sendRanges(r.getRanges());
+		} else if (e instanceof ReconciliationFinishedEvent) {
+			ReconciliationFinishedEvent r = (ReconciliationFinishedEvent) e;
+			if (r.getConnection() == connection &&
+					reconciling.remove(r.getGroupId())) {
+				generateOffer();
+			}
 		} else if (e instanceof LifecycleEvent) {
 			LifecycleEvent l = (LifecycleEvent) e;
 			if (l.getLifecycleState() == STOPPING) interrupt();
@@ -291,19 +464,22 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			if (!generateBatchQueued.getAndSet(false))
 				throw new AssertionError();
+			// Batches are only queued by this task, so the space can't shrink
+			// before the batches are queued
+			int maxLength = getBatchSpace();
+			if (maxLength == 0) return;
 			try {
 				Collection<Message> b =
 						db.transactionWithNullableResult(false, txn -> {
 							Collection<Message> batch =
 									db.generateRequestedBatch(txn, contactId,
-											MAX_RECORD_PAYLOAD_BYTES,
-											maxLatency);
-							setNextSendTime(db.getNextSendTime(txn, contactId));
+											maxLength, maxLatency);
+							updateNextSendTime(txn);
 							return batch;
 						});
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
+				if (b != null) queueBatches(b);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -314,9 +490,11 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private class WriteBatch implements ThrowingRunnable<IOException> {
 
 		private final Collection<Message> batch;
+		private final int length;
 
-		private WriteBatch(Collection<Message> batch) {
+		private WriteBatch(Collection<Message> batch, int length) {
 			this.batch = batch;
+			this.length = length;
 		}
 
 		@IoExecutor
@@ -325,6 +503,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			for (Message m : batch) recordWriter.writeMessage(m);
 			LOG.info("Sent batch");
+			batchesQueued.decrementAndGet();
+			batchBytesQueued.addAndGet(-length);
 			generateBatch();
 		}
 	}
@@ -338,10 +518,11 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (!generateOfferQueued.getAndSet(false))
 				throw new AssertionError();
 			try {
+				Collection<GroupId> excluded = new ArrayList<>(reconciling);
 				Offer o = db.transactionWithNullableResult(false, txn -> {
 					Offer offer = db.generateOffer(txn, contactId,
-							MAX_MESSAGE_IDS, maxLatency);
-					setNextSendTime(db.getNextSendTime(txn, contactId));
+							MAX_MESSAGE_IDS, maxLatency, excluded);
+					updateNextSendTime(txn);
 					return offer;
 				});
 				if (LOG.isLoggable(INFO))
@@ -410,4 +591,47 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			generateRequest();
 		}
 	}
+
+	/**
+	 * Runs on the contact's database executor, as it only reads from the
+	 * database.
+	 */
+	private class GenerateRanges implements Runnable {
+
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				Collection<Ranges> ranges = db.transactionWithResult(true,
+						txn -> db.generateRanges(txn, contactId));
+				if (LOG.isLoggable(INFO))
+					LOG.info("Generated " + ranges.size() + " ranges");
+				for (Ranges r : ranges) sendRanges(r);
+				// Start offering messages in the groups that aren't being
+				// reconciled
+				versionsReceived = true;
+				generateOffer();
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class WriteRanges implements ThrowingRunnable<IOException> {
+
+		private final Ranges ranges;
+
+		private WriteRanges(Ranges ranges) {
+			this.ranges = ranges;
+		}
+
+		@IoExecutor
+		@Override
+		public void run() throws IOException {
+			if (interrupted) return;
+			recordWriter.writeRanges(ranges);
+			LOG.info("Sent ranges");
+		}
+	}
 }
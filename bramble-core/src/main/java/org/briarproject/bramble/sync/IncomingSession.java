@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -17,18 +18,30 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.PriorityHandler;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.RangesToSendEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsReceivedEvent;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
@@ -44,52 +57,87 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The maximum number of records that may be waiting to be stored. When
+	 * the queue is full, the session stops reading from the stream until
+	 * the database catches up.
+	 */
+	static final int MAX_QUEUED_RECORDS = 128;
+
+	/**
+	 * The maximum number of records that are stored in a single transaction.
+	 */
+	static final int MAX_RECORDS_PER_TRANSACTION = 64;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
 	private final PriorityHandler priorityHandler;
+	@Nullable
+	private final Object connection;
+	private final BlockingQueue<ReceiveRecord> queue =
+			new LinkedBlockingQueue<>(MAX_QUEUED_RECORDS);
+	// True if a task to store queued records has been submitted
+	private final AtomicBoolean storing = new AtomicBoolean(false);
 
 	private volatile boolean interrupted = false;
+	// True if queued records couldn't be stored
+	private volatile boolean failed = false;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, ContactId contactId,
-			SyncRecordReader recordReader, PriorityHandler priorityHandler) {
+			SyncRecordReader recordReader, PriorityHandler priorityHandler,
+			@Nullable Object connection) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
 		this.priorityHandler = priorityHandler;
+		this.connection = connection;
 	}
 
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, this::isRelevant);
 		try {
+			boolean firstRecord = true;
 			// Read records until interrupted or EOF
 			while (!interrupted) {
 				if (recordReader.eof()) {
 					LOG.info("End of stream");
 					return;
 				}
+				if (firstRecord) {
+					firstRecord = false;
+					// Contacts that send their versions send them first
+					if (connection != null && !recordReader.hasVersions()) {
+						eventBus.broadcast(new SyncVersionsReceivedEvent(
+								contactId, connection, emptyList(),
+								emptyList()));
+					}
+				}
 				if (recordReader.hasAck()) {
 					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
+					enqueue(txn -> db.receiveAck(txn, contactId, a));
 				} else if (recordReader.hasMessage()) {
 					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					enqueue(txn -> db.receiveMessage(txn, contactId, m));
 				} else if (recordReader.hasOffer()) {
 					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					enqueue(txn -> db.receiveOffer(txn, contactId, o));
 				} else if (recordReader.hasRequest()) {
 					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					enqueue(txn -> db.receiveRequest(txn, contactId, r));
 				} else if (recordReader.hasVersions()) {
 					Versions v = recordReader.readVersions();
-					dbExecutor.execute(new ReceiveVersions(v));
+					enqueue(txn -> receiveVersions(txn, v));
+				} else if (recordReader.hasRanges()) {
+					Ranges r = recordReader.readRanges();
+					enqueue(txn -> receiveRanges(txn, r));
 				} else if (recordReader.hasPriority()) {
 					Priority p = recordReader.readPriority();
 					priorityHandler.handle(p);
@@ -98,131 +146,157 @@ class IncomingSession implements SyncSession, EventListener {
 					throw new FormatException();
 				}
 			}
+			if (failed) throw new IOException("Failed to store records");
 		} finally {
 			eventBus.removeListener(this);
 		}
 	}
 
-	@Override
-	public void interrupt() {
-		// FIXME: This won't interrupt a blocking read
-		interrupted = true;
-	}
-
-	@Override
-	public void eventOccurred(Event e) {
-		if (e instanceof ContactRemovedEvent) {
-			ContactRemovedEvent c = (ContactRemovedEvent) e;
-			if (c.getContactId().equals(contactId)) interrupt();
-		} else if (e instanceof LifecycleEvent) {
-			LifecycleEvent l = (LifecycleEvent) e;
-			if (l.getLifecycleState() == STOPPING) interrupt();
+	@DatabaseExecutor
+	private void receiveVersions(Transaction txn, Versions v)
+			throws DbException {
+		List<Byte> supported = v.getSupportedVersions();
+		List<Byte> capabilities = v.getCapabilities();
+		// Let the outgoing session of this connection know the versions, so
+		// it can start set reconciliation if the contact supports it
+		if (connection != null) {
+			txn.attach(new SyncVersionsReceivedEvent(contactId, connection,
+					supported, capabilities));
 		}
+		db.setSyncVersions(txn, contactId, supported, capabilities);
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
+	@DatabaseExecutor
+	private void receiveRanges(Transaction txn, Ranges r) throws DbException {
+		Ranges reply = db.receiveRanges(txn, contactId, r);
+		// Replies can only be sent on the connection that received the record
+		if (connection == null) return;
+		if (reply == null) {
+			txn.attach(new ReconciliationFinishedEvent(contactId, connection,
+					r.getGroupId()));
+		} else {
+			txn.attach(new RangesToSendEvent(contactId, connection, reply));
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveAck(txn, contactId, ack));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+	/**
+	 * Queues a record to be stored, blocking while the queue is full.
+	 */
+	@IoExecutor
+	private void enqueue(ReceiveRecord r) throws IOException {
+		if (failed) throw new IOException("Failed to store records");
+		try {
+			while (!queue.offer(r, 1, SECONDS)) {
+				if (interrupted) return;
 			}
+		} catch (InterruptedException e) {
+			LOG.info("Interrupted while waiting to queue record");
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
 		}
-	}
-
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
+		if (storing.compareAndSet(false, true)) {
+			dbExecutor.execute(this::storeRecords);
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
+	/**
+	 * Stores up to {@link #MAX_RECORDS_PER_TRANSACTION} queued records in a
+	 * single transaction, then resubmits itself if more records are waiting,
+	 * so other tasks get a turn on the executor.
+	 */
+	@DatabaseExecutor
+	private void storeRecords() {
+		List<ReceiveRecord> records = new ArrayList<>();
+		queue.drainTo(records, MAX_RECORDS_PER_TRANSACTION);
+		if (!records.isEmpty()) {
 			try {
-				db.transaction(false, txn ->
-						db.receiveMessage(txn, contactId, message));
+				db.transaction(false, txn -> {
+					for (ReceiveRecord r : records) r.receive(txn);
+				});
 			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+				if (records.size() == 1) {
+					logException(LOG, WARNING, e);
+					abort();
+				} else {
+					retryIndividually(records);
+				}
 			}
 		}
-	}
-
-	private class ReceiveOffer implements Runnable {
-
-		private final Offer offer;
-
-		private ReceiveOffer(Offer offer) {
-			this.offer = offer;
+		storing.set(false);
+		// A record may have been queued after the queue was drained but
+		// before the flag was cleared
+		if (!queue.isEmpty() && storing.compareAndSet(false, true)) {
+			dbExecutor.execute(this::storeRecords);
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
+	/**
+	 * Stores each of the given records, which couldn't be stored in a single
+	 * transaction, in its own transaction, so one failing record doesn't
+	 * stop the rest of the batch from being stored. Aborts the session if
+	 * any of the records can't be stored.
+	 */
+	@DatabaseExecutor
+	private void retryIndividually(List<ReceiveRecord> records) {
+		if (LOG.isLoggable(INFO))
+			LOG.info("Retrying batch of " + records.size() + " individually");
+		boolean anyFailed = false;
+		for (ReceiveRecord r : records) {
 			try {
-				db.transaction(false, txn ->
-						db.receiveOffer(txn, contactId, offer));
+				db.transaction(false, r::receive);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
-				interrupt();
+				anyFailed = true;
 			}
 		}
+		if (anyFailed) abort();
 	}
 
-	private class ReceiveRequest implements Runnable {
+	/**
+	 * Aborts the session rather than ending it cleanly. Any records that
+	 * couldn't be stored haven't been acked, so the contact will send them
+	 * again.
+	 */
+	@DatabaseExecutor
+	private void abort() {
+		failed = true;
+		interrupt();
+		// Discard the rest of the queue so the reader isn't blocked
+		List<ReceiveRecord> discarded = new ArrayList<>();
+		queue.drainTo(discarded);
+		if (LOG.isLoggable(WARNING))
+			LOG.warning("Discarded " + discarded.size() + " records");
+	}
 
-		private final Request request;
+	@Override
+	public void interrupt() {
+		// FIXME: This won't interrupt a blocking read
+		interrupted = true;
+	}
 
-		private ReceiveRequest(Request request) {
-			this.request = request;
-		}
+	/**
+	 * Returns true if the session handles the given type of event. Called on
+	 * the thread that broadcasts the event.
+	 */
+	private boolean isRelevant(Event e) {
+		return e instanceof ContactRemovedEvent ||
+				e instanceof LifecycleEvent;
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveRequest(txn, contactId, request));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactRemovedEvent) {
+			ContactRemovedEvent c = (ContactRemovedEvent) e;
+			if (c.getContactId().equals(contactId)) interrupt();
+		} else if (e instanceof LifecycleEvent) {
+			LifecycleEvent l = (LifecycleEvent) e;
+			if (l.getLifecycleState() == STOPPING) interrupt();
 		}
 	}
 
-	private class ReceiveVersions implements Runnable {
-
-		private final Versions versions;
-
-		private ReceiveVersions(Versions versions) {
-			this.versions = versions;
-		}
+	private interface ReceiveRecord {
 
 		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				List<Byte> supported = versions.getSupportedVersions();
-				db.transaction(false,
-						txn -> db.setSyncVersions(txn, contactId, supported));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
+		void receive(Transaction txn) throws DbException;
 	}
 }
@@ -9,9 +9,10 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.util.ByteUtils;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.crypto.CryptoConstants.HASH_BYTES;
 import static org.briarproject.bramble.api.sync.Message.FORMAT_VERSION;
 import static org.briarproject.bramble.api.sync.MessageId.BLOCK_LABEL;
 import static org.briarproject.bramble.api.sync.MessageId.ID_LABEL;
@@ -20,7 +21,7 @@ import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class MessageFactoryImpl implements MessageFactory {
 
@@ -29,6 +30,18 @@ class MessageFactoryImpl implements MessageFactory {
 
 	private final CryptoComponent crypto;
 
+	/**
+	 * Reusable buffers for calculating message IDs, which is done for every
+	 * message that's created or received.
+	 */
+	private final ThreadLocal<IdContext> idContexts =
+			new ThreadLocal<IdContext>() {
+				@Override
+				protected IdContext initialValue() {
+					return new IdContext();
+				}
+			};
+
 	@Inject
 	MessageFactoryImpl(CryptoComponent crypto) {
 		this.crypto = crypto;
@@ -44,27 +57,34 @@ class MessageFactoryImpl implements MessageFactory {
 	}
 
 	private MessageId getMessageId(GroupId g, long timestamp, byte[] body) {
+		IdContext ctx = idContexts.get();
 		// There's only one block, so the root hash is the hash of the block
-		byte[] rootHash = crypto.hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
-		byte[] timeBytes = new byte[INT_64_BYTES];
-		ByteUtils.writeUint64(timestamp, timeBytes, 0);
-		byte[] idHash = crypto.hash(ID_LABEL, FORMAT_VERSION_BYTES,
-				g.getBytes(), timeBytes, rootHash);
+		crypto.hash(BLOCK_LABEL, ctx.rootHash, 0, FORMAT_VERSION_BYTES, body);
+		ByteUtils.writeUint64(timestamp, ctx.timeBytes, 0);
+		byte[] idHash = new byte[UniqueId.LENGTH];
+		crypto.hash(ID_LABEL, idHash, 0, FORMAT_VERSION_BYTES, g.getBytes(),
+				ctx.timeBytes, ctx.rootHash);
 		return new MessageId(idHash);
 	}
 
 	@Override
 	public Message createMessage(byte[] raw) {
-		if (raw.length <= MESSAGE_HEADER_LENGTH)
-			throw new IllegalArgumentException();
-		if (raw.length > MAX_MESSAGE_LENGTH)
+		return createMessage(raw, 0, raw.length);
+	}
+
+	@Override
+	public Message createMessage(byte[] buf, int off, int len) {
+		if (len <= MESSAGE_HEADER_LENGTH) throw new IllegalArgumentException();
+		if (len > MAX_MESSAGE_LENGTH) throw new IllegalArgumentException();
+		if (off < 0 || off + len > buf.length)
 			throw new IllegalArgumentException();
 		byte[] groupId = new byte[UniqueId.LENGTH];
-		System.arraycopy(raw, 0, groupId, 0, UniqueId.LENGTH);
+		System.arraycopy(buf, off, groupId, 0, UniqueId.LENGTH);
 		GroupId g = new GroupId(groupId);
-		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
-		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
+		long timestamp = ByteUtils.readUint64(buf, off + UniqueId.LENGTH);
+		byte[] body = new byte[len - MESSAGE_HEADER_LENGTH];
+		System.arraycopy(buf, off + MESSAGE_HEADER_LENGTH, body, 0,
+				body.length);
 		MessageId id = getMessageId(g, timestamp, body);
 		return new Message(id, g, timestamp, body);
 	}
@@ -78,4 +98,10 @@ class MessageFactoryImpl implements MessageFactory {
 		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
 		return raw;
 	}
+
+	private static class IdContext {
+
+		private final byte[] rootHash = new byte[HASH_BYTES];
+		private final byte[] timeBytes = new byte[INT_64_BYTES];
+	}
 }
@@ -42,6 +42,7 @@ import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_CAPABILITIES;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -61,7 +62,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	};
 
 	private final DatabaseComponent db;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, contactDbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final TransportId transportId;
@@ -75,11 +76,12 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private volatile boolean interrupted = false;
 
 	SimplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, ContactId contactId, TransportId transportId,
-			long maxLatency, boolean eager, StreamWriter streamWriter,
-			SyncRecordWriter recordWriter) {
+			Executor contactDbExecutor, EventBus eventBus, ContactId contactId,
+			TransportId transportId, long maxLatency, boolean eager,
+			StreamWriter streamWriter, SyncRecordWriter recordWriter) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.contactDbExecutor = contactDbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.transportId = transportId;
@@ -94,13 +96,14 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, this::isRelevant);
 		try {
 			// Send our supported protocol versions
-			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
+			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS,
+					SUPPORTED_CAPABILITIES));
 			// Start a query for each type of record
 			dbExecutor.execute(this::generateAck);
-			if (eager) dbExecutor.execute(this::loadUnackedMessageIds);
+			if (eager) contactDbExecutor.execute(this::loadUnackedMessageIds);
 			else dbExecutor.execute(this::generateBatch);
 			// Write records until interrupted or no more records to write
 			try {
@@ -129,6 +132,17 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		if (outstandingQueries.decrementAndGet() == 0) writerTasks.add(CLOSE);
 	}
 
+	/**
+	 * Returns true if the session handles the given type of event. Called on
+	 * the thread that broadcasts the event.
+	 */
+	private boolean isRelevant(Event e) {
+		return e instanceof ContactRemovedEvent ||
+				e instanceof LifecycleEvent ||
+				e instanceof CloseSyncConnectionsEvent ||
+				e instanceof TransportInactiveEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ContactRemovedEvent) {
@@ -146,7 +160,10 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
-	@DatabaseExecutor
+	/**
+	 * Runs on the contact's database executor, as it only reads from the
+	 * database.
+	 */
 	private void loadUnackedMessageIds() {
 		if (interrupted) return;
 		try {
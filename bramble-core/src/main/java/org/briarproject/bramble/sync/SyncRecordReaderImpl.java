@@ -7,11 +7,14 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
@@ -24,16 +27,25 @@ import java.util.List;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.api.sync.Range.ID_LIST;
+import static org.briarproject.bramble.api.sync.Range.MATCHED;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
+import static org.briarproject.bramble.api.sync.RecordTypes.RANGES;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MIN_CAPABILITY;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -51,7 +63,8 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private static boolean isKnownRecordType(byte type) {
 		return type == ACK || type == MESSAGE || type == OFFER ||
-				type == REQUEST || type == VERSIONS || type == PRIORITY;
+				type == REQUEST || type == VERSIONS || type == PRIORITY ||
+				type == RANGES;
 	}
 
 	private final MessageFactory messageFactory;
@@ -83,7 +96,9 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	public boolean eof() throws IOException {
 		if (nextRecord != null) return false;
 		if (eof) return true;
-		nextRecord = reader.readRecord(ACCEPT, IGNORE);
+		// The record is read into a reused buffer, so anything we want to keep
+		// must be copied out of the buffer before the next record is read
+		nextRecord = reader.readBufferedRecord(ACCEPT, IGNORE);
 		if (nextRecord == null) eof = true;
 		return eof;
 	}
@@ -101,13 +116,15 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private List<MessageId> readMessageIds() throws IOException {
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length == 0) throw new FormatException();
-		if (payload.length % UniqueId.LENGTH != 0) throw new FormatException();
-		List<MessageId> ids = new ArrayList<>(payload.length / UniqueId.LENGTH);
-		for (int off = 0; off < payload.length; off += UniqueId.LENGTH) {
+		byte[] buf = nextRecord.getBuffer();
+		int start = nextRecord.getPayloadOffset();
+		int len = nextRecord.getPayloadLength();
+		if (len == 0) throw new FormatException();
+		if (len % UniqueId.LENGTH != 0) throw new FormatException();
+		List<MessageId> ids = new ArrayList<>(len / UniqueId.LENGTH);
+		for (int off = start; off < start + len; off += UniqueId.LENGTH) {
 			byte[] id = new byte[UniqueId.LENGTH];
-			System.arraycopy(payload, off, id, 0, UniqueId.LENGTH);
+			System.arraycopy(buf, off, id, 0, UniqueId.LENGTH);
 			ids.add(new MessageId(id));
 		}
 		nextRecord = null;
@@ -123,14 +140,15 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	public Message readMessage() throws IOException {
 		if (!hasMessage()) throw new FormatException();
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length <= MESSAGE_HEADER_LENGTH)
-			throw new FormatException();
+		byte[] buf = nextRecord.getBuffer();
+		int off = nextRecord.getPayloadOffset();
+		int len = nextRecord.getPayloadLength();
+		if (len <= MESSAGE_HEADER_LENGTH) throw new FormatException();
 		// Validate timestamp
-		long timestamp = ByteUtils.readUint64(payload, UniqueId.LENGTH);
+		long timestamp = ByteUtils.readUint64(buf, off + UniqueId.LENGTH);
 		if (timestamp < 0) throw new FormatException();
 		nextRecord = null;
-		return messageFactory.createMessage(payload);
+		return messageFactory.createMessage(buf, off, len);
 	}
 
 	@Override
@@ -163,19 +181,21 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	@Override
 	public Versions readVersions() throws IOException {
 		if (!hasVersions()) throw new FormatException();
-		return new Versions(readSupportedVersions());
-	}
-
-	private List<Byte> readSupportedVersions() throws IOException {
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length == 0) throw new FormatException();
-		if (payload.length > MAX_SUPPORTED_VERSIONS)
-			throw new FormatException();
-		List<Byte> supported = new ArrayList<>(payload.length);
-		for (byte b : payload) supported.add(b);
+		byte[] buf = nextRecord.getBuffer();
+		int start = nextRecord.getPayloadOffset();
+		int len = nextRecord.getPayloadLength();
+		if (len == 0) throw new FormatException();
+		if (len > MAX_SUPPORTED_VERSIONS) throw new FormatException();
+		// Capability flags are encoded in the same record as the versions
+		List<Byte> supported = new ArrayList<>(len);
+		List<Byte> capabilities = new ArrayList<>();
+		for (int off = start; off < start + len; off++) {
+			if ((buf[off] & 0xFF) >= MIN_CAPABILITY) capabilities.add(buf[off]);
+			else supported.add(buf[off]);
+		}
 		nextRecord = null;
-		return supported;
+		return new Versions(supported, capabilities);
 	}
 
 	@Override
@@ -191,9 +211,71 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private byte[] readNonce() throws IOException {
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length != PRIORITY_NONCE_BYTES) throw new FormatException();
+		if (nextRecord.getPayloadLength() != PRIORITY_NONCE_BYTES)
+			throw new FormatException();
+		byte[] nonce = new byte[PRIORITY_NONCE_BYTES];
+		System.arraycopy(nextRecord.getBuffer(),
+				nextRecord.getPayloadOffset(), nonce, 0, PRIORITY_NONCE_BYTES);
+		nextRecord = null;
+		return nonce;
+	}
+
+	@Override
+	public boolean hasRanges() throws IOException {
+		return !eof() && getNextRecordType() == RANGES;
+	}
+
+	@Override
+	public Ranges readRanges() throws IOException {
+		if (!hasRanges()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] buf = nextRecord.getBuffer();
+		int off = nextRecord.getPayloadOffset();
+		int end = off + nextRecord.getPayloadLength();
+		if (end - off < UniqueId.LENGTH) throw new FormatException();
+		byte[] groupId = new byte[UniqueId.LENGTH];
+		System.arraycopy(buf, off, groupId, 0, UniqueId.LENGTH);
+		off += UniqueId.LENGTH;
+		List<Range> ranges = new ArrayList<>();
+		while (off < end) {
+			if (end - off < 1 + INT_64_BYTES * 2) throw new FormatException();
+			byte type = buf[off];
+			long lower = ByteUtils.readUint64(buf, off + 1);
+			long upper = ByteUtils.readUint64(buf, off + 1 + INT_64_BYTES);
+			if (lower < 0 || upper <= lower) throw new FormatException();
+			off += 1 + INT_64_BYTES * 2;
+			if (type == FINGERPRINT) {
+				if (end - off < INT_32_BYTES + FINGERPRINT_LENGTH)
+					throw new FormatException();
+				long count = ByteUtils.readUint32(buf, off);
+				if (count > Integer.MAX_VALUE) throw new FormatException();
+				off += INT_32_BYTES;
+				byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+				System.arraycopy(buf, off, fingerprint, 0, FINGERPRINT_LENGTH);
+				off += FINGERPRINT_LENGTH;
+				ranges.add(new Range(lower, upper, (int) count, fingerprint));
+			} else if (type == MATCHED) {
+				ranges.add(new Range(lower, upper));
+			} else if (type == ID_LIST) {
+				if (end - off < INT_16_BYTES) throw new FormatException();
+				int count = ByteUtils.readUint16(buf, off);
+				off += INT_16_BYTES;
+				if (end - off < count * UniqueId.LENGTH)
+					throw new FormatException();
+				List<MessageId> ids = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					byte[] id = new byte[UniqueId.LENGTH];
+					System.arraycopy(buf, off, id, 0, UniqueId.LENGTH);
+					ids.add(new MessageId(id));
+					off += UniqueId.LENGTH;
+				}
+				ranges.add(new Range(lower, upper, ids));
+			} else {
+				throw new FormatException();
+			}
+		}
+		if (ranges.isEmpty()) throw new FormatException();
 		nextRecord = null;
-		return payload;
+		return new Ranges(new GroupId(groupId), ranges);
 	}
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordWriter;
@@ -9,6 +10,8 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
@@ -18,13 +21,23 @@ import java.io.IOException;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.Range.ID_LIST;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
+import static org.briarproject.bramble.api.sync.RecordTypes.RANGES;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint16;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -72,6 +85,7 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 	@Override
 	public void writeVersions(Versions v) throws IOException {
 		for (byte b : v.getSupportedVersions()) payload.write(b);
+		for (byte b : v.getCapabilities()) payload.write(b);
 		writeRecord(VERSIONS);
 	}
 
@@ -81,6 +95,57 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 				new Record(PROTOCOL_VERSION, PRIORITY, p.getNonce()));
 	}
 
+	@Override
+	public void writeRanges(Ranges r) throws IOException {
+		if (r.getRanges().isEmpty()) throw new IllegalArgumentException();
+		byte[] groupId = r.getGroupId().getBytes();
+		payload.write(groupId);
+		for (Range range : r.getRanges()) {
+			byte[] encoded = encodeRange(range);
+			if (UniqueId.LENGTH + encoded.length > MAX_RECORD_PAYLOAD_BYTES)
+				throw new IllegalArgumentException();
+			// Start a new record if the range doesn't fit in this one
+			if (payload.size() + encoded.length > MAX_RECORD_PAYLOAD_BYTES) {
+				writeRecord(RANGES);
+				payload.write(groupId);
+			}
+			payload.write(encoded);
+		}
+		writeRecord(RANGES);
+	}
+
+	private byte[] encodeRange(Range r) {
+		int length = 1 + INT_64_BYTES * 2;
+		byte type = r.getType();
+		if (type == FINGERPRINT) {
+			length += INT_32_BYTES + Range.FINGERPRINT_LENGTH;
+		} else if (type == ID_LIST) {
+			length += INT_16_BYTES + r.getCount() * UniqueId.LENGTH;
+		}
+		byte[] encoded = new byte[length];
+		encoded[0] = type;
+		writeUint64(r.getLower(), encoded, 1);
+		writeUint64(r.getUpper(), encoded, 1 + INT_64_BYTES);
+		int off = 1 + INT_64_BYTES * 2;
+		if (type == FINGERPRINT) {
+			byte[] fingerprint = r.getFingerprint();
+			if (fingerprint == null) throw new AssertionError();
+			writeUint32(r.getCount(), encoded, off);
+			off += INT_32_BYTES;
+			System.arraycopy(fingerprint, 0, encoded, off,
+					Range.FINGERPRINT_LENGTH);
+		} else if (type == ID_LIST) {
+			writeUint16(r.getCount(), encoded, off);
+			off += INT_16_BYTES;
+			for (MessageId m : r.getMessageIds()) {
+				System.arraycopy(m.getBytes(), 0, encoded, off,
+						UniqueId.LENGTH);
+				off += UniqueId.LENGTH;
+			}
+		}
+		return encoded;
+	}
+
 	@Override
 	public void flush() throws IOException {
 		writer.flush();
@@ -1,6 +1,7 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.ContactDatabaseExecutor;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.event.EventBus;
@@ -25,12 +26,16 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_QUEUED_BATCHES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_QUEUED_BATCH_BYTES;
+
 @Immutable
 @NotNullByDefault
 class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
+	private final ContactDatabaseExecutor contactDbExecutor;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final SyncRecordReaderFactory recordReaderFactory;
@@ -38,11 +43,13 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
+			@DatabaseExecutor Executor dbExecutor,
+			ContactDatabaseExecutor contactDbExecutor, EventBus eventBus,
 			Clock clock, SyncRecordReaderFactory recordReaderFactory,
 			SyncRecordWriterFactory recordWriterFactory) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.contactDbExecutor = contactDbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
@@ -51,11 +58,11 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	@Override
 	public SyncSession createIncomingSession(ContactId c, InputStream in,
-			PriorityHandler handler) {
+			PriorityHandler handler, @Nullable Object connection) {
 		SyncRecordReader recordReader =
 				recordReaderFactory.createRecordReader(in);
 		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader,
-				handler);
+				handler, connection);
 	}
 
 	@Override
@@ -64,18 +71,22 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new SimplexOutgoingSession(db, dbExecutor, eventBus, c, t,
-				maxLatency, eager, streamWriter, recordWriter);
+		return new SimplexOutgoingSession(db, dbExecutor,
+				contactDbExecutor.getExecutor(c), eventBus, c, t, maxLatency,
+				eager, streamWriter, recordWriter);
 	}
 
 	@Override
 	public SyncSession createDuplexOutgoingSession(ContactId c, TransportId t,
 			long maxLatency, int maxIdleTime, StreamWriter streamWriter,
-			@Nullable Priority priority) {
+			@Nullable Priority priority, Object connection) {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c, t,
-				maxLatency, maxIdleTime, streamWriter, recordWriter, priority);
+		return new DuplexOutgoingSession(db, dbExecutor,
+				contactDbExecutor.getExecutor(c), eventBus, clock, c, t,
+				maxLatency, maxIdleTime, MAX_QUEUED_BATCHES,
+				MAX_QUEUED_BATCH_BYTES, streamWriter, recordWriter, priority,
+				connection);
 	}
 }
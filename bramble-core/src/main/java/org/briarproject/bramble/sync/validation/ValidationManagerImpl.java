@@ -1,6 +1,5 @@
 package org.briarproject.bramble.sync.validation;
 
-import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
@@ -14,6 +13,7 @@ import org.briarproject.bramble.api.lifecycle.Service;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageContext;
@@ -26,19 +26,27 @@ import org.briarproject.bramble.api.sync.validation.MessageValidator;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
@@ -48,7 +56,9 @@ import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.D
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 @ThreadSafe
 @NotNullByDefault
@@ -58,19 +68,47 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The default maximum number of messages that are loaded, stored or
+	 * delivered in a single transaction.
+	 */
+	static final int DEFAULT_BATCH_SIZE = 64;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor, validationExecutor;
+	private final int batchSize;
 	private final Map<ClientMajorVersion, MessageValidator> validators;
 	private final Map<ClientMajorVersion, IncomingMessageHook> hooks;
 	private final AtomicBoolean used = new AtomicBoolean(false);
 
+	/**
+	 * Messages that have been validated and are waiting for their contexts
+	 * to be stored.
+	 */
+	private final Queue<ValidatedMessage> validated =
+			new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean storeScheduled = new AtomicBoolean(false);
+
+	// Throughput counters, logged when the service stops
+	private final AtomicLong loaded = new AtomicLong(0);
+	private final AtomicLong stored = new AtomicLong(0);
+	private final AtomicLong delivered = new AtomicLong(0);
+	private final AtomicLong invalidated = new AtomicLong(0);
+
 	@Inject
 	ValidationManagerImpl(DatabaseComponent db,
 			@DatabaseExecutor Executor dbExecutor,
 			@ValidationExecutor Executor validationExecutor) {
+		this(db, dbExecutor, validationExecutor, DEFAULT_BATCH_SIZE);
+	}
+
+	ValidationManagerImpl(DatabaseComponent db, Executor dbExecutor,
+			Executor validationExecutor, int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException();
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.validationExecutor = validationExecutor;
+		this.batchSize = batchSize;
 		validators = new ConcurrentHashMap<>();
 		hooks = new ConcurrentHashMap<>();
 	}
@@ -85,6 +123,12 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	@Override
 	public void stopService() {
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Loaded " + loaded.get() + " messages for validation, "
+					+ "stored " + stored.get() + " validation results, "
+					+ "delivered " + delivered.get() + " messages, "
+					+ "invalidated " + invalidated.get() + " messages");
+		}
 	}
 
 	@Override
@@ -108,37 +152,51 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> unvalidated = new LinkedList<>(
 					db.transactionWithResult(true, db::getMessagesToValidate));
-			validateNextMessageAsync(unvalidated);
+			validateNextBatchAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void validateNextMessageAsync(Queue<MessageId> unvalidated) {
+	private void validateNextBatchAsync(Queue<MessageId> unvalidated) {
 		if (unvalidated.isEmpty()) return;
-		dbExecutor.execute(() -> validateNextMessage(unvalidated));
+		dbExecutor.execute(() -> validateNextBatch(unvalidated));
+	}
+
+	@DatabaseExecutor
+	private void validateNextBatch(Queue<MessageId> unvalidated) {
+		loadAndValidateBatch(pollBatch(unvalidated));
+		validateNextBatchAsync(unvalidated);
 	}
 
 	@DatabaseExecutor
-	private void validateNextMessage(Queue<MessageId> unvalidated) {
+	private void loadAndValidateBatch(List<MessageId> batch) {
 		try {
-			Pair<Message, Group> mg = db.transactionWithResult(true, txn -> {
-				MessageId id = unvalidated.poll();
-				if (id == null) throw new AssertionError();
-				Message m = db.getMessage(txn, id);
-				Group g = db.getGroup(txn, m.getGroupId());
-				return new Pair<>(m, g);
+			long start = now();
+			List<Message> messages = new ArrayList<>(batch.size());
+			List<Group> groups = new ArrayList<>(batch.size());
+			db.transaction(true, txn -> {
+				Map<GroupId, Group> cache = new HashMap<>();
+				for (MessageId id : batch) {
+					Message m = db.getMessage(txn, id);
+					Group g = cache.get(m.getGroupId());
+					if (g == null) {
+						g = db.getGroup(txn, m.getGroupId());
+						cache.put(g.getId(), g);
+					}
+					messages.add(m);
+					groups.add(g);
+				}
 			});
-			validateMessageAsync(mg.getFirst(), mg.getSecond());
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before validation");
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before validation");
-			validateNextMessageAsync(unvalidated);
+			loaded.addAndGet(messages.size());
+			logDuration(LOG, "Loading " + messages.size()
+					+ " messages for validation", start);
+			// Validate the batch in parallel on the validation executor
+			for (int i = 0; i < messages.size(); i++)
+				validateMessageAsync(messages.get(i), groups.get(i));
 		} catch (DbException e) {
-			logException(LOG, WARNING, e);
+			if (!retryIndividually(batch, this::loadAndValidateBatch))
+				logBatchFailure(e, "before validation");
 		}
 	}
 
@@ -151,73 +209,87 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> pending = new LinkedList<>(
 					db.transactionWithResult(true, db::getPendingMessages));
-			deliverNextPendingMessageAsync(pending);
+			deliverNextBatchAsync(pending);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void deliverNextPendingMessageAsync(Queue<MessageId> pending) {
+	private void deliverNextBatchAsync(Queue<MessageId> pending) {
 		if (pending.isEmpty()) return;
-		dbExecutor.execute(() -> deliverNextPendingMessage(pending));
+		dbExecutor.execute(() -> deliverNextBatch(pending));
 	}
 
 	@DatabaseExecutor
-	private void deliverNextPendingMessage(Queue<MessageId> pending) {
+	private void deliverNextBatch(Queue<MessageId> pending) {
+		deliverBatch(pollBatch(pending));
+		deliverNextBatchAsync(pending);
+	}
+
+	@DatabaseExecutor
+	private void deliverBatch(List<MessageId> batch) {
 		try {
-			Queue<MessageId> toShare = new LinkedList<>();
-			Queue<MessageId> invalidate = new LinkedList<>();
+			long start = now();
+			BatchResults results = new BatchResults();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				MessageId id = pending.poll();
-				if (id == null) throw new AssertionError();
-				// Check if message is still pending
-				if (db.getMessageState(txn, id) == PENDING) {
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-					if (anyInvalid) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					} else if (allDelivered) {
-						Message m = db.getMessage(txn, id);
-						Group g = db.getGroup(txn, m.getGroupId());
-						ClientId c = g.getClientId();
-						int majorVersion = g.getMajorVersion();
-						Metadata meta =
-								db.getMessageMetadataForValidator(txn, id);
-						DeliveryAction action =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (action == REJECT) {
-							invalidateMessage(txn, id);
-							addDependentsToInvalidate(txn, id, invalidate);
-						} else if (action == ACCEPT_SHARE) {
-							db.setMessageState(txn, m.getId(), DELIVERED);
-							addPendingDependents(txn, id, pending);
-							db.setMessageShared(txn, id);
-							toShare.addAll(states.keySet());
-						} else if (action == ACCEPT_DO_NOT_SHARE) {
-							db.setMessageState(txn, m.getId(), DELIVERED);
-							addPendingDependents(txn, id, pending);
-						}
-					}
+				// Dependents that become deliverable are added to the queue
+				// and may be delivered as part of the same batch
+				Queue<MessageId> queue = results.pending;
+				queue.addAll(batch);
+				for (int i = 0; i < batchSize; i++) {
+					MessageId id = queue.poll();
+					if (id == null) break;
+					deliverPendingMessage(txn, id, results);
 				}
 			});
-			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
-			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-			deliverNextPendingMessageAsync(pending);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before delivery");
-			deliverNextPendingMessageAsync(pending);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			logDuration(LOG, "Delivering batch of pending messages", start);
+			applyResults(results);
 		} catch (DbException e) {
-			logException(LOG, WARNING, e);
+			if (!retryIndividually(batch, this::deliverBatch))
+				logBatchFailure(e, "before delivery");
+		}
+	}
+
+	@DatabaseExecutor
+	private void deliverPendingMessage(Transaction txn, MessageId id,
+			BatchResults results) throws DbException {
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message is still pending
+		if (db.getMessageState(txn, id) != PENDING) return;
+		// Check if dependencies are valid and delivered
+		Map<MessageId, MessageState> states =
+				db.getMessageDependencies(txn, id);
+		for (Entry<MessageId, MessageState> e : states.entrySet()) {
+			if (e.getValue() == INVALID) anyInvalid = true;
+			if (e.getValue() != DELIVERED) allDelivered = false;
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			results.invalidated++;
+			addDependentsToInvalidate(txn, id, results.invalidate);
+		} else if (allDelivered) {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			ClientId c = g.getClientId();
+			int majorVersion = g.getMajorVersion();
+			Metadata meta = db.getMessageMetadataForValidator(txn, id);
+			DeliveryAction action =
+					deliverMessage(txn, m, c, majorVersion, meta);
+			if (action == REJECT) {
+				invalidateMessage(txn, id);
+				results.invalidated++;
+				addDependentsToInvalidate(txn, id, results.invalidate);
+			} else if (action == ACCEPT_SHARE) {
+				db.setMessageState(txn, m.getId(), DELIVERED);
+				results.delivered++;
+				addPendingDependents(txn, id, results.pending);
+				db.setMessageShared(txn, id);
+				results.toShare.addAll(states.keySet());
+			} else if (action == ACCEPT_DO_NOT_SHARE) {
+				db.setMessageState(txn, m.getId(), DELIVERED);
+				results.delivered++;
+				addPendingDependents(txn, id, results.pending);
+			}
 		}
 	}
 
@@ -248,74 +320,151 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	private void storeMessageContextAsync(Message m, ClientId c,
 			int majorVersion, MessageContext result) {
-		dbExecutor.execute(() ->
-				storeMessageContext(m, c, majorVersion, result));
+		validated.add(new ValidatedMessage(m, c, majorVersion, result));
+		if (!storeScheduled.getAndSet(true))
+			dbExecutor.execute(this::storeNextBatch);
+	}
+
+	@DatabaseExecutor
+	private void storeNextBatch() {
+		// Clear the flag before draining the queue, so any result added
+		// after this point will schedule another task
+		storeScheduled.set(false);
+		List<ValidatedMessage> batch = pollBatch(validated);
+		if (batch.isEmpty()) return;
+		if (!validated.isEmpty() && !storeScheduled.getAndSet(true))
+			dbExecutor.execute(this::storeNextBatch);
+		storeBatch(batch);
 	}
 
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c, int majorVersion,
-			MessageContext context) {
+	private void storeBatch(List<ValidatedMessage> batch) {
 		try {
-			MessageId id = m.getId();
-			Queue<MessageId> invalidate = new LinkedList<>();
-			Queue<MessageId> pending = new LinkedList<>();
-			Queue<MessageId> toShare = new LinkedList<>();
+			long start = now();
+			BatchResults results = new BatchResults();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryAction action =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (action == REJECT) {
-							invalidateMessage(txn, id);
-							addDependentsToInvalidate(txn, id, invalidate);
-						} else if (action == DEFER) {
-							db.setMessageState(txn, id, PENDING);
-						} else if (action == ACCEPT_SHARE) {
-							db.setMessageState(txn, id, DELIVERED);
-							addPendingDependents(txn, id, pending);
-							db.setMessageShared(txn, id);
-							toShare.addAll(dependencies);
-						} else if (action == ACCEPT_DO_NOT_SHARE) {
-							db.setMessageState(txn, id, DELIVERED);
-							addPendingDependents(txn, id, pending);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
+				for (ValidatedMessage v : batch) {
+					storeMessageContext(txn, v.message, v.clientId,
+							v.majorVersion, v.context, results);
 				}
 			});
-			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
-			if (!pending.isEmpty()) deliverNextPendingMessageAsync(pending);
-			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed during validation");
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed during validation");
+			stored.addAndGet(batch.size());
+			logDuration(LOG, "Storing " + batch.size()
+					+ " validation results", start);
+			applyResults(results);
 		} catch (DbException e) {
+			if (!retryIndividually(batch, this::storeBatch))
+				logBatchFailure(e, "during validation");
+		}
+	}
+
+	/**
+	 * Removes and returns up to {@link #batchSize} items from the given
+	 * queue.
+	 */
+	private <T> List<T> pollBatch(Queue<T> queue) {
+		List<T> batch = new ArrayList<>();
+		while (batch.size() < batchSize) {
+			T item = queue.poll();
+			if (item == null) break;
+			batch.add(item);
+		}
+		return batch;
+	}
+
+	/**
+	 * If the given batch, which failed in a single transaction, contains
+	 * more than one item, processes each item in its own transaction so
+	 * that one failing item doesn't stop the rest of the batch from being
+	 * processed, and returns true. Otherwise returns false.
+	 */
+	private <T> boolean retryIndividually(List<T> batch, BatchTask<T> task) {
+		if (batch.size() < 2) return false;
+		if (LOG.isLoggable(INFO))
+			LOG.info("Retrying batch of " + batch.size() + " individually");
+		for (T item : batch)
+			dbExecutor.execute(() -> task.run(singletonList(item)));
+		return true;
+	}
+
+	private void logBatchFailure(DbException e, String when) {
+		if (e instanceof NoSuchMessageException) {
+			LOG.info("Message removed " + when);
+		} else if (e instanceof NoSuchGroupException) {
+			LOG.info("Group removed " + when);
+		} else {
 			logException(LOG, WARNING, e);
 		}
 	}
 
+	/**
+	 * Counts the messages a batch delivered and invalidated, and schedules
+	 * any follow-up work, once the batch's transaction has committed.
+	 */
+	private void applyResults(BatchResults results) {
+		delivered.addAndGet(results.delivered);
+		invalidated.addAndGet(results.invalidated);
+		if (!results.invalidate.isEmpty())
+			invalidateNextMessageAsync(results.invalidate);
+		if (!results.pending.isEmpty())
+			deliverNextBatchAsync(results.pending);
+		if (!results.toShare.isEmpty())
+			shareNextMessageAsync(results.toShare);
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContext(Transaction txn, Message m, ClientId c,
+			int majorVersion, MessageContext context, BatchResults results)
+			throws DbException {
+		MessageId id = m.getId();
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, MessageState> states =
+					db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, MessageState> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				results.invalidated++;
+				addDependentsToInvalidate(txn, id, results.invalidate);
+			}
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryAction action =
+						deliverMessage(txn, m, c, majorVersion, meta);
+				if (action == REJECT) {
+					invalidateMessage(txn, id);
+					results.invalidated++;
+					addDependentsToInvalidate(txn, id, results.invalidate);
+				} else if (action == DEFER) {
+					db.setMessageState(txn, id, PENDING);
+				} else if (action == ACCEPT_SHARE) {
+					db.setMessageState(txn, id, DELIVERED);
+					results.delivered++;
+					addPendingDependents(txn, id, results.pending);
+					db.setMessageShared(txn, id);
+					results.toShare.addAll(dependencies);
+				} else if (action == ACCEPT_DO_NOT_SHARE) {
+					db.setMessageState(txn, id, DELIVERED);
+					results.delivered++;
+					addPendingDependents(txn, id, results.pending);
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
+		}
+	}
+
 	@DatabaseExecutor
 	private DeliveryAction deliverMessage(Transaction txn, Message m,
 			ClientId c, int majorVersion, Metadata meta) {
@@ -403,6 +552,7 @@ class ValidationManagerImpl implements ValidationManager, Service,
 				if (id == null) throw new AssertionError();
 				if (db.getMessageState(txn, id) != INVALID) {
 					invalidateMessage(txn, id);
+					invalidated.incrementAndGet();
 					addDependentsToInvalidate(txn, id, invalidate);
 				}
 			});
@@ -458,4 +608,42 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			logException(LOG, WARNING, e);
 		}
 	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class ValidatedMessage {
+
+		private final Message message;
+		private final ClientId clientId;
+		private final int majorVersion;
+		private final MessageContext context;
+
+		private ValidatedMessage(Message message, ClientId clientId,
+				int majorVersion, MessageContext context) {
+			this.message = message;
+			this.clientId = clientId;
+			this.majorVersion = majorVersion;
+			this.context = context;
+		}
+	}
+
+	/**
+	 * The work that follows from a batch, which is only done if the batch's
+	 * transaction commits.
+	 */
+	@NotThreadSafe
+	@NotNullByDefault
+	private static class BatchResults {
+
+		private final Queue<MessageId> invalidate = new LinkedList<>();
+		private final Queue<MessageId> pending = new LinkedList<>();
+		private final Queue<MessageId> toShare = new LinkedList<>();
+		private int delivered = 0, invalidated = 0;
+	}
+
+	private interface BatchTask<T> {
+
+		@DatabaseExecutor
+		void run(List<T> batch);
+	}
 }
@@ -210,9 +210,12 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 	@Override
 	public StreamContext getStreamContext(TransportId t, byte[] tag)
 			throws DbException {
-		return withManager(t, m ->
-				db.transactionWithNullableResult(false, txn ->
-						m.getStreamContext(txn, tag)));
+		return withManager(t, m -> {
+			// Don't open a transaction for tags that aren't recognised
+			if (!m.isTagRecognised(tag)) return null;
+			return db.transactionWithNullableResult(false, txn ->
+					m.getStreamContext(txn, tag));
+		});
 	}
 
 	@Override
@@ -8,7 +8,7 @@ import java.io.InputStream;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 
 /**
  * An {@link InputStream} that unpacks payload data from transport frames.
@@ -24,7 +24,8 @@ class StreamReaderImpl extends InputStream {
 
 	StreamReaderImpl(StreamDecrypter decrypter) {
 		this.decrypter = decrypter;
-		payload = new byte[MAX_PAYLOAD_LENGTH];
+		// Big enough for streams with or without large frames
+		payload = new byte[MAX_LARGE_PAYLOAD_LENGTH];
 	}
 
 	@Override
@@ -1,31 +1,85 @@
 package org.briarproject.bramble.transport;
 
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.plugin.LanTcpConstants;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.file.RemovableDriveConstants;
+import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
 
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
-@Immutable
+import static java.util.Arrays.asList;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+/**
+ * Chooses the frame size for each stream. Whether a contact can read large
+ * frames is decided by the sync capabilities the contact most recently sent
+ * us, which are stored in the database, so streams written while the contact is
+ * offline, such as removable drive streams, can also use large frames.
+ * Contacts that haven't told us they support large frames get small frames,
+ * which every version can read.
+ */
+@ThreadSafe
 @NotNullByDefault
-class StreamWriterFactoryImpl implements StreamWriterFactory {
+class StreamWriterFactoryImpl implements StreamWriterFactory, EventListener {
+
+	private static final Logger LOG =
+			getLogger(StreamWriterFactoryImpl.class.getName());
 
+	/**
+	 * Transports that are fast enough for the per-frame overhead of small
+	 * frames to matter. Streams to contacts that support large frames use
+	 * large frames on these transports.
+	 */
+	private static final Collection<TransportId> LARGE_FRAME_TRANSPORTS =
+			asList(LanTcpConstants.ID, RemovableDriveConstants.ID);
+
+	private final DatabaseComponent db;
 	private final StreamEncrypterFactory streamEncrypterFactory;
+	// Whether each contact supports large frames, loaded from the stored
+	// sync capabilities and updated when the contact sends new ones
+	private final ConcurrentMap<ContactId, Boolean> largeFrameContacts =
+			new ConcurrentHashMap<>();
 
 	@Inject
-	StreamWriterFactoryImpl(StreamEncrypterFactory streamEncrypterFactory) {
+	StreamWriterFactoryImpl(DatabaseComponent db,
+			StreamEncrypterFactory streamEncrypterFactory) {
+		this.db = db;
 		this.streamEncrypterFactory = streamEncrypterFactory;
 	}
 
 	@Override
 	public StreamWriter createStreamWriter(OutputStream out,
 			StreamContext ctx) {
+		if (useLargeFrames(ctx)) {
+			return new StreamWriterImpl(streamEncrypterFactory
+					.createLargeFrameStreamEncrypter(out, ctx),
+					MAX_LARGE_PAYLOAD_LENGTH);
+		}
 		return new StreamWriterImpl(streamEncrypterFactory
 				.createStreamEncrypter(out, ctx));
 	}
@@ -43,4 +97,41 @@ class StreamWriterFactoryImpl implements StreamWriterFactory {
 		return new StreamWriterImpl(streamEncrypterFactory
 				.createLogStreamEncrypter(out, headerKey));
 	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof SyncVersionsUpdatedEvent) {
+			SyncVersionsUpdatedEvent s = (SyncVersionsUpdatedEvent) e;
+			boolean large =
+					s.getCapabilities().contains(CAPABILITY_LARGE_FRAMES);
+			Boolean old = largeFrameContacts.put(s.getContactId(), large);
+			if (large && !Boolean.TRUE.equals(old) && LOG.isLoggable(INFO))
+				LOG.info("Contact supports large frames");
+		} else if (e instanceof ContactRemovedEvent) {
+			ContactId c = ((ContactRemovedEvent) e).getContactId();
+			largeFrameContacts.remove(c);
+		}
+	}
+
+	private boolean useLargeFrames(StreamContext ctx) {
+		ContactId c = ctx.getContactId();
+		if (c == null || ctx.isHandshakeMode()) return false;
+		if (!LARGE_FRAME_TRANSPORTS.contains(ctx.getTransportId()))
+			return false;
+		Boolean large = largeFrameContacts.get(c);
+		if (large == null) {
+			try {
+				List<Byte> capabilities = db.transactionWithResult(true,
+						txn -> db.getSyncCapabilities(txn, c));
+				large = capabilities.contains(CAPABILITY_LARGE_FRAMES);
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				return false;
+			}
+			// Don't overwrite any newer versions received in the meantime
+			Boolean old = largeFrameContacts.putIfAbsent(c, large);
+			if (old != null) large = old;
+		}
+		return large;
+	}
 }
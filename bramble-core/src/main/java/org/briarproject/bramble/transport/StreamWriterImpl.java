@@ -26,8 +26,12 @@ class StreamWriterImpl extends OutputStream implements StreamWriter {
 	private int length = 0;
 
 	StreamWriterImpl(StreamEncrypter encrypter) {
+		this(encrypter, MAX_PAYLOAD_LENGTH);
+	}
+
+	StreamWriterImpl(StreamEncrypter encrypter, int maxPayloadLength) {
 		this.encrypter = encrypter;
-		payload = new byte[MAX_PAYLOAD_LENGTH];
+		payload = new byte[maxPayloadLength];
 	}
 
 	@Override
@@ -0,0 +1,241 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * A hash table that maps tags to values, using open addressing with linear
+ * probing. Each tag is stored as two longs, so lookups don't allocate.
+ * <p>
+ * The table is split into shards that are resized independently, so adding
+ * tags never has to rehash the whole table at once.
+ * <p>
+ * Lookups may be made concurrently from any thread without locking. Updates
+ * must be synchronised externally. A lookup that runs concurrently with an
+ * update sees the table either before or after each individual put or
+ * remove, so callers that need a consistent view of several updates must
+ * check the result again while holding the lock used for updates.
+ */
+@ThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	private static final int SHARD_BITS = 4, SHARDS = 1 << SHARD_BITS;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Shard<V>[] shards;
+
+	@SuppressWarnings("unchecked")
+	TagTable() {
+		shards = new Shard[SHARDS];
+		for (int i = 0; i < SHARDS; i++) shards[i] = new Shard<>();
+	}
+
+	/**
+	 * Returns the value for the given tag, or null if the tag is not in the
+	 * table. This method may be called without external synchronisation.
+	 */
+	@Nullable
+	V get(byte[] tag) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		return getShard(hi).get(hi, lo);
+	}
+
+	/**
+	 * Adds the given tag and value to the table, replacing any existing
+	 * value for the tag.
+	 */
+	void put(byte[] tag, V value) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		getShard(hi).put(hi, lo, value);
+	}
+
+	/**
+	 * Removes the given tag from the table and returns its value, or null
+	 * if the tag was not in the table.
+	 */
+	@Nullable
+	V remove(byte[] tag) {
+		long hi = getHigh(tag), lo = getLow(tag);
+		return getShard(hi).remove(hi, lo);
+	}
+
+	/**
+	 * Removes all tags whose values match the given predicate.
+	 */
+	void removeIf(Predicate<V> predicate) {
+		for (Shard<V> shard : shards) shard.removeIf(predicate);
+	}
+
+	/**
+	 * Removes all tags from the table.
+	 */
+	void clear() {
+		for (Shard<V> shard : shards) shard.clear();
+	}
+
+	/**
+	 * Returns the number of tags in the table.
+	 */
+	int size() {
+		int size = 0;
+		for (Shard<V> shard : shards) size += shard.size;
+		return size;
+	}
+
+	private Shard<V> getShard(long hi) {
+		return shards[(int) (hi >>> (64 - SHARD_BITS))];
+	}
+
+	private static long getHigh(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		return readLong(tag, 0);
+	}
+
+	private static long getLow(byte[] tag) {
+		return readLong(tag, 8);
+	}
+
+	private static long readLong(byte[] b, int off) {
+		long l = 0;
+		for (int i = 0; i < 8; i++) l = (l << 8) | (b[off + i] & 0xFF);
+		return l;
+	}
+
+	/**
+	 * An immutable slot entry. Tags are pseudo-random, so the low bits of
+	 * the tag are used directly as the hash.
+	 */
+	private static class Entry<V> {
+
+		private final long hi, lo;
+		@Nullable
+		private final V value;
+
+		private Entry(long hi, long lo, @Nullable V value) {
+			this.hi = hi;
+			this.lo = lo;
+			this.value = value;
+		}
+	}
+
+	private static class Shard<V> {
+
+		/**
+		 * Marks a slot whose entry has been removed. Lookups must probe past
+		 * it, but puts may reuse it.
+		 */
+		private final Entry<V> tombstone = new Entry<>(0, 0, null);
+
+		/**
+		 * The slots, published by a volatile write so that lookups always
+		 * see a fully initialised array.
+		 */
+		private volatile AtomicReferenceArray<Entry<V>> slots =
+				new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+		// Only accessed by updates, which are synchronised externally
+		private int size = 0, used = 0;
+
+		@Nullable
+		private V get(long hi, long lo) {
+			AtomicReferenceArray<Entry<V>> slots = this.slots;
+			int mask = slots.length() - 1;
+			for (int i = (int) lo & mask; ; i = (i + 1) & mask) {
+				Entry<V> e = slots.get(i);
+				if (e == null) return null;
+				if (e != tombstone && e.hi == hi && e.lo == lo) return e.value;
+			}
+		}
+
+		private void put(long hi, long lo, V value) {
+			AtomicReferenceArray<Entry<V>> slots = this.slots;
+			int mask = slots.length() - 1;
+			int free = -1;
+			for (int i = (int) lo & mask; ; i = (i + 1) & mask) {
+				Entry<V> e = slots.get(i);
+				if (e == null) {
+					if (free == -1) {
+						free = i;
+						used++;
+					}
+					break;
+				}
+				if (e == tombstone) {
+					if (free == -1) free = i;
+				} else if (e.hi == hi && e.lo == lo) {
+					slots.set(i, new Entry<>(hi, lo, value));
+					return;
+				}
+			}
+			slots.set(free, new Entry<>(hi, lo, value));
+			size++;
+			// Keep at least a quarter of the slots empty so probes terminate
+			if (used * 4 > slots.length() * 3) resize();
+		}
+
+		@Nullable
+		private V remove(long hi, long lo) {
+			AtomicReferenceArray<Entry<V>> slots = this.slots;
+			int mask = slots.length() - 1;
+			for (int i = (int) lo & mask; ; i = (i + 1) & mask) {
+				Entry<V> e = slots.get(i);
+				if (e == null) return null;
+				if (e != tombstone && e.hi == hi && e.lo == lo) {
+					slots.set(i, tombstone);
+					size--;
+					return e.value;
+				}
+			}
+		}
+
+		private void removeIf(Predicate<V> predicate) {
+			AtomicReferenceArray<Entry<V>> slots = this.slots;
+			for (int i = 0; i < slots.length(); i++) {
+				Entry<V> e = slots.get(i);
+				if (e != null && e != tombstone) {
+					V value = e.value;
+					if (value != null && predicate.test(value)) {
+						slots.set(i, tombstone);
+						size--;
+					}
+				}
+			}
+		}
+
+		private void clear() {
+			slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+			size = 0;
+			used = 0;
+		}
+
+		/**
+		 * Copies the live entries into a new array that is at least twice
+		 * as large as the number of live entries, discarding tombstones.
+		 */
+		private void resize() {
+			AtomicReferenceArray<Entry<V>> old = slots;
+			int capacity = INITIAL_CAPACITY;
+			while (capacity < size * 2) capacity *= 2;
+			AtomicReferenceArray<Entry<V>> slots =
+					new AtomicReferenceArray<>(capacity);
+			int mask = capacity - 1;
+			for (int i = 0; i < old.length(); i++) {
+				Entry<V> e = old.get(i);
+				if (e == null || e == tombstone) continue;
+				int j = (int) e.lo & mask;
+				while (slots.get(j) != null) j = (j + 1) & mask;
+				slots.set(j, e);
+			}
+			used = size;
+			this.slots = slots;
+		}
+	}
+}
@@ -44,6 +44,14 @@ interface TransportKeyManager {
 	StreamContext getStreamContext(Transaction txn, PendingContactId p)
 			throws DbException;
 
+	/**
+	 * Returns true if the given tag may be recognised by
+	 * {@link #getStreamContext(Transaction, byte[])}. This method doesn't
+	 * block, and may return a stale result if the tag is concurrently
+	 * being claimed or expired.
+	 */
+	boolean isTagRecognised(byte[] tag);
+
 	@Nullable
 	StreamContext getStreamContext(Transaction txn, byte[] tag)
 			throws DbException;
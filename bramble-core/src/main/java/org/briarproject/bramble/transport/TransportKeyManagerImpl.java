@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -63,8 +62,9 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
-	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	// Updated while holding the lock, but may be read without it. When all
+	// the keys are updated, a new table is built and then published
+	private volatile TagTable<TagContext> inContexts = new TagTable<>();
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
@@ -100,7 +100,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Update the keys to the current time period
 			UpdateResult updateResult = updateKeys(loaded, now);
 			// Initialise mutable state for all contacts
-			addKeys(updateResult.current);
+			addKeys(inContexts, updateResult.current);
 			// Write any updated keys back to the DB
 			if (!updateResult.updated.isEmpty())
 				db.updateTransportKeys(txn, updateResult.updated);
@@ -132,16 +132,18 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	}
 
 	@GuardedBy("lock")
-	private void addKeys(Collection<TransportKeySet> keys) {
+	private void addKeys(TagTable<TagContext> tags,
+			Collection<TransportKeySet> keys) {
 		for (TransportKeySet ks : keys) {
-			addKeys(ks.getKeySetId(), ks.getContactId(),
+			addKeys(tags, ks.getKeySetId(), ks.getContactId(),
 					ks.getPendingContactId(),
 					new MutableTransportKeys(ks.getKeys()));
 		}
 	}
 
 	@GuardedBy("lock")
-	private void addKeys(KeySetId keySetId, @Nullable ContactId contactId,
+	private void addKeys(TagTable<TagContext> tags, KeySetId keySetId,
+			@Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
 			MutableTransportKeys keys) {
 		requireExactlyOneNull(contactId, pendingContactId);
@@ -149,17 +151,18 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 				contactId, pendingContactId, keys);
 		this.keys.put(keySetId, ks);
 		boolean handshakeMode = keys.isHandshakeMode();
-		encodeTags(keySetId, contactId, pendingContactId,
+		encodeTags(tags, keySetId, contactId, pendingContactId,
 				keys.getPreviousIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
+		encodeTags(tags, keySetId, contactId, pendingContactId,
 				keys.getCurrentIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
+		encodeTags(tags, keySetId, contactId, pendingContactId,
 				keys.getNextIncomingKeys(), handshakeMode);
 		considerReplacingOutgoingKeys(ks);
 	}
 
 	@GuardedBy("lock")
-	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
+	private void encodeTags(TagTable<TagContext> tags, KeySetId keySetId,
+			@Nullable ContactId contactId,
 			@Nullable PendingContactId pendingContactId,
 			MutableIncomingKeys inKeys, boolean handshakeMode) {
 		for (long streamNumber : inKeys.getWindow().getUnseen()) {
@@ -168,7 +171,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			byte[] tag = new byte[TAG_LENGTH];
 			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
 					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+			tags.put(tag, tagCtx);
 		}
 	}
 
@@ -230,7 +233,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, c, null, new MutableTransportKeys(k));
+			addKeys(inContexts, keySetId, c, null,
+					new MutableTransportKeys(k));
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -250,7 +254,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, c, null, new MutableTransportKeys(k));
+			addKeys(inContexts, keySetId, c, null,
+					new MutableTransportKeys(k));
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -270,7 +275,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			// Write the keys back to the DB
 			KeySetId keySetId = db.addTransportKeys(txn, p, k);
 			// Initialise mutable state for the keys
-			addKeys(keySetId, null, p, new MutableTransportKeys(k));
+			addKeys(inContexts, keySetId, null, p,
+					new MutableTransportKeys(k));
 			return keySetId;
 		} finally {
 			lock.unlock();
@@ -297,13 +303,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			inContexts.removeIf(tagCtx -> c.equals(tagCtx.contactId));
 			contactOutContexts.remove(c);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (c.equals(it1.next().getContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (c.equals(it.next().getContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -314,13 +318,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			inContexts.removeIf(tagCtx -> p.equals(tagCtx.pendingContactId));
 			pendingContactOutContexts.remove(p);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (p.equals(it1.next().getPendingContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (p.equals(it.next().getPendingContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -388,13 +390,21 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		}
 	}
 
+	@Override
+	public boolean isTagRecognised(byte[] tag) {
+		return inContexts.get(tag) != null;
+	}
+
 	@Override
 	public StreamContext getStreamContext(Transaction txn, byte[] tag)
 			throws DbException {
+		// Most unrecognised tags can be rejected without taking the lock
+		if (inContexts.get(tag) == null) return null;
 		lock.lock();
 		try {
-			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
+			// Look up the incoming keys for the tag. The tag may have been
+			// claimed by another connection since the unlocked lookup
+			TagContext tagCtx = inContexts.remove(tag);
 			if (tagCtx == null) return null;
 			MutableIncomingKeys inKeys = tagCtx.inKeys;
 			// Create a stream context
@@ -402,7 +412,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 					tagCtx.pendingContactId, transportId,
 					inKeys.getTagKey(), inKeys.getHeaderKey(),
 					tagCtx.streamNumber, tagCtx.handshakeMode);
-			// Update the reordering window
+			// Update the reordering window and the tags in memory while
+			// holding the lock, then write the window to the DB
 			ReorderingWindow window = inKeys.getWindow();
 			Change change = window.setSeen(tagCtx.streamNumber);
 			// Add tags for any stream numbers added to the window
@@ -413,7 +424,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 				TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
 						tagCtx.contactId, tagCtx.pendingContactId, inKeys,
 						streamNumber, tagCtx.handshakeMode);
-				inContexts.put(new Bytes(addTag), tagCtx1);
+				inContexts.put(addTag, tagCtx1);
 			}
 			// Remove tags for any stream numbers removed from the window
 			for (long streamNumber : change.getRemoved()) {
@@ -421,7 +432,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 				byte[] removeTag = new byte[TAG_LENGTH];
 				transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
 						PROTOCOL_VERSION, streamNumber);
-				inContexts.remove(new Bytes(removeTag));
+				inContexts.remove(removeTag);
 			}
 			// Write the window back to the DB
 			db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
@@ -457,12 +468,15 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 						ks.getKeys().snapshot()));
 			}
 			UpdateResult updateResult = updateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
+			// Rebuild the mutable state for all contacts. The tags are added
+			// to a new table, which replaces the old one when it's complete,
+			// so lookups without the lock never see a partly built table
+			TagTable<TagContext> tags = new TagTable<>();
 			contactOutContexts.clear();
 			pendingContactOutContexts.clear();
 			keys.clear();
-			addKeys(updateResult.current);
+			addKeys(tags, updateResult.current);
+			inContexts = tags;
 			// Write any updated keys back to the DB
 			if (!updateResult.updated.isEmpty())
 				db.updateTransportKeys(txn, updateResult.updated);
@@ -2,6 +2,7 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.transport.KeyManager;
@@ -29,9 +30,13 @@ public class TransportModule {
 	}
 
 	@Provides
-	StreamWriterFactory provideStreamWriterFactory(
-			StreamEncrypterFactory streamEncrypterFactory) {
-		return new StreamWriterFactoryImpl(streamEncrypterFactory);
+	@Singleton
+	StreamWriterFactory provideStreamWriterFactory(DatabaseComponent db,
+			EventBus eventBus, StreamEncrypterFactory streamEncrypterFactory) {
+		StreamWriterFactoryImpl streamWriterFactory =
+				new StreamWriterFactoryImpl(db, streamEncrypterFactory);
+		eventBus.addListener(streamWriterFactory);
+		return streamWriterFactory;
 	}
 
 	@Provides
@@ -0,0 +1,41 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static org.briarproject.bramble.DurationHistogram.BUCKETS;
+import static org.briarproject.bramble.DurationHistogram.getBucket;
+import static org.junit.Assert.assertEquals;
+
+public class DurationHistogramTest extends BrambleTestCase {
+
+	@Test
+	public void testBucketBoundariesArePowersOfTwo() {
+		assertEquals(0, getBucket(-1));
+		assertEquals(0, getBucket(0));
+		assertEquals(1, getBucket(1));
+		assertEquals(2, getBucket(2));
+		assertEquals(2, getBucket(3));
+		assertEquals(3, getBucket(4));
+		assertEquals(10, getBucket(1023));
+		assertEquals(11, getBucket(1024));
+	}
+
+	@Test
+	public void testLongDurationsAreCountedInLastBucket() {
+		assertEquals(BUCKETS - 1, getBucket(1L << (BUCKETS - 2)));
+		assertEquals(BUCKETS - 1, getBucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testDurationsAreCounted() {
+		DurationHistogram histogram = new DurationHistogram("test");
+		histogram.record(0);
+		histogram.record(5);
+		histogram.record(6);
+		assertEquals(1, histogram.getCount(0));
+		assertEquals(2, histogram.getCount(3));
+		assertEquals(3, histogram.getTotalCount());
+		assertEquals("test: 0 ms: 1 4-7 ms: 2", histogram.toString());
+	}
+}
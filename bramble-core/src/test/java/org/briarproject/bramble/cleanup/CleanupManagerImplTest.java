@@ -0,0 +1,100 @@
+package org.briarproject.bramble.cleanup;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.api.cleanup.CleanupManager.COMPACTION_DELAY_MS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+public class CleanupManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Clock clock = context.mock(Clock.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final ContactId contactId = getContactId();
+	private final ContactId contactId1 = getContactId();
+	private final MessageId messageId = new MessageId(getRandomId());
+	private final MessageId messageId1 = new MessageId(getRandomId());
+	private final MessageId messageId2 = new MessageId(getRandomId());
+
+	private final CleanupManagerImpl cleanupManager =
+			new CleanupManagerImpl(dbExecutor, db, taskScheduler, clock);
+
+	@Test
+	public void testAckedMessagesAreCompactedInBatchesPerContact()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		// One task is scheduled for all the acks received before it runs
+		context.checking(new Expectations() {{
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(COMPACTION_DELAY_MS),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		cleanupManager.eventOccurred(new MessagesAckedEvent(contactId,
+				singletonList(messageId)));
+		cleanupManager.eventOccurred(new MessagesAckedEvent(contactId1,
+				singletonList(messageId1)));
+		cleanupManager.eventOccurred(new MessagesAckedEvent(contactId,
+				singletonList(messageId2)));
+
+		// The task compacts each contact's acked messages in a separate
+		// transaction
+		context.checking(new DbExpectations() {{
+			exactly(2).of(db).transaction(with(false),
+					withDbRunnable(txn));
+			oneOf(db).compactStatuses(txn, contactId,
+					new HashSet<>(asList(messageId, messageId2)));
+			oneOf(db).compactStatuses(txn, contactId1,
+					new HashSet<>(singletonList(messageId1)));
+		}});
+
+		task.get().run();
+	}
+
+	@Test
+	public void testAckedMessagesAreNotCompactedIfContactIsRemoved()
+			throws Exception {
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(COMPACTION_DELAY_MS),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		cleanupManager.eventOccurred(new MessagesAckedEvent(contactId,
+				singletonList(messageId)));
+		cleanupManager.eventOccurred(new ContactRemovedEvent(contactId));
+
+		// The task has nothing to compact
+		task.get().run();
+	}
+}
@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.KeyParser;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -26,19 +27,21 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
 import org.briarproject.bramble.util.StringUtils;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
@@ -85,7 +88,8 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 	private final ClientHelper clientHelper = new ClientHelperImpl(db,
 			messageFactory, bdfReaderFactory, bdfWriterFactory, metadataParser,
-			metadataEncoder, cryptoComponent, authorFactory);
+			metadataEncoder, cryptoComponent, authorFactory,
+			new ImmediateExecutor());
 
 	@Test
 	public void testAddLocalMessage() throws Exception {
@@ -319,6 +323,30 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testVerifyBatchWithWrongSignature() throws Exception {
+		PublicKey publicKey = getSignaturePublicKey();
+		List<SignedData> batch = asList(
+				new SignedData(getRandomBytes(MAX_SIGNATURE_LENGTH), label,
+						getRandomBytes(123), publicKey),
+				new SignedData(getRandomBytes(MAX_SIGNATURE_LENGTH), label,
+						getRandomBytes(123), publicKey));
+
+		context.checking(new Expectations() {{
+			oneOf(cryptoComponent).verifySignatures(with(batch),
+					with(any(ImmediateExecutor.class)));
+			will(returnValue(new boolean[] {true, false}));
+		}});
+
+		try {
+			clientHelper.verifySignatures(batch);
+			fail();
+		} catch (GeneralSecurityException e) {
+			// expected
+			context.assertIsSatisfied();
+		}
+	}
+
 	@Test
 	public void testParsesAndEncodesAuthor() throws Exception {
 		context.checking(new Expectations() {{
@@ -356,6 +384,44 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
 	}
 
+	@Test
+	public void testParsedAuthorIsCached() throws Exception {
+		BdfList authorList = BdfList.of(
+				author.getFormatVersion(),
+				author.getName(),
+				author.getPublicKey().getEncoded()
+		);
+		// The same public key with a different name
+		Author renamed = getAuthor();
+		BdfList renamedList = BdfList.of(
+				author.getFormatVersion(),
+				renamed.getName(),
+				author.getPublicKey().getEncoded()
+		);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(cryptoComponent).getSignatureKeyParser();
+			will(returnValue(keyParser));
+			exactly(2).of(keyParser)
+					.parsePublicKey(author.getPublicKey().getEncoded());
+			will(returnValue(author.getPublicKey()));
+			oneOf(authorFactory).createAuthor(author.getFormatVersion(),
+					author.getName(), author.getPublicKey());
+			will(returnValue(author));
+			oneOf(authorFactory).createAuthor(author.getFormatVersion(),
+					renamed.getName(), author.getPublicKey());
+			will(returnValue(renamed));
+		}});
+
+		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
+		// The second call uses the cached author
+		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
+		// A different name isn't served from the cache
+		assertEquals(renamed,
+				clientHelper.parseAndValidateAuthor(renamedList));
+		context.assertIsSatisfied();
+	}
+
 	@Test(expected = FormatException.class)
 	public void testRejectsTooShortAuthor() throws Exception {
 		BdfList invalidAuthor = BdfList.of(
@@ -521,8 +587,8 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		BdfReader bdfReader = context.mock(BdfReader.class);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory)
-					.createReader(with(any(InputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(0), with(123));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(list));
@@ -3,6 +3,7 @@ package org.briarproject.bramble.contact;
 import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager.ContactAliasHook;
 import org.briarproject.bramble.api.contact.PendingContact;
 import org.briarproject.bramble.api.contact.PendingContactState;
 import org.briarproject.bramble.api.crypto.KeyPair;
@@ -175,12 +176,15 @@ public class ContactManagerImplTest extends BrambleMockTestCase {
 	public void testSetContactAlias() throws Exception {
 		Transaction txn = new Transaction(null, false);
 		String alias = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+		ContactAliasHook hook = context.mock(ContactAliasHook.class);
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transaction(with(false), withDbRunnable(txn));
 			oneOf(db).setContactAlias(txn, contactId, alias);
+			oneOf(hook).changingContactAlias(txn, contactId);
 		}});
 
+		contactManager.registerContactAliasHook(hook);
 		contactManager.setContactAlias(contactId, alias);
 	}
 
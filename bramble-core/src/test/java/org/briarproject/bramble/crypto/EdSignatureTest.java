@@ -5,12 +5,20 @@ import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SignaturePrivateKey;
 import org.briarproject.bramble.api.crypto.SignaturePublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.junit.Test;
 
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class EdSignatureTest extends SignatureTest {
@@ -170,4 +178,63 @@ public class EdSignatureTest extends SignatureTest {
 			assertTrue(signature.verify(signatureBytes));
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testReusedVerifierAcceptsValidSignatureAfterInvalidOne()
+			throws Exception {
+		KeyPair k = crypto.generateSignatureKeyPair();
+		String label = getRandomString(42);
+		byte[] signed = getRandomBytes(123);
+		byte[] sig = crypto.sign(label, signed, k.getPrivate());
+		byte[] badSig = sig.clone();
+		badSig[0] ^= 1;
+		for (int i = 0; i < 3; i++) {
+			assertFalse(crypto.verifySignature(badSig, label, signed,
+					k.getPublic()));
+			assertTrue(crypto.verifySignature(sig, label, signed,
+					k.getPublic()));
+		}
+	}
+
+	@Test
+	public void testBatchVerification() throws Exception {
+		ExecutorService executor = newFixedThreadPool(3);
+		try {
+			List<SignedData> batch = new ArrayList<>();
+			boolean[] expected = createBatch(batch);
+			assertArrayEquals(expected,
+					crypto.verifySignatures(batch, executor));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBatchVerificationDoesNotWaitForTasksThatNeverRun()
+			throws Exception {
+		List<SignedData> batch = new ArrayList<>();
+		boolean[] expected = createBatch(batch);
+		// The calling thread should verify all the signatures itself
+		assertArrayEquals(expected,
+				crypto.verifySignatures(batch, r -> {}));
+	}
+
+	private boolean[] createBatch(List<SignedData> batch)
+			throws GeneralSecurityException {
+		KeyPair[] keys = new KeyPair[3];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = crypto.generateSignatureKeyPair();
+		boolean[] expected = new boolean[20];
+		for (int i = 0; i < expected.length; i++) {
+			KeyPair k = keys[i % keys.length];
+			String label = getRandomString(42);
+			byte[] signed = getRandomBytes(123);
+			byte[] sig = crypto.sign(label, signed, k.getPrivate());
+			// Tamper with every third signature
+			expected[i] = i % 3 != 0;
+			if (!expected[i]) sig[0] ^= 1;
+			batch.add(new SignedData(sig, label, signed, k.getPublic()));
+		}
+		return expected;
+	}
+}
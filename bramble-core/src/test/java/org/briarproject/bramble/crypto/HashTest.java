@@ -1,5 +1,7 @@
 package org.briarproject.bramble.crypto;
 
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
@@ -9,7 +11,12 @@ import org.junit.Test;
 
 import java.util.Arrays;
 
+import static java.util.Arrays.copyOfRange;
+import static org.briarproject.bramble.api.crypto.CryptoConstants.HASH_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class HashTest extends BrambleTestCase {
@@ -48,4 +55,40 @@ public class HashTest extends BrambleTestCase {
 		assertFalse(Arrays.equals(hash1, hash2));
 	}
 
+	@Test
+	public void testHashMatchesLengthPrefixedBlake2b() {
+		Digest digest = new Blake2bDigest(256);
+		for (byte[] b : new byte[][] {StringUtils.toUtf8(label), inputBytes,
+				inputBytes1, inputBytes2}) {
+			byte[] length = new byte[INT_32_BYTES];
+			writeUint32(b.length, length, 0);
+			digest.update(length, 0, length.length);
+			digest.update(b, 0, b.length);
+		}
+		byte[] expected = new byte[HASH_BYTES];
+		digest.doFinal(expected, 0);
+		// Hash twice to check that the reused digest is reset
+		for (int i = 0; i < 2; i++) {
+			assertArrayEquals(expected, crypto.hash(label, inputBytes,
+					inputBytes1, inputBytes2));
+		}
+	}
+
+	@Test
+	public void testHashIntoBufferMatchesHash() {
+		byte[] expected =
+				crypto.hash(label, inputBytes, inputBytes1, inputBytes2);
+		byte[] buf = new byte[HASH_BYTES + 10];
+		crypto.hash(label, buf, 5, inputBytes, inputBytes1, inputBytes2);
+		assertArrayEquals(expected, copyOfRange(buf, 5, 5 + HASH_BYTES));
+		// The bytes around the hash should be untouched
+		for (int i = 0; i < 5; i++) assertEquals(0, buf[i]);
+		for (int i = 5 + HASH_BYTES; i < buf.length; i++)
+			assertEquals(0, buf[i]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHashIntoBufferRejectsShortBuffer() {
+		crypto.hash(label, new byte[HASH_BYTES + 10], 11, inputBytes);
+	}
 }
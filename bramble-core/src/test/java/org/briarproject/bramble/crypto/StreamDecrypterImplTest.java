@@ -12,7 +12,9 @@ import java.io.IOException;
 
 import static junit.framework.Assert.assertEquals;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAME_PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
@@ -85,11 +87,72 @@ public class StreamDecrypterImplTest extends BrambleTestCase {
 		assertEquals(-1, s.readFrame(buffer));
 	}
 
+	@Test
+	public void testReadLargeFrame() throws Exception {
+		byte[] largeFrameProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(LARGE_FRAME_PROTOCOL_VERSION,
+				largeFrameProtocolVersionBytes, 0);
+
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		int largePayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+		FrameEncoder.encodeHeader(frameHeader, true, largePayloadLength, 0,
+				MAX_LARGE_PAYLOAD_LENGTH);
+		byte[] largePayload = TestUtils.getRandomBytes(largePayloadLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(largeFrameProtocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(largePayload);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// Read the frame
+		byte[] buffer = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		assertEquals(largePayloadLength, s.readFrame(buffer));
+		assertArrayStartsWith(largePayload, buffer, largePayloadLength);
+
+		// End of stream
+		assertEquals(-1, s.readFrame(buffer));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLargeFrameInLegacyStreamThrowsException()
+			throws Exception {
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		FrameEncoder.encodeHeader(frameHeader, true, MAX_PAYLOAD_LENGTH + 1,
+				0, MAX_LARGE_PAYLOAD_LENGTH);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(protocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(new byte[MAX_PAYLOAD_LENGTH + 1]);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// Try to read the frame
+		byte[] buffer = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		s.readFrame(buffer);
+	}
+
 	@Test(expected = IOException.class)
 	public void testWrongProtocolVersionThrowsException() throws Exception {
 		byte[] wrongProtocolVersionBytes = new byte[2];
-		ByteUtils.writeUint16(PROTOCOL_VERSION + 1, wrongProtocolVersionBytes,
-				0);
+		ByteUtils.writeUint16(LARGE_FRAME_PROTOCOL_VERSION + 1,
+				wrongProtocolVersionBytes, 0);
 
 		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
 		FrameEncoder.encodeHeader(frameHeader, false, payloadLength,
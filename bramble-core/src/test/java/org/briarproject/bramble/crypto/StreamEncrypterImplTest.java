@@ -9,8 +9,10 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAME_PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
@@ -99,6 +101,50 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				out.size());
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsLargeFrameInLegacyStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey);
+
+		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH + 1];
+		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH + 1, 0, false);
+	}
+
+	@Test
+	public void testWriteLargeFrame() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey, true);
+
+		byte[] largePayload =
+				TestUtils.getRandomBytes(MAX_LARGE_PAYLOAD_LENGTH);
+		s.writeFrame(largePayload, MAX_LARGE_PAYLOAD_LENGTH, 0, true);
+
+		// Expect the tag, stream header with the large frame protocol
+		// version, frame header, payload and MAC
+		byte[] largeFrameProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(LARGE_FRAME_PROTOCOL_VERSION,
+				largeFrameProtocolVersionBytes, 0);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(tag);
+		expected.write(streamHeaderNonce);
+		expected.write(largeFrameProtocolVersionBytes);
+		expected.write(streamNumberBytes);
+		expected.write(frameKey.getBytes());
+		expected.write(new byte[MAC_LENGTH]);
+		byte[] expectedFrameHeader = new byte[FRAME_HEADER_LENGTH];
+		FrameEncoder.encodeHeader(expectedFrameHeader, true,
+				MAX_LARGE_PAYLOAD_LENGTH, 0, MAX_LARGE_PAYLOAD_LENGTH);
+		expected.write(expectedFrameHeader);
+		expected.write(largePayload);
+		expected.write(new byte[MAC_LENGTH]);
+
+		assertArrayEquals(expected.toByteArray(), out.toByteArray());
+	}
+
 	@Test
 	public void testWriteUnpaddedNonFinalFrameWithTag() throws Exception {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -0,0 +1,75 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * Compares the throughput of streams with small and large frames.
+ */
+// Not a JUnit test
+public class StreamThroughputPerformanceTest {
+
+	private static final int STREAM_BYTES = 64 * 1024 * 1024; // 64 MiB
+	private static final int SAMPLES = 5;
+
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i < SAMPLES; i++) {
+			runTest("Small frames", false);
+			runTest("Large frames", true);
+		}
+	}
+
+	private static void runTest(String name, boolean largeFrames)
+			throws IOException {
+		SecretKey streamHeaderKey = TestUtils.getSecretKey();
+		SecretKey frameKey = TestUtils.getSecretKey();
+		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+		byte[] streamHeaderNonce =
+				TestUtils.getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+		int payloadLength =
+				largeFrames ? MAX_LARGE_PAYLOAD_LENGTH : MAX_PAYLOAD_LENGTH;
+		byte[] payload = TestUtils.getRandomBytes(payloadLength);
+		int frames = STREAM_BYTES / payloadLength;
+		// Encrypt the stream
+		ByteArrayOutputStream out =
+				new ByteArrayOutputStream(STREAM_BYTES * 11 / 10);
+		StreamEncrypterImpl encrypter = new StreamEncrypterImpl(out,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0, tag,
+				streamHeaderNonce, streamHeaderKey, frameKey, largeFrames);
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			encrypter.writeFrame(payload, payloadLength, 0, i == frames - 1);
+		}
+		encrypter.flush();
+		long encryptNanos = System.nanoTime() - start;
+		// Decrypt the stream, skipping the tag
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray(),
+				TAG_LENGTH, out.size() - TAG_LENGTH);
+		StreamDecrypterImpl decrypter = new StreamDecrypterImpl(in,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0, streamHeaderKey);
+		byte[] buffer = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		start = System.nanoTime();
+		while (decrypter.readFrame(buffer) != -1) {
+			// Keep reading
+		}
+		long decryptNanos = System.nanoTime() - start;
+		System.out.println(name + ": encrypt "
+				+ getMegabytesPerSecond(frames * payloadLength, encryptNanos)
+				+ " MiB/s, decrypt "
+				+ getMegabytesPerSecond(frames * payloadLength, decryptNanos)
+				+ " MiB/s, " + out.size() + " bytes written");
+	}
+
+	private static long getMegabytesPerSecond(long bytes, long nanos) {
+		return bytes * 1_000_000_000L / nanos / (1024 * 1024);
+	}
+}
@@ -0,0 +1,23 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.data.BdfReader;
+
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+
+/**
+ * Runs the {@link BdfReaderImplTest} tests against an {@link ArrayBdfReader}
+ * that reads from the middle of a larger array.
+ */
+public class ArrayBdfReaderTest extends BdfReaderImplTest {
+
+	@Override
+	BdfReader createReader(byte[] b, int maxBufferSize) {
+		// Surround the contents with bytes that must not be read
+		byte[] padded = new byte[b.length + 2];
+		padded[0] = 0x21;
+		System.arraycopy(b, 0, padded, 1, b.length);
+		padded[padded.length - 1] = 0x21;
+		return new ArrayBdfReader(padded, 1, b.length, DEFAULT_NESTED_LIMIT,
+				maxBufferSize);
+	}
+}
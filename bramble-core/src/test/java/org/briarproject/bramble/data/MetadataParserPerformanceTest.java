@@ -0,0 +1,105 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.Metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getThreadAllocatedBytes;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Compares the throughput and allocation rate of parsing the metadata of a
+ * forum with 10,000 posts using a stream-based reader for each value, as was
+ * done before array-based readers were added, and using the
+ * {@link MetadataParser}.
+ */
+// Not a JUnit test
+public class MetadataParserPerformanceTest {
+
+	private static final int POSTS = 10_000;
+	private static final int SAMPLES = 10;
+
+	public static void main(String[] args) throws Exception {
+		MetadataEncoder encoder =
+				new MetadataEncoderImpl(new BdfWriterFactoryImpl());
+		MetadataParser parser =
+				new MetadataParserImpl(new BdfReaderFactoryImpl());
+		// Metadata in the same format as forum posts
+		List<Metadata> forum = new ArrayList<>(POSTS);
+		for (int i = 0; i < POSTS; i++) {
+			BdfDictionary meta = new BdfDictionary();
+			meta.put("timestamp", System.currentTimeMillis());
+			if (i > 0) meta.put("parent", getRandomBytes(32));
+			meta.put("author", BdfList.of(1, getRandomString(20),
+					getRandomBytes(32)));
+			meta.put("read", i % 2 == 0);
+			forum.add(encoder.encode(meta));
+		}
+		for (int i = 0; i < SAMPLES; i++) {
+			runTest("Stream reader per value", forum,
+					MetadataParserPerformanceTest::parseWithStreams);
+			runTest("MetadataParserImpl", forum, parser::parse);
+		}
+	}
+
+	private static void runTest(String name, List<Metadata> forum,
+			Parser parser) throws FormatException {
+		long before = getThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for (Metadata m : forum) parser.parse(m);
+		long duration = System.nanoTime() - start;
+		long allocated = getThreadAllocatedBytes() - before;
+		System.out.println(name + ": "
+				+ duration / 1000 + " us per forum, "
+				+ allocated / POSTS + " bytes allocated per post");
+	}
+
+	// How MetadataParserImpl parsed metadata before array-based readers
+	private static BdfDictionary parseWithStreams(Metadata m)
+			throws FormatException {
+		BdfDictionary d = new BdfDictionary();
+		try {
+			for (Entry<String, byte[]> e : m.entrySet()) {
+				ByteArrayInputStream in = new ByteArrayInputStream(e.getValue());
+				BdfReader reader = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT,
+						DEFAULT_MAX_BUFFER_SIZE);
+				Object o;
+				if (reader.hasNull()) o = NULL_VALUE;
+				else if (reader.hasBoolean()) o = reader.readBoolean();
+				else if (reader.hasLong()) o = reader.readLong();
+				else if (reader.hasDouble()) o = reader.readDouble();
+				else if (reader.hasString()) o = reader.readString();
+				else if (reader.hasRaw()) o = reader.readRaw();
+				else if (reader.hasList()) o = reader.readList();
+				else if (reader.hasDictionary()) o = reader.readDictionary();
+				else throw new FormatException();
+				if (!reader.eof()) throw new FormatException();
+				d.put(e.getKey(), o);
+			}
+		} catch (FormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return d;
+	}
+
+	private interface Parser {
+
+		BdfDictionary parse(Metadata m) throws FormatException;
+	}
+}
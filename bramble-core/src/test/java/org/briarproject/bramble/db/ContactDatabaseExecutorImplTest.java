@@ -0,0 +1,73 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContactDatabaseExecutorImplTest extends BrambleTestCase {
+
+	private static final int TASKS = 10;
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(2);
+	private final ContactId contactId = getContactId();
+	private final ContactId contactId1 = getContactId();
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testEachContactHasItsOwnExecutor() {
+		ContactDatabaseExecutorImpl contactDbExecutor =
+				new ContactDatabaseExecutorImpl(pool);
+		Executor executor = contactDbExecutor.getExecutor(contactId);
+		assertSame(executor, contactDbExecutor.getExecutor(contactId));
+		assertNotSame(executor, contactDbExecutor.getExecutor(contactId1));
+		// Removing the contact should discard its executor
+		contactDbExecutor.eventOccurred(new ContactRemovedEvent(contactId));
+		assertNotSame(executor, contactDbExecutor.getExecutor(contactId));
+	}
+
+	@Test
+	public void testContactsTasksRunInOrderOfSubmission() throws Exception {
+		ContactDatabaseExecutorImpl contactDbExecutor =
+				new ContactDatabaseExecutorImpl(pool);
+		List<Integer> list = new Vector<>(), list1 = new Vector<>();
+		CountDownLatch latch = new CountDownLatch(TASKS * 2);
+		for (int i = 0; i < TASKS; i++) {
+			int result = i;
+			contactDbExecutor.getExecutor(contactId).execute(() -> {
+				list.add(result);
+				latch.countDown();
+			});
+			contactDbExecutor.getExecutor(contactId1).execute(() -> {
+				list1.add(result);
+				latch.countDown();
+			});
+		}
+		// Wait for all the tasks to finish
+		assertTrue(latch.await(10, SECONDS));
+		// Each contact's tasks should have run in the order they were submitted
+		for (int i = 0; i < TASKS; i++) {
+			assertEquals(i, (int) list.get(i));
+			assertEquals(i, (int) list1.get(i));
+		}
+	}
+}
@@ -37,6 +37,8 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
@@ -62,6 +64,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -75,7 +78,10 @@ import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTE
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.Range.ID_LIST;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_RANGES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_RANGE_IDS;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
@@ -298,11 +304,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the contact is in the DB (which it's not)
-			exactly(19).of(database).startTransaction();
+			exactly(20).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(19).of(database).containsContact(txn, contactId);
+			exactly(20).of(database).containsContact(txn, contactId);
 			will(returnValue(false));
-			exactly(19).of(database).abortTransaction(txn);
+			exactly(20).of(database).abortTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
 				eventExecutor, shutdownManager);
@@ -316,6 +322,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.compactStatuses(transaction, contactId,
+							singletonList(messageId)));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.generateAck(transaction, contactId, 123));
@@ -334,7 +349,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		try {
 			db.transaction(false, transaction ->
-					db.generateOffer(transaction, contactId, 123, 456));
+					db.generateOffer(transaction, contactId, 123, 456,
+							emptyList()));
 			fail();
 		} catch (NoSuchContactException expected) {
 			// Expected
@@ -388,6 +404,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getSyncCapabilities(transaction, contactId));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(true, transaction ->
 					db.getSyncVersions(transaction, contactId));
@@ -458,7 +482,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		try {
 			db.transaction(false, transaction ->
-					db.setSyncVersions(transaction, contactId, emptyList()));
+					db.setSyncVersions(transaction, contactId, emptyList(),
+							emptyList()));
 			fail();
 		} catch (NoSuchContactException expected) {
 			// Expected
@@ -949,7 +974,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency);
+			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency,
+					emptyList());
 			will(returnValue(ids));
 			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
 					maxLatency);
@@ -961,7 +987,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				eventExecutor, shutdownManager);
 
 		db.transaction(false, transaction -> {
-			Offer o = db.generateOffer(transaction, contactId, 123, maxLatency);
+			Offer o = db.generateOffer(transaction, contactId, 123, maxLatency,
+					emptyList());
 			assertNotNull(o);
 			assertEquals(ids, o.getMessageIds());
 		});
@@ -1223,6 +1250,51 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				db.receiveOffer(transaction, contactId, o));
 	}
 
+	@Test
+	public void testReceiveRangesSendsIdsIfRangeCannotBeSplit()
+			throws Exception {
+		Range remote = new Range(0, Long.MAX_VALUE, MAX_RANGE_IDS + 1,
+				getRandomId());
+		Range local = new Range(0, Long.MAX_VALUE, MAX_RANGE_IDS + 1,
+				getRandomId());
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < MAX_RANGE_IDS + 1; i++)
+			ids.add(new MessageId(getRandomId()));
+
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			oneOf(database).countOfferedMessages(txn, contactId);
+			will(returnValue(0));
+			oneOf(database).getRangeFingerprint(txn, groupId, 0,
+					Long.MAX_VALUE);
+			will(returnValue(local));
+			// The messages all have the same timestamp
+			oneOf(database).splitRange(txn, groupId, 0, Long.MAX_VALUE,
+					MAX_RANGES);
+			will(returnValue(singletonList(local)));
+			oneOf(database).getRangeMessageIds(txn, groupId, 0,
+					Long.MAX_VALUE);
+			will(returnValue(ids));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		Ranges r = new Ranges(groupId, singletonList(remote));
+		Ranges reply = db.transactionWithNullableResult(false, transaction ->
+				db.receiveRanges(transaction, contactId, r));
+		assertNotNull(reply);
+		assertEquals(1, reply.getRanges().size());
+		Range sent = reply.getRanges().get(0);
+		assertEquals(ID_LIST, sent.getType());
+		assertEquals(ids, sent.getMessageIds());
+	}
+
 	@Test
 	public void testReceiveRequest() throws Exception {
 		context.checking(new Expectations() {{
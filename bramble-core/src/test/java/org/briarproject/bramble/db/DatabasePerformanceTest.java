@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import static java.util.Collections.emptyList;
 import static java.util.logging.Level.OFF;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
@@ -449,7 +450,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getMessagesToOffer(txn, pickRandom(contacts).getId(),
-					MAX_MESSAGE_IDS, MAX_LATENCY);
+					MAX_MESSAGE_IDS, MAX_LATENCY, emptyList());
 			db.commitTransaction(txn);
 		});
 	}
@@ -527,6 +528,18 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testMergeMessageMetadata() throws Exception {
+		String name = "mergeMessageMetadata(T, MessageId, Metadata)";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Metadata meta = new Metadata();
+			meta.put("read", getRandomBytes(1));
+			db.mergeMessageMetadata(txn, pickRandom(messages).getId(), meta);
+			db.commitTransaction(txn);
+		});
+	}
+
 	private <T> T pickRandom(List<T> list) {
 		return list.get(random.nextInt(list.size()));
 	}
@@ -22,6 +22,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.Range;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -47,6 +48,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -68,6 +70,9 @@ import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_N
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_RECONCILIATION;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
@@ -235,6 +240,32 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMessagesInExcludedGroupsAreNotOffered() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and a shared message
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// The message should be offered unless its group is excluded
+		assertEquals(singletonList(messageId), db.getMessagesToOffer(txn,
+				contactId, 100, MAX_LATENCY, emptyList()));
+		assertEquals(singletonList(messageId), db.getMessagesToOffer(txn,
+				contactId, 100, MAX_LATENCY,
+				singletonList(new GroupId(getRandomId()))));
+		assertTrue(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+				singletonList(groupId)).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSendableMessagesMustBeDelivered() throws Exception {
 		Database<Connection> db = open(false);
@@ -1361,6 +1392,11 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
 		assertTrue(map.get(messageId).containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), map.get(messageId).get("baz"));
+		// Unknown message IDs should be ignored
+		map = db.getMessageMetadata(txn,
+				asList(messageId, new MessageId(getRandomId())));
+		assertEquals(1, map.size());
+		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
 
 		// No metadata for unknown messages
 		db.setMessageState(txn, messageId, UNKNOWN);
@@ -1368,6 +1404,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.isEmpty());
 		map = db.getMessageMetadata(txn, groupId);
 		assertTrue(map.isEmpty());
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertTrue(map.isEmpty());
 
 		// No metadata for invalid messages
 		db.setMessageState(txn, messageId, INVALID);
@@ -1391,6 +1429,590 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessageIdsBefore() throws Exception {
+		// Two messages with the same timestamp, one older and one newer
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 1000);
+		Message message3 = getMessage(groupId, 100, 999);
+		Message message4 = getMessage(groupId, 100, 1001);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		db.addGroup(txn, group);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+		db.addMessage(txn, message4, DELIVERED, true, false, null);
+		// Pending and deleted messages should not be returned
+		db.addMessage(txn, message, PENDING, true, false, null);
+
+		// Messages with the same timestamp are ordered by ID
+		MessageId first = message1.getId(), second = message2.getId();
+		if (first.compareTo(second) < 0) {
+			first = message2.getId();
+			second = message1.getId();
+		}
+
+		// The newest message should be returned first
+		Map<MessageId, Long> ids =
+				db.getMessageIdsBefore(txn, groupId, Long.MAX_VALUE, null, 1);
+		assertEquals(singletonMap(message4.getId(), 1001L), ids);
+
+		// The limit may fall among messages with the same timestamp
+		ids = db.getMessageIdsBefore(txn, groupId, 1001, message4.getId(), 1);
+		assertEquals(singletonMap(first, 1000L), ids);
+
+		// The next page should continue from the last message returned
+		ids = db.getMessageIdsBefore(txn, groupId, 1000, first, 10);
+		assertEquals(asList(second, message3.getId()),
+				new ArrayList<>(ids.keySet()));
+
+		// If the cursor has no message ID, all messages with the cursor's
+		// timestamp should be excluded
+		ids = db.getMessageIdsBefore(txn, groupId, 1000, null, 10);
+		assertEquals(singletonMap(message3.getId(), 999L), ids);
+
+		db.deleteMessage(txn, message3.getId());
+		assertTrue(db.getMessageIdsBefore(txn, groupId, 1000, second, 10)
+				.isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testCompactStatuses() throws Exception {
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 1001);
+		Message message3 = getMessage(groupId, 100, 1002);
+		MessageId messageId1 = message1.getId();
+		MessageId messageId2 = message2.getId();
+		MessageId messageId3 = message3.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and three shared messages
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+
+		// Nothing can be compacted until the contact has seen a message
+		assertEquals(0, db.compactStatuses(txn, contactId,
+				singletonList(messageId1)));
+
+		// The contact has seen the first two messages. The third is still
+		// being synced, so it and any newer messages keep their rows
+		db.raiseSeenFlag(txn, contactId, messageId1);
+		db.raiseSeenFlag(txn, contactId, messageId2);
+		assertEquals(2, db.compactStatuses(txn, contactId,
+				asList(messageId1, messageId2)));
+		assertEquals(0, db.compactStatuses(txn, contactId,
+				asList(messageId1, messageId2)));
+
+		// The compacted messages should still be visible and seen
+		assertTrue(db.containsVisibleMessage(txn, contactId, messageId1));
+		MessageStatus status = db.getMessageStatus(txn, contactId, messageId1);
+		assertNotNull(status);
+		assertTrue(status.isSeen());
+		Collection<MessageStatus> statuses =
+				db.getMessageStatus(txn, contactId, groupId);
+		assertEquals(3, statuses.size());
+		for (MessageStatus s : statuses) {
+			assertEquals(!s.getMessageId().equals(messageId3), s.isSeen());
+		}
+		Map<MessageId, MessageStatus> statusMap = db.getMessageStatus(txn,
+				contactId, asList(messageId1, messageId2, messageId3));
+		assertEquals(3, statusMap.size());
+		assertTrue(statusMap.get(messageId1).isSeen());
+		assertTrue(statusMap.get(messageId2).isSeen());
+		assertFalse(statusMap.get(messageId3).isSeen());
+		assertFalse(db.raiseSeenFlag(txn, contactId, messageId1));
+
+		// The compacted messages should not be sent
+		assertEquals(singletonList(messageId3),
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+						MAX_LATENCY));
+
+		// Raising the ack flag should restore the row
+		db.raiseAckFlag(txn, contactId, messageId1);
+		assertEquals(singletonList(messageId1),
+				db.getMessagesToAck(txn, contactId, 1234));
+
+		// Once the contact has seen the third message and the ack has been
+		// sent, all the rows can be compacted
+		db.raiseSeenFlag(txn, contactId, messageId3);
+		assertEquals(0, db.compactStatuses(txn, contactId,
+				singletonList(messageId3)));
+		db.lowerAckFlag(txn, contactId, singletonList(messageId1));
+		assertEquals(2, db.compactStatuses(txn, contactId,
+				singletonList(messageId3)));
+		assertEquals(3, db.getMessageStatus(txn, contactId, groupId).size());
+
+		// A new message with an old timestamp should have its own row
+		Message message4 = getMessage(groupId, 100, 999);
+		db.addMessage(txn, message4, DELIVERED, true, false, null);
+		status = db.getMessageStatus(txn, contactId, message4.getId());
+		assertNotNull(status);
+		assertFalse(status.isSeen());
+		assertEquals(0, db.compactStatuses(txn, contactId,
+				singletonList(messageId3)));
+
+		// Removing the group's visibility should remove the watermark
+		db.removeGroupVisibility(txn, contactId, groupId);
+		assertFalse(db.containsVisibleMessage(txn, contactId, messageId1));
+		assertNull(db.getMessageStatus(txn, contactId, messageId1));
+		assertTrue(db.getMessageStatus(txn, contactId, groupId).isEmpty());
+		assertTrue(db.getMessageStatus(txn, contactId,
+				singletonList(messageId1)).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testCompactStatusesOnlyCompactsGroupsOfAckedMessages()
+			throws Exception {
+		Group group1 = getGroup(clientId, majorVersion);
+		GroupId groupId1 = group1.getId();
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId1, 100, 1000);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, two shared groups and a shared message in each
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroup(txn, group1);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addGroupVisibility(txn, contactId, groupId1, true);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		// Add a newer message to each group that's still being synced
+		db.addMessage(txn, getMessage(groupId, 100, 1001), DELIVERED, true,
+				false, null);
+		db.addMessage(txn, getMessage(groupId1, 100, 1001), DELIVERED, true,
+				false, null);
+
+		// The contact has seen both older messages, but only the first
+		// group is compacted when the first message is acked
+		db.raiseSeenFlag(txn, contactId, message1.getId());
+		db.raiseSeenFlag(txn, contactId, message2.getId());
+		assertEquals(1, db.compactStatuses(txn, contactId,
+				singletonList(message1.getId())));
+		assertEquals(1, db.compactStatuses(txn, contactId,
+				singletonList(message2.getId())));
+
+		// Unknown messages don't cause anything to be compacted
+		assertEquals(0, db.compactStatuses(txn, contactId,
+				singletonList(new MessageId(getRandomId()))));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testRangeFingerprints() throws Exception {
+		// Two messages with the same timestamp, one older and one newer
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 1000);
+		Message message3 = getMessage(groupId, 100, 999);
+		Message message4 = getMessage(groupId, 100, 1001);
+		Message unshared = getMessage(groupId, 100, 1000);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		db.addGroup(txn, group);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+		db.addMessage(txn, message4, DELIVERED, true, false, null);
+		// Pending and unshared messages should not be included
+		db.addMessage(txn, message, PENDING, true, false, null);
+		db.addMessage(txn, unshared, DELIVERED, false, false, null);
+
+		// The fingerprint of the whole group should cover all four messages
+		Range all = db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE);
+		assertEquals(FINGERPRINT, all.getType());
+		assertEquals(4, all.getCount());
+		assertArrayEquals(xor(message1.getId(), message2.getId(),
+				message3.getId(), message4.getId()), all.getFingerprint());
+
+		// The upper bound should be exclusive
+		List<MessageId> ids = db.getRangeMessageIds(txn, groupId, 1000, 1001);
+		assertEquals(new HashSet<>(asList(message1.getId(),
+				message2.getId())), new HashSet<>(ids));
+
+		// Messages with the same timestamp should not be split
+		List<Range> ranges = db.splitRange(txn, groupId, 0, Long.MAX_VALUE, 4);
+		assertEquals(3, ranges.size());
+		assertRange(ranges.get(0), 0, 1000, 1, xor(message3.getId()));
+		assertRange(ranges.get(1), 1000, 1001, 2,
+				xor(message1.getId(), message2.getId()));
+		assertRange(ranges.get(2), 1001, Long.MAX_VALUE, 1,
+				xor(message4.getId()));
+
+		// Splitting in two should keep the same-timestamp messages together
+		ranges = db.splitRange(txn, groupId, 0, Long.MAX_VALUE, 2);
+		assertEquals(2, ranges.size());
+		assertRange(ranges.get(0), 0, 1001, 3, xor(message1.getId(),
+				message2.getId(), message3.getId()));
+		assertRange(ranges.get(1), 1001, Long.MAX_VALUE, 1,
+				xor(message4.getId()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testCachedFingerprintsAreUpdatedWhenMessagesChange()
+			throws Exception {
+		Message message1 = getMessage(groupId, 100, 1000);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.commitTransaction(txn);
+
+		// Cache the fingerprint
+		txn = db.startTransaction();
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 1, xor(messageId));
+		db.commitTransaction(txn);
+
+		// Deliver another message and roll back the change
+		txn = db.startTransaction();
+		db.addMessage(txn, message1, PENDING, true, false, null);
+		db.setMessageState(txn, message1.getId(), DELIVERED);
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 2, xor(messageId, message1.getId()));
+		db.abortTransaction(txn);
+
+		txn = db.startTransaction();
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 1, xor(messageId));
+		db.commitTransaction(txn);
+
+		// Deliver the message again and commit the change
+		txn = db.startTransaction();
+		db.addMessage(txn, message1, PENDING, true, false, null);
+		db.setMessageState(txn, message1.getId(), DELIVERED);
+		db.commitTransaction(txn);
+
+		txn = db.startTransaction();
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 2, xor(messageId, message1.getId()));
+		db.commitTransaction(txn);
+
+		// Unshare the first message
+		txn = db.startTransaction();
+		db.setMessageShared(txn, messageId, false);
+		db.commitTransaction(txn);
+
+		txn = db.startTransaction();
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 1, xor(message1.getId()));
+		db.commitTransaction(txn);
+
+		// Remove the second message
+		txn = db.startTransaction();
+		db.removeMessage(txn, message1.getId());
+		db.commitTransaction(txn);
+
+		txn = db.startTransaction();
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 0, xor());
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testCachedFingerprintsAreUpdatedByEveryWritePath()
+			throws Exception {
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 1000);
+		Message temporary = getMessage(groupId, 100, 1000);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 1, xor(messageId));
+
+		// Add a delivered message
+		txn = db.startTransaction();
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 2, xor(messageId, message1.getId()));
+
+		// Add a pending message, which shouldn't change the fingerprint
+		txn = db.startTransaction();
+		db.addMessage(txn, message2, PENDING, true, false, null);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 2, xor(messageId, message1.getId()));
+
+		// Deliver the pending message
+		txn = db.startTransaction();
+		db.setMessageState(txn, message2.getId(), DELIVERED);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 3, xor(messageId, message1.getId(),
+				message2.getId()));
+
+		// Unshare the message
+		txn = db.startTransaction();
+		db.setMessageShared(txn, message2.getId(), false);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 2, xor(messageId, message1.getId()));
+
+		// Add a temporary message and remove it again
+		txn = db.startTransaction();
+		db.addMessage(txn, temporary, DELIVERED, true, true, null);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 3, xor(messageId, message1.getId(),
+				temporary.getId()));
+		txn = db.startTransaction();
+		db.removeTemporaryMessages(txn);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 2, xor(messageId, message1.getId()));
+
+		// Remove a message
+		txn = db.startTransaction();
+		db.removeMessage(txn, message1.getId());
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 1, xor(messageId));
+
+		// Calculate the fingerprint in a transaction that's rolled back after
+		// adding a message, which shouldn't leave anything in the cache
+		txn = db.startTransaction();
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		assertRange(db.getRangeFingerprint(txn, groupId, 0, Long.MAX_VALUE),
+				0, Long.MAX_VALUE, 2, xor(messageId, message1.getId()));
+		db.abortTransaction(txn);
+		assertCachedFingerprint(db, 1, xor(messageId));
+
+		// Remove the group
+		txn = db.startTransaction();
+		db.removeGroup(txn, groupId);
+		db.commitTransaction(txn);
+		assertCachedFingerprint(db, 0, xor());
+
+		db.close();
+	}
+
+	@Test
+	public void testGetUnseenMessageIdsInRange() throws Exception {
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 1000);
+		Message message3 = getMessage(groupId, 100, 1001);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a group that's visible but not shared
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, false);
+		assertTrue(db.getSharedGroups(txn, contactId).isEmpty());
+
+		// Share the group
+		db.setGroupVisibility(txn, contactId, groupId, true);
+		assertEquals(singletonList(groupId),
+				new ArrayList<>(db.getSharedGroups(txn, contactId)));
+
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+
+		// The contact hasn't seen any of the messages
+		assertEquals(new HashSet<>(asList(message1.getId(), message2.getId())),
+				new HashSet<>(db.getUnseenMessageIds(txn, contactId, groupId,
+						1000, 1001)));
+
+		// Once a message has been seen it should not be returned
+		db.raiseSeenFlag(txn, contactId, message1.getId());
+		assertEquals(singleton(message2.getId()),
+				new HashSet<>(db.getUnseenMessageIds(txn, contactId, groupId,
+						1000, 1001)));
+		assertEquals(singleton(message3.getId()),
+				new HashSet<>(db.getUnseenMessageIds(txn, contactId, groupId,
+						1001, Long.MAX_VALUE)));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testIndexedMetadataQueries() throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		Metadata query = new Metadata();
+		query.put("foo", new byte[] {'b', 'a', 'r'});
+
+		// Add a group and two messages before the key is indexed
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		metadata.put("baz", new byte[] {'b', 'a', 'm'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("foo", new byte[] {'q', 'u', 'x'});
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		db.commitTransaction(txn);
+
+		// A key registered by an aborted transaction shouldn't be indexed
+		txn = db.startTransaction();
+		db.addIndexedMetadataKey(txn, clientId, majorVersion, "foo");
+		db.abortTransaction(txn);
+		txn = db.startTransaction();
+		assertEquals(singleton(messageId),
+				new HashSet<>(db.getMessageIds(txn, groupId, query)));
+		db.commitTransaction(txn);
+
+		// Register the key and reopen the database
+		txn = db.startTransaction();
+		db.addIndexedMetadataKey(txn, clientId, majorVersion, "foo");
+		db.commitTransaction(txn);
+		db.close();
+		db = open(true);
+		txn = db.startTransaction();
+
+		// Existing metadata should have been indexed
+		assertEquals(singleton(messageId),
+				new HashSet<>(db.getMessageIds(txn, groupId, query)));
+		assertEquals(1, db.countMessages(txn, groupId, query));
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, query);
+		assertEquals(1, all.size());
+		assertEquals(2, all.get(messageId).size());
+
+		// Terms that aren't indexed should be checked against the messages
+		// matching the indexed terms
+		Metadata mixed = new Metadata();
+		mixed.put("foo", new byte[] {'b', 'a', 'r'});
+		mixed.put("baz", new byte[] {'b', 'a', 'm'});
+		assertEquals(singleton(messageId),
+				new HashSet<>(db.getMessageIds(txn, groupId, mixed)));
+		mixed.put("baz", new byte[] {'q', 'u', 'x'});
+		assertTrue(db.getMessageIds(txn, groupId, mixed).isEmpty());
+
+		// Registering the key again should have no effect
+		db.addIndexedMetadataKey(txn, clientId, majorVersion, "foo");
+		assertEquals(1, db.countMessages(txn, groupId, query));
+
+		// Updates should be reflected in the index
+		metadata = new Metadata();
+		metadata.put("foo", REMOVE);
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		metadata1 = new Metadata();
+		metadata1.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		assertEquals(singleton(messageId1),
+				new HashSet<>(db.getMessageIds(txn, groupId, query)));
+		assertEquals(1, db.countMessages(txn, groupId, query));
+
+		// Only delivered messages should match
+		db.setMessageState(txn, messageId1, PENDING);
+		assertTrue(db.getMessageIds(txn, groupId, query).isEmpty());
+		assertEquals(0, db.countMessages(txn, groupId, query));
+		db.setMessageState(txn, messageId1, DELIVERED);
+		assertEquals(singleton(messageId1),
+				new HashSet<>(db.getMessageIds(txn, groupId, query)));
+
+		// Deleted metadata should be removed from the index
+		db.deleteMessageMetadata(txn, messageId1);
+		assertTrue(db.getMessageIds(txn, groupId, query).isEmpty());
+		assertEquals(0, db.countMessages(txn, groupId, query));
+
+		// The key should only be indexed for the client that registered it
+		Group group1 = getGroup(getClientId(), majorVersion);
+		Message message2 = getMessage(group1.getId());
+		db.addGroup(txn, group1);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.mergeMessageMetadata(txn, message2.getId(), query);
+		assertEquals(singleton(message2.getId()),
+				new HashSet<>(db.getMessageIds(txn, group1.getId(), query)));
+		assertEquals(1, db.countMessages(txn, group1.getId(), query));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMetadataRangeQueries() throws Exception {
+		Message message1 = getMessage(groupId);
+		Message message2 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		MessageId messageId2 = message2.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and three messages with BDF-encoded values
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		Metadata metadata = new Metadata();
+		metadata.put("read", new byte[] {0x10}); // False
+		metadata.put("timestamp", new byte[] {0x22, 0x01, 0x00}); // 256
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("read", new byte[] {0x11}); // True
+		metadata1.put("timestamp", new byte[] {0x21, -1}); // -1
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		Metadata metadata2 = new Metadata();
+		metadata2.put("read", new byte[] {0x41, 0x00}); // Empty string
+		db.mergeMessageMetadata(txn, messageId2, metadata2);
+
+		for (int i = 0; i < 2; i++) {
+			// The results should be the same before and after indexing
+			assertEquals(singleton(messageId),
+					new HashSet<>(db.getMessageIds(txn, groupId, "read",
+							0, 0)));
+			assertEquals(2, db.countMessages(txn, groupId, "read", 0, 1));
+			assertEquals(1, db.countMessages(txn, groupId, "read", 0, 0));
+			assertEquals(singleton(messageId1),
+					new HashSet<>(db.getMessageIds(txn, groupId, "timestamp",
+							Long.MIN_VALUE, 255)));
+			assertEquals(2, db.countMessages(txn, groupId, "timestamp",
+					-1, 256));
+			assertEquals(0, db.countMessages(txn, groupId, "missing",
+					Long.MIN_VALUE, Long.MAX_VALUE));
+			db.addIndexedMetadataKey(txn, clientId, majorVersion, "read");
+			db.addIndexedMetadataKey(txn, clientId, majorVersion,
+					"timestamp");
+		}
+
+		// Updates should be reflected in the index
+		metadata = new Metadata();
+		metadata.put("read", new byte[] {0x11}); // True
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		assertEquals(0, db.countMessages(txn, groupId, "read", 0, 0));
+		assertEquals(2, db.countMessages(txn, groupId, "read", 1, 1));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMetadataQueries() throws Exception {
 		Message message1 = getMessage(groupId);
@@ -2340,11 +2962,15 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Only sync version 0 should be supported by default
 		List<Byte> defaultSupported = singletonList((byte) 0);
 		assertEquals(defaultSupported, db.getSyncVersions(txn, contactId));
+		assertEquals(emptyList(), db.getSyncCapabilities(txn, contactId));
 
-		// Set the supported versions and check that they're returned
+		// Set the supported versions and capabilities and check that they're
+		// returned separately
 		List<Byte> supported = asList((byte) 0, (byte) 1);
-		db.setSyncVersions(txn, contactId, supported);
+		List<Byte> capabilities = singletonList(CAPABILITY_RECONCILIATION);
+		db.setSyncVersions(txn, contactId, supported, capabilities);
 		assertEquals(supported, db.getSyncVersions(txn, contactId));
+		assertEquals(capabilities, db.getSyncCapabilities(txn, contactId));
 
 		db.commitTransaction(txn);
 		db.close();
@@ -2584,7 +3210,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		Collection<MessageId> ids =
 				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+				emptyList());
 		assertTrue(ids.isEmpty());
 	}
 
@@ -2595,7 +3222,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		Collection<MessageId> ids =
 				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+				emptyList());
 		assertEquals(singletonList(messageId), ids);
 	}
 
@@ -2621,6 +3249,38 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 				db.getUnackedMessageBytesToSend(txn, contactId));
 	}
 
+	/**
+	 * Checks the fingerprint of the whole group twice, in separate
+	 * transactions, so the second check uses the cached fingerprint.
+	 */
+	private void assertCachedFingerprint(Database<Connection> db, int count,
+			byte[] fingerprint) throws Exception {
+		for (int i = 0; i < 2; i++) {
+			Connection txn = db.startTransaction();
+			assertRange(db.getRangeFingerprint(txn, groupId, 0,
+					Long.MAX_VALUE), 0, Long.MAX_VALUE, count, fingerprint);
+			db.commitTransaction(txn);
+		}
+	}
+
+	private void assertRange(Range range, long lower, long upper, int count,
+			byte[] fingerprint) {
+		assertEquals(FINGERPRINT, range.getType());
+		assertEquals(lower, range.getLower());
+		assertEquals(upper, range.getUpper());
+		assertEquals(count, range.getCount());
+		assertArrayEquals(fingerprint, range.getFingerprint());
+	}
+
+	private byte[] xor(MessageId... ids) {
+		byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+		for (MessageId id : ids) {
+			byte[] b = id.getBytes();
+			for (int i = 0; i < FINGERPRINT_LENGTH; i++) fingerprint[i] ^= b[i];
+		}
+		return fingerprint;
+	}
+
 	private static class StoppedClock implements Clock {
 
 		private final long time;
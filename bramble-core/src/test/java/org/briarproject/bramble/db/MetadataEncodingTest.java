@@ -0,0 +1,105 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.briarproject.bramble.db.MetadataEncoding.containsAll;
+import static org.briarproject.bramble.db.MetadataEncoding.decodeLong;
+import static org.briarproject.bramble.db.MetadataEncoding.decodeMetadata;
+import static org.briarproject.bramble.db.MetadataEncoding.encodeMetadata;
+import static org.briarproject.bramble.db.MetadataEncoding.getValue;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetadataEncodingTest extends BrambleTestCase {
+
+	@Test
+	public void testEncodeAndDecodeEmptyMetadata() throws Exception {
+		byte[] encoded = encodeMetadata(new Metadata());
+		assertEquals(0, encoded.length);
+		assertTrue(decodeMetadata(encoded).isEmpty());
+	}
+
+	@Test
+	public void testEncodeAndDecodeMetadata() throws Exception {
+		Metadata meta = new Metadata();
+		meta.put("foo", getRandomBytes(123));
+		meta.put("bar", new byte[0]);
+		meta.put("\u00e9t\u00e9", getRandomBytes(1));
+		Metadata decoded = decodeMetadata(encodeMetadata(meta));
+		assertEquals(meta.keySet(), decoded.keySet());
+		for (String key : meta.keySet())
+			assertArrayEquals(meta.get(key), decoded.get(key));
+	}
+
+	@Test(expected = DbStateException.class)
+	public void testDecodingTruncatedMetadataThrowsException()
+			throws Exception {
+		Metadata meta = new Metadata();
+		meta.put("foo", getRandomBytes(123));
+		byte[] encoded = encodeMetadata(meta);
+		decodeMetadata(Arrays.copyOf(encoded, encoded.length - 1));
+	}
+
+	@Test
+	public void testContainsAll() throws Exception {
+		byte[] foo = getRandomBytes(123), bar = getRandomBytes(123);
+		Metadata meta = new Metadata();
+		meta.put("foo", foo);
+		meta.put("bar", bar);
+		byte[] encoded = encodeMetadata(meta);
+
+		assertTrue(containsAll(encoded, new byte[0][], new byte[0][]));
+		assertTrue(containsAll(encoded, new byte[][] {toUtf8("foo")},
+				new byte[][] {foo}));
+		assertTrue(containsAll(encoded,
+				new byte[][] {toUtf8("foo"), toUtf8("bar")},
+				new byte[][] {foo, bar}));
+		// Wrong value
+		assertFalse(containsAll(encoded, new byte[][] {toUtf8("foo")},
+				new byte[][] {bar}));
+		// Missing key
+		assertFalse(containsAll(encoded,
+				new byte[][] {toUtf8("foo"), toUtf8("baz")},
+				new byte[][] {foo, bar}));
+	}
+
+	@Test
+	public void testGetValue() throws Exception {
+		byte[] foo = getRandomBytes(123);
+		Metadata meta = new Metadata();
+		meta.put("foo", foo);
+		meta.put("bar", new byte[0]);
+		byte[] encoded = encodeMetadata(meta);
+
+		assertArrayEquals(foo, getValue(encoded, toUtf8("foo")));
+		assertArrayEquals(new byte[0], getValue(encoded, toUtf8("bar")));
+		assertNull(getValue(encoded, toUtf8("baz")));
+	}
+
+	@Test
+	public void testDecodeLong() {
+		assertEquals(Long.valueOf(0), decodeLong(new byte[] {0x10}));
+		assertEquals(Long.valueOf(1), decodeLong(new byte[] {0x11}));
+		assertEquals(Long.valueOf(-1), decodeLong(new byte[] {0x21, -1}));
+		assertEquals(Long.valueOf(0x1234),
+				decodeLong(new byte[] {0x22, 0x12, 0x34}));
+		assertEquals(Long.valueOf(-2),
+				decodeLong(new byte[] {0x24, -1, -1, -1, -2}));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), decodeLong(
+				new byte[] {0x28, 0x7F, -1, -1, -1, -1, -1, -1, -1}));
+		// Null, wrong length, string
+		assertNull(decodeLong(new byte[] {0x00}));
+		assertNull(decodeLong(new byte[] {0x22, 0x12}));
+		assertNull(decodeLong(new byte[] {0x41, 0x00}));
+		assertNull(decodeLong(new byte[0]));
+	}
+}
@@ -0,0 +1,186 @@
+package org.briarproject.bramble.event;
+
+import org.briarproject.bramble.api.event.BatchEventListener;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBusImplTest extends BrambleTestCase {
+
+	private final QueueExecutor eventExecutor = new QueueExecutor();
+	private final QueueExecutor batchExecutor = new QueueExecutor();
+	private final EventBusImpl eventBus = new EventBusImpl(eventExecutor);
+
+	private final Event event = new Event() {
+	};
+	private final Event event1 = new Event() {
+	};
+	private final Event event2 = new Event() {
+	};
+
+	@Test
+	public void testListenersAreNotifiedOnEventExecutor() {
+		List<Event> received = new ArrayList<>();
+		EventListener listener = received::add;
+		eventBus.addListener(listener);
+
+		eventBus.broadcast(event);
+		assertTrue(received.isEmpty());
+		assertEquals(1, eventBus.getQueueDepth());
+
+		eventExecutor.runAll();
+		assertEquals(singletonList(event), received);
+		assertEquals(0, eventBus.getQueueDepth());
+
+		// Once removed, the listener should not be notified
+		eventBus.removeListener(listener);
+		eventBus.broadcast(event1);
+		eventExecutor.runAll();
+		assertEquals(singletonList(event), received);
+	}
+
+	@Test
+	public void testFilteredListenerOnlyReceivesMatchingEvents() {
+		List<Event> received = new ArrayList<>();
+		eventBus.addListener(received::add, e -> e != event1);
+
+		eventBus.broadcast(event);
+		eventBus.broadcast(event1);
+		eventBus.broadcast(event2);
+		eventExecutor.runAll();
+
+		assertEquals(asList(event, event2), received);
+	}
+
+	@Test
+	public void testFilterIsCalledWhenEventIsBroadcast() {
+		List<Event> filtered = new ArrayList<>();
+		List<Event> received = new ArrayList<>();
+		eventBus.addListener(received::add, e -> {
+			filtered.add(e);
+			return e != event1;
+		});
+
+		// An event that no listener wants should not be queued
+		eventBus.broadcast(event1);
+		assertEquals(singletonList(event1), filtered);
+		assertTrue(eventExecutor.tasks.isEmpty());
+		assertEquals(0, eventBus.getQueueDepth());
+
+		eventBus.broadcast(event);
+		assertEquals(asList(event1, event), filtered);
+		assertEquals(1, eventExecutor.tasks.size());
+
+		eventExecutor.runAll();
+		assertEquals(singletonList(event), received);
+	}
+
+	@Test
+	public void testRemovedListenerIsNotNotifiedOfQueuedEvents() {
+		List<Event> received = new ArrayList<>();
+		EventListener listener = received::add;
+		eventBus.addListener(listener);
+
+		eventBus.broadcast(event);
+		eventBus.removeListener(listener);
+		eventExecutor.runAll();
+		assertTrue(received.isEmpty());
+	}
+
+	@Test
+	public void testQueueDepthIncludesBatchListeners() {
+		eventBus.addListener(e -> {
+		});
+		eventBus.addBatchListener(events -> {
+		}, e -> true, batchExecutor);
+
+		// Each event is queued for the event executor and the batch listener
+		eventBus.broadcast(event);
+		eventBus.broadcast(event1);
+		assertEquals(4, eventBus.getQueueDepth());
+		assertEquals(4, eventBus.getMaxQueueDepth());
+
+		batchExecutor.runAll();
+		assertEquals(2, eventBus.getQueueDepth());
+		eventExecutor.runAll();
+		assertEquals(0, eventBus.getQueueDepth());
+		assertEquals(4, eventBus.getMaxQueueDepth());
+
+		eventBus.broadcast(event2);
+		assertEquals(2, eventBus.getQueueDepth());
+		assertEquals(4, eventBus.getMaxQueueDepth());
+	}
+
+	@Test
+	public void testBatchListenerReceivesEventsInBatches() {
+		List<List<Event>> received = new ArrayList<>();
+		BatchEventListener listener = received::add;
+		eventBus.addBatchListener(listener, e -> e != event1, batchExecutor);
+
+		// The first event schedules a delivery and the rest join its batch
+		eventBus.broadcast(event);
+		eventBus.broadcast(event1);
+		eventBus.broadcast(event2);
+		assertEquals(1, batchExecutor.tasks.size());
+		// The event executor should not be used for batch listeners
+		assertTrue(eventExecutor.tasks.isEmpty());
+
+		batchExecutor.runAll();
+		assertEquals(singletonList(asList(event, event2)), received);
+
+		// Once removed, the listener should not be notified
+		eventBus.removeBatchListener(listener);
+		eventBus.broadcast(event);
+		assertTrue(batchExecutor.tasks.isEmpty());
+		assertEquals(1, received.size());
+	}
+
+	@Test
+	public void testEventsBroadcastDuringDeliveryGoInNextBatch() {
+		List<List<Event>> received = new ArrayList<>();
+		eventBus.addBatchListener(events -> {
+			received.add(events);
+			if (received.size() == 1) eventBus.broadcast(event1);
+		}, e -> true, batchExecutor);
+
+		eventBus.broadcast(event);
+		// The first delivery should schedule a second one, not run it inline
+		batchExecutor.runNext();
+		assertEquals(singletonList(singletonList(event)), received);
+		assertEquals(1, batchExecutor.tasks.size());
+
+		batchExecutor.runAll();
+		assertEquals(asList(singletonList(event), singletonList(event1)),
+				received);
+	}
+
+	private static class QueueExecutor implements Executor {
+
+		private final Queue<Runnable> tasks = new LinkedList<>();
+
+		@Override
+		public void execute(Runnable r) {
+			tasks.add(r);
+		}
+
+		private void runNext() {
+			tasks.remove().run();
+		}
+
+		private void runAll() {
+			while (!tasks.isEmpty()) runNext();
+		}
+	}
+}
@@ -491,6 +491,43 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(fooProperties, properties.get(contact2.getId()));
 	}
 
+	@Test
+	public void testRemotePropertiesAreCached() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Contact contact = getContact();
+		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+
+		context.checking(new DbExpectations() {{
+			// The database should only be queried once
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(emptyMap()));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(new BdfDictionary()));
+		}});
+
+		TransportPropertyManagerImpl t = createInstance();
+		TransportId transportId = new TransportId("foo");
+		Map<ContactId, TransportProperties> properties =
+				t.getRemoteProperties(transportId);
+		assertEquals(1, properties.size());
+		assertEquals(0, properties.get(contact.getId()).size());
+		// Modifying the returned properties should not affect the cache
+		properties.get(contact.getId()).put("fooKey", "fooValue");
+		properties = t.getRemoteProperties(transportId);
+		assertEquals(1, properties.size());
+		assertEquals(0, properties.get(contact.getId()).size());
+		assertEquals(0, t.getRemoteProperties(contact.getId(), transportId)
+				.size());
+	}
+
 	@Test
 	public void testReceivePropertiesOverrideDiscoveredProperties()
 			throws Exception {
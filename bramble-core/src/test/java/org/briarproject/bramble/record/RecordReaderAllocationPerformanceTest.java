@@ -0,0 +1,69 @@
+package org.briarproject.bramble.record;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.record.Record;
+import org.briarproject.bramble.api.record.RecordReader;
+import org.briarproject.bramble.api.record.RecordWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getThreadAllocatedBytes;
+
+/**
+ * Compares the number of bytes allocated per record when reading records
+ * with and without a reused buffer.
+ */
+// Not a JUnit test
+public class RecordReaderAllocationPerformanceTest {
+
+	private static final int RECORDS = 10_000;
+	private static final int SAMPLES = 5;
+
+	private static final Predicate<Record> ACCEPT = r -> true;
+	private static final Predicate<Record> IGNORE = r -> false;
+
+	public static void main(String[] args) throws IOException {
+		byte[] stream = createStream();
+		for (int i = 0; i < SAMPLES; i++) {
+			runTest("Unbuffered", stream, false);
+			runTest("Buffered", stream, true);
+		}
+	}
+
+	private static byte[] createStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = new RecordWriterImpl(out);
+		for (int i = 0; i < RECORDS; i++) {
+			// Payloads of varying lengths up to the maximum
+			int length = (i * 4099) % MAX_RECORD_PAYLOAD_BYTES;
+			writer.writeRecord(new Record((byte) 0, (byte) 0,
+					getRandomBytes(length)));
+		}
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	private static void runTest(String name, byte[] stream, boolean buffered)
+			throws IOException {
+		RecordReader reader =
+				new RecordReaderImpl(new ByteArrayInputStream(stream));
+		long before = getThreadAllocatedBytes();
+		long start = System.nanoTime();
+		int records = 0;
+		while (true) {
+			Record r = buffered ? reader.readBufferedRecord(ACCEPT, IGNORE)
+					: reader.readRecord(ACCEPT, IGNORE);
+			if (r == null) break;
+			records++;
+		}
+		long duration = System.nanoTime() - start;
+		long allocated = getThreadAllocatedBytes() - before;
+		System.out.println(name + ": " + allocated / records
+				+ " bytes allocated per record, "
+				+ duration / records + " ns per record");
+	}
+}
@@ -18,7 +18,9 @@ import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 public class RecordReaderImplTest extends BrambleTestCase {
@@ -210,4 +212,66 @@ public class RecordReaderImplTest extends BrambleTestCase {
 		// The reader should have reached the end of the stream
 		assertNull(reader.readRecord(accept, ignore));
 	}
+
+	@Test
+	public void testBufferedRecordsShareBuffer() throws Exception {
+		// Version 0, type 0, payload length 123
+		byte[] header1 = new byte[] {0, 0, 0, 123};
+		// Version 0, type 1, payload length 45
+		byte[] header2 = new byte[] {0, 1, 0, 45};
+		byte[] payload1 = getRandomBytes(123);
+		byte[] payload2 = getRandomBytes(45);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header1);
+		out.write(payload1);
+		out.write(header2);
+		out.write(payload2);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		RecordReader reader = new RecordReaderImpl(in);
+
+		Predicate<Record> accept = r -> true, ignore = r -> false;
+
+		Record r1 = reader.readBufferedRecord(accept, ignore);
+		assertNotNull(r1);
+		assertEquals(0, r1.getRecordType());
+		assertEquals(123, r1.getPayloadLength());
+		assertArrayEquals(payload1, r1.getPayload());
+
+		// The second record should be read into the same buffer
+		Record r2 = reader.readBufferedRecord(accept, ignore);
+		assertNotNull(r2);
+		assertEquals(1, r2.getRecordType());
+		assertEquals(45, r2.getPayloadLength());
+		assertSame(r1.getBuffer(), r2.getBuffer());
+		assertArrayEquals(payload2, r2.getPayload());
+
+		// The reader should have reached the end of the stream
+		assertNull(reader.readBufferedRecord(accept, ignore));
+	}
+
+	@Test
+	public void testBufferedMaxLengthPayloadIsCopied() throws Exception {
+		// Version 0, type 0, max payload length
+		byte[] header = new byte[] {0, 0, 0, 0};
+		ByteUtils.writeUint16(MAX_RECORD_PAYLOAD_BYTES, header, 2);
+		byte[] payload = getRandomBytes(MAX_RECORD_PAYLOAD_BYTES);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header);
+		out.write(payload);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		RecordReader reader = new RecordReaderImpl(in);
+
+		Predicate<Record> accept = r -> true, ignore = r -> false;
+
+		Record r = reader.readBufferedRecord(accept, ignore);
+		assertNotNull(r);
+		assertEquals(MAX_RECORD_PAYLOAD_BYTES, r.getPayloadLength());
+		// The payload fills the buffer, which will be reused, so it should
+		// still be copied
+		byte[] copy = r.getPayload();
+		assertNotSame(r.getBuffer(), copy);
+		assertArrayEquals(payload, copy);
+	}
 }
@@ -0,0 +1,259 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.RangesToSendEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsReceivedEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.hamcrest.Description;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_RECONCILIATION;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_QUEUED_BATCH_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	private static final int MAX_LATENCY = Integer.MAX_VALUE;
+	private static final int MAX_IDLE_TIME = 30_000;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final ContactId contactId = getContactId();
+	private final TransportId transportId = getTransportId();
+	private final Object connection = new Object();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Message message = getMessage(new GroupId(getRandomId()),
+			MAX_MESSAGE_BODY_LENGTH);
+	private final Message message1 = getMessage(new GroupId(getRandomId()),
+			MAX_MESSAGE_BODY_LENGTH);
+
+	@Test
+	public void testGeneratesSeveralBatchesInOneTransaction()
+			throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, dbExecutor, eventBus, clock, contactId,
+				transportId, MAX_LATENCY, MAX_IDLE_TIME, 2,
+				MAX_QUEUED_BATCH_BYTES, streamWriter, recordWriter, null,
+				connection);
+
+		Transaction msgTxn = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+
+		expectStartSession(session);
+		context.checking(new DbExpectations() {{
+			// Two batches' worth of messages to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(msgTxn));
+			oneOf(db).generateRequestedBatch(msgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES * 2, MAX_LATENCY);
+			will(returnValue(asList(message, message1)));
+		}});
+		expectNothingToRequest();
+		context.checking(new DbExpectations() {{
+			// Write the first batch
+			oneOf(recordWriter).writeMessage(message);
+			// Look for another batch to fill the space
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateRequestedBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+			will(returnValue(null));
+			// Write the second batch, then close the session
+			oneOf(recordWriter).writeMessage(message1);
+			will(new InterruptSession(session));
+		}});
+		expectEndSession(session);
+
+		session.run();
+	}
+
+	@Test
+	public void testQueuedBatchesAreLimitedByLength() throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, dbExecutor, eventBus, clock, contactId,
+				transportId, MAX_LATENCY, MAX_IDLE_TIME, 4,
+				MAX_RECORD_PAYLOAD_BYTES + 1, streamWriter, recordWriter, null,
+				connection);
+
+		Transaction msgTxn = new Transaction(null, false);
+
+		expectStartSession(session);
+		context.checking(new DbExpectations() {{
+			// One message to send, limited by the queued length
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(msgTxn));
+			oneOf(db).generateRequestedBatch(msgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES + 1, MAX_LATENCY);
+			will(returnValue(singletonList(message)));
+		}});
+		expectNothingToRequest();
+		context.checking(new DbExpectations() {{
+			// Write the batch, then close the session
+			oneOf(recordWriter).writeMessage(message);
+			will(new InterruptSession(session));
+		}});
+		expectEndSession(session);
+
+		session.run();
+	}
+
+	@Test
+	public void testGroupsBeingReconciledAreNotOffered() throws Exception {
+		DuplexOutgoingSession session = new DuplexOutgoingSession(db,
+				dbExecutor, dbExecutor, eventBus, clock, contactId,
+				transportId, MAX_LATENCY, MAX_IDLE_TIME, 2,
+				MAX_QUEUED_BATCH_BYTES, streamWriter, recordWriter, null,
+				connection);
+		Ranges ranges = new Ranges(groupId, singletonList(new Range(0,
+				Long.MAX_VALUE, 0, new byte[FINGERPRINT_LENGTH])));
+		Ranges otherConnectionRanges = new Ranges(new GroupId(getRandomId()),
+				singletonList(new Range(0, Long.MAX_VALUE)));
+
+		Transaction rangesTxn = new Transaction(null, true);
+		Transaction noOfferTxn = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// When the contact's versions are received, generate the ranges
+			// in a read-only transaction
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(rangesTxn));
+			oneOf(db).generateRanges(rangesTxn, contactId);
+			will(returnValue(singletonList(ranges)));
+			// Offer messages in the groups that aren't being reconciled.
+			// Retransmission checks are paused while the other group is
+			// being reconciled
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noOfferTxn));
+			oneOf(db).generateOffer(noOfferTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY, singletonList(groupId));
+			will(returnValue(null));
+		}});
+
+		// Ranges and versions for other connections should be ignored
+		session.eventOccurred(new RangesToSendEvent(contactId, new Object(),
+				otherConnectionRanges));
+		session.eventOccurred(new SyncVersionsReceivedEvent(contactId,
+				new Object(), singletonList(PROTOCOL_VERSION),
+				singletonList(CAPABILITY_RECONCILIATION)));
+		session.eventOccurred(new SyncVersionsReceivedEvent(contactId,
+				connection, singletonList(PROTOCOL_VERSION),
+				singletonList(CAPABILITY_RECONCILIATION)));
+
+		expectStartSession(session);
+		context.checking(new DbExpectations() {{
+			// No messages to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateRequestedBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES * 2, MAX_LATENCY);
+			will(returnValue(null));
+		}});
+		expectNothingToRequest();
+		context.checking(new DbExpectations() {{
+			// Write the ranges, then close the session
+			oneOf(recordWriter).writeRanges(ranges);
+			will(new InterruptSession(session));
+		}});
+		expectEndSession(session);
+
+		session.run();
+	}
+
+	private void expectStartSession(DuplexOutgoingSession session) {
+		Transaction noAckTxn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(1000L));
+			// Add listener
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// No acks to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+		}});
+	}
+
+	private void expectNothingToRequest() {
+		Transaction noRequestTxn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// No request to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+		}});
+	}
+
+	private void expectEndSession(DuplexOutgoingSession session)
+			throws Exception {
+		context.checking(new DbExpectations() {{
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+	}
+
+	private static class InterruptSession implements Action {
+
+		private final DuplexOutgoingSession session;
+
+		private InterruptSession(DuplexOutgoingSession session) {
+			this.session = session;
+		}
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			session.interrupt();
+			return null;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("interrupts the session");
+		}
+	}
+}
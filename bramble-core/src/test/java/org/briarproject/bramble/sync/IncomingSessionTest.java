@@ -0,0 +1,354 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.Predicate;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.PriorityHandler;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.RangesToSendEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsReceivedEvent;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.hamcrest.Description;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.sync.IncomingSession.MAX_RECORDS_PER_TRANSACTION;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IncomingSessionTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final SyncRecordReader recordReader =
+			context.mock(SyncRecordReader.class);
+	private final PriorityHandler priorityHandler =
+			context.mock(PriorityHandler.class);
+
+	private final ContactId contactId = getContactId();
+	private final Ack ack =
+			new Ack(singletonList(new MessageId(getRandomId())));
+	private final Message message = getMessage(new GroupId(getRandomId()));
+	private final Message message1 = getMessage(new GroupId(getRandomId()));
+
+	@Test
+	public void testConsecutiveRecordsAreStoredInOneTransaction()
+			throws Exception {
+		QueueExecutor dbExecutor = new QueueExecutor();
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler, null);
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Read an ack and two messages
+			exactly(4).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(false),
+					returnValue(false), returnValue(true)));
+			exactly(3).of(recordReader).hasAck();
+			will(onConsecutiveCalls(returnValue(true), returnValue(false),
+					returnValue(false)));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			exactly(2).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(2).of(recordReader).readMessage();
+			will(onConsecutiveCalls(returnValue(message),
+					returnValue(message1)));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		// All the records should be stored by a single task
+		assertEquals(1, dbExecutor.tasks.size());
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).receiveAck(txn, contactId, ack);
+			oneOf(db).receiveMessage(txn, contactId, message);
+			oneOf(db).receiveMessage(txn, contactId, message1);
+		}});
+
+		dbExecutor.runAll();
+	}
+
+	@Test
+	public void testLongRunsOfRecordsAreSplitIntoTransactions()
+			throws Exception {
+		QueueExecutor dbExecutor = new QueueExecutor();
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler, null);
+		int records = MAX_RECORDS_PER_TRANSACTION + 1;
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			exactly(records + 1).of(recordReader).eof();
+			will(new EofAfter(records));
+			exactly(records).of(recordReader).hasAck();
+			will(returnValue(true));
+			exactly(records).of(recordReader).readAck();
+			will(returnValue(ack));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			exactly(MAX_RECORDS_PER_TRANSACTION).of(db)
+					.receiveAck(txn, contactId, ack);
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).receiveAck(txn1, contactId, ack);
+		}});
+
+		dbExecutor.runAll();
+	}
+
+	@Test(expected = IOException.class)
+	public void testSessionIsAbortedIfRecordsCannotBeStored()
+			throws Exception {
+		// Store each record as soon as it's queued
+		Executor dbExecutor = Runnable::run;
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler, null);
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Read an ack, which can't be stored
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(true));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(throwException(new DbException()));
+			// The session should stop reading and throw an exception
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testFailedBatchIsRetriedIndividually() throws Exception {
+		QueueExecutor dbExecutor = new QueueExecutor();
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler, null);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Read an ack and a message
+			exactly(3).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(false),
+					returnValue(true)));
+			exactly(2).of(recordReader).hasAck();
+			will(onConsecutiveCalls(returnValue(true), returnValue(false)));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readMessage();
+			will(returnValue(message));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		context.checking(new DbExpectations() {{
+			// The batch can't be stored in one transaction
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(throwException(new DbException()));
+			// Each record should be stored in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).receiveAck(txn, contactId, ack);
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).receiveMessage(txn1, contactId, message);
+		}});
+
+		dbExecutor.runAll();
+	}
+
+	@Test
+	public void testRangesAreSentOnTheSameConnection() throws Exception {
+		Executor dbExecutor = Runnable::run;
+		Object connection = new Object();
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler,
+				connection);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		GroupId groupId = new GroupId(getRandomId());
+		Ranges ranges = new Ranges(groupId,
+				singletonList(new Range(0, Long.MAX_VALUE)));
+		Ranges reply = new Ranges(groupId,
+				singletonList(new Range(0, Long.MAX_VALUE)));
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Read two ranges records
+			exactly(3).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(false),
+					returnValue(true)));
+			exactly(2).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasMessage();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasOffer();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasRequest();
+			will(returnValue(false));
+			// The first record isn't a versions record
+			exactly(3).of(recordReader).hasVersions();
+			will(returnValue(false));
+			oneOf(eventBus).broadcast(with(any(
+					SyncVersionsReceivedEvent.class)));
+			exactly(2).of(recordReader).hasRanges();
+			will(returnValue(true));
+			exactly(2).of(recordReader).readRanges();
+			will(returnValue(ranges));
+			// The first record needs a reply, the second doesn't
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).receiveRanges(txn, contactId, ranges);
+			will(returnValue(reply));
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).receiveRanges(txn1, contactId, ranges);
+			will(returnValue(null));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		// The reply should be sent on this session's connection
+		RangesToSendEvent r = (RangesToSendEvent) getEvent(txn);
+		assertSame(connection, r.getConnection());
+		assertSame(reply, r.getRanges());
+		ReconciliationFinishedEvent f =
+				(ReconciliationFinishedEvent) getEvent(txn1);
+		assertSame(connection, f.getConnection());
+		assertEquals(groupId, f.getGroupId());
+	}
+
+	@Test
+	public void testVersionsAreReportedForTheSameConnection()
+			throws Exception {
+		Executor dbExecutor = Runnable::run;
+		Object connection = new Object();
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, priorityHandler,
+				connection);
+		Transaction txn = new Transaction(null, false);
+		List<Byte> supported = singletonList(PROTOCOL_VERSION);
+		List<Byte> capabilities = singletonList(CAPABILITY_LARGE_FRAMES);
+
+		context.checking(new DbExpectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
+			// Read a versions record
+			exactly(2).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(true)));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(false));
+			oneOf(recordReader).hasOffer();
+			will(returnValue(false));
+			oneOf(recordReader).hasRequest();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasVersions();
+			will(returnValue(true));
+			oneOf(recordReader).readVersions();
+			will(returnValue(new Versions(supported, capabilities)));
+			// The contact doesn't support reconciliation
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).setSyncVersions(txn, contactId, supported,
+					capabilities);
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		// The outgoing session of this connection should learn the versions
+		SyncVersionsReceivedEvent v =
+				(SyncVersionsReceivedEvent) getEvent(txn);
+		assertSame(connection, v.getConnection());
+		assertEquals(supported, v.getSupportedVersions());
+		assertEquals(capabilities, v.getCapabilities());
+	}
+
+	private Event getEvent(Transaction txn) {
+		assertEquals(1, txn.getActions().size());
+		return ((EventAction) txn.getActions().get(0)).getEvent();
+	}
+
+	private static class EofAfter implements Action {
+
+		private int remaining;
+
+		private EofAfter(int records) {
+			remaining = records;
+		}
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			return remaining-- == 0;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("returns true after the last record");
+		}
+	}
+
+	private static class QueueExecutor implements Executor {
+
+		private final Queue<Runnable> tasks = new LinkedList<>();
+
+		@Override
+		public void execute(Runnable r) {
+			tasks.add(r);
+		}
+
+		private void runAll() {
+			while (!tasks.isEmpty()) tasks.remove().run();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.briarproject.bramble.sync;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.util.ByteUtils;
+import org.briarproject.bramble.util.StringUtils;
+
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.api.sync.Message.FORMAT_VERSION;
+import static org.briarproject.bramble.api.sync.MessageId.BLOCK_LABEL;
+import static org.briarproject.bramble.api.sync.MessageId.ID_LABEL;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getThreadAllocatedBytes;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+
+/**
+ * Compares the throughput and allocation rate of calculating message IDs
+ * with a new digest for each hash, as was done before digests were reused,
+ * and with the {@link MessageFactory}.
+ */
+// Not a JUnit test
+public class MessageIdPerformanceTest {
+
+	private static final int MESSAGES = 100_000;
+	private static final int BODY_LENGTH = 1024;
+	private static final int SAMPLES = 5;
+
+	private static final byte[] FORMAT_VERSION_BYTES =
+			new byte[] {FORMAT_VERSION};
+
+	@Inject
+	MessageFactory messageFactory;
+
+	public static void main(String[] args) {
+		MessageIdPerformanceTest test = new MessageIdPerformanceTest();
+		SyncIntegrationTestComponent component =
+				DaggerSyncIntegrationTestComponent.builder().build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		component.inject(test);
+		MessageFactory messageFactory = test.messageFactory;
+		GroupId g = getGroup(getClientId(), 123).getId();
+		byte[] body = getRandomBytes(BODY_LENGTH);
+		for (int i = 0; i < SAMPLES; i++) {
+			runTest("New digest per hash", () -> {
+				byte[] rootHash = allocatingHash(BLOCK_LABEL,
+						FORMAT_VERSION_BYTES, body);
+				byte[] timeBytes = new byte[INT_64_BYTES];
+				ByteUtils.writeUint64(123, timeBytes, 0);
+				byte[] idHash = allocatingHash(ID_LABEL, FORMAT_VERSION_BYTES,
+						g.getBytes(), timeBytes, rootHash);
+				new Message(new MessageId(idHash), g, 123, body);
+			});
+			runTest("MessageFactoryImpl",
+					() -> messageFactory.createMessage(g, 123, body));
+		}
+	}
+
+	private static void runTest(String name, Runnable createId) {
+		long before = getThreadAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) createId.run();
+		long duration = System.nanoTime() - start;
+		long allocated = getThreadAllocatedBytes() - before;
+		System.out.println(name + ": "
+				+ MESSAGES * 1_000_000_000L / duration + " IDs/s, "
+				+ allocated / MESSAGES + " bytes allocated per ID");
+	}
+
+	// How CryptoComponentImpl calculated hashes before digests were reused
+	private static byte[] allocatingHash(String label, byte[]... inputs) {
+		byte[] labelBytes = StringUtils.toUtf8(label);
+		Digest digest = new Blake2bDigest(256);
+		byte[] length = new byte[INT_32_BYTES];
+		ByteUtils.writeUint32(labelBytes.length, length, 0);
+		digest.update(length, 0, length.length);
+		digest.update(labelBytes, 0, labelBytes.length);
+		for (byte[] input : inputs) {
+			ByteUtils.writeUint32(input.length, length, 0);
+			digest.update(length, 0, length.length);
+			digest.update(input, 0, input.length);
+		}
+		byte[] output = new byte[digest.getDigestSize()];
+		digest.doFinal(output, 0);
+		return output;
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.Predicate;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Transaction;
@@ -54,15 +55,16 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	@Test
 	public void testNothingToSend() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				false, streamWriter, recordWriter);
+				dbExecutor, dbExecutor, eventBus, contactId, transportId,
+				MAX_LATENCY, false, streamWriter, recordWriter);
 
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction noMsgTxn = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// No acks to send
@@ -88,15 +90,16 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	@Test
 	public void testNothingToSendEagerly() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				true, streamWriter, recordWriter);
+				dbExecutor, dbExecutor, eventBus, contactId, transportId,
+				MAX_LATENCY, true, streamWriter, recordWriter);
 
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction noIdsTxn = new Transaction(null, true);
 
 		context.checking(new DbExpectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// No acks to send
@@ -121,8 +124,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	@Test
 	public void testSomethingToSend() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				false, streamWriter, recordWriter);
+				dbExecutor, dbExecutor, eventBus, contactId, transportId,
+				MAX_LATENCY, false, streamWriter, recordWriter);
 
 		Transaction ackTxn = new Transaction(null, false);
 		Transaction noAckTxn = new Transaction(null, false);
@@ -131,7 +134,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		context.checking(new DbExpectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// One ack to send
@@ -170,8 +174,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	@Test
 	public void testSomethingToSendEagerly() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
-				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				true, streamWriter, recordWriter);
+				dbExecutor, dbExecutor, eventBus, contactId, transportId,
+				MAX_LATENCY, true, streamWriter, recordWriter);
 
 		Map<MessageId, Integer> unacked = new LinkedHashMap<>();
 		unacked.put(message.getId(), message.getRawLength());
@@ -185,7 +189,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		context.checking(new DbExpectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Predicate.class)));
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// One ack to send
@@ -17,4 +17,6 @@ interface SyncIntegrationTestComponent extends
 		BrambleCoreIntegrationTestEagerSingletons {
 
 	void inject(SyncIntegrationTest testCase);
+
+	void inject(MessageIdPerformanceTest testCase);
 }
@@ -6,34 +6,56 @@ import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
+import org.briarproject.bramble.api.sync.Range;
+import org.briarproject.bramble.api.sync.Ranges;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.jmock.Expectations;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT;
+import static org.briarproject.bramble.api.sync.Range.FINGERPRINT_LENGTH;
+import static org.briarproject.bramble.api.sync.Range.ID_LIST;
+import static org.briarproject.bramble.api.sync.Range.MATCHED;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
+import static org.briarproject.bramble.api.sync.RecordTypes.RANGES;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_RECONCILIATION;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -107,6 +129,20 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		for (int i = 0; i < supported.size(); i++) {
 			assertEquals(i, (int) supported.get(i));
 		}
+		assertTrue(versions.getCapabilities().isEmpty());
+	}
+
+	@Test
+	public void testCapabilitiesAreSeparatedFromVersions() throws Exception {
+		byte[] payload = new byte[] {PROTOCOL_VERSION,
+				CAPABILITY_LARGE_FRAMES, CAPABILITY_RECONCILIATION};
+		expectReadRecord(new Record(PROTOCOL_VERSION, VERSIONS, payload));
+
+		Versions versions = reader.readVersions();
+		assertEquals(singletonList(PROTOCOL_VERSION),
+				versions.getSupportedVersions());
+		assertEquals(asList(CAPABILITY_LARGE_FRAMES,
+				CAPABILITY_RECONCILIATION), versions.getCapabilities());
 	}
 
 	@Test(expected = FormatException.class)
@@ -148,6 +184,22 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		assertEquals(PRIORITY_NONCE_BYTES, priority.getNonce().length);
 	}
 
+	@Test
+	public void testMessageIsCreatedFromRegionOfBuffer() throws Exception {
+		// The raw message is in the middle of a larger buffer
+		int off = 123, len = MESSAGE_HEADER_LENGTH + 1;
+		byte[] buf = new byte[off + len + 45];
+		Message message = getMessage(new GroupId(getRandomId()));
+		expectReadRecord(new Record(PROTOCOL_VERSION, MESSAGE, buf, off, len));
+
+		context.checking(new Expectations() {{
+			oneOf(messageFactory).createMessage(buf, off, len);
+			will(returnValue(message));
+		}});
+
+		assertEquals(message, reader.readMessage());
+	}
+
 	@Test
 	public void testEofReturnsTrueWhenAtEndOfStream() throws Exception {
 		expectReadRecord(createAck());
@@ -163,10 +215,119 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		assertTrue(reader.eof());
 	}
 
+	@Test
+	public void testRangesCanBeReadAfterWriting() throws Exception {
+		GroupId groupId = new GroupId(getRandomId());
+		byte[] fingerprint = getRandomBytes(FINGERPRINT_LENGTH);
+		List<MessageId> ids = asList(new MessageId(getRandomId()),
+				new MessageId(getRandomId()));
+		Ranges ranges = new Ranges(groupId, asList(
+				new Range(0, 100, 123, fingerprint),
+				new Range(100, 200),
+				new Range(200, Long.MAX_VALUE, ids)));
+		List<Record> records = writeRanges(ranges, 1);
+		expectReadRecord(records.get(0));
+
+		Ranges read = reader.readRanges();
+		assertEquals(groupId, read.getGroupId());
+		assertEquals(3, read.getRanges().size());
+		Range first = read.getRanges().get(0);
+		assertEquals(FINGERPRINT, first.getType());
+		assertEquals(0, first.getLower());
+		assertEquals(100, first.getUpper());
+		assertEquals(123, first.getCount());
+		assertArrayEquals(fingerprint, first.getFingerprint());
+		Range second = read.getRanges().get(1);
+		assertEquals(MATCHED, second.getType());
+		assertEquals(100, second.getLower());
+		assertEquals(200, second.getUpper());
+		Range third = read.getRanges().get(2);
+		assertEquals(ID_LIST, third.getType());
+		assertEquals(200, third.getLower());
+		assertEquals(Long.MAX_VALUE, third.getUpper());
+		assertEquals(ids, third.getMessageIds());
+	}
+
+	@Test
+	public void testRangesAreSplitAcrossRecords() throws Exception {
+		GroupId groupId = new GroupId(getRandomId());
+		// Too many fingerprint ranges to fit in one record
+		int numRanges = MAX_RECORD_PAYLOAD_BYTES / FINGERPRINT_LENGTH;
+		List<Range> rangeList = new ArrayList<>();
+		for (int i = 0; i < numRanges; i++) {
+			rangeList.add(new Range(i, i + 1, i,
+					getRandomBytes(FINGERPRINT_LENGTH)));
+		}
+		List<Record> records = writeRanges(new Ranges(groupId, rangeList), 2);
+		expectReadRecord(records.get(0));
+		expectReadRecord(records.get(1));
+
+		Ranges first = reader.readRanges();
+		Ranges second = reader.readRanges();
+		assertEquals(groupId, first.getGroupId());
+		assertEquals(groupId, second.getGroupId());
+		List<Range> read = new ArrayList<>(first.getRanges());
+		read.addAll(second.getRanges());
+		assertEquals(numRanges, read.size());
+		for (int i = 0; i < numRanges; i++) {
+			assertEquals(i, read.get(i).getLower());
+			assertArrayEquals(rangeList.get(i).getFingerprint(),
+					read.get(i).getFingerprint());
+		}
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfRangesIsEmpty() throws Exception {
+		expectReadRecord(new Record(PROTOCOL_VERSION, RANGES,
+				getRandomId()));
+
+		reader.readRanges();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfRangeIsEmpty() throws Exception {
+		byte[] payload = new byte[UniqueId.LENGTH + 1 + INT_64_BYTES * 2];
+		payload[UniqueId.LENGTH] = MATCHED;
+		// The lower and upper bounds are both zero
+		expectReadRecord(new Record(PROTOCOL_VERSION, RANGES, payload));
+
+		reader.readRanges();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfRangeTypeIsUnknown() throws Exception {
+		byte[] payload = new byte[UniqueId.LENGTH + 1 + INT_64_BYTES * 2];
+		payload[UniqueId.LENGTH] = 123;
+		payload[payload.length - 1] = 1; // Upper bound
+		expectReadRecord(new Record(PROTOCOL_VERSION, RANGES, payload));
+
+		reader.readRanges();
+	}
+
+	private List<Record> writeRanges(Ranges ranges, int numRecords)
+			throws Exception {
+		RecordWriter recordWriter = context.mock(RecordWriter.class);
+		List<AtomicReference<Record>> captured = new ArrayList<>();
+		for (int i = 0; i < numRecords; i++) {
+			AtomicReference<Record> record = new AtomicReference<>();
+			captured.add(record);
+			context.checking(new Expectations() {{
+				oneOf(recordWriter).writeRecord(with(any(Record.class)));
+				will(new CaptureArgumentAction<>(record, Record.class, 0));
+			}});
+		}
+		new SyncRecordWriterImpl(messageFactory, recordWriter)
+				.writeRanges(ranges);
+		List<Record> records = new ArrayList<>();
+		for (AtomicReference<Record> record : captured)
+			records.add(record.get());
+		return records;
+	}
+
 	private void expectReadRecord(@Nullable Record record) throws Exception {
 		context.checking(new Expectations() {{
 			//noinspection unchecked
-			oneOf(recordReader).readRecord(with(any(Predicate.class)),
+			oneOf(recordReader).readBufferedRecord(with(any(Predicate.class)),
 					with(any(Predicate.class)));
 			will(returnValue(record));
 		}});
@@ -93,14 +93,13 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testMessagesAreValidatedAtStartup() throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
-		Transaction txn2 = new Transaction(null, true);
-		Transaction txn3 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
 		context.checking(new DbExpectations() {{
-			// Load the first raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			// Load the raw messages and group in a single transaction
+			oneOf(db).transaction(with(true), withDbRunnable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(returnValue(message));
 			oneOf(db).getGroup(txn, groupId);
@@ -118,8 +117,63 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Get any pending dependents
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(emptyMap()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn2));
+			// The group is only loaded once
+			oneOf(db).getMessage(txn, messageId1);
+			will(returnValue(message1));
+			// Validate the second message: invalid
+			oneOf(validator).validateMessage(message1, group);
+			will(throwException(new InvalidMessageException()));
+			// Store the validation result for the second message
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).getMessageState(txn2, messageId1);
+			will(returnValue(UNKNOWN));
+			oneOf(db).setMessageState(txn2, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn2, messageId1);
+			oneOf(db).deleteMessageMetadata(txn2, messageId1);
+			// Recursively invalidate any dependents
+			oneOf(db).getMessageDependents(txn2, messageId1);
+			will(returnValue(emptyMap()));
+		}});
+
+		expectGetPendingMessages();
+		expectGetMessagesToShare();
+
+		vm.startService();
+	}
+
+	@Test
+	public void testMessagesAreLoadedInBatches() throws Exception {
+		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor, 1);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+
+		expectGetMessagesToValidate(messageId, messageId1);
+
+		context.checking(new DbExpectations() {{
+			// Load the first raw message and group
+			oneOf(db).transaction(with(true), withDbRunnable(txn));
+			oneOf(db).getMessage(txn, messageId);
+			will(returnValue(message));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			// Validate the first message: invalid
+			oneOf(validator).validateMessage(message, group);
+			will(throwException(new InvalidMessageException()));
+			// Invalidate the first message
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
+			oneOf(db).setMessageState(txn1, messageId, INVALID);
+			oneOf(db).deleteMessage(txn1, messageId);
+			oneOf(db).deleteMessageMetadata(txn1, messageId);
+			oneOf(db).getMessageDependents(txn1, messageId);
+			will(returnValue(emptyMap()));
+			// Load the second raw message and group in another batch
+			oneOf(db).transaction(with(true), withDbRunnable(txn2));
 			oneOf(db).getMessage(txn2, messageId1);
 			will(returnValue(message1));
 			oneOf(db).getGroup(txn2, groupId);
@@ -127,14 +181,13 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
-			// Store the validation result for the second message
+			// Invalidate the second message
 			oneOf(db).transaction(with(false), withDbRunnable(txn3));
 			oneOf(db).getMessageState(txn3, messageId1);
 			will(returnValue(UNKNOWN));
 			oneOf(db).setMessageState(txn3, messageId1, INVALID);
 			oneOf(db).deleteMessage(txn3, messageId1);
 			oneOf(db).deleteMessageMetadata(txn3, messageId1);
-			// Recursively invalidate any dependents
 			oneOf(db).getMessageDependents(txn3, messageId1);
 			will(returnValue(emptyMap()));
 		}});
@@ -148,7 +201,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	@Test
 	public void testPendingMessagesAreDeliveredAtStartup() throws Exception {
 		Transaction txn = new Transaction(null, false);
-		Transaction txn1 = new Transaction(null, false);
 
 		expectGetMessagesToValidate();
 		expectGetPendingMessages(messageId);
@@ -174,25 +226,25 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Get any pending dependents
 			oneOf(db).getMessageDependents(txn, messageId);
 			will(returnValue(singletonMap(messageId2, PENDING)));
-			// Check whether the dependent is ready to deliver
-			oneOf(db).transaction(with(false), withDbRunnable(txn1));
-			oneOf(db).getMessageState(txn1, messageId2);
+			// Check whether the dependent is ready to deliver in the same
+			// transaction
+			oneOf(db).getMessageState(txn, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn1, messageId2);
+			oneOf(db).getMessageDependencies(txn, messageId2);
 			will(returnValue(singletonMap(messageId1, DELIVERED)));
 			// Get the dependent and its metadata to deliver
-			oneOf(db).getMessage(txn1, messageId2);
+			oneOf(db).getMessage(txn, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn1, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn, messageId2);
 			will(returnValue(metadata));
 			// Deliver the dependent
-			oneOf(hook).incomingMessage(txn1, message2, metadata);
+			oneOf(hook).incomingMessage(txn, message2, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn1, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn, messageId2, DELIVERED);
 			// Get any pending dependents
-			oneOf(db).getMessageDependents(txn1, messageId2);
+			oneOf(db).getMessageDependents(txn, messageId2);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -271,33 +323,38 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		Transaction txn3 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
 		context.checking(new DbExpectations() {{
 			// Load the first raw message - *gasp* it's gone!
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).transaction(with(true), withDbRunnable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(throwException(new NoSuchMessageException()));
+			// Retry the messages in the batch individually
+			oneOf(db).transaction(with(true), withDbRunnable(txn1));
+			oneOf(db).getMessage(txn1, messageId);
+			will(throwException(new NoSuchMessageException()));
 			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			oneOf(db).transaction(with(true), withDbRunnable(txn2));
+			oneOf(db).getMessage(txn2, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Invalidate the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn2));
-			oneOf(db).getMessageState(txn2, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+			oneOf(db).getMessageState(txn3, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn2, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn2, messageId1);
-			oneOf(db).deleteMessageMetadata(txn2, messageId1);
+			oneOf(db).setMessageState(txn3, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn3, messageId1);
+			oneOf(db).deleteMessageMetadata(txn3, messageId1);
 			// Recursively invalidate dependents
-			oneOf(db).getMessageDependents(txn2, messageId1);
+			oneOf(db).getMessageDependents(txn3, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -312,36 +369,43 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		Transaction txn3 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
 		context.checking(new DbExpectations() {{
 			// Load the first raw message
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).transaction(with(true), withDbRunnable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(returnValue(message));
 			// Load the group - *gasp* it's gone!
 			oneOf(db).getGroup(txn, groupId);
 			will(throwException(new NoSuchGroupException()));
+			// Retry the messages in the batch individually
+			oneOf(db).transaction(with(true), withDbRunnable(txn1));
+			oneOf(db).getMessage(txn1, messageId);
+			will(returnValue(message));
+			oneOf(db).getGroup(txn1, groupId);
+			will(throwException(new NoSuchGroupException()));
 			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			oneOf(db).transaction(with(true), withDbRunnable(txn2));
+			oneOf(db).getMessage(txn2, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn2));
-			oneOf(db).getMessageState(txn2, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+			oneOf(db).getMessageState(txn3, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn2, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn2, messageId1);
-			oneOf(db).deleteMessageMetadata(txn2, messageId1);
+			oneOf(db).setMessageState(txn3, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn3, messageId1);
+			oneOf(db).deleteMessageMetadata(txn3, messageId1);
 			// Recursively invalidate dependents
-			oneOf(db).getMessageDependents(txn2, messageId1);
+			oneOf(db).getMessageDependents(txn3, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -351,6 +415,37 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		vm.startService();
 	}
 
+	@Test
+	public void testDeliveryContinuesAfterNoSuchMessageException()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+
+		expectGetMessagesToValidate();
+		expectGetPendingMessages(messageId, messageId1);
+
+		context.checking(new DbExpectations() {{
+			// Check whether the first message is ready to deliver - it's
+			// gone, so the batch's transaction is aborted
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).getMessageState(txn, messageId);
+			will(throwException(new NoSuchMessageException()));
+			// Retry the messages in the batch individually
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(throwException(new NoSuchMessageException()));
+			// The second message is no longer pending
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).getMessageState(txn2, messageId1);
+			will(returnValue(DELIVERED));
+		}});
+
+		expectGetMessagesToShare();
+
+		vm.startService();
+	}
+
 	@Test
 	public void testNonLocalMessagesAreValidatedWhenAdded() throws Exception {
 		Transaction txn = new Transaction(null, true);
@@ -586,10 +681,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
 		Transaction txn2 = new Transaction(null, false);
-		Transaction txn3 = new Transaction(null, false);
-		Transaction txn4 = new Transaction(null, false);
-		Transaction txn5 = new Transaction(null, false);
-		Transaction txn6 = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
 			// Load the group
@@ -609,7 +700,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// The message has two pending dependents: 1 and 2
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(twoDependents));
-			// Check whether message 1 is ready to be delivered
+			// Check whether message 1 is ready to be delivered - all the
+			// pending dependents are delivered in a single transaction
 			oneOf(db).transaction(with(false), withDbRunnable(txn2));
 			oneOf(db).getMessageState(txn2, messageId1);
 			will(returnValue(PENDING));
@@ -630,68 +722,64 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(singletonMap(messageId3, PENDING)));
 			// Check whether message 2 is ready to be delivered
-			oneOf(db).transaction(with(false), withDbRunnable(txn3));
-			oneOf(db).getMessageState(txn3, messageId2);
+			oneOf(db).getMessageState(txn2, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn3, messageId2);
+			oneOf(db).getMessageDependencies(txn2, messageId2);
 			will(returnValue(singletonMap(messageId, DELIVERED)));
 			// Get message 2 and its metadata
-			oneOf(db).getMessage(txn3, messageId2);
+			oneOf(db).getMessage(txn2, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn3, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn3, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId2);
 			will(returnValue(metadata));
 			// Deliver message 2
-			oneOf(hook).incomingMessage(txn3, message2, metadata);
+			oneOf(hook).incomingMessage(txn2, message2, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn3, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId2, DELIVERED);
 			// Message 2 has one pending dependent: 3 (same dependent as 1)
-			oneOf(db).getMessageDependents(txn3, messageId2);
+			oneOf(db).getMessageDependents(txn2, messageId2);
 			will(returnValue(singletonMap(messageId3, PENDING)));
 			// Check whether message 3 is ready to be delivered (via 1)
-			oneOf(db).transaction(with(false), withDbRunnable(txn4));
-			oneOf(db).getMessageState(txn4, messageId3);
+			oneOf(db).getMessageState(txn2, messageId3);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn4, messageId3);
+			oneOf(db).getMessageDependencies(txn2, messageId3);
 			will(returnValue(twoDependencies));
 			// Get message 3 and its metadata
-			oneOf(db).getMessage(txn4, messageId3);
+			oneOf(db).getMessage(txn2, messageId3);
 			will(returnValue(message3));
-			oneOf(db).getGroup(txn4, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn4, messageId3);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId3);
 			will(returnValue(metadata));
 			// Deliver message 3
-			oneOf(hook).incomingMessage(txn4, message3, metadata);
+			oneOf(hook).incomingMessage(txn2, message3, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn4, messageId3, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId3, DELIVERED);
 			// Message 3 has one pending dependent: 4
-			oneOf(db).getMessageDependents(txn4, messageId3);
+			oneOf(db).getMessageDependents(txn2, messageId3);
 			will(returnValue(singletonMap(messageId4, PENDING)));
 			// Check whether message 3 is ready to be delivered (again, via 2)
-			oneOf(db).transaction(with(false), withDbRunnable(txn5));
-			oneOf(db).getMessageState(txn5, messageId3);
+			oneOf(db).getMessageState(txn2, messageId3);
 			will(returnValue(DELIVERED)); // Already delivered
 			// Check whether message 4 is ready to be delivered (via 1 and 3)
-			oneOf(db).transaction(with(false), withDbRunnable(txn6));
-			oneOf(db).getMessageState(txn6, messageId4);
+			oneOf(db).getMessageState(txn2, messageId4);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn6, messageId4);
+			oneOf(db).getMessageDependencies(txn2, messageId4);
 			will(returnValue(singletonMap(messageId3, DELIVERED)));
 			// Get message 4 and its metadata
-			oneOf(db).getMessage(txn6, messageId4);
+			oneOf(db).getMessage(txn2, messageId4);
 			will(returnValue(message4));
-			oneOf(db).getGroup(txn6, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn6, messageId4);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId4);
 			will(returnValue(metadata));
 			// Deliver message 4
-			oneOf(hook).incomingMessage(txn6, message4, metadata);
+			oneOf(hook).incomingMessage(txn2, message4, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn6, messageId4, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId4, DELIVERED);
 			// Message 4 has no pending dependents
-			oneOf(db).getMessageDependents(txn6, messageId4);
+			oneOf(db).getMessageDependents(txn2, messageId4);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -221,6 +221,8 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 	@Test
 	public void testGetStreamContextForTag() throws Exception {
 		context.checking(new DbExpectations() {{
+			oneOf(transportKeyManager).isTagRecognised(tag);
+			will(returnValue(true));
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(txn));
 			oneOf(transportKeyManager).getStreamContext(txn, tag);
@@ -231,6 +233,16 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 				keyManager.getStreamContext(transportId, tag));
 	}
 
+	@Test
+	public void testGetStreamContextForUnrecognisedTag() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(transportKeyManager).isTagRecognised(tag);
+			will(returnValue(false));
+		}});
+
+		assertNull(keyManager.getStreamContext(transportId, tag));
+	}
+
 	@Test
 	public void testContactRemovedEvent() {
 		ContactRemovedEvent event = new ContactRemovedEvent(contactId);
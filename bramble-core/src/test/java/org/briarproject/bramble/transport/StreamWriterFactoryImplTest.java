@@ -0,0 +1,124 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.plugin.LanTcpConstants;
+import org.briarproject.bramble.api.plugin.event.ContactDisconnectedEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.CAPABILITY_LARGE_FRAMES;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+public class StreamWriterFactoryImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final StreamEncrypterFactory streamEncrypterFactory =
+			context.mock(StreamEncrypterFactory.class);
+	private final StreamEncrypter streamEncrypter =
+			context.mock(StreamEncrypter.class);
+
+	private final ContactId contactId = getContactId();
+	private final OutputStream out = new ByteArrayOutputStream();
+	private final StreamContext lanContext = new StreamContext(contactId,
+			null, LanTcpConstants.ID, getSecretKey(), getSecretKey(), 0,
+			false);
+
+	private final StreamWriterFactoryImpl streamWriterFactory =
+			new StreamWriterFactoryImpl(db, streamEncrypterFactory);
+
+	@Test
+	public void testUsesStoredVersionsUntilContactSendsVersions()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+
+		// The contact told us it supports large frames before we started
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getSyncCapabilities(txn, contactId);
+			will(returnValue(singletonList(CAPABILITY_LARGE_FRAMES)));
+		}});
+		expectLargeFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+
+		// The stored versions should only be loaded once
+		expectLargeFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+
+		// The contact sends versions that don't support large frames
+		streamWriterFactory.eventOccurred(new SyncVersionsUpdatedEvent(
+				contactId, singletonList(PROTOCOL_VERSION), emptyList()));
+		expectSmallFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+	}
+
+	@Test
+	public void testUsesLargeFramesWhileContactIsDisconnected() {
+		streamWriterFactory.eventOccurred(new SyncVersionsUpdatedEvent(
+				contactId, singletonList(PROTOCOL_VERSION),
+				singletonList(CAPABILITY_LARGE_FRAMES)));
+		expectLargeFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+
+		// Removable drive streams are usually written while the contact
+		// is disconnected
+		streamWriterFactory.eventOccurred(
+				new ContactDisconnectedEvent(contactId));
+		expectLargeFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+	}
+
+	@Test
+	public void testUsesSmallFramesWhenContactStopsSupportingLargeFrames() {
+		streamWriterFactory.eventOccurred(new SyncVersionsUpdatedEvent(
+				contactId, singletonList(PROTOCOL_VERSION),
+				singletonList(CAPABILITY_LARGE_FRAMES)));
+		streamWriterFactory.eventOccurred(new SyncVersionsUpdatedEvent(
+				contactId, singletonList(PROTOCOL_VERSION), emptyList()));
+
+		expectSmallFrames(lanContext);
+		streamWriterFactory.createStreamWriter(out, lanContext);
+	}
+
+	@Test
+	public void testUsesSmallFramesOnSlowTransports() {
+		streamWriterFactory.eventOccurred(new SyncVersionsUpdatedEvent(
+				contactId, singletonList(PROTOCOL_VERSION),
+				singletonList(CAPABILITY_LARGE_FRAMES)));
+		StreamContext ctx = new StreamContext(contactId, null,
+				getTransportId(), getSecretKey(), getSecretKey(), 0, false);
+
+		expectSmallFrames(ctx);
+		streamWriterFactory.createStreamWriter(out, ctx);
+	}
+
+	private void expectSmallFrames(StreamContext ctx) {
+		context.checking(new Expectations() {{
+			oneOf(streamEncrypterFactory).createStreamEncrypter(out, ctx);
+			will(returnValue(streamEncrypter));
+		}});
+	}
+
+	private void expectLargeFrames(StreamContext ctx) {
+		context.checking(new Expectations() {{
+			oneOf(streamEncrypterFactory)
+					.createLargeFrameStreamEncrypter(out, ctx);
+			will(returnValue(streamEncrypter));
+		}});
+	}
+}
@@ -0,0 +1,159 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * Compares the throughput of tag lookups in a {@link TagTable} with lookups
+ * in a locked {@link HashMap}, while another thread keeps sliding the
+ * reordering windows by removing and adding tags.
+ */
+// Not a JUnit test
+public class TagTablePerformanceTest {
+
+	private static final int CONTACTS = 2000;
+	private static final int TAGS = CONTACTS * REORDERING_WINDOW_SIZE * 3;
+	private static final int READERS = 4;
+	private static final int DURATION_MS = 5000;
+	private static final int SAMPLES = 3;
+
+	public static void main(String[] args) throws Exception {
+		byte[][] tags = new byte[TAGS][TAG_LENGTH];
+		Random random = new Random();
+		for (byte[] tag : tags) random.nextBytes(tag);
+		for (int i = 0; i < SAMPLES; i++) {
+			runTest("Locked HashMap", new LockedMapIndex(), tags);
+			runTest("TagTable", new TagTableIndex(), tags);
+		}
+	}
+
+	private static void runTest(String name, Index index, byte[][] tags)
+			throws InterruptedException {
+		for (int i = 0; i < tags.length; i++) index.put(tags[i], i);
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong lookups = new AtomicLong(), slides = new AtomicLong();
+		CountDownLatch finished = new CountDownLatch(READERS + 1);
+		// Half the lookups are for known tags, half for random tags
+		for (int i = 0; i < READERS; i++) {
+			new Thread(() -> {
+				Random random = new Random();
+				byte[] unknown = new byte[TAG_LENGTH];
+				long count = 0;
+				while (running.get()) {
+					random.nextBytes(unknown);
+					index.get(tags[random.nextInt(tags.length)]);
+					index.get(unknown);
+					count += 2;
+				}
+				lookups.addAndGet(count);
+				finished.countDown();
+			}).start();
+		}
+		// Slide the windows by replacing a tag with itself
+		new Thread(() -> {
+			Random random = new Random();
+			long count = 0;
+			while (running.get()) {
+				int i = random.nextInt(tags.length);
+				index.slide(tags[i], i);
+				count++;
+			}
+			slides.addAndGet(count);
+			finished.countDown();
+		}).start();
+		Thread.sleep(DURATION_MS);
+		running.set(false);
+		finished.await();
+		System.out.println(name + ": "
+				+ lookups.get() * 1000 / DURATION_MS + " lookups/s, "
+				+ slides.get() * 1000 / DURATION_MS + " slides/s");
+	}
+
+	private interface Index {
+
+		void put(byte[] tag, int value);
+
+		void slide(byte[] tag, int value);
+
+		boolean get(byte[] tag);
+	}
+
+	private static class LockedMapIndex implements Index {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<Bytes, Integer> map = new HashMap<>();
+
+		@Override
+		public void put(byte[] tag, int value) {
+			lock.lock();
+			try {
+				map.put(new Bytes(tag), value);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void slide(byte[] tag, int value) {
+			lock.lock();
+			try {
+				map.remove(new Bytes(tag));
+				map.put(new Bytes(tag), value);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean get(byte[] tag) {
+			lock.lock();
+			try {
+				return map.get(new Bytes(tag)) != null;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static class TagTableIndex implements Index {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final TagTable<Integer> table = new TagTable<>();
+
+		@Override
+		public void put(byte[] tag, int value) {
+			lock.lock();
+			try {
+				table.put(tag, value);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void slide(byte[] tag, int value) {
+			lock.lock();
+			try {
+				table.remove(tag);
+				table.put(tag, value);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean get(byte[] tag) {
+			return table.get(tag) != null;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final TagTable<Integer> table = new TagTable<>();
+
+	@Test
+	public void testPutGetAndRemove() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		assertNull(table.get(tag));
+		table.put(tag, 1);
+		assertEquals(1, (int) table.get(tag));
+		// Lookups use the content of the tag, not its identity
+		assertEquals(1, (int) table.get(tag.clone()));
+		// Putting the same tag again replaces the value
+		table.put(tag, 2);
+		assertEquals(2, (int) table.get(tag));
+		assertEquals(1, table.size());
+		assertEquals(2, (int) table.remove(tag));
+		assertNull(table.get(tag));
+		assertNull(table.remove(tag));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testTablesGrowAndReuseRemovedSlots() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		assertEquals(10_000, table.size());
+		for (int i = 0; i < 10_000; i++)
+			assertEquals(i, (int) table.get(tags.get(i)));
+		// Remove and replace half the tags several times, as a sliding
+		// reordering window would
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 10_000; i += 2) {
+				assertEquals(i, (int) table.remove(tags.get(i)));
+				byte[] tag = getRandomBytes(TAG_LENGTH);
+				tags.set(i, tag);
+				table.put(tag, i);
+			}
+		}
+		assertEquals(10_000, table.size());
+		for (int i = 0; i < 10_000; i++)
+			assertEquals(i, (int) table.get(tags.get(i)));
+	}
+
+	@Test
+	public void testRemoveIf() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		table.removeIf(i -> i % 2 == 0);
+		assertEquals(50, table.size());
+		for (int i = 0; i < 100; i++) {
+			if (i % 2 == 0) assertNull(table.get(tags.get(i)));
+			else assertEquals(i, (int) table.get(tags.get(i)));
+		}
+	}
+
+	@Test
+	public void testClear() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		table.put(tag, 1);
+		table.clear();
+		assertNull(table.get(tag));
+		assertEquals(0, table.size());
+		table.put(tag, 2);
+		assertEquals(2, (int) table.get(tag));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongTagLengthIsRejected() {
+		table.get(new byte[TAG_LENGTH - 1]);
+	}
+}
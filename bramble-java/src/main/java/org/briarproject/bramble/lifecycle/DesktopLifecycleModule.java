@@ -2,6 +2,8 @@ package org.briarproject.bramble.lifecycle;
 
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 
+import java.util.concurrent.ThreadFactory;
+
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -12,6 +14,14 @@ import static org.briarproject.bramble.util.OsUtils.isWindows;
 @Module
 public class DesktopLifecycleModule extends LifecycleModule {
 
+	public DesktopLifecycleModule() {
+		super();
+	}
+
+	public DesktopLifecycleModule(ThreadFactory ioThreadFactory) {
+		super(ioThreadFactory);
+	}
+
 	@Provides
 	@Singleton
 	ShutdownManager provideDesktopShutdownManager() {
@@ -0,0 +1,54 @@
+package org.briarproject.bramble.lifecycle;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+/**
+ * Creates thread factories for virtual threads, which are available on
+ * JDK 21 and later. Virtual threads are cheap to create and block, so a
+ * node with thousands of connections doesn't need a platform thread for
+ * each blocking read and write.
+ * <p>
+ * Bramble targets Java 8, so the virtual thread API is accessed by
+ * reflection.
+ */
+@NotNullByDefault
+public class VirtualThreadFactory {
+
+	private static final Logger LOG =
+			getLogger(VirtualThreadFactory.class.getName());
+
+	/**
+	 * Returns a factory that creates virtual threads whose names start with
+	 * the given prefix, or null if virtual threads are not supported by
+	 * this JVM.
+	 */
+	@Nullable
+	public static ThreadFactory create(String namePrefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Method name = builderClass.getMethod("name", String.class,
+					long.class);
+			Method factory = builderClass.getMethod("factory");
+			Object builder = ofVirtual.invoke(null);
+			builder = name.invoke(builder, namePrefix, 0L);
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			LOG.info("Virtual threads are not supported");
+			return null;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logException(LOG, WARNING, e);
+			return null;
+		}
+	}
+}
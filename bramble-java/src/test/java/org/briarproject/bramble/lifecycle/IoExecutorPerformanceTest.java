@@ -0,0 +1,136 @@
+package org.briarproject.bramble.lifecycle;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Reports the number of platform threads and the memory used by the
+ * {@link org.briarproject.bramble.api.lifecycle.IoExecutor} when running
+ * simulated duplex connections on platform threads and, if the JVM supports
+ * them, virtual threads.
+ * <p>
+ * Each simulated connection blocks three tasks, like a real connection: a
+ * reader, a writer and a timeout monitor.
+ */
+// Not a JUnit test
+public class IoExecutorPerformanceTest {
+
+	private static final int[] CONNECTIONS = {1000, 10_000};
+	private static final int TASKS_PER_CONNECTION = 3;
+
+	public static void main(String[] args) throws Exception {
+		ThreadFactory virtual = VirtualThreadFactory.create("IoExecutor-");
+		for (int connections : CONNECTIONS) {
+			runTest("Platform threads", Executors.defaultThreadFactory(),
+					connections);
+			if (virtual == null) System.out.println("Virtual threads: n/a");
+			else runTest("Virtual threads", virtual, connections);
+		}
+	}
+
+	private static void runTest(String name, ThreadFactory threadFactory,
+			int connections) throws Exception {
+		// Create the executor in the same way as LifecycleModule
+		ExecutorService ioExecutor = new ThreadPoolExecutor(0,
+				Integer.MAX_VALUE, 60, SECONDS, new SynchronousQueue<>(),
+				threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+		int baseThreads = getThreadCount();
+		long baseHeap = getHeapUsed(), baseRss = getResidentSetSize();
+		int tasks = connections * TASKS_PER_CONNECTION;
+		CountDownLatch started = new CountDownLatch(tasks);
+		CountDownLatch closed = new CountDownLatch(1);
+		long start = System.nanoTime();
+		for (int i = 0; i < connections; i++) {
+			BlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+			// Reader: blocks waiting for data
+			ioExecutor.execute(() -> {
+				started.countDown();
+				try {
+					incoming.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			// Writer: blocks waiting for records to send
+			ioExecutor.execute(() -> {
+				started.countDown();
+				awaitQuietly(closed);
+			});
+			// Timeout monitor: sleeps between checks
+			ioExecutor.execute(() -> {
+				started.countDown();
+				while (closed.getCount() > 0) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			});
+		}
+		started.await();
+		long startMs = (System.nanoTime() - start) / 1_000_000;
+		int threads = getThreadCount() - baseThreads;
+		long heap = getHeapUsed() - baseHeap;
+		long rss = baseRss < 0 ? -1 : getResidentSetSize() - baseRss;
+		System.out.println(name + ", " + connections + " connections: "
+				+ threads + " platform threads, "
+				+ heap / 1024 / 1024 + " MiB heap, "
+				+ (rss < 0 ? "n/a" : rss / 1024 / 1024 + " MiB") + " RSS, "
+				+ "started in " + startMs + " ms");
+		closed.countDown();
+		ioExecutor.shutdownNow();
+		ioExecutor.awaitTermination(10, SECONDS);
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int getThreadCount() {
+		return ManagementFactory.getThreadMXBean().getThreadCount();
+	}
+
+	private static long getHeapUsed() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns the resident set size of the process in bytes, which includes
+	 * thread stacks, or -1 if it can't be read.
+	 */
+	private static long getResidentSetSize() {
+		try (BufferedReader in = new BufferedReader(
+				new FileReader("/proc/self/status"))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					String kb = line.substring(6).trim().split("\\s+")[0];
+					return Long.parseLong(kb) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			return -1;
+		}
+		return -1;
+	}
+}
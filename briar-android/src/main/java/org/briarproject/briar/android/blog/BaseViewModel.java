@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.db.TransactionManager;
+import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.IdentityManager;
@@ -70,7 +71,7 @@ abstract class BaseViewModel extends DbViewModel implements EventListener {
 		this.identityManager = identityManager;
 		this.notificationManager = notificationManager;
 		this.blogManager = blogManager;
-		eventBus.addListener(this);
+		eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -79,6 +80,12 @@ abstract class BaseViewModel extends DbViewModel implements EventListener {
 		eventBus.removeListener(this);
 	}
 
+	/**
+	 * Returns true if {@link #eventOccurred(Event)} handles the given type
+	 * of event. Called on the thread that broadcasts the event.
+	 */
+	protected abstract boolean isRelevant(Event e);
+
 	@DatabaseExecutor
 	protected List<BlogPostItem> loadBlogPosts(Transaction txn, GroupId groupId)
 			throws DbException {
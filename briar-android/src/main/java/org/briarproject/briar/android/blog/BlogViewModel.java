@@ -78,6 +78,14 @@ class BlogViewModel extends BaseViewModel {
 		this.sharingController = sharingController;
 	}
 
+	@Override
+	protected boolean isRelevant(Event e) {
+		return e instanceof BlogPostAddedEvent ||
+				e instanceof BlogInvitationResponseReceivedEvent ||
+				e instanceof ContactLeftShareableEvent ||
+				e instanceof GroupRemovedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof BlogPostAddedEvent) {
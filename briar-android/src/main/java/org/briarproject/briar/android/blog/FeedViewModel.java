@@ -61,6 +61,12 @@ class FeedViewModel extends BaseViewModel {
 		loadAllBlogPosts();
 	}
 
+	@Override
+	protected boolean isRelevant(Event e) {
+		return e instanceof BlogPostAddedEvent ||
+				e instanceof GroupRemovedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof BlogPostAddedEvent) {
@@ -78,7 +78,7 @@ public class ContactsViewModel extends DbViewModel implements EventListener {
 		this.conversationManager = conversationManager;
 		this.connectionRegistry = connectionRegistry;
 		this.eventBus = eventBus;
-		this.eventBus.addListener(this);
+		this.eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -118,6 +118,16 @@ public class ContactsViewModel extends DbViewModel implements EventListener {
 		return true;
 	}
 
+	private boolean isRelevant(Event e) {
+		return e instanceof ContactAddedEvent ||
+				e instanceof ContactConnectedEvent ||
+				e instanceof ContactDisconnectedEvent ||
+				e instanceof ContactRemovedEvent ||
+				e instanceof ConversationMessageTrackedEvent ||
+				e instanceof AvatarUpdatedEvent ||
+				e instanceof ContactAliasChangedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ContactAddedEvent) {
@@ -154,7 +154,7 @@ public class ConversationViewModel extends DbViewModel
 		this.conversationManager = conversationManager;
 		messagingGroupId = map(contactItem, c ->
 				messagingManager.getContactGroup(c.getContact()).getId());
-		eventBus.addListener(this);
+		eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -164,6 +164,12 @@ public class ConversationViewModel extends DbViewModel
 		eventBus.removeListener(this);
 	}
 
+	private boolean isRelevant(Event e) {
+		return e instanceof AttachmentReceivedEvent ||
+				e instanceof AutoDeleteTimerMirroredEvent ||
+				e instanceof AvatarUpdatedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof AttachmentReceivedEvent) {
@@ -76,7 +76,7 @@ class ForumListViewModel extends DbViewModel implements EventListener {
 		this.forumSharingManager = forumSharingManager;
 		this.notificationManager = notificationManager;
 		this.eventBus = eventBus;
-		this.eventBus.addListener(this);
+		this.eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -97,6 +97,14 @@ class ForumListViewModel extends DbViewModel implements EventListener {
 		notificationManager.unblockAllForumPostNotifications();
 	}
 
+	private boolean isRelevant(Event e) {
+		return e instanceof ContactRemovedEvent ||
+				e instanceof ForumInvitationRequestReceivedEvent ||
+				e instanceof GroupAddedEvent ||
+				e instanceof GroupRemovedEvent ||
+				e instanceof ForumPostReceivedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ContactRemovedEvent) {
@@ -85,6 +85,14 @@ class ForumViewModel extends ThreadListViewModel<ForumPostItem> {
 		this.forumSharingManager = forumSharingManager;
 	}
 
+	@Override
+	protected boolean isRelevant(Event e) {
+		return e instanceof ForumPostReceivedEvent ||
+				e instanceof ForumInvitationResponseReceivedEvent ||
+				e instanceof ContactLeftShareableEvent ||
+				super.isRelevant(e);
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof ForumPostReceivedEvent) {
@@ -92,6 +92,15 @@ class GroupViewModel extends ThreadListViewModel<GroupMessageItem> {
 		this.groupMessageFactory = groupMessageFactory;
 	}
 
+	@Override
+	protected boolean isRelevant(Event e) {
+		return e instanceof GroupMessageAddedEvent ||
+				e instanceof GroupInvitationResponseReceivedEvent ||
+				e instanceof ContactRelationshipRevealedEvent ||
+				e instanceof GroupDissolvedEvent ||
+				super.isRelevant(e);
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof GroupMessageAddedEvent) {
@@ -87,7 +87,7 @@ class GroupListViewModel extends DbViewModel implements EventListener {
 		this.authorManager = authorManager;
 		this.notificationManager = notificationManager;
 		this.eventBus = eventBus;
-		this.eventBus.addListener(this);
+		this.eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -108,6 +108,14 @@ class GroupListViewModel extends DbViewModel implements EventListener {
 		notificationManager.unblockAllGroupMessageNotifications();
 	}
 
+	private boolean isRelevant(Event e) {
+		return e instanceof GroupMessageAddedEvent ||
+				e instanceof GroupInvitationRequestReceivedEvent ||
+				e instanceof GroupAddedEvent ||
+				e instanceof GroupRemovedEvent ||
+				e instanceof GroupDissolvedEvent;
+	}
+
 	@Override
 	public void eventOccurred(Event e) {
 		if (e instanceof GroupMessageAddedEvent) {
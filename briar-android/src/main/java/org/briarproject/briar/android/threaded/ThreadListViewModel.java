@@ -28,6 +28,7 @@ import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTree;
 import org.briarproject.briar.client.MessageTreeImpl;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -98,7 +99,7 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		this.sharingController = sharingController;
 		this.messageTracker = messageTracker;
 		this.eventBus = eventBus;
-		this.eventBus.addListener(this);
+		this.eventBus.addListener(this, this::isRelevant);
 	}
 
 	@Override
@@ -137,6 +138,15 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		notificationManager.unblockNotification(groupId);
 	}
 
+	/**
+	 * Returns true if {@link #eventOccurred(Event)} handles the given type
+	 * of event. Called on the thread that broadcasts the event.
+	 */
+	@CallSuper
+	protected boolean isRelevant(Event e) {
+		return e instanceof GroupRemovedEvent;
+	}
+
 	@Override
 	@CallSuper
 	public void eventOccurred(Event e) {
@@ -200,9 +210,20 @@ public abstract class ThreadListViewModel<I extends ThreadItem>
 		// Since this was a R/W DB transaction, the load will pick up this item.
 		if (items.getValue() == null) return;
 
-		messageTree.add(item);
+		int position = messageTree.addAndGetPosition(item);
 		if (scrollToItem) this.scrollToItem.set(item.getId());
-		items.setValue(new LiveResult<>(messageTree.depthFirstOrder()));
+		// Insert the item into a copy of the current list rather than
+		// rebuilding the list from the tree
+		List<I> current = items.getValue().getResultOrNull();
+		List<I> updated;
+		if (current == null) {
+			updated = messageTree.depthFirstOrder();
+		} else {
+			updated = new ArrayList<>(current.size() + 1);
+			updated.addAll(current);
+			updated.add(position, item);
+		}
+		items.setValue(new LiveResult<>(updated));
 	}
 
 	@UiThread
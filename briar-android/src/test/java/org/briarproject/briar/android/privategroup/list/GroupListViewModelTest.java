@@ -2,6 +2,7 @@ package org.briarproject.briar.android.privategroup.list;
 
 import android.app.Application;
 
+import org.briarproject.bramble.api.Predicate;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
@@ -98,7 +99,8 @@ public class GroupListViewModelTest extends BrambleMockTestCase {
 		context.setImposteriser(ClassImposteriser.INSTANCE);
 		Application app = context.mock(Application.class);
 		context.checking(new Expectations() {{
-			oneOf(eventBus).addListener(with(any(EventListener.class)));
+			oneOf(eventBus).addListener(with(any(EventListener.class)),
+					with(any(Predicate.class)));
 		}});
 		Executor dbExecutor = new ImmediateExecutor();
 		AndroidExecutor androidExecutor =
@@ -1,8 +1,11 @@
 package org.briarproject.briar.api.avatar;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
@@ -30,6 +33,13 @@ public interface AvatarManager {
 	 */
 	int MINOR_VERSION = 0;
 
+	/**
+	 * Registers a hook to be called whenever a contact's profile image is
+	 * updated. This method should be called before
+	 * {@link LifecycleManager#startServices(SecretKey)}.
+	 */
+	void registerAvatarHook(AvatarHook hook);
+
 	/**
 	 * Store a new profile image represented by the given InputStream
 	 * and share it with all contacts.
@@ -50,4 +60,15 @@ public interface AvatarManager {
 	 */
 	@Nullable
 	AttachmentHeader getMyAvatarHeader(Transaction txn) throws DbException;
+
+	interface AvatarHook {
+
+		/**
+		 * Called when a contact's profile image is being updated.
+		 *
+		 * @param txn A read-write transaction
+		 * @param c The contact whose profile image is being updated
+		 */
+		void updatingAvatar(Transaction txn, ContactId c) throws DbException;
+	}
 }
@@ -15,6 +15,14 @@ public interface MessageTree<T extends MessageTree.MessageNode> {
 
 	void add(T node);
 
+	/**
+	 * Adds the given node and returns its position in the
+	 * {@link #depthFirstOrder() depth-first order}. The node's parent, if
+	 * any, must already have been added. The node's level is set before
+	 * this method returns.
+	 */
+	int addAndGetPosition(T node);
+
 	void clear();
 
 	List<T> depthFirstOrder();
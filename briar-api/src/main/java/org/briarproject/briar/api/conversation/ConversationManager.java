@@ -13,8 +13,11 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.MessagingManager;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 @NotNullByDefault
 public interface ConversationManager {
 
@@ -38,6 +41,20 @@ public interface ConversationManager {
 	Collection<ConversationMessageHeader> getMessageHeaders(ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private conversation that come before the given cursor, newest first.
+	 * <p>
+	 * Messages are ordered by timestamp and then by message ID, so the next
+	 * page can be retrieved by passing the timestamp and ID of the last
+	 * header returned. If the cursor's message ID is null, all messages with
+	 * the cursor's timestamp are excluded, so the first page can be
+	 * retrieved by passing {@link Long#MAX_VALUE} and null.
+	 */
+	List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the unified group count for all private conversation messages.
 	 */
@@ -98,6 +115,16 @@ public interface ConversationManager {
 		Collection<ConversationMessageHeader> getMessageHeaders(Transaction txn,
 				ContactId contactId) throws DbException;
 
+		/**
+		 * Returns the headers of up to the given number of messages that
+		 * come before the given cursor, newest first, as described in
+		 * {@link ConversationManager#getMessageHeaders(ContactId, long,
+		 * MessageId, int)}.
+		 */
+		List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+				ContactId contactId, long timestamp, @Nullable MessageId m,
+				int limit) throws DbException;
+
 		/**
 		 * Returns all conversation {@link MessageId}s for the given contact
 		 * this client is responsible for.
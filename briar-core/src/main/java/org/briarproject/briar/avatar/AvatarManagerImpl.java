@@ -34,10 +34,12 @@ import org.briarproject.briar.api.avatar.event.AvatarUpdatedEvent;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
@@ -45,7 +47,7 @@ import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_CONTE
 import static org.briarproject.briar.avatar.AvatarConstants.GROUP_KEY_CONTACT_ID;
 import static org.briarproject.briar.avatar.AvatarConstants.MSG_KEY_VERSION;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 		ClientVersioningHook, IncomingMessageHook {
@@ -58,6 +60,8 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 	private final GroupFactory groupFactory;
 	private final AvatarMessageEncoder avatarMessageEncoder;
 
+	private final List<AvatarHook> hooks = new CopyOnWriteArrayList<>();
+
 	@Inject
 	AvatarManagerImpl(
 			DatabaseComponent db,
@@ -76,6 +80,11 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 		this.avatarMessageEncoder = avatarMessageEncoder;
 	}
 
+	@Override
+	public void registerAvatarHook(AvatarHook hook) {
+		hooks.add(hook);
+	}
+
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
 		// Create our avatar group if necessary
@@ -152,6 +161,7 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 			String contentType = d.getString(MSG_KEY_CONTENT_TYPE);
 			AttachmentHeader a = new AttachmentHeader(m.getGroupId(), m.getId(),
 					contentType);
+			for (AvatarHook hook : hooks) hook.updatingAvatar(txn, contactId);
 			txn.attach(new AvatarUpdatedEvent(contactId, a));
 		} catch (FormatException e) {
 			throw new InvalidMessageException(e);
@@ -10,12 +10,21 @@ import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.conversation.ConversationManager.ConversationClient;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.sort;
+import static org.briarproject.briar.client.NewestFirstComparator.isAfter;
+
 @Immutable
 @NotNullByDefault
 public abstract class ConversationClientImpl extends BdfIncomingMessageHook
@@ -38,4 +47,23 @@ public abstract class ConversationClientImpl extends BdfIncomingMessageHook
 		return messageTracker.getGroupCount(txn, groupId);
 	}
 
+	/**
+	 * Pages through the headers returned by
+	 * {@link #getMessageHeaders(Transaction, ContactId)} in memory. Most
+	 * clients build their headers from session state as well as messages,
+	 * so their headers can't be paged in the database, and they hold far
+	 * fewer messages than private messaging, which pages in the database.
+	 */
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId contactId, long timestamp, @Nullable MessageId m,
+			int limit) throws DbException {
+		List<ConversationMessageHeader> headers = new ArrayList<>();
+		for (ConversationMessageHeader h : getMessageHeaders(txn, contactId)) {
+			if (isAfter(h, timestamp, m)) headers.add(h);
+		}
+		sort(headers, new NewestFirstComparator());
+		if (headers.size() <= limit) return headers;
+		return new ArrayList<>(headers.subList(0, limit));
+	}
 }
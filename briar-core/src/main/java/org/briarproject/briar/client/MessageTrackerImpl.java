@@ -7,15 +7,21 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.client.MessageTracker;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
@@ -24,14 +30,24 @@ import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_ST
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
-class MessageTrackerImpl implements MessageTracker {
+class MessageTrackerImpl implements MessageTracker, EventListener {
 
 	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
 	private final Clock clock;
 
+	/**
+	 * Committed group counts, so read-only transactions don't need to read
+	 * the group metadata. Write transactions always read the group metadata,
+	 * as they may have uncommitted changes. An entry is removed when a write
+	 * transaction changes the group count and replaced when the transaction
+	 * commits.
+	 */
+	private final ConcurrentMap<GroupId, GroupCount> groupCounts =
+			new ConcurrentHashMap<>();
+
 	@Inject
 	MessageTrackerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			Clock clock) {
@@ -111,9 +127,14 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public GroupCount getGroupCount(Transaction txn, GroupId g)
 			throws DbException {
+		if (txn.isReadOnly()) {
+			GroupCount cached = groupCounts.get(g);
+			if (cached != null) return cached;
+		}
+		GroupCount count;
 		try {
 			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
-			return new GroupCount(
+			count = new GroupCount(
 					d.getLong(GROUP_KEY_MSG_COUNT, 0L).intValue(),
 					d.getLong(GROUP_KEY_UNREAD_COUNT, 0L).intValue(),
 					d.getLong(GROUP_KEY_LATEST_MSG, 0L)
@@ -121,6 +142,10 @@ class MessageTrackerImpl implements MessageTracker {
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
+		// Don't replace a newer count stored by a write transaction that
+		// committed while this transaction was running
+		if (txn.isReadOnly()) groupCounts.putIfAbsent(g, count);
+		return count;
 	}
 
 	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
@@ -135,6 +160,8 @@ class MessageTrackerImpl implements MessageTracker {
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
+		groupCounts.remove(g);
+		txn.attach(() -> groupCounts.put(g, c));
 	}
 
 	@Override
@@ -174,4 +201,10 @@ class MessageTrackerImpl implements MessageTracker {
 		storeGroupCount(txn, g, groupCount);
 	}
 
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof GroupRemovedEvent) {
+			groupCounts.remove(((GroupRemovedEvent) e).getGroup().getId());
+		}
+	}
 }
@@ -4,108 +4,226 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTree;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
+/**
+ * A {@link MessageTree} that keeps each node's children sorted by timestamp
+ * as nodes are added, so adding a node doesn't require any sorting or
+ * traversal of the rest of the tree. Each node records the number of its
+ * descendants, which allows the position of a new node in the depth-first
+ * order to be calculated without building the order.
+ */
 @ThreadSafe
 @NotNullByDefault
 public class MessageTreeImpl<T extends MessageTree.MessageNode>
 		implements MessageTree<T> {
 
 	@GuardedBy("this")
-	private final Map<MessageId, List<T>> nodeMap = new HashMap<>();
+	private final Map<MessageId, TreeNode<T>> nodeMap = new HashMap<>();
 
+	/**
+	 * The parent of the root nodes, which doesn't hold a message node.
+	 */
 	@GuardedBy("this")
-	private final List<T> roots = new ArrayList<>();
-
-	@GuardedBy("this")
-	private final List<List<T>> unsortedLists = new ArrayList<>();
-
-	@SuppressWarnings("UseCompareMethod")
-	private final Comparator<T> comparator = (o1, o2) ->
-			Long.valueOf(o1.getTimestamp()).compareTo(o2.getTimestamp());
+	private final TreeNode<T> root = new TreeNode<>(null);
 
 	@Override
 	public synchronized void clear() {
-		roots.clear();
+		root.children.clear();
+		root.descendants = 0;
 		nodeMap.clear();
 	}
 
 	@Override
 	public synchronized void add(Collection<T> nodes) {
-		// add all nodes to the node map
+		// Add all the nodes to the node map, so parents can be found
+		// regardless of the order of the nodes
+		List<TreeNode<T>> added = new ArrayList<>(nodes.size());
+		Set<MessageId> addedIds = new HashSet<>();
 		for (T node : nodes) {
-			nodeMap.put(node.getId(), new ArrayList<>());
+			TreeNode<T> treeNode = new TreeNode<>(node);
+			nodeMap.put(node.getId(), treeNode);
+			added.add(treeNode);
+			addedIds.add(node.getId());
 		}
-		// parse the nodes for dependencies
-		for (T node : nodes) {
-			parseNode(node);
+		for (TreeNode<T> treeNode : added) insert(treeNode);
+		// Set the levels of the new subtrees, starting from the new nodes
+		// whose parents were already in the tree
+		for (TreeNode<T> treeNode : added) {
+			MessageId parentId = getNode(treeNode).getParentId();
+			if (parentId == null || !addedIds.contains(parentId))
+				setLevels(treeNode);
 		}
-		sortUnsorted();
 	}
 
 	@Override
 	public synchronized void add(T node) {
-		add(Collections.singletonList(node));
+		addAndGetPosition(node);
+	}
+
+	@Override
+	public synchronized int addAndGetPosition(T node) {
+		TreeNode<T> treeNode = new TreeNode<>(node);
+		nodeMap.put(node.getId(), treeNode);
+		int index = insert(treeNode);
+		setLevels(treeNode);
+		return getPosition(treeNode, index);
+	}
+
+	@Override
+	public synchronized List<T> depthFirstOrder() {
+		List<T> orderedList = new ArrayList<>(root.descendants);
+		// Iterate rather than recursing, as reply chains may be long
+		Deque<TreeNode<T>> stack = new ArrayDeque<>();
+		pushChildren(stack, root);
+		while (!stack.isEmpty()) {
+			TreeNode<T> treeNode = stack.pop();
+			orderedList.add(getNode(treeNode));
+			pushChildren(stack, treeNode);
+		}
+		return orderedList;
+	}
+
+	@Override
+	public synchronized boolean contains(MessageId m) {
+		return nodeMap.containsKey(m);
 	}
 
+	private void pushChildren(Deque<TreeNode<T>> stack, TreeNode<T> parent) {
+		List<TreeNode<T>> children = parent.children;
+		for (int i = children.size() - 1; i >= 0; i--)
+			stack.push(children.get(i));
+	}
+
+	/**
+	 * Inserts the given node among its parent's children and returns its
+	 * index among the children.
+	 */
 	@GuardedBy("this")
-	private void markAsUnsorted(List<T> list) {
-		if (!unsortedLists.contains(list))
-			unsortedLists.add(list);
+	private int insert(TreeNode<T> treeNode) {
+		MessageId parentId = getNode(treeNode).getParentId();
+		TreeNode<T> parent = parentId == null ? root : nodeMap.get(parentId);
+		if (parent == null) throw new IllegalArgumentException();
+		// Nodes with equal timestamps are kept in the order they were added
+		List<TreeNode<T>> children = parent.children;
+		long timestamp = getNode(treeNode).getTimestamp();
+		int low = 0, high = children.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getNode(children.get(mid)).getTimestamp() <= timestamp)
+				low = mid + 1;
+			else high = mid;
+		}
+		children.add(low, treeNode);
+		treeNode.parent = parent;
+		for (TreeNode<T> p = parent; p != null; p = p.parent)
+			p.descendants += 1 + treeNode.descendants;
+		return low;
 	}
 
 	@GuardedBy("this")
-	private void parseNode(T node) {
-		if (node.getParentId() == null) {
-			roots.add(node);
-			markAsUnsorted(roots);
-		} else {
-			// retrieve the parent's children
-			List<T> pChildren = nodeMap.get(node.getParentId());
-			pChildren.add(node);
-			markAsUnsorted(pChildren);
+	private void setLevels(TreeNode<T> subtree) {
+		Deque<TreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(subtree);
+		while (!stack.isEmpty()) {
+			TreeNode<T> treeNode = stack.pop();
+			TreeNode<T> parent = treeNode.parent;
+			if (parent == null) throw new AssertionError();
+			treeNode.level = parent.level + 1;
+			getNode(treeNode).setLevel(treeNode.level);
+			for (TreeNode<T> child : treeNode.children) stack.push(child);
 		}
 	}
 
+	/**
+	 * Returns the position of the given node in the depth-first order,
+	 * given its index among its parent's children.
+	 */
 	@GuardedBy("this")
-	private void sortUnsorted() {
-		for (List<T> list : unsortedLists) {
-			//noinspection Java8ListSort
-			Collections.sort(list, comparator);
+	private int getPosition(TreeNode<T> treeNode, int index) {
+		// The root's position is -1, and each node's position is the sum of
+		// its parent's position and its offset from its parent
+		int position = -1;
+		TreeNode<T> parent = treeNode.parent;
+		while (parent != null) {
+			position += getOffset(parent, treeNode, index);
+			treeNode = parent;
+			parent = treeNode.parent;
+			if (parent != null) index = getIndex(parent, treeNode);
 		}
-		unsortedLists.clear();
+		return position;
 	}
 
+	/**
+	 * Returns the number of positions between the given parent and the
+	 * given child in the depth-first order, counting the siblings on
+	 * whichever side of the child has fewer siblings.
+	 */
 	@GuardedBy("this")
-	private void traverse(List<T> list, T node, int level) {
-		list.add(node);
-		List<T> children = nodeMap.get(node.getId());
-		node.setLevel(level);
-		for (T child : children) {
-			traverse(list, child, level + 1);
+	private int getOffset(TreeNode<T> parent, TreeNode<T> child, int index) {
+		List<TreeNode<T>> children = parent.children;
+		if (index < children.size() / 2) {
+			int offset = 1;
+			for (int i = 0; i < index; i++)
+				offset += 1 + children.get(i).descendants;
+			return offset;
+		} else {
+			int offset = parent.descendants - child.descendants;
+			for (int i = index + 1; i < children.size(); i++)
+				offset -= 1 + children.get(i).descendants;
+			return offset;
 		}
 	}
 
-	@Override
-	public synchronized List<T> depthFirstOrder() {
-		List<T> orderedList = new ArrayList<>();
-		for (T root : roots) {
-			traverse(orderedList, root, 0);
+	@GuardedBy("this")
+	private int getIndex(TreeNode<T> parent, TreeNode<T> child) {
+		List<TreeNode<T>> children = parent.children;
+		long timestamp = getNode(child).getTimestamp();
+		// Find the first child with the same timestamp
+		int low = 0, high = children.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getNode(children.get(mid)).getTimestamp() < timestamp)
+				low = mid + 1;
+			else high = mid;
 		}
-		return orderedList;
+		for (int i = low; i < children.size(); i++)
+			if (children.get(i) == child) return i;
+		throw new AssertionError();
 	}
 
-	@Override
-	public synchronized boolean contains(MessageId m) {
-		return nodeMap.containsKey(m);
+	private T getNode(TreeNode<T> treeNode) {
+		if (treeNode.node == null) throw new AssertionError();
+		return treeNode.node;
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	private static class TreeNode<T> {
+
+		@Nullable
+		private final T node;
+		private final List<TreeNode<T>> children = new ArrayList<>();
+
+		@Nullable
+		private TreeNode<T> parent = null;
+		private int descendants = 0, level = -1;
+
+		private TreeNode(@Nullable T node) {
+			this.node = node;
+		}
 	}
 }
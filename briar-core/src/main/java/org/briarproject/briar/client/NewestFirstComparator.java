@@ -0,0 +1,40 @@
+package org.briarproject.briar.client;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+
+import java.util.Comparator;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Orders conversation message headers newest first, by timestamp and then by
+ * message ID. This is the order in which a conversation is paged.
+ */
+@Immutable
+@NotNullByDefault
+public class NewestFirstComparator
+		implements Comparator<ConversationMessageHeader> {
+
+	@Override
+	public int compare(ConversationMessageHeader a,
+			ConversationMessageHeader b) {
+		long ta = a.getTimestamp(), tb = b.getTimestamp();
+		if (ta != tb) return ta < tb ? 1 : -1;
+		return b.getId().compareTo(a.getId());
+	}
+
+	/**
+	 * Returns true if the given header comes after the given cursor, and
+	 * therefore belongs on a page that starts at the cursor. If the cursor's
+	 * message ID is null, headers with the cursor's timestamp don't come
+	 * after the cursor.
+	 */
+	public static boolean isAfter(ConversationMessageHeader h, long timestamp,
+			@Nullable MessageId m) {
+		if (h.getTimestamp() != timestamp) return h.getTimestamp() < timestamp;
+		return m != null && h.getId().compareTo(m) < 0;
+	}
+}
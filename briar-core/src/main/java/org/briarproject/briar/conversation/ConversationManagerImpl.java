@@ -17,6 +17,7 @@ import org.briarproject.briar.api.conversation.ConversationManager;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.conversation.DeletionResult;
 import org.briarproject.briar.api.conversation.event.ConversationMessageTrackedEvent;
+import org.briarproject.briar.client.NewestFirstComparator;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -24,10 +25,12 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static java.lang.Math.max;
+import static java.util.Collections.sort;
 
 @ThreadSafe
 @NotNullByDefault
@@ -71,6 +74,24 @@ class ConversationManagerImpl implements ConversationManager {
 		return messages;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		List<ConversationMessageHeader> messages = new ArrayList<>();
+		db.transaction(true, txn -> {
+			for (ConversationClient client : clients) {
+				messages.addAll(client.getMessageHeaders(txn, c, timestamp, m,
+						limit));
+			}
+		});
+		// Each client returns its own first page, so merge them
+		sort(messages, new NewestFirstComparator());
+		if (messages.size() <= limit) return messages;
+		return new ArrayList<>(messages.subList(0, limit));
+	}
+
 	@Override
 	public GroupCount getGroupCount(ContactId contactId) throws DbException {
 		return db.transactionWithResult(true,
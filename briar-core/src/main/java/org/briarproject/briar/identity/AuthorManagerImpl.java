@@ -1,20 +1,35 @@
 package org.briarproject.briar.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager.ContactAliasHook;
+import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
+import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactAliasChangedEvent;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.briarproject.briar.api.avatar.AvatarManager;
+import org.briarproject.briar.api.avatar.AvatarManager.AvatarHook;
+import org.briarproject.briar.api.avatar.event.AvatarUpdatedEvent;
 import org.briarproject.briar.api.identity.AuthorInfo;
 import org.briarproject.briar.api.identity.AuthorManager;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
@@ -25,12 +40,44 @@ import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 
 @ThreadSafe
 @NotNullByDefault
-class AuthorManagerImpl implements AuthorManager {
+class AuthorManagerImpl implements AuthorManager, ContactHook,
+		ContactAliasHook, AvatarHook, EventListener {
+
+	/**
+	 * The maximum number of remote authors whose info is cached.
+	 */
+	private static final int MAX_CACHED_AUTHOR_INFOS = 1000;
 
 	private final DatabaseComponent db;
 	private final IdentityManager identityManager;
 	private final AvatarManager avatarManager;
 
+	private final Object lock = new Object();
+
+	/**
+	 * Recently used info for remote authors. Loading the headers of a forum,
+	 * blog or private group looks up the info of every distinct author, and
+	 * the same authors appear in many groups. The cache is cleared by the
+	 * transactions that add or remove contacts or change aliases or avatars,
+	 * and by the events they broadcast, which also cover verification.
+	 */
+	@GuardedBy("lock")
+	private final Map<AuthorId, AuthorInfo> authorInfos =
+			new LinkedHashMap<AuthorId, AuthorInfo>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Entry<AuthorId, AuthorInfo> eldest) {
+					return size() > MAX_CACHED_AUTHOR_INFOS;
+				}
+			};
+
+	/**
+	 * Incremented whenever the cache is cleared, so info that was loaded
+	 * before a change isn't cached after it.
+	 */
+	@GuardedBy("lock")
+	private long generation = 0;
+
 	@Inject
 	AuthorManagerImpl(DatabaseComponent db, IdentityManager identityManager,
 			AvatarManager avatarManager) {
@@ -49,6 +96,25 @@ class AuthorManagerImpl implements AuthorManager {
 			throws DbException {
 		LocalAuthor localAuthor = identityManager.getLocalAuthor(txn);
 		if (localAuthor.getId().equals(authorId)) return getMyAuthorInfo(txn);
+		// A read-write transaction may see changes that haven't been
+		// committed, so only read-only transactions use the cache
+		if (!txn.isReadOnly()) return loadAuthorInfo(txn, authorId);
+		long loadedGeneration;
+		synchronized (lock) {
+			AuthorInfo cached = authorInfos.get(authorId);
+			if (cached != null) return cached;
+			loadedGeneration = generation;
+		}
+		AuthorInfo authorInfo = loadAuthorInfo(txn, authorId);
+		synchronized (lock) {
+			if (generation == loadedGeneration)
+				authorInfos.put(authorId, authorInfo);
+		}
+		return authorInfo;
+	}
+
+	private AuthorInfo loadAuthorInfo(Transaction txn, AuthorId authorId)
+			throws DbException {
 		Collection<Contact> contacts = db.getContactsByAuthorId(txn, authorId);
 		if (contacts.isEmpty()) return new AuthorInfo(UNKNOWN);
 		if (contacts.size() > 1) throw new AssertionError();
@@ -81,4 +147,54 @@ class AuthorManagerImpl implements AuthorManager {
 		return new AuthorInfo(OURSELVES, null, avatar);
 	}
 
+	@Override
+	public void addingContact(Transaction txn, Contact c) {
+		clearCache(txn);
+	}
+
+	@Override
+	public void removingContact(Transaction txn, Contact c) {
+		clearCache(txn);
+	}
+
+	@Override
+	public void changingContactAlias(Transaction txn, ContactId c) {
+		clearCache(txn);
+	}
+
+	@Override
+	public void updatingAvatar(Transaction txn, ContactId c) {
+		clearCache(txn);
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		// The events are delivered after the changes are committed, so they
+		// only catch changes made without calling the hooks
+		if (e instanceof ContactAddedEvent ||
+				e instanceof ContactRemovedEvent ||
+				e instanceof ContactVerifiedEvent ||
+				e instanceof ContactAliasChangedEvent ||
+				e instanceof AvatarUpdatedEvent) {
+			clearCache();
+		}
+	}
+
+	/**
+	 * Clears the cache while the given transaction holds the write lock, so
+	 * no read-only transaction can see the cached info once the change is
+	 * committed, and again when the transaction commits, in case any info
+	 * from before the change was cached in the meantime.
+	 */
+	private void clearCache(Transaction txn) {
+		clearCache();
+		txn.attach(this::clearCache);
+	}
+
+	private void clearCache() {
+		synchronized (lock) {
+			authorInfos.clear();
+			generation++;
+		}
+	}
 }
@@ -1,5 +1,8 @@
 package org.briarproject.briar.identity;
 
+import org.briarproject.bramble.api.contact.ContactManager;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.briar.api.avatar.AvatarManager;
 import org.briarproject.briar.api.identity.AuthorManager;
 
 import javax.inject.Inject;
@@ -18,7 +21,13 @@ public class IdentityModule {
 
 	@Provides
 	@Singleton
-	AuthorManager provideAuthorManager(AuthorManagerImpl authorManager) {
+	AuthorManager provideAuthorManager(EventBus eventBus,
+			ContactManager contactManager, AvatarManager avatarManager,
+			AuthorManagerImpl authorManager) {
+		contactManager.registerContactHook(authorManager);
+		contactManager.registerContactAliasHook(authorManager);
+		avatarManager.registerAvatarHook(authorManager);
+		eventBus.addListener(authorManager);
 		return authorManager;
 	}
 
@@ -60,12 +60,15 @@ import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.D
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
 import static org.briarproject.briar.api.introduction.Role.INTRODUCEE;
 import static org.briarproject.briar.api.introduction.Role.INTRODUCER;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.briarproject.briar.introduction.IntroduceeState.AWAIT_RESPONSES;
 import static org.briarproject.briar.introduction.IntroduceeState.REMOTE_ACCEPTED;
 import static org.briarproject.briar.introduction.IntroduceeState.REMOTE_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.A_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.B_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.START;
+import static org.briarproject.briar.introduction.IntroductionConstants.MSG_KEY_VISIBLE_IN_UI;
+import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.introduction.MessageType.ABORT;
 import static org.briarproject.briar.introduction.MessageType.ACCEPT;
 import static org.briarproject.briar.introduction.MessageType.ACTIVATE;
@@ -128,6 +131,13 @@ class IntroductionManagerImpl extends ConversationClientImpl
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Index the metadata keys used for finding sessions and counting
+		// messages
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+				SESSION_KEY_SESSION_ID);
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+				MSG_KEY_VISIBLE_IN_UI);
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION, MSG_KEY_READ);
 		// Create a local group to store protocol sessions
 		if (db.containsGroup(txn, localGroup.getId())) return;
 		db.addGroup(txn, localGroup);
@@ -799,26 +809,15 @@ class IntroductionManagerImpl extends ConversationClientImpl
 	private void recalculateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
 		BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
-		Map<MessageId, BdfDictionary> results;
 		try {
-			results =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query);
+			int msgCount = clientHelper.countMessages(txn, g, query);
+			BdfDictionary unreadQuery = new BdfDictionary(query);
+			unreadQuery.put(MSG_KEY_READ, false);
+			int unreadCount = clientHelper.countMessages(txn, g, unreadQuery);
+			messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
-		int msgCount = 0;
-		int unreadCount = 0;
-		for (Entry<MessageId, BdfDictionary> entry : results.entrySet()) {
-			MessageMetadata meta;
-			try {
-				meta = messageParser.parseMetadata(entry.getValue());
-			} catch (FormatException e) {
-				throw new DbException(e);
-			}
-			msgCount++;
-			if (!meta.isRead()) unreadCount++;
-		}
-		messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 	}
 
 	private static class StoredSession {
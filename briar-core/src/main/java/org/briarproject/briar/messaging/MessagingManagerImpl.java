@@ -57,6 +57,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -133,6 +134,10 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Index the metadata keys used for finding and counting messages
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+				MSG_KEY_MSG_TYPE);
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION, MSG_KEY_READ);
 		// Create a local group to indicate that we've set this client up
 		Group localGroup = contactGroupFactory.createLocalGroup(CLIENT_ID,
 				MAJOR_VERSION);
@@ -415,29 +420,11 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		}
 		Collection<ConversationMessageHeader> headers = new ArrayList<>();
 		for (MessageStatus s : statuses) {
-			MessageId id = s.getMessageId();
-			BdfDictionary meta = metadata.get(id);
+			BdfDictionary meta = metadata.get(s.getMessageId());
 			if (meta == null) continue;
 			try {
-				// Message type is null for version 0.0 private messages
-				Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
-				if (messageType != null && messageType != PRIVATE_MESSAGE)
-					continue;
-				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
-				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
-				boolean read = meta.getBoolean(MSG_KEY_READ);
-				if (messageType == null) {
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), true,
-							emptyList(), NO_AUTO_DELETE_TIMER));
-				} else {
-					boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
-					long timer = meta.getLong(MSG_KEY_AUTO_DELETE_TIMER,
-							NO_AUTO_DELETE_TIMER);
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), hasText,
-							parseAttachmentHeaders(g, meta), timer));
-				}
+				PrivateMessageHeader h = getMessageHeader(g, s, meta);
+				if (h != null) headers.add(h);
 			} catch (FormatException e) {
 				throw new DbException(e);
 			}
@@ -445,6 +432,74 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		return headers;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long timestamp, @Nullable MessageId m, int limit)
+			throws DbException {
+		GroupId g = getContactGroup(db.getContact(txn, c)).getId();
+		List<ConversationMessageHeader> headers = new ArrayList<>();
+		try {
+			// Attachments are stored in the same group as private messages,
+			// so keep retrieving pages until we have enough private messages
+			while (true) {
+				Map<MessageId, Long> page =
+						db.getMessageIdsBefore(txn, g, timestamp, m, limit);
+				if (page.isEmpty()) return headers;
+				// Load the metadata and statuses for the whole page at once
+				Map<MessageId, BdfDictionary> metadata = clientHelper
+						.getMessageMetadataAsDictionary(txn, page.keySet());
+				Map<MessageId, MessageStatus> statuses =
+						db.getMessageStatus(txn, c, page.keySet());
+				for (Entry<MessageId, Long> e : page.entrySet()) {
+					// Move the cursor past every message, including any
+					// that don't produce a header
+					m = e.getKey();
+					timestamp = e.getValue();
+					BdfDictionary meta = metadata.get(m);
+					if (meta == null || meta.isEmpty()) continue;
+					MessageStatus s = statuses.get(m);
+					if (s == null) continue;
+					PrivateMessageHeader h = getMessageHeader(g, s, meta);
+					if (h != null) {
+						headers.add(h);
+						if (headers.size() == limit) return headers;
+					}
+				}
+				if (page.size() < limit) return headers;
+			}
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns a header for the given message, or null if the message is not
+	 * a private message.
+	 */
+	@Nullable
+	private PrivateMessageHeader getMessageHeader(GroupId g, MessageStatus s,
+			BdfDictionary meta) throws FormatException {
+		MessageId id = s.getMessageId();
+		// Message type is null for version 0.0 private messages
+		Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
+		if (messageType != null && messageType != PRIVATE_MESSAGE)
+			return null;
+		long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+		boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+		boolean read = meta.getBoolean(MSG_KEY_READ);
+		if (messageType == null) {
+			return new PrivateMessageHeader(id, g, timestamp, local, read,
+					s.isSent(), s.isSeen(), true, emptyList(),
+					NO_AUTO_DELETE_TIMER);
+		}
+		boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
+		long timer = meta.getLong(MSG_KEY_AUTO_DELETE_TIMER,
+				NO_AUTO_DELETE_TIMER);
+		return new PrivateMessageHeader(id, g, timestamp, local, read,
+				s.isSent(), s.isSeen(), hasText,
+				parseAttachmentHeaders(g, meta), timer);
+	}
+
 	@Override
 	public Set<MessageId> getMessageIds(Transaction txn, ContactId c)
 			throws DbException {
@@ -542,22 +597,9 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 
 	private void recalculateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
-		try {
-			Map<MessageId, BdfDictionary> metadata =
-					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			int msgCount = 0;
-			int unreadCount = 0;
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
-				if (messageType == null || messageType == PRIVATE_MESSAGE) {
-					msgCount++;
-					if (!meta.getBoolean(MSG_KEY_READ)) unreadCount++;
-				}
-			}
-			messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
-		} catch (FormatException e) {
-			throw new DbException(e);
-		}
+		// Private messages have a read flag, attachments don't
+		int msgCount = db.countMessages(txn, g, MSG_KEY_READ, 0, 1);
+		int unreadCount = db.countMessages(txn, g, MSG_KEY_READ, 0, 0);
+		messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 	}
 }
@@ -56,7 +56,10 @@ import javax.inject.Inject;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.START;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.MSG_KEY_VISIBLE_IN_UI;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -108,6 +111,13 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Index the metadata keys used for finding sessions and counting
+		// messages
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+				SESSION_KEY_SESSION_ID);
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+				MSG_KEY_VISIBLE_IN_UI);
+		db.addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION, MSG_KEY_READ);
 		// Create a local group to indicate that we've set this client up
 		Group localGroup = contactGroupFactory.createLocalGroup(CLIENT_ID,
 				MAJOR_VERSION);
@@ -843,26 +853,15 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 	private void recalculateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
 		BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
-		Map<MessageId, BdfDictionary> results;
 		try {
-			results =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query);
+			int msgCount = clientHelper.countMessages(txn, g, query);
+			BdfDictionary unreadQuery = new BdfDictionary(query);
+			unreadQuery.put(MSG_KEY_READ, false);
+			int unreadCount = clientHelper.countMessages(txn, g, unreadQuery);
+			messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
-		int msgCount = 0;
-		int unreadCount = 0;
-		for (Entry<MessageId, BdfDictionary> entry : results.entrySet()) {
-			MessageMetadata meta;
-			try {
-				meta = messageParser.parseMetadata(entry.getValue());
-			} catch (FormatException e) {
-				throw new DbException(e);
-			}
-			msgCount++;
-			if (!meta.isRead()) unreadCount++;
-		}
-		messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 	}
 
 	private static class StoredSession {
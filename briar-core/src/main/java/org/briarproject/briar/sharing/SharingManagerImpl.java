@@ -56,6 +56,9 @@ import static org.briarproject.briar.sharing.MessageType.ACCEPT;
 import static org.briarproject.briar.sharing.MessageType.DECLINE;
 import static org.briarproject.briar.sharing.MessageType.INVITE;
 import static org.briarproject.briar.sharing.MessageType.LEAVE;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_READ;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_VISIBLE_IN_UI;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.sharing.State.LOCAL_INVITED;
 import static org.briarproject.briar.sharing.State.SHARING;
 
@@ -100,6 +103,14 @@ abstract class SharingManagerImpl<S extends Shareable>
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
+		// Index the metadata keys used for finding sessions and counting
+		// messages
+		db.addIndexedMetadataKey(txn, getClientId(), getMajorVersion(),
+				SESSION_KEY_SESSION_ID);
+		db.addIndexedMetadataKey(txn, getClientId(), getMajorVersion(),
+				MSG_KEY_VISIBLE_IN_UI);
+		db.addIndexedMetadataKey(txn, getClientId(), getMajorVersion(),
+				MSG_KEY_READ);
 		// Create a local group to indicate that we've set this client up
 		Group localGroup = contactGroupFactory.createLocalGroup(getClientId(),
 				getMajorVersion());
@@ -763,26 +774,15 @@ abstract class SharingManagerImpl<S extends Shareable>
 	private void recalculateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
 		BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
-		Map<MessageId, BdfDictionary> results;
 		try {
-			results =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query);
+			int msgCount = clientHelper.countMessages(txn, g, query);
+			BdfDictionary unreadQuery = new BdfDictionary(query);
+			unreadQuery.put(MSG_KEY_READ, false);
+			int unreadCount = clientHelper.countMessages(txn, g, unreadQuery);
+			messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
-		int msgCount = 0;
-		int unreadCount = 0;
-		for (Entry<MessageId, BdfDictionary> entry : results.entrySet()) {
-			MessageMetadata meta;
-			try {
-				meta = messageParser.parseMetadata(entry.getValue());
-			} catch (FormatException e) {
-				throw new DbException(e);
-			}
-			msgCount++;
-			if (!meta.isRead()) unreadCount++;
-		}
-		messageTracker.resetGroupCount(txn, g, msgCount, unreadCount);
 	}
 
 	private static class StoredSession {
@@ -28,6 +28,7 @@ import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
+import org.briarproject.briar.api.avatar.AvatarManager.AvatarHook;
 import org.briarproject.briar.api.avatar.AvatarMessageEncoder;
 import org.briarproject.briar.api.avatar.event.AvatarUpdatedEvent;
 import org.jmock.Expectations;
@@ -219,6 +220,7 @@ public class AvatarManagerImplTest extends BrambleMockTestCase {
 				new BdfEntry(MSG_KEY_VERSION, 0),
 				new BdfEntry(MSG_KEY_CONTENT_TYPE, contentType)
 		);
+		AvatarHook hook = context.mock(AvatarHook.class);
 
 		expectGetOurGroup(txn);
 		context.checking(new Expectations() {{
@@ -227,10 +229,13 @@ public class AvatarManagerImplTest extends BrambleMockTestCase {
 			// delete old "latest" message
 			oneOf(db).deleteMessage(txn, latestMsgId);
 			oneOf(db).deleteMessageMetadata(txn, latestMsgId);
+			// call the hook
+			oneOf(hook).updatingAvatar(txn, contact.getId());
 		}});
 		expectFindLatest(txn, contactGroupId, latestMsgId, latest);
 		expectGetContactId(txn, contactGroupId, contact.getId());
 
+		avatarManager.registerAvatarHook(hook);
 		assertEquals(ACCEPT_DO_NOT_SHARE,
 				avatarManager.incomingMessage(txn, contactMsg, meta));
 
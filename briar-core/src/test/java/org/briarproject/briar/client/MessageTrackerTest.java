@@ -4,16 +4,22 @@ import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.jmock.Expectations;
 import org.junit.Test;
 
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
@@ -71,4 +77,91 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 		assertEquals(messageId, loadedId);
 	}
 
+	@Test
+	public void testGroupCountIsCachedForReadOnlyTransactions()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		BdfDictionary groupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 2),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 1),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 123L)
+		);
+		context.checking(new Expectations() {{
+			// The group metadata should only be read once
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(groupMeta));
+		}});
+		assertGroupCount(messageTracker.getGroupCount(txn, groupId), 2, 1,
+				123);
+		assertGroupCount(messageTracker.getGroupCount(txn1, groupId), 2, 1,
+				123);
+	}
+
+	@Test
+	public void testCachedGroupCountIsUpdatedWhenTransactionCommits()
+			throws Exception {
+		Transaction readTxn = new Transaction(null, true);
+		Transaction writeTxn = new Transaction(null, false);
+		Transaction readTxn1 = new Transaction(null, true);
+		BdfDictionary groupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 2),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 1),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 123L)
+		);
+		BdfDictionary updatedMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 3),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 2),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 456L)
+		);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(readTxn, groupId);
+			will(returnValue(groupMeta));
+			// The write transaction should read the group metadata
+			oneOf(clientHelper).getGroupMetadataAsDictionary(writeTxn,
+					groupId);
+			will(returnValue(groupMeta));
+			oneOf(clientHelper).mergeGroupMetadata(writeTxn, groupId,
+					updatedMeta);
+		}});
+		messageTracker.getGroupCount(readTxn, groupId);
+		messageTracker.trackMessage(writeTxn, groupId, 456L, false);
+		// When the write transaction commits, the cache should be updated
+		assertEquals(1, writeTxn.getActions().size());
+		((TaskAction) writeTxn.getActions().get(0)).getTask().run();
+		assertGroupCount(messageTracker.getGroupCount(readTxn1, groupId), 3,
+				2, 456);
+	}
+
+	@Test
+	public void testCachedGroupCountIsRemovedWhenGroupIsRemoved()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Group group = getGroup(getClientId(), 123);
+		GroupId groupId = group.getId();
+		BdfDictionary groupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 2),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 1),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 123L)
+		);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(groupMeta));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn1, groupId);
+			will(returnValue(groupMeta));
+		}});
+		messageTracker.getGroupCount(txn, groupId);
+		((MessageTrackerImpl) messageTracker).eventOccurred(
+				new GroupRemovedEvent(group));
+		messageTracker.getGroupCount(txn1, groupId);
+	}
+
+	private void assertGroupCount(GroupCount c, int msgCount, int unreadCount,
+			long latestMsgTime) {
+		assertEquals(msgCount, c.getMsgCount());
+		assertEquals(unreadCount, c.getUnreadCount());
+		assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
+
 }
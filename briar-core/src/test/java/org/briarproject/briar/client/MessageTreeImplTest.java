@@ -6,8 +6,10 @@ import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTree;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -59,6 +61,63 @@ public class MessageTreeImplTest {
 		assertEquals(nodes[3], sortedNodes[4]);
 	}
 
+	@Test
+	public void testAddAndGetPosition() {
+		tree = new MessageTreeImpl<>();
+		TestNode[] nodes = new TestNode[5];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new TestNode();
+		}
+		/*
+		Add nodes to build the following tree:
+		0 ->
+		   2
+		   4 ->
+		       3
+		1
+		 */
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].setTimestamp(timestamp + i);
+		}
+		nodes[2].setParentId(nodes[0].getId());
+		nodes[4].setParentId(nodes[0].getId());
+		nodes[4].setTimestamp(timestamp + 2);
+		nodes[3].setParentId(nodes[4].getId());
+		assertEquals(0, tree.addAndGetPosition(nodes[0]));
+		assertEquals(0, nodes[0].getLevel());
+		assertEquals(1, tree.addAndGetPosition(nodes[1]));
+		assertEquals(1, tree.addAndGetPosition(nodes[2]));
+		assertEquals(1, nodes[2].getLevel());
+		// Same timestamp as node 2, so it goes after node 2
+		assertEquals(2, tree.addAndGetPosition(nodes[4]));
+		assertEquals(1, nodes[4].getLevel());
+		assertEquals(3, tree.addAndGetPosition(nodes[3]));
+		assertEquals(2, nodes[3].getLevel());
+		assertEquals(Arrays.asList(nodes[0], nodes[2], nodes[4], nodes[3],
+				nodes[1]), tree.depthFirstOrder());
+	}
+
+	@Test
+	public void testLongReplyChain() {
+		tree = new MessageTreeImpl<>();
+		int length = 100_000;
+		List<TestNode> nodes = new ArrayList<>(length);
+		TestNode parent = null;
+		for (int i = 0; i < length; i++) {
+			TestNode node = new TestNode();
+			if (parent != null) node.setParentId(parent.getId());
+			nodes.add(node);
+			parent = node;
+		}
+		// Add the replies before the nodes they reply to
+		List<TestNode> reversed = new ArrayList<>(nodes);
+		Collections.reverse(reversed);
+		tree.add(reversed);
+		assertEquals(nodes, tree.depthFirstOrder());
+		assertEquals(length - 1, nodes.get(length - 1).getLevel());
+	}
+
 	@NotNullByDefault
 	private class TestNode implements MessageTree.MessageNode {
 
@@ -66,6 +125,7 @@ public class MessageTreeImplTest {
 		@Nullable
 		private MessageId parentId;
 		private long timestamp;
+		private int level = -1;
 
 		@Override
 		public MessageId getId() {
@@ -80,7 +140,11 @@ public class MessageTreeImplTest {
 
 		@Override
 		public void setLevel(int level) {
+			this.level = level;
+		}
 
+		private int getLevel() {
+			return level;
 		}
 
 		@Override
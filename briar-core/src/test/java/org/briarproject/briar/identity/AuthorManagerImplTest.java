@@ -1,8 +1,10 @@
 package org.briarproject.briar.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -22,6 +24,7 @@ import java.util.Collection;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
 import static org.briarproject.bramble.test.TestUtils.getContact;
 import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
@@ -34,6 +37,7 @@ import static org.briarproject.briar.api.identity.AuthorInfo.Status.UNVERIFIED;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class AuthorManagerImplTest extends BrambleMockTestCase {
 
@@ -104,6 +108,97 @@ public class AuthorManagerImplTest extends BrambleMockTestCase {
 		assertEquals(avatarHeader, authorInfo.getAvatarHeader());
 	}
 
+	@Test
+	public void testGetAuthorInfoIsCachedUntilContactChanges()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, true);
+
+		// The info is loaded by the first transaction
+		checkAuthorInfoContext(txn, remote.getId(), singletonList(contact));
+		context.checking(new DbExpectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(avatarHeader));
+		}});
+		AuthorInfo authorInfo =
+				authorManager.getAuthorInfo(txn, remote.getId());
+		assertEquals(UNVERIFIED, authorInfo.getStatus());
+
+		// The second transaction uses the cached info
+		context.checking(new Expectations() {{
+			oneOf(identityManager).getLocalAuthor(txn1);
+			will(returnValue(localAuthor));
+		}});
+		assertSame(authorInfo,
+				authorManager.getAuthorInfo(txn1, remote.getId()));
+
+		// Verifying the contact clears the cache
+		authorManager.eventOccurred(
+				new ContactVerifiedEvent(contact.getId()));
+		Contact verified = getContact(remote, local, true);
+		checkAuthorInfoContext(txn2, remote.getId(), singletonList(verified));
+		context.checking(new DbExpectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn2, verified);
+			will(returnValue(avatarHeader));
+		}});
+		authorInfo = authorManager.getAuthorInfo(txn2, remote.getId());
+		assertEquals(VERIFIED, authorInfo.getStatus());
+	}
+
+	@Test
+	public void testGetAuthorInfoIsNotCachedAfterAliasChanges()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+
+		// The info is loaded by the first transaction
+		checkAuthorInfoContext(txn, remote.getId(), singletonList(contact));
+		context.checking(new DbExpectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(avatarHeader));
+		}});
+		assertNull(authorManager.getAuthorInfo(txn, remote.getId())
+				.getAlias());
+
+		// Changing the alias clears the cache before the change is
+		// committed, and attaches a task to clear it again after the commit
+		authorManager.changingContactAlias(txn1, contact.getId());
+		assertEquals(1, txn1.getActions().size());
+		TaskAction action = (TaskAction) txn1.getActions().get(0);
+
+		// The next transaction loads the new alias
+		String alias = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+		Contact aliased = new Contact(contact.getId(), remote, local, alias,
+				null, verified);
+		checkAuthorInfoContext(txn2, remote.getId(), singletonList(aliased));
+		context.checking(new DbExpectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn2, aliased);
+			will(returnValue(avatarHeader));
+		}});
+		assertEquals(alias,
+				authorManager.getAuthorInfo(txn2, remote.getId()).getAlias());
+
+		// Running the attached task clears the cache again
+		action.getTask().run();
+	}
+
+	@Test
+	public void testGetAuthorInfoIsNotCachedForReadWriteTransaction()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, true);
+
+		checkAuthorInfoContext(txn, remote.getId(), emptyList());
+		assertEquals(UNKNOWN,
+				authorManager.getAuthorInfo(txn, remote.getId()).getStatus());
+
+		checkAuthorInfoContext(txn1, remote.getId(), emptyList());
+		assertEquals(UNKNOWN,
+				authorManager.getAuthorInfo(txn1, remote.getId()).getStatus());
+	}
+
 	@Test
 	public void testGetAuthorInfoOurselves() throws DbException {
 		Transaction txn = new Transaction(null, true);
@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
+import org.briarproject.briar.api.conversation.ConversationManager;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.messaging.MessagingManager;
 import org.briarproject.briar.api.messaging.PrivateMessage;
@@ -153,6 +154,52 @@ public class MessagingManagerIntegrationTest
 		assertGroupCounts(c1, 1, 1);
 	}
 
+	@Test
+	public void testPaginatedMessageHeaders() throws Exception {
+		GroupId g = messagingManager0.getConversationId(contactId);
+		// Add two messages with the same timestamp and an older message
+		// with an attachment
+		PrivateMessage m0 = addLocalMessage(g, 1000, emptyList());
+		PrivateMessage m1 = addLocalMessage(g, 1000, emptyList());
+		AttachmentHeader h = messagingManager0.addLocalAttachment(g, 999,
+				"image/jpeg", new ByteArrayInputStream(getRandomBytes(42)));
+		PrivateMessage m2 = addLocalMessage(g, 999, singletonList(h));
+
+		// Messages with the same timestamp are ordered by ID
+		MessageId first = m0.getMessage().getId();
+		MessageId second = m1.getMessage().getId();
+		if (first.compareTo(second) < 0) {
+			first = m1.getMessage().getId();
+			second = m0.getMessage().getId();
+		}
+
+		// The limit may fall among messages with the same timestamp
+		ConversationManager conversationManager0 =
+				c0.getConversationManager();
+		List<ConversationMessageHeader> page =
+				conversationManager0.getMessageHeaders(contactId,
+						Long.MAX_VALUE, null, 1);
+		assertEquals(1, page.size());
+		assertEquals(first, page.get(0).getId());
+
+		// The next page should continue from the last message returned
+		page = conversationManager0.getMessageHeaders(contactId, 1000, first,
+				1);
+		assertEquals(1, page.size());
+		assertEquals(second, page.get(0).getId());
+
+		// The attachment should be skipped when retrieving the next page
+		page = conversationManager0.getMessageHeaders(contactId, 1000, second,
+				1);
+		assertEquals(1, page.size());
+		assertEquals(m2.getMessage().getId(), page.get(0).getId());
+
+		// There are no more pages
+		page = conversationManager0.getMessageHeaders(contactId, 999,
+				m2.getMessage().getId(), 1);
+		assertTrue(page.isEmpty());
+	}
+
 	@Test
 	public void testAutoDeleteTimer() throws Exception {
 		// send message with auto-delete timer
@@ -337,6 +384,14 @@ public class MessagingManagerIntegrationTest
 		return m;
 	}
 
+	private PrivateMessage addLocalMessage(GroupId g, long timestamp,
+			List<AttachmentHeader> attachments) throws Exception {
+		PrivateMessage m = messageFactory.createPrivateMessage(g, timestamp,
+				getRandomString(42), attachments, NO_AUTO_DELETE_TIMER);
+		messagingManager0.addLocalMessage(m);
+		return m;
+	}
+
 	private AttachmentHeader addAttachment(BriarIntegrationTestComponent c)
 			throws Exception {
 		GroupId g = c.getMessagingManager().getConversationId(contactId);
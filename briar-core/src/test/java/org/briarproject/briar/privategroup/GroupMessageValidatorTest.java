@@ -2,16 +2,19 @@ package org.briarproject.briar.privategroup;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.PredicateMatcher;
 import org.briarproject.bramble.test.ValidatorTestCase;
 import org.briarproject.briar.api.privategroup.MessageType;
 import org.briarproject.briar.api.privategroup.PrivateGroup;
 import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
 import org.briarproject.briar.api.privategroup.invitation.GroupInvitationFactory;
+import org.hamcrest.Matcher;
 import org.jmock.Expectations;
 import org.junit.Test;
 
@@ -19,6 +22,7 @@ import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
@@ -390,11 +394,15 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				creatorList,
 				null
 		);
+		byte[] signedBytes = getRandomBytes(123);
 		expectParseAuthor(creatorList, creator);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).verifySignature(memberSignature,
-					SIGNING_LABEL_JOIN, signed, creator.getPublicKey());
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
+			oneOf(clientHelper).verifySignatures(with(batchMatcher(
+					new SignedData(memberSignature, SIGNING_LABEL_JOIN,
+							signedBytes, creator.getPublicKey()))));
 			if (!memberSigValid)
 				will(throwException(new GeneralSecurityException()));
 		}});
@@ -408,25 +416,47 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				memberList,
 				invite
 		);
+		byte[] tokenBytes = getRandomBytes(123);
+		byte[] signedBytes = getRandomBytes(123);
 		expectParseAuthor(memberList, member);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
 			oneOf(groupInvitationFactory).createInviteToken(creator.getId(),
 					member.getId(), privateGroup.getId(), inviteTimestamp);
 			will(returnValue(token));
-			oneOf(clientHelper).verifySignature(creatorSignature,
-					SIGNING_LABEL_INVITE, token, creator.getPublicKey());
-			if (!creatorSigValid) {
+			oneOf(clientHelper).toByteArray(token);
+			will(returnValue(tokenBytes));
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
+			// Both signatures are verified as one batch
+			oneOf(clientHelper).verifySignatures(with(batchMatcher(
+					new SignedData(creatorSignature, SIGNING_LABEL_INVITE,
+							tokenBytes, creator.getPublicKey()),
+					new SignedData(memberSignature, SIGNING_LABEL_JOIN,
+							signedBytes, member.getPublicKey()))));
+			if (!creatorSigValid || !memberSigValid)
 				will(throwException(new GeneralSecurityException()));
-			} else {
-				oneOf(clientHelper).verifySignature(memberSignature,
-						SIGNING_LABEL_JOIN, signed, member.getPublicKey());
-				if (!memberSigValid)
-					will(throwException(new GeneralSecurityException()));
-			}
 		}});
 	}
 
+	@SuppressWarnings("unchecked")
+	private Matcher<List<SignedData>> batchMatcher(SignedData... expected) {
+		return new PredicateMatcher<List<SignedData>>(
+				(Class<List<SignedData>>) (Class<?>) List.class, batch -> {
+			if (batch.size() != expected.length) return false;
+			for (int i = 0; i < expected.length; i++) {
+				SignedData a = batch.get(i), b = expected[i];
+				if (!Arrays.equals(a.getSignature(), b.getSignature()))
+					return false;
+				if (!a.getLabel().equals(b.getLabel())) return false;
+				if (!Arrays.equals(a.getSigned(), b.getSigned()))
+					return false;
+				if (a.getPublicKey() != b.getPublicKey()) return false;
+			}
+			return true;
+		});
+	}
+
 	// POST Message
 
 	@Test(expected = FormatException.class)
@@ -60,6 +60,9 @@ import static org.briarproject.briar.api.privategroup.PrivateGroupConstants.GROU
 import static org.briarproject.briar.api.privategroup.PrivateGroupConstants.MAX_GROUP_NAME_LENGTH;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.CLIENT_ID;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.MAJOR_VERSION;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.MSG_KEY_VISIBLE_IN_UI;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -152,6 +155,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testDatabaseOpenHookFirstTime() throws Exception {
+		expectAddingIndexedMetadataKeys();
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
 					MAJOR_VERSION);
@@ -168,6 +172,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testOpenDatabaseHookSubsequentTime() throws Exception {
+		expectAddingIndexedMetadataKeys();
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
 					MAJOR_VERSION);
@@ -178,6 +183,17 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		groupInvitationManager.onDatabaseOpened(txn);
 	}
 
+	private void expectAddingIndexedMetadataKeys() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					SESSION_KEY_SESSION_ID);
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					MSG_KEY_VISIBLE_IN_UI);
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					MSG_KEY_READ);
+		}});
+	}
+
 	private void expectAddingContact(Contact c) throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
@@ -40,6 +40,9 @@ import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.briar.api.blog.BlogSharingManager.CLIENT_ID;
 import static org.briarproject.briar.api.blog.BlogSharingManager.MAJOR_VERSION;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_READ;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_VISIBLE_IN_UI;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 
 public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 
@@ -96,6 +99,7 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 			throws Exception {
 		Transaction txn = new Transaction(null, false);
 
+		expectAddingIndexedMetadataKeys(txn);
 		context.checking(new Expectations() {{
 			// The local group doesn't exist - we need to set things up
 			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
@@ -114,6 +118,18 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 		blogSharingManager.onDatabaseOpened(txn);
 	}
 
+	private void expectAddingIndexedMetadataKeys(Transaction txn)
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					SESSION_KEY_SESSION_ID);
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					MSG_KEY_VISIBLE_IN_UI);
+			oneOf(db).addIndexedMetadataKey(txn, CLIENT_ID, MAJOR_VERSION,
+					MSG_KEY_READ);
+		}});
+	}
+
 	private void expectAddingContact(Transaction txn) throws Exception {
 		Map<MessageId, BdfDictionary> sessions = Collections.emptyMap();
 
@@ -148,6 +164,7 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 	public void testOpenDatabaseHookSubsequentTime() throws Exception {
 		Transaction txn = new Transaction(null, false);
 
+		expectAddingIndexedMetadataKeys(txn);
 		context.checking(new Expectations() {{
 			// The local group exists - everything has been set up
 			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
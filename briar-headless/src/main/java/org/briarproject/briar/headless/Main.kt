@@ -8,6 +8,8 @@ import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.types.int
 import org.bouncycastle.util.encoders.Base64.toBase64String
 import org.briarproject.bramble.BrambleCoreEagerSingletons
+import org.briarproject.bramble.lifecycle.LifecycleModule
+import org.briarproject.bramble.lifecycle.VirtualThreadFactory
 import org.briarproject.briar.BriarCoreEagerSingletons
 import org.slf4j.impl.SimpleLogger.DEFAULT_LOG_LEVEL_KEY
 import java.io.File
@@ -25,10 +27,13 @@ import java.util.logging.Level.ALL
 import java.util.logging.Level.INFO
 import java.util.logging.Level.WARNING
 import java.util.logging.LogManager
+import java.util.logging.Logger.getLogger
 
 private const val DEFAULT_PORT = 7000
 private val DEFAULT_DATA_DIR = getProperty("user.home") + separator + ".briar"
 
+private val LOG = getLogger(Main::class.java.name)
+
 private class Main : CliktCommand(
     name = "briar-headless",
     help = "A Briar peer without GUI that exposes a REST and Websocket API"
@@ -53,6 +58,10 @@ private class Main : CliktCommand(
         metavar = "PATH",
         envvar = "BRIAR_DATA_DIR"
     ).default(DEFAULT_DATA_DIR)
+    private val virtualThreads by option(
+        "--virtual-threads",
+        help = "Run connections on virtual threads (requires Java 21 or later)"
+    ).flag(default = false)
 
     override fun run() {
         // logging
@@ -70,8 +79,16 @@ private class Main : CliktCommand(
         LogManager.getLogManager().getLogger("").level = level
 
         val dataDir = getDataDir()
-        val app =
-            DaggerBriarHeadlessApp.builder().headlessModule(HeadlessModule(dataDir)).build()
+        val builder = DaggerBriarHeadlessApp.builder().headlessModule(HeadlessModule(dataDir))
+        if (virtualThreads) {
+            val threadFactory = VirtualThreadFactory.create("IoExecutor-")
+            if (threadFactory == null) {
+                LOG.warning("Virtual threads are not supported, using platform threads")
+            } else {
+                builder.lifecycleModule(LifecycleModule(threadFactory))
+            }
+        }
+        val app = builder.build()
         // We need to load the eager singletons directly after making the
         // dependency graphs
         BrambleCoreEagerSingletons.Helper.injectEagerSingletons(app)
@@ -55,6 +55,14 @@ constructor(
     private val connectionRegistry: ConnectionRegistry
 ) : ContactController, EventListener {
 
+    /**
+     * Returns true if the controller handles the given type of event.
+     */
+    internal fun isRelevant(e: Event) = e is ContactAddedEvent ||
+            e is PendingContactStateChangedEvent || e is PendingContactAddedEvent ||
+            e is PendingContactRemovedEvent || e is ContactConnectedEvent ||
+            e is ContactDisconnectedEvent
+
     override fun eventOccurred(e: Event) = when (e) {
         is ContactAddedEvent -> {
             webSocket.sendEvent(EVENT_CONTACT_ADDED, e.output())
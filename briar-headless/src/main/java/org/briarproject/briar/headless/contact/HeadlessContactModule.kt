@@ -14,7 +14,7 @@ class HeadlessContactModule {
         eventBus: EventBus,
         contactController: ContactControllerImpl
     ): ContactController {
-        eventBus.addListener(contactController)
+        eventBus.addListener(contactController) { e -> contactController.isRelevant(e) }
         return contactController
     }
 
@@ -8,10 +8,24 @@ import javax.annotation.concurrent.ThreadSafe
 @ThreadSafe
 interface WebSocketController {
 
-    val sessions: MutableSet<WsContext>
+    /**
+     * Starts sending events to the given session.
+     * If [batch] is true, the events are sent as JSON arrays,
+     * each containing the events that were queued during one flush interval.
+     * Otherwise each event is sent as a separate JSON object.
+     */
+    fun addSession(session: WsContext, batch: Boolean)
+
+    /**
+     * Stops sending events to the given session and discards any queued events.
+     */
+    fun removeSession(session: WsContext)
+
+    fun hasSession(session: WsContext): Boolean
 
     /**
-     * Sends an event to all open sessions using the [IoExecutor].
+     * Queues an event to be sent to all open sessions using the [IoExecutor].
+     * The event is serialised once, regardless of the number of sessions.
      */
     fun sendEvent(name: String, obj: JsonDict)
 
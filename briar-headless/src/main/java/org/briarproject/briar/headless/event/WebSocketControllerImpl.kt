@@ -3,39 +3,152 @@ package org.briarproject.briar.headless.event
 import io.javalin.plugin.json.JavalinJson.toJson
 import io.javalin.websocket.WsContext
 import org.briarproject.bramble.api.lifecycle.IoExecutor
+import org.briarproject.bramble.api.system.TaskScheduler
 import org.briarproject.bramble.util.LogUtils.logException
 import org.briarproject.briar.headless.json.JsonDict
 import org.eclipse.jetty.websocket.api.WebSocketException
 import java.io.IOException
+import java.util.ArrayDeque
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit.MILLISECONDS
 import java.util.logging.Level.WARNING
 import java.util.logging.Logger.getLogger
-import javax.annotation.concurrent.Immutable
+import javax.annotation.concurrent.GuardedBy
+import javax.annotation.concurrent.ThreadSafe
 import javax.inject.Inject
 import javax.inject.Singleton
 
-@Immutable
+/**
+ * The maximum number of events that may be queued for a session.
+ * If a session falls further behind, its queued events are discarded
+ * and it receives an [EVENT_EVENTS_DROPPED] event instead.
+ */
+internal const val MAX_QUEUED_EVENTS = 1000
+
+/**
+ * How long events are collected before being sent to a session
+ * that receives events in batches.
+ */
+internal const val FLUSH_INTERVAL_MS = 100L
+
+internal const val EVENT_EVENTS_DROPPED = "EventsDroppedEvent"
+
+@ThreadSafe
 @Singleton
 internal class WebSocketControllerImpl
 @Inject
-constructor(@IoExecutor private val ioExecutor: Executor) : WebSocketController {
+constructor(
+    @IoExecutor private val ioExecutor: Executor,
+    private val taskScheduler: TaskScheduler
+) : WebSocketController {
 
     private val logger = getLogger(WebSocketControllerImpl::javaClass.name)
 
-    override val sessions: MutableSet<WsContext> = ConcurrentHashMap.newKeySet<WsContext>()
+    private val sessions = ConcurrentHashMap<WsContext, SessionQueue>()
+
+    override fun addSession(session: WsContext, batch: Boolean) {
+        sessions.putIfAbsent(session, SessionQueue(session, batch))
+    }
+
+    override fun removeSession(session: WsContext) {
+        sessions.remove(session)?.close()
+    }
+
+    override fun hasSession(session: WsContext) = sessions.containsKey(session)
 
     override fun sendEvent(name: String, obj: JsonDict) {
         val event = toJson(OutputEvent(name, obj))
-        sessions.forEach { session ->
-            ioExecutor.execute {
-                try {
-                    session.send(event)
-                } catch (e: WebSocketException) {
-                    logException(logger, WARNING, e)
-                } catch (e: IOException) {
-                    logException(logger, WARNING, e)
+        sessions.values.forEach { queue -> queue.add(event) }
+    }
+
+    private inner class SessionQueue(
+        private val session: WsContext,
+        private val batch: Boolean
+    ) {
+
+        private val lock = Any()
+
+        @GuardedBy("lock")
+        private val events = ArrayDeque<String>()
+
+        @GuardedBy("lock")
+        private var dropped = 0
+
+        // True if a flush has been scheduled and hasn't finished
+        @GuardedBy("lock")
+        private var scheduled = false
+
+        @GuardedBy("lock")
+        private var closed = false
+
+        fun add(event: String) {
+            synchronized(lock) {
+                if (closed) return
+                if (events.size == MAX_QUEUED_EVENTS) {
+                    dropped += events.size
+                    events.clear()
                 }
+                events.add(event)
+                if (scheduled) return
+                scheduled = true
+            }
+            scheduleFlush()
+        }
+
+        fun close() {
+            synchronized(lock) {
+                closed = true
+                events.clear()
+            }
+        }
+
+        private fun scheduleFlush() {
+            if (batch) taskScheduler.schedule(this::flush, ioExecutor, FLUSH_INTERVAL_MS, MILLISECONDS)
+            else ioExecutor.execute(this::flush)
+        }
+
+        @IoExecutor
+        private fun flush() {
+            val payloads = ArrayList<String>()
+            synchronized(lock) {
+                if (dropped > 0) {
+                    logger.warning("Dropped $dropped events for ${session.session.remoteAddress}")
+                    payloads.add(toJson(OutputEvent(EVENT_EVENTS_DROPPED, JsonDict("dropped" to dropped))))
+                    dropped = 0
+                }
+                payloads.addAll(events)
+                events.clear()
+            }
+            if (batch) {
+                if (payloads.isNotEmpty()) send(payloads.joinToString(",", "[", "]"))
+            } else {
+                payloads.forEach { send(it) }
+            }
+            val reschedule = synchronized(lock) {
+                // Events that were queued while sending are sent by a new flush,
+                // so flushes for the same session don't overlap
+                if (events.isEmpty() && dropped == 0) scheduled = false
+                scheduled
+            }
+            if (reschedule) scheduleFlush()
+        }
+
+        private fun send(payload: String) {
+            try {
+                // Wait for the payload to be written, so a slow session's backlog
+                // stays in our bounded queue rather than in Jetty's
+                session.send(payload).get()
+            } catch (e: WebSocketException) {
+                logException(logger, WARNING, e)
+            } catch (e: IOException) {
+                logException(logger, WARNING, e)
+            } catch (e: ExecutionException) {
+                logException(logger, WARNING, e)
+            } catch (e: InterruptedException) {
+                logger.warning("Interrupted while sending event")
+                Thread.currentThread().interrupt()
             }
         }
     }
@@ -13,7 +13,7 @@ class HeadlessMessagingModule {
     internal fun provideMessagingController(
         eventBus: EventBus, messagingController: MessagingControllerImpl
     ): MessagingController {
-        eventBus.addListener(messagingController)
+        eventBus.addListener(messagingController) { e -> messagingController.isRelevant(e) }
         return messagingController
     }
 
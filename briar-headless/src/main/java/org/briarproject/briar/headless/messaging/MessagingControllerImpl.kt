@@ -47,6 +47,9 @@ internal const val EVENT_CONVERSATION_MESSAGE = "ConversationMessageReceivedEven
 internal const val EVENT_MESSAGES_ACKED = "MessagesAckedEvent"
 internal const val EVENT_MESSAGES_SENT = "MessagesSentEvent"
 
+internal const val DEFAULT_PAGE_SIZE = 100
+internal const val MAX_PAGE_SIZE = 1000
+
 @Immutable
 @Singleton
 internal class MessagingControllerImpl
@@ -65,12 +68,51 @@ constructor(
     override fun list(ctx: Context): Context {
         val contact = getContact(ctx)
         val jsonVisitor = JsonVisitor(contact.id, messagingManager)
-        val messages = conversationManager.getMessageHeaders(contact.id)
-            .sortedBy { it.timestamp }
-            .map { header -> header.accept(jsonVisitor) }
+        val before = ctx.queryParam("before")
+        val beforeId = ctx.queryParam("beforeId")
+        val limit = ctx.queryParam("limit")
+        val messages = if (before == null && beforeId == null && limit == null) {
+            conversationManager.getMessageHeaders(contact.id)
+                .sortedBy { it.timestamp }
+        } else {
+            if (beforeId != null && before == null)
+                throw BadRequestResponse("'beforeId' requires 'before'")
+            // Pages are returned newest first
+            conversationManager.getMessageHeaders(
+                contact.id,
+                if (before == null) Long.MAX_VALUE else parseBefore(before),
+                if (beforeId == null) null else parseBeforeId(beforeId),
+                if (limit == null) DEFAULT_PAGE_SIZE else parseLimit(limit)
+            ).asReversed()
+        }.map { header -> header.accept(jsonVisitor) }
         return ctx.json(messages)
     }
 
+    private fun parseBefore(before: String): Long {
+        val timestamp = before.toLongOrNull()
+        if (timestamp == null || timestamp <= 0)
+            throw BadRequestResponse("Invalid value for 'before'")
+        return timestamp
+    }
+
+    private fun parseBeforeId(beforeId: String): MessageId {
+        val idBytes = try {
+            Base64.decode(beforeId)
+        } catch (e: DecoderException) {
+            throw BadRequestResponse("Invalid value for 'beforeId'")
+        }
+        if (idBytes.size != MessageId.LENGTH)
+            throw BadRequestResponse("Invalid value for 'beforeId'")
+        return MessageId(idBytes)
+    }
+
+    private fun parseLimit(limit: String): Int {
+        val size = limit.toIntOrNull()
+        if (size == null || size < 1 || size > MAX_PAGE_SIZE)
+            throw BadRequestResponse("Invalid value for 'limit'")
+        return size
+    }
+
     override fun write(ctx: Context): Context {
         val contact = getContact(ctx)
 
@@ -116,6 +158,12 @@ constructor(
         }
     }
 
+    /**
+     * Returns true if the controller handles the given type of event.
+     */
+    internal fun isRelevant(e: Event) = e is ConversationMessageReceivedEvent<*> ||
+            e is MessagesSentEvent || e is MessagesAckedEvent
+
     override fun eventOccurred(e: Event) {
         when (e) {
             is ConversationMessageReceivedEvent<*> -> {
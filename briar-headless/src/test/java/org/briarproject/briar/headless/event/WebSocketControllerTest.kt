@@ -6,6 +6,7 @@ import io.mockk.CapturingSlot
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.verify
+import org.briarproject.bramble.api.system.TaskScheduler
 import org.briarproject.bramble.test.ImmediateExecutor
 import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER
@@ -17,6 +18,7 @@ import org.briarproject.briar.api.introduction.event.IntroductionRequestReceived
 import org.briarproject.briar.api.messaging.PrivateMessageHeader
 import org.briarproject.briar.api.messaging.event.PrivateMessageReceivedEvent
 import org.briarproject.briar.headless.ControllerTest
+import org.briarproject.briar.headless.json.JsonDict
 import org.briarproject.briar.headless.messaging.EVENT_CONVERSATION_MESSAGE
 import org.briarproject.briar.headless.messaging.output
 import org.eclipse.jetty.websocket.api.WebSocketException
@@ -24,13 +26,15 @@ import org.eclipse.jetty.websocket.common.io.FutureWriteCallback
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
 import java.io.IOException
+import java.util.concurrent.TimeUnit.MILLISECONDS
 
 internal class WebSocketControllerTest : ControllerTest() {
 
     private val session1 = mockk<WsContext>()
     private val session2 = mockk<WsContext>()
 
-    private val controller = WebSocketControllerImpl(ImmediateExecutor())
+    private val taskScheduler = mockk<TaskScheduler>()
+    private val controller = WebSocketControllerImpl(ImmediateExecutor(), taskScheduler)
 
     private val header =
         PrivateMessageHeader(
@@ -52,14 +56,69 @@ internal class WebSocketControllerTest : ControllerTest() {
     fun testSendEvent() {
         val slot = CapturingSlot<String>()
 
-        every { session1.send(capture(slot)) } returns FutureWriteCallback()
+        every { session1.send(capture(slot)) } returns sent()
 
-        controller.sessions.add(session1)
+        controller.addSession(session1, false)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
 
         assertJsonEquals(slot.captured, outputEvent)
     }
 
+    @Test
+    fun testSendEventsInBatch() {
+        val task = CapturingSlot<Runnable>()
+        val slot = CapturingSlot<String>()
+
+        every {
+            taskScheduler.schedule(capture(task), any(), FLUSH_INTERVAL_MS, MILLISECONDS)
+        } returns mockk()
+        every { session1.send(capture(slot)) } returns sent()
+
+        controller.addSession(session1, true)
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+
+        // Both events should be sent together by a single flush
+        verify(exactly = 1) { taskScheduler.schedule(any(), any(), any(), any()) }
+        verify(exactly = 0) { session1.send(any<String>()) }
+        task.captured.run()
+        verify(exactly = 1) { session1.send(any<String>()) }
+        assertJsonEquals(slot.captured, listOf(outputEvent, outputEvent))
+    }
+
+    @Test
+    fun testEventsAreDroppedWhenSessionFallsBehind() {
+        val task = CapturingSlot<Runnable>()
+        val slot = CapturingSlot<String>()
+
+        every {
+            taskScheduler.schedule(capture(task), any(), FLUSH_INTERVAL_MS, MILLISECONDS)
+        } returns mockk()
+        every { session1.send(capture(slot)) } returns sent()
+
+        controller.addSession(session1, true)
+        for (i in 0..MAX_QUEUED_EVENTS) {
+            controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+        }
+        task.captured.run()
+
+        // The session should be told how many events were dropped
+        val droppedEvent =
+            OutputEvent(EVENT_EVENTS_DROPPED, JsonDict("dropped" to MAX_QUEUED_EVENTS))
+        assertJsonEquals(slot.captured, listOf(droppedEvent, outputEvent))
+    }
+
+    @Test
+    fun testRemovedSessionDoesNotReceiveEvents() {
+        every { session1.send(any<String>()) } returns sent()
+
+        controller.addSession(session1, false)
+        controller.removeSession(session1)
+        controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
+
+        verify(exactly = 0) { session1.send(any<String>()) }
+    }
+
     @Test
     fun testSendEventIOException() {
         testSendEventException(IOException())
@@ -74,10 +133,10 @@ internal class WebSocketControllerTest : ControllerTest() {
         val slot = CapturingSlot<String>()
 
         every { session1.send(capture(slot)) } throws throwable
-        every { session2.send(capture(slot)) } returns FutureWriteCallback()
+        every { session2.send(capture(slot)) } returns sent()
 
-        controller.sessions.add(session1)
-        controller.sessions.add(session2)
+        controller.addSession(session1, false)
+        controller.addSession(session2, false)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, event.output(text))
 
         verify { session2.send(slot.captured) }
@@ -106,9 +165,9 @@ internal class WebSocketControllerTest : ControllerTest() {
             OutputEvent(EVENT_CONVERSATION_MESSAGE, introductionRequestEvent.output())
         val slot = CapturingSlot<String>()
 
-        every { session1.send(capture(slot)) } returns FutureWriteCallback()
+        every { session1.send(capture(slot)) } returns sent()
 
-        controller.sessions.add(session1)
+        controller.addSession(session1, false)
         controller.sendEvent(EVENT_CONVERSATION_MESSAGE, introductionRequestEvent.output())
         assertJsonEquals(slot.captured, introductionOutputEvent)
         assertEquals("IntroductionRequest", introductionRequestEvent.output()["type"])
@@ -126,4 +185,6 @@ internal class WebSocketControllerTest : ControllerTest() {
         assertJsonEquals(json, outputEvent)
     }
 
+    private fun sent() = FutureWriteCallback().apply { writeSuccess() }
+
 }
@@ -78,6 +78,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
     @Test
     fun list() {
         expectGetContact()
+        expectNoPagination()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(header)
         every { messagingManager.getMessageText(message.id) } returns text
         every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
@@ -93,6 +94,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
         )
 
         expectGetContact()
+        expectNoPagination()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(request)
         every { ctx.json(listOf(request.output(contact.id))) } returns ctx
 
@@ -103,12 +105,72 @@ internal class MessagingControllerImplTest : ControllerTest() {
     fun testEmptyList() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact
+        expectNoPagination()
         every { conversationManager.getMessageHeaders(contact.id) } returns emptyList()
         every { ctx.json(emptyList<Any>()) } returns ctx
 
         controller.list(ctx)
     }
 
+    @Test
+    fun listPage() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "1000"
+        every { ctx.queryParam("beforeId") } returns Base64.toBase64String(message.id.bytes)
+        every { ctx.queryParam("limit") } returns "10"
+        every {
+            conversationManager.getMessageHeaders(contact.id, 1000, message.id, 10)
+        } returns listOf(header)
+        every { messagingManager.getMessageText(message.id) } returns text
+        every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithDefaultCursor() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns null
+        every { ctx.queryParam("beforeId") } returns null
+        every { ctx.queryParam("limit") } returns "10"
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, null, 10)
+        } returns emptyList()
+        every { ctx.json(emptyList<Any>()) } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithInvalidLimit() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "1000"
+        every { ctx.queryParam("beforeId") } returns null
+        every { ctx.queryParam("limit") } returns "${MAX_PAGE_SIZE + 1}"
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    @Test
+    fun listPageWithInvalidMessageId() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "1000"
+        every { ctx.queryParam("beforeId") } returns "foo"
+        every { ctx.queryParam("limit") } returns null
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    @Test
+    fun listPageWithInvalidCursor() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "yesterday"
+        every { ctx.queryParam("beforeId") } returns null
+        every { ctx.queryParam("limit") } returns null
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
     @Test
     fun listInvalidContactId() {
         testInvalidContactId { controller.list(ctx) }
@@ -403,6 +465,12 @@ internal class MessagingControllerImplTest : ControllerTest() {
         every { contactManager.getContact(contact.id) } returns contact
     }
 
+    private fun expectNoPagination() {
+        every { ctx.queryParam("before") } returns null
+        every { ctx.queryParam("beforeId") } returns null
+        every { ctx.queryParam("limit") } returns null
+    }
+
     private fun testNonexistentContactId(function: () -> Context) {
         every { ctx.pathParam("contactId") } returns "42"
         every { contactManager.getContact(ContactId(42)) } throws NoSuchContactException()